@@ -0,0 +1,210 @@
+/*
+ * Copyright 2015.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.freeswitch;
+
+import io.freeswitch.common.VirtualThreads;
+import org.jboss.netty.channel.socket.ClientSocketChannelFactory;
+import org.jboss.netty.channel.socket.ServerSocketChannelFactory;
+import org.jboss.netty.channel.socket.nio.NioClientSocketChannelFactory;
+import org.jboss.netty.channel.socket.nio.NioServerSocketChannelFactory;
+import org.jboss.netty.channel.socket.nio.NioWorkerPool;
+import org.jboss.netty.handler.execution.OrderedMemoryAwareThreadPoolExecutor;
+import org.jboss.netty.util.ExternalResourceReleasable;
+import org.jboss.netty.util.HashedWheelTimer;
+import org.jboss.netty.util.Timer;
+import org.jboss.netty.util.internal.ExecutorUtil;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Threads and timer shared by any number of
+ * {@link io.freeswitch.outbound.FreeSwitchClient}s and
+ * {@link io.freeswitch.inbound.FreeSwitchServer}s.
+ * <p>
+ * Without it every client connection builds its own socket channel factory
+ * with two thread pools, and its own 16 thread handler executor. One instance
+ * of this class holds instead:
+ * <ul>
+ * <li>one boss thread per channel factory (client and server),</li>
+ * <li>a fixed number of NIO worker threads serving all the connections,</li>
+ * <li>one ordered executor running the protocol handlers, ordered per
+ * connection and bounded in threads and in queued memory,</li>
+ * <li>one hashed wheel timer for connect timeouts and command deadlines,</li>
+ * <li>on first use, one virtual thread executor for the servers running their
+ * sessions on virtual threads.</li>
+ * </ul>
+ * The clients and servers using it never release it: call
+ * {@link #releaseExternalResources()} once they have all been closed.
+ *
+ * @author Arsene Tochemey GANDOTE
+ */
+public class EslResources implements ExternalResourceReleasable {
+
+    private final ExecutorService bossExecutor;
+    private final ExecutorService workerExecutor;
+    private final NioWorkerPool workerPool;
+    private final OrderedMemoryAwareThreadPoolExecutor handlerExecutor;
+    private final ExecutionHandler executionHandler;
+    private final Timer timer;
+    private NioClientSocketChannelFactory clientChannelFactory;
+    private NioServerSocketChannelFactory serverChannelFactory;
+    private ExecutorService sessionExecutor;
+    private boolean released = false;
+
+    /**
+     * Sizes the worker and handler pools on the number of cores.
+     */
+    public EslResources() {
+        this(Runtime.getRuntime().availableProcessors() * 2,
+                Runtime.getRuntime().availableProcessors() * 2);
+    }
+
+    /**
+     * @param workerThreads  number of NIO worker threads
+     * @param handlerThreads number of threads running the protocol handlers
+     */
+    public EslResources(int workerThreads, int handlerThreads) {
+        this(workerThreads, handlerThreads, 1048576, 64 * 1048576);
+    }
+
+    /**
+     * @param workerThreads        number of NIO worker threads
+     * @param handlerThreads       number of threads running the protocol handlers
+     * @param maxChannelMemorySize bytes of received messages queued per
+     *                             connection before reading from it is suspended
+     * @param maxTotalMemorySize   bytes of received messages queued for all the
+     *                             connections before the NIO workers block
+     */
+    public EslResources(int workerThreads, int handlerThreads, long maxChannelMemorySize,
+                        long maxTotalMemorySize) {
+        if (workerThreads <= 0) {
+            throw new IllegalArgumentException(
+                    "workerThreads must be a positive integer: " + workerThreads);
+        }
+        if (handlerThreads <= 0) {
+            throw new IllegalArgumentException(
+                    "handlerThreads must be a positive integer: " + handlerThreads);
+        }
+        this.bossExecutor = Executors.newCachedThreadPool(named("EslBoss-"));
+        this.workerExecutor = Executors.newCachedThreadPool(named("EslWorker-"));
+        this.workerPool = new NioWorkerPool(workerExecutor, workerThreads);
+        this.handlerExecutor = new OrderedMemoryAwareThreadPoolExecutor(handlerThreads,
+                maxChannelMemorySize, maxTotalMemorySize, 30, TimeUnit.SECONDS, named("EslHandler-"));
+        this.executionHandler = new ExecutionHandler(handlerExecutor);
+        this.timer = new HashedWheelTimer(named("EslTimer-"), 100, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @return the channel factory for client connections, created on first use
+     */
+    public synchronized ClientSocketChannelFactory clientChannelFactory() {
+        checkNotReleased();
+        if (clientChannelFactory == null) {
+            clientChannelFactory = new NioClientSocketChannelFactory(bossExecutor, 1, workerPool, timer);
+        }
+        return clientChannelFactory;
+    }
+
+    /**
+     * @return the channel factory for server sockets, created on first use
+     */
+    public synchronized ServerSocketChannelFactory serverChannelFactory() {
+        checkNotReleased();
+        if (serverChannelFactory == null) {
+            serverChannelFactory = new NioServerSocketChannelFactory(bossExecutor, 1, workerPool);
+        }
+        return serverChannelFactory;
+    }
+
+    /**
+     * @return the handler shared by all the pipelines to hand the decoded
+     * messages over to the handler executor
+     */
+    public ExecutionHandler executionHandler() {
+        return executionHandler;
+    }
+
+    /**
+     * @return the executor running the protocol handlers
+     */
+    public OrderedMemoryAwareThreadPoolExecutor handlerExecutor() {
+        return handlerExecutor;
+    }
+
+    /**
+     * @return the executor starting a virtual thread per session task,
+     * created on first use
+     */
+    public synchronized ExecutorService sessionExecutor() {
+        checkNotReleased();
+        if (sessionExecutor == null) {
+            sessionExecutor = VirtualThreads.newExecutor("EslSession-");
+        }
+        return sessionExecutor;
+    }
+
+    /**
+     * @return the timer for connect timeouts and command deadlines
+     */
+    public Timer timer() {
+        return timer;
+    }
+
+    /**
+     * Stop all the threads. The connections still open are closed.
+     */
+    public synchronized void releaseExternalResources() {
+        if (released) {
+            return;
+        }
+        released = true;
+        if (clientChannelFactory != null) {
+            clientChannelFactory.shutdown();
+        }
+        if (serverChannelFactory != null) {
+            serverChannelFactory.shutdown();
+        }
+        workerPool.shutdown();
+        if (sessionExecutor != null) {
+            sessionExecutor.shutdown();
+        }
+        ExecutorUtil.terminate(bossExecutor, workerExecutor, handlerExecutor);
+        timer.stop();
+    }
+
+    private void checkNotReleased() {
+        if (released) {
+            throw new IllegalStateException("Resources already released");
+        }
+    }
+
+    private static ThreadFactory named(final String prefix) {
+        return new ThreadFactory() {
+            AtomicInteger threadNumber = new AtomicInteger(1);
+
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, prefix + threadNumber.getAndIncrement());
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+    }
+
+}
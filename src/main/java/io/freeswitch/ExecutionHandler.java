@@ -17,6 +17,7 @@ package io.freeswitch;
  */
 
 import org.jboss.netty.channel.*;
+import org.jboss.netty.handler.execution.ChannelUpstreamEventRunnable;
 import org.jboss.netty.handler.execution.OrderedMemoryAwareThreadPoolExecutor;
 import org.jboss.netty.util.ExternalResourceReleasable;
 import org.jboss.netty.util.internal.ExecutorUtil;
@@ -81,7 +82,7 @@ public class ExecutionHandler implements ChannelUpstreamHandler, ChannelDownstre
 
     public void handleUpstream(
             ChannelHandlerContext context, ChannelEvent e) throws Exception {
-        executor.execute(new ChannelEventRunnable(context, e));
+        executor.execute(new ChannelUpstreamEventRunnable(context, e, executor));
     }
 
     public void handleDownstream(
@@ -94,8 +95,8 @@ public class ExecutionHandler implements ChannelUpstreamHandler, ChannelDownstre
                 // setReadable(true) requested
                 boolean readSuspended = ctx.getAttachment() != null;
                 if (readSuspended) {
-                    // Drop the request silently if MemoryAwareThreadPool has
-                    // set the flag.
+                    // Drop the request silently while the flag is set, by
+                    // the read backpressure of the client for instance.
                     e.getFuture().setSuccess();
                     return;
                 }
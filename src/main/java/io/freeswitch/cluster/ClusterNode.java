@@ -0,0 +1,305 @@
+/*
+ * Copyright 2015.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.freeswitch.cluster;
+
+import io.freeswitch.ConnectionFailure;
+import io.freeswitch.event.EslEvent;
+import io.freeswitch.event.EventHeaders;
+import io.freeswitch.event.EventInterest;
+import io.freeswitch.event.IEventsListener;
+import io.freeswitch.event.IInterestedListener;
+import io.freeswitch.message.FreeSwitchMessage;
+import io.freeswitch.outbound.EslConnectionPool;
+import org.apache.commons.lang3.math.NumberUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One FreeSWITCH server of an {@link EslCluster}, reached through its own
+ * {@link EslConnectionPool}.
+ * <p>
+ * The node follows the {@code HEARTBEAT} events of its server to know how
+ * loaded it is. It is available for new calls while it is connected, its
+ * heartbeats keep coming, and its load stays under the limits of the
+ * cluster.
+ * <p>
+ * The calls of the node are learned from its {@code CHANNEL_CREATE} and
+ * {@code CHANNEL_DESTROY} events, and listed with {@code show channels} each
+ * time its event connection is established, so that the calls created
+ * before, or while the connection was down, are known as well.
+ *
+ * @author Arsene Tochemey GANDOTE
+ */
+public class ClusterNode {
+
+    private static final EventInterest TRACKED = EventInterest.of("HEARTBEAT", "CHANNEL_CREATE",
+            "CHANNEL_DESTROY");
+    /*
+     * Heartbeats missed before the node is considered gone.
+     */
+    private static final int MISSED_HEARTBEATS = 3;
+
+    private final Logger log = LoggerFactory.getLogger(this.getClass());
+
+    private final EslCluster cluster;
+    private final String name;
+    private final EslConnectionPool pool;
+    private final Map<IClusterEventsListener, IEventsListener> adapters =
+            new ConcurrentHashMap<IClusterEventsListener, IEventsListener>();
+    private volatile String coreUuid;
+    private volatile String hostname;
+    private volatile int sessionCount = 0;
+    private volatile int maxSessions = 0;
+    private volatile double idleCpu = -1;
+    private volatile long heartbeatIntervalMillis = TimeUnit.SECONDS.toMillis(20);
+    private volatile long lastHeartbeatAt = 0;
+    private volatile long connectedAt = 0;
+
+    /*
+     * Learns the calls of the node and its load from the events.
+     */
+    private final IInterestedListener tracker = new IInterestedListener() {
+        public EventInterest interest() {
+            return TRACKED;
+        }
+
+        public void eventReceived(EslEvent event) {
+            track(event);
+        }
+
+        public void backgroundJobEventReceived(EslEvent event) {
+        }
+    };
+
+    ClusterNode(EslCluster cluster, String name, EslConnectionPool pool) {
+        this.cluster = cluster;
+        this.name = name;
+        this.pool = pool;
+        pool.events().addEventListener(tracker);
+        pool.events().subscribeByInterest("plain");
+    }
+
+    /**
+     * @return the name of the node in the cluster
+     */
+    public String name() {
+        return name;
+    }
+
+    /**
+     * @return the connections to the server
+     */
+    public EslConnectionPool pool() {
+        return pool;
+    }
+
+    /**
+     * @return the {@code Core-UUID} of the server, null until its first
+     * event. It changes when the server restarts.
+     */
+    public String coreUuid() {
+        return coreUuid;
+    }
+
+    /**
+     * @return the {@code FreeSWITCH-Hostname} of the server, null until its
+     * first event
+     */
+    public String hostname() {
+        return hostname;
+    }
+
+    /**
+     * @return number of sessions at the last heartbeat
+     */
+    public int sessionCount() {
+        return sessionCount;
+    }
+
+    /**
+     * @return maximum number of sessions of the server, 0 until the first
+     * heartbeat
+     */
+    public int maxSessions() {
+        return maxSessions;
+    }
+
+    /**
+     * @return percentage of CPU idle at the last heartbeat, -1 until the
+     * first one
+     */
+    public double idleCpu() {
+        return idleCpu;
+    }
+
+    /**
+     * @return time of the last heartbeat in milliseconds since the epoch, 0
+     * until the first one
+     */
+    public long lastHeartbeatAt() {
+        return lastHeartbeatAt;
+    }
+
+    /**
+     * @return true when the node can send commands and receive events
+     */
+    public boolean isConnected() {
+        return pool.available() > 0 && pool.events().canSend();
+    }
+
+    /**
+     * @return true when three heartbeats in a row have been
+     * missed since the last one, or since the node connected
+     */
+    public boolean isHeartbeatLate() {
+        long since = Math.max(lastHeartbeatAt, connectedAt);
+        return since > 0 && System.currentTimeMillis() - since > MISSED_HEARTBEATS * heartbeatIntervalMillis;
+    }
+
+    /**
+     * @return true when the sessions or the CPU of the server are over the
+     * limits of the cluster
+     * @see EslCluster#setMaxLoad(double)
+     * @see EslCluster#setMinIdleCpu(double)
+     */
+    public boolean isOverloaded() {
+        int max = maxSessions;
+        if (max > 0 && sessionCount >= max * cluster.maxLoad()) {
+            return true;
+        }
+        double idle = idleCpu;
+        return idle >= 0 && idle < cluster.minIdleCpu();
+    }
+
+    /**
+     * @return true when new calls may be sent to the node
+     */
+    public boolean isAvailable() {
+        return isConnected() && !isHeartbeatLate() && !isOverloaded();
+    }
+
+    @Override
+    public String toString() {
+        return "ClusterNode [" + name + " " + pool.host() + ':' + pool.port() + ", hostname=" + hostname
+                + ", sessions=" + sessionCount + '/' + maxSessions + ", idleCpu=" + idleCpu + ']';
+    }
+
+    void connect(int timeoutSeconds) throws ConnectionFailure, InterruptedException {
+        boolean wasConnected = isConnected();
+        boolean receivedEvents = pool.events().canSend();
+        try {
+            pool.connect(timeoutSeconds);
+        } finally {
+            if (!receivedEvents && pool.events().canSend()) {
+                // events may have been missed, the server knows its calls
+                listCalls(timeoutSeconds);
+            }
+        }
+        if (!wasConnected) {
+            connectedAt = System.currentTimeMillis();
+        }
+    }
+
+    /*
+     * Subscribed first, so that the calls created from then on are either
+     * listed or learned from their events.
+     */
+    private void listCalls(int timeoutSeconds) {
+        try {
+            FreeSwitchMessage channels = pool.events().api("show", "channels", timeoutSeconds,
+                    TimeUnit.SECONDS);
+            cluster.callsListed(this, callIds(channels.bodyLines()));
+        } catch (RuntimeException e) {
+            log.warn("Failed to list the calls of node [" + name + ']', e);
+        }
+    }
+
+    /**
+     * @param showChannels the lines of the {@code show channels} reply: a
+     *                     header, a line per channel whose first field is its
+     *                     {@code Unique-ID}, then the total
+     * @return the {@code Unique-ID} of the channels
+     */
+    static List<String> callIds(List<String> showChannels) {
+        List<String> callIds = new ArrayList<String>();
+        for (String line : showChannels) {
+            int comma = line.indexOf(',');
+            if (comma <= 0 || line.startsWith("uuid,")) {
+                continue;
+            }
+            callIds.add(line.substring(0, comma));
+        }
+        return callIds;
+    }
+
+    void addListener(final IClusterEventsListener listener, EventInterest interest) {
+        IEventsListener adapter = new IEventsListener() {
+            public void eventReceived(EslEvent event) {
+                listener.eventReceived(ClusterNode.this, event);
+            }
+
+            public void backgroundJobEventReceived(EslEvent event) {
+                listener.eventReceived(ClusterNode.this, event);
+            }
+        };
+        if (adapters.put(listener, adapter) == null) {
+            pool.events().addEventListener(adapter, interest);
+        }
+    }
+
+    void removeListener(IClusterEventsListener listener) {
+        IEventsListener adapter = adapters.remove(listener);
+        if (adapter != null) {
+            pool.events().removeEventListener(adapter);
+        }
+    }
+
+    private void track(EslEvent event) {
+        Map<String, String> headers = event.eventHeaders();
+        String core = headers.get(EventHeaders.CORE_UUID);
+        if (core != null && !core.equals(coreUuid)) {
+            String previous = coreUuid;
+            coreUuid = core;
+            hostname = headers.get(EventHeaders.FREESWITCH_HOSTNAME);
+            if (previous != null) {
+                // the server restarted, its calls are gone
+                cluster.nodeRestarted(this);
+            }
+        }
+        String eventName = event.eventName();
+        if ("HEARTBEAT".equals(eventName)) {
+            sessionCount = NumberUtils.toInt(headers.get(EventHeaders.SESSION_COUNT), sessionCount);
+            maxSessions = NumberUtils.toInt(headers.get(EventHeaders.MAX_SESSIONS), maxSessions);
+            idleCpu = NumberUtils.toDouble(headers.get(EventHeaders.IDLE_CPU), idleCpu);
+            int interval = NumberUtils.toInt(headers.get(EventHeaders.HEARTBEAT_INTERVAL), 0);
+            if (interval > 0) {
+                heartbeatIntervalMillis = TimeUnit.SECONDS.toMillis(interval);
+            }
+            lastHeartbeatAt = System.currentTimeMillis();
+        } else if ("CHANNEL_CREATE".equals(eventName)) {
+            cluster.callCreated(headers.get(EventHeaders.UNIQUE_ID), this);
+        } else if ("CHANNEL_DESTROY".equals(eventName)) {
+            cluster.callDestroyed(headers.get(EventHeaders.UNIQUE_ID), this);
+        }
+    }
+
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright 2015.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.freeswitch.cluster;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Consistent hash ring of the nodes of a cluster. Each node is placed at a
+ * number of points, so that adding or removing a node only moves the keys of
+ * its own arcs. Immutable: the cluster builds a new ring when its nodes
+ * change.
+ *
+ * @author Arsene Tochemey GANDOTE
+ */
+final class ConsistentHashRing {
+
+    private final long[] points;
+    /*
+     * Index in nodes of the owner of each point.
+     */
+    private final int[] owners;
+    private final ClusterNode[] nodes;
+
+    ConsistentHashRing(Collection<ClusterNode> nodes, int virtualNodes) {
+        TreeMap<Long, ClusterNode> ring = new TreeMap<Long, ClusterNode>();
+        for (ClusterNode node : nodes) {
+            for (int i = 0; i < virtualNodes; i++) {
+                ring.put(hash(node.name() + '#' + i), node);
+            }
+        }
+        Map<ClusterNode, Integer> indexes = new IdentityHashMap<ClusterNode, Integer>();
+        for (ClusterNode node : ring.values()) {
+            if (!indexes.containsKey(node)) {
+                indexes.put(node, indexes.size());
+            }
+        }
+        this.nodes = new ClusterNode[indexes.size()];
+        for (Map.Entry<ClusterNode, Integer> index : indexes.entrySet()) {
+            this.nodes[index.getValue()] = index.getKey();
+        }
+        this.points = new long[ring.size()];
+        this.owners = new int[ring.size()];
+        int i = 0;
+        for (Map.Entry<Long, ClusterNode> entry : ring.entrySet()) {
+            points[i] = entry.getKey();
+            owners[i] = indexes.get(entry.getValue());
+            i++;
+        }
+    }
+
+    /**
+     * Each node is asked at most once whether it is available.
+     *
+     * @param key the key to place on the ring
+     * @return the first available node from the point of the key onwards,
+     * null when none is
+     */
+    ClusterNode select(String key) {
+        if (points.length == 0) {
+            return null;
+        }
+        int start = Arrays.binarySearch(points, hash(key));
+        if (start < 0) {
+            start = -start - 1;
+        }
+        boolean[] unavailable = new boolean[nodes.length];
+        int skipped = 0;
+        for (int i = 0; i < points.length && skipped < nodes.length; i++) {
+            int owner = owners[(start + i) % points.length];
+            if (unavailable[owner]) {
+                continue;
+            }
+            if (nodes[owner].isAvailable()) {
+                return nodes[owner];
+            }
+            unavailable[owner] = true;
+            skipped++;
+        }
+        return null;
+    }
+
+    /*
+     * FNV-1a, with the murmur finaliser to spread keys differing in their
+     * last characters only.
+     */
+    static long hash(String key) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < key.length(); i++) {
+            hash ^= key.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+
+}
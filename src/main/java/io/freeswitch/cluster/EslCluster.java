@@ -0,0 +1,418 @@
+/*
+ * Copyright 2015.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.freeswitch.cluster;
+
+import io.freeswitch.ConnectionFailure;
+import io.freeswitch.EslResources;
+import io.freeswitch.event.BackgroundJob;
+import io.freeswitch.event.EventInterest;
+import io.freeswitch.message.FreeSwitchMessage;
+import io.freeswitch.outbound.EslConnectionPool;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Client of a cluster of FreeSWITCH servers.
+ * <p>
+ * Each server is a {@link ClusterNode} with its own
+ * {@link EslConnectionPool}. The command connections of all the pools run on
+ * one set of threads, and their event connections on another one owned by
+ * the cluster, so that events are never queued ahead of command replies. The
+ * cluster routes the commands:
+ * <ul>
+ * <li>commands on an existing call go to the node that owns it, learned from
+ * the {@code CHANNEL_CREATE} and {@code CHANNEL_DESTROY} events of the
+ * nodes and from the calls they list each time their event connection is
+ * established,</li>
+ * <li>new calls go to the node a consistent hash of a key places them on,
+ * the next one along the ring when that node is not available. The same key
+ * keeps going to the same node, and adding or removing a node only moves the
+ * keys of that node.</li>
+ * </ul>
+ * A node is available while it is connected, its {@code HEARTBEAT} events
+ * keep coming and they report a load under the limits of the cluster, see
+ * {@link #setMaxLoad(double)} and {@link #setMinIdleCpu(double)}.
+ * <p>
+ * The events of all the nodes are merged into one stream for the
+ * {@link IClusterEventsListener}s, each event handed over with the node it
+ * comes from. The nodes subscribe by interest: they receive the events the
+ * listeners declare, and the ones the cluster needs.
+ *
+ * @author Arsene Tochemey GANDOTE
+ */
+public class EslCluster {
+
+    /**
+     * Points of each node on the hash ring.
+     */
+    public static final int VIRTUAL_NODES = 160;
+
+    private final Logger log = LoggerFactory.getLogger(this.getClass());
+
+    private final int commandConnections;
+    private final EslResources resources;
+    private final boolean ownsResources;
+    private final EslResources eventResources = new EslResources();
+    private final Map<String, ClusterNode> nodes = new ConcurrentHashMap<String, ClusterNode>();
+    private final Map<String, ClusterNode> callOwners = new ConcurrentHashMap<String, ClusterNode>();
+    private final List<Registration> listeners = new CopyOnWriteArrayList<Registration>();
+    private volatile ConsistentHashRing ring = new ConsistentHashRing(
+            Collections.<ClusterNode>emptyList(), VIRTUAL_NODES);
+    private volatile double maxLoad = 0.9;
+    private volatile double minIdleCpu = 5.0;
+
+    /**
+     * Cluster running on threads of its own, released on {@link #close()}.
+     *
+     * @param commandConnections number of command connections to each node
+     */
+    public EslCluster(int commandConnections) {
+        this(commandConnections, null);
+    }
+
+    /**
+     * @param commandConnections number of command connections to each node
+     * @param resources          threads of the command connections, shared
+     *                           with other clients and not released by the
+     *                           cluster, null for the cluster's own
+     */
+    public EslCluster(int commandConnections, EslResources resources) {
+        if (commandConnections <= 0) {
+            throw new IllegalArgumentException(
+                    "commandConnections must be a positive integer: " + commandConnections);
+        }
+        this.commandConnections = commandConnections;
+        this.ownsResources = resources == null;
+        this.resources = resources != null ? resources : new EslResources();
+    }
+
+    /**
+     * Register a server. It takes calls once {@link #connect(int)} has
+     * connected it.
+     *
+     * @param name     name of the node, placing it on the hash ring
+     * @param host     can be either ip address or hostname
+     * @param port     tcp port of the server socket
+     * @param password server event socket password
+     * @return the node
+     */
+    public synchronized ClusterNode addNode(String name, String host, int port, String password) {
+        if (name == null) {
+            throw new NullPointerException("name");
+        }
+        if (nodes.containsKey(name)) {
+            throw new IllegalArgumentException("Node [" + name + "] already registered");
+        }
+        ClusterNode node = new ClusterNode(this, name,
+                new EslConnectionPool(host, port, password, commandConnections, resources,
+                        eventResources));
+        for (Registration registration : listeners) {
+            node.addListener(registration.listener, registration.interest);
+        }
+        nodes.put(name, node);
+        ring = new ConsistentHashRing(nodes.values(), VIRTUAL_NODES);
+        return node;
+    }
+
+    /**
+     * Unregister a server and close its connections. Its calls are
+     * forgotten.
+     *
+     * @param name name of the node
+     */
+    public synchronized void removeNode(String name) {
+        ClusterNode node = nodes.remove(name);
+        if (node == null) {
+            return;
+        }
+        ring = new ConsistentHashRing(nodes.values(), VIRTUAL_NODES);
+        forgetCalls(node);
+        node.pool().close();
+    }
+
+    /**
+     * Connect every node that is not, the ones lost since the last call
+     * included. A node that cannot be reached is left out of the routing
+     * until it is connected by a later call.
+     *
+     * @param timeoutSeconds number of seconds to wait for each connection
+     * @return number of nodes connected
+     * @throws InterruptedException
+     */
+    public int connect(int timeoutSeconds) throws InterruptedException {
+        int connected = 0;
+        for (ClusterNode node : nodes.values()) {
+            try {
+                node.connect(timeoutSeconds);
+                connected++;
+            } catch (ConnectionFailure e) {
+                log.warn("Failed to connect node [" + node.name() + ']', e);
+            }
+        }
+        return connected;
+    }
+
+    /**
+     * Share of the maximum number of sessions over which a node takes no new
+     * calls, 0.9 by default.
+     *
+     * @param maxLoad between 0 and 1
+     */
+    public void setMaxLoad(double maxLoad) {
+        if (maxLoad <= 0 || maxLoad > 1) {
+            throw new IllegalArgumentException("maxLoad must be in ]0, 1]: " + maxLoad);
+        }
+        this.maxLoad = maxLoad;
+    }
+
+    /**
+     * @return share of the maximum number of sessions over which a node takes
+     * no new calls
+     */
+    public double maxLoad() {
+        return maxLoad;
+    }
+
+    /**
+     * Percentage of idle CPU under which a node takes no new calls, 5 by
+     * default.
+     *
+     * @param minIdleCpu between 0 and 100
+     */
+    public void setMinIdleCpu(double minIdleCpu) {
+        if (minIdleCpu < 0 || minIdleCpu > 100) {
+            throw new IllegalArgumentException("minIdleCpu must be in [0, 100]: " + minIdleCpu);
+        }
+        this.minIdleCpu = minIdleCpu;
+    }
+
+    /**
+     * @return percentage of idle CPU under which a node takes no new calls
+     */
+    public double minIdleCpu() {
+        return minIdleCpu;
+    }
+
+    /**
+     * @return the registered nodes
+     */
+    public Collection<ClusterNode> nodes() {
+        return Collections.unmodifiableCollection(nodes.values());
+    }
+
+    /**
+     * @param name name of the node
+     * @return the node, null if not registered
+     */
+    public ClusterNode node(String name) {
+        return nodes.get(name);
+    }
+
+    /**
+     * @param uniqueId {@code Unique-ID} of a call
+     * @return the node owning the call, null if unknown
+     */
+    public ClusterNode nodeOf(String uniqueId) {
+        return uniqueId == null ? null : callOwners.get(uniqueId);
+    }
+
+    /**
+     * @param key key of the new call, such as the account or the destination
+     * @return the available node the key hashes to
+     * @throws IllegalStateException when no node is available
+     */
+    public ClusterNode nodeFor(String key) {
+        if (key == null) {
+            throw new NullPointerException("key");
+        }
+        ClusterNode node = ring.select(key);
+        if (node == null) {
+            throw new IllegalStateException("No FreeSWITCH node available");
+        }
+        return node;
+    }
+
+    /**
+     * @return number of calls known, all nodes together
+     */
+    public int calls() {
+        return callOwners.size();
+    }
+
+    /**
+     * Run an api command on the node owning a call.
+     *
+     * @param uniqueId {@code Unique-ID} of the call
+     * @param command  API command to send
+     * @param arg      command arguments
+     * @return the command results
+     * @throws IllegalStateException when no node is known to own the call
+     */
+    public FreeSwitchMessage callApi(String uniqueId, String command, String arg) {
+        return owner(uniqueId).pool().api(command, arg);
+    }
+
+    /**
+     * Same as {@link #callApi(String, String, String)} without blocking.
+     *
+     * @param uniqueId {@code Unique-ID} of the call
+     * @param command  API command to send
+     * @param arg      command arguments
+     * @return a future completed with the command results
+     * @throws IllegalStateException when no node is known to own the call
+     */
+    public CompletableFuture<FreeSwitchMessage> callApiAsync(String uniqueId, String command,
+                                                             String arg) {
+        return owner(uniqueId).pool().apiAsync(command, arg);
+    }
+
+    /**
+     * Originate a call on the node the key hashes to, in the background.
+     * The new call is owned by that node as soon as its
+     * {@code CHANNEL_CREATE} event arrives.
+     *
+     * @param key       key of the new call, such as the account or the
+     *                  destination
+     * @param arguments arguments of the {@code originate} command
+     * @return a future completed with the job result
+     * @throws IllegalStateException when no node is available
+     */
+    public CompletableFuture<BackgroundJob> originate(String key, String arguments) {
+        return nodeFor(key).pool().bgApiAsync("originate", arguments);
+    }
+
+    /**
+     * Receive the events of all the nodes, the ones registered later
+     * included.
+     *
+     * @param listener receives the events with their node
+     * @param interest the events wanted, null for all of them
+     */
+    public synchronized void addEventListener(IClusterEventsListener listener, EventInterest interest) {
+        if (listener == null) {
+            throw new NullPointerException("listener");
+        }
+        listeners.add(new Registration(listener, interest));
+        for (ClusterNode node : nodes.values()) {
+            node.addListener(listener, interest);
+        }
+    }
+
+    /**
+     * @param listener the listener to remove from all the nodes
+     */
+    public synchronized void removeEventListener(IClusterEventsListener listener) {
+        for (Registration registration : listeners) {
+            if (registration.listener == listener) {
+                listeners.remove(registration);
+            }
+        }
+        for (ClusterNode node : nodes.values()) {
+            node.removeListener(listener);
+        }
+    }
+
+    /**
+     * Close the connections to all the nodes, and release the threads of the
+     * event connections, and the command threads unless they were given to
+     * the cluster.
+     */
+    public synchronized void close() {
+        for (ClusterNode node : nodes.values()) {
+            node.pool().close();
+        }
+        callOwners.clear();
+        eventResources.releaseExternalResources();
+        if (ownsResources) {
+            resources.releaseExternalResources();
+        }
+    }
+
+    void callCreated(String uniqueId, ClusterNode node) {
+        if (uniqueId != null) {
+            callOwners.put(uniqueId, node);
+        }
+    }
+
+    void callDestroyed(String uniqueId, ClusterNode node) {
+        if (uniqueId != null) {
+            callOwners.remove(uniqueId, node);
+        }
+    }
+
+    /*
+     * The calls of the node are the ones listed: the others were destroyed
+     * while its events were not received.
+     */
+    void callsListed(ClusterNode node, Collection<String> uniqueIds) {
+        Set<String> listed = new HashSet<String>(uniqueIds);
+        Iterator<Map.Entry<String, ClusterNode>> owners = callOwners.entrySet().iterator();
+        while (owners.hasNext()) {
+            Map.Entry<String, ClusterNode> owner = owners.next();
+            if (owner.getValue() == node && !listed.contains(owner.getKey())) {
+                owners.remove();
+            }
+        }
+        for (String uniqueId : listed) {
+            callOwners.put(uniqueId, node);
+        }
+    }
+
+    void nodeRestarted(ClusterNode node) {
+        log.warn("Node [{}] restarted, forgetting its calls", node.name());
+        forgetCalls(node);
+    }
+
+    private void forgetCalls(ClusterNode node) {
+        Iterator<ClusterNode> owners = callOwners.values().iterator();
+        while (owners.hasNext()) {
+            if (owners.next() == node) {
+                owners.remove();
+            }
+        }
+    }
+
+    private ClusterNode owner(String uniqueId) {
+        ClusterNode node = nodeOf(uniqueId);
+        if (node == null) {
+            throw new IllegalStateException("No node known to own call [" + uniqueId + ']');
+        }
+        return node;
+    }
+
+    private static final class Registration {
+
+        final IClusterEventsListener listener;
+        final EventInterest interest;
+
+        Registration(IClusterEventsListener listener, EventInterest interest) {
+            this.listener = listener;
+            this.interest = interest;
+        }
+    }
+
+}
@@ -0,0 +1,37 @@
+/*
+ * Copyright 2015.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.freeswitch.cluster;
+
+import io.freeswitch.event.EslEvent;
+
+/**
+ * Receives the events of all the nodes of an {@link EslCluster}, merged into
+ * one stream.
+ *
+ * @author Arsene Tochemey GANDOTE
+ */
+public interface IClusterEventsListener {
+
+    /**
+     * Called from the delivery threads of the node, one event at a time per
+     * call. Events of different nodes are delivered in parallel.
+     *
+     * @param node  the node the event comes from, with its {@code Core-UUID}
+     *              and {@code FreeSWITCH-Hostname}
+     * @param event the event
+     */
+    void eventReceived(ClusterNode node, EslEvent event);
+}
@@ -0,0 +1,36 @@
+/*
+ * Copyright 2015.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.freeswitch.codec;
+
+/**
+ * Receives the content of an event body as it is read by
+ * {@link JsonEventReader} or {@link XmlEventReader}.
+ *
+ * @author Arsene Tochemey GANDOTE
+ */
+public interface EventBodyHandler {
+
+    /**
+     * @param name  header name, as resolved by the {@link HeaderNameCache}
+     * @param value header value, as found in the event body
+     */
+    void header(String name, String value);
+
+    /**
+     * @param body the event body
+     */
+    void body(String body);
+}
@@ -15,7 +15,6 @@
  */
 package io.freeswitch.codec;
 
-import io.freeswitch.codec.FreeSwitchMessageHeaders.HeaderName;
 import io.freeswitch.message.FreeSwitchMessage;
 import org.jboss.netty.buffer.ChannelBuffer;
 import org.jboss.netty.channel.Channel;
@@ -36,10 +35,11 @@ public class FreeSwitchDecoder extends
      * Line feed character
      */
     static final byte LF = 10;
-    private final Logger log = LoggerFactory.getLogger(this.getClass());
+    private static final Logger log = LoggerFactory.getLogger(FreeSwitchDecoder.class);
     private final int maxHeaderSize;
     private FreeSwitchMessage currentMessage;
     private boolean treatUnknownHeadersAsBody = false;
+    private boolean sliceBody = false;
     /**
      * @param maxHeaderSize
      */
@@ -59,6 +59,21 @@ public class FreeSwitchDecoder extends
         this.treatUnknownHeadersAsBody = treatUnknownHeadersAsBody;
     }
 
+    /**
+     * @param maxHeaderSize
+     * @param treatUnknownHeadersAsBody
+     * @param sliceBody                 true to keep the body of every message as a
+     *                                  slice of the received buffer, only split into
+     *                                  lines when {@link FreeSwitchMessage#bodyLines()}
+     *                                  is called. Event bodies always are, see
+     *                                  {@link FreeSwitchFrameDecoder}.
+     */
+    public FreeSwitchDecoder(int maxHeaderSize,
+                             boolean treatUnknownHeadersAsBody, boolean sliceBody) {
+        this(maxHeaderSize, treatUnknownHeadersAsBody);
+        this.sliceBody = sliceBody;
+    }
+
     /*
      * (non-Javadoc)
      *
@@ -67,7 +82,9 @@ public class FreeSwitchDecoder extends
      */
     protected Object decode(ChannelHandlerContext ctx, Channel channel, ChannelBuffer buffer,
                             State state) throws Exception {
-        log.trace("decode() : state [{}]", state);
+        if (log.isTraceEnabled()) {
+            log.trace("decode() : state [{}]", state);
+        }
         switch (state) {
             case READ_HEADER:
                 if (currentMessage == null) {
@@ -76,34 +93,29 @@ public class FreeSwitchDecoder extends
                 /*
                  *  read '\n' terminated lines until reach a single '\n'
                  */
-                boolean reachedDoubleLF = false;
-                while (!reachedDoubleLF) {
-                    // this will read or fail
-                    String headerLine = readToLineFeedOrFail(buffer, maxHeaderSize);
-                    log.debug("read header line [{}]", headerLine);
-                    if (!headerLine.isEmpty()) {
-                        // split the header line
-                        String[] headerParts = HeaderParser.splitHeader(headerLine);
-                        HeaderName headerName = FreeSwitchMessageHeaders.HeaderName.fromLiteral(headerParts[0]);
-                        if (headerName == null) {
-                            if (treatUnknownHeadersAsBody) {
-                                // cache this 'header' as a body line <-- useful for Outbound client mode
-                                currentMessage.addBodyLine(headerLine);
-                            } else {
-                                throw new IllegalStateException("Unhandled ESL header [" + headerParts[0] + ']');
-                            }
-                        }
-                        currentMessage.addHeader(headerName, headerParts[1]);
-                    } else {
-                        reachedDoubleLF = true;
+                while (true) {
+                    // this will find the line feed or fail
+                    int lineStart = buffer.readerIndex();
+                    int lineEnd = lineStart + lineLengthOrFail(buffer);
+                    buffer.readerIndex(lineEnd + 1);
+                    if (lineEnd > lineStart) {
+                        // the line is received: parse it from the array backed cumulation
+                        HeaderParser.readHeader(currentMessage, internalBuffer(), lineStart, lineEnd,
+                                treatUnknownHeadersAsBody);
                     }
                     // do not read in this line again
                     checkpoint();
+                    if (lineEnd == lineStart) {
+                        break;
+                    }
                 }
-                // have read all headers - check for content-length
-                if (currentMessage.hasContentLength()) {
+                // have read all headers - check for content-length. An empty body
+                // is not waited for: no more bytes may come to replay the decoding
+                if (currentMessage.hasContentLength() && currentMessage.contentLength() > 0) {
                     checkpoint(State.READ_BODY);
-                    log.debug("have content-length, decoding body ..");
+                    if (log.isDebugEnabled()) {
+                        log.debug("have content-length, decoding body ..");
+                    }
                     //  force the next section
 
                     return null;
@@ -122,13 +134,26 @@ public class FreeSwitchDecoder extends
                  *   read the content-length specified
                  */
                 int contentLength = currentMessage.contentLength();
-                ChannelBuffer bodyBytes = buffer.readBytes(contentLength);
-                log.debug("read [{}] body bytes", bodyBytes.writerIndex());
-                // most bodies are line based, so split on LF
-                while (bodyBytes.readable()) {
-                    String bodyLine = readLine(bodyBytes, contentLength);
-                    log.debug("read body line [{}]", bodyLine);
-                    currentMessage.addBodyLine(bodyLine);
+                ChannelBuffer bodyBytes = buffer.readSlice(contentLength);
+                if (sliceBody || FreeSwitchFrameDecoder.isEvent(currentMessage)) {
+                    // keep the body bytes where they are
+                    currentMessage.setBodyBuffer(bodyBytes);
+                } else {
+                    if (log.isDebugEnabled()) {
+                        log.debug("read [{}] body bytes", contentLength);
+                    }
+                    // most bodies are line based, so split on LF
+                    int index = bodyBytes.readerIndex();
+                    int bodyEnd = bodyBytes.writerIndex();
+                    while (index < bodyEnd) {
+                        int lineEnd = bodyBytes.indexOf(index, bodyEnd, LF);
+                        if (lineEnd < 0) {
+                            lineEnd = bodyEnd;
+                        }
+                        currentMessage.addBodyLine(HeaderParser.decodeString(bodyBytes, index,
+                                lineEnd - index, FreeSwitchFrameDecoder.ISO_8859_1));
+                        index = lineEnd + 1;
+                    }
                 }
 
                 // end of message
@@ -144,46 +169,27 @@ public class FreeSwitchDecoder extends
         }
     }
 
-    private String readToLineFeedOrFail(ChannelBuffer buffer, int maxLineLength)
-            throws TooLongFrameException {
-        StringBuilder sb = new StringBuilder(64);
-        while (true) {
-            // this read might fail
-            byte nextByte = buffer.readByte();
-            if (nextByte == LF) {
-                return sb.toString();
-            } else {
-                // Abort decoding if the decoded line is too large.
-                if (sb.length() >= maxLineLength) {
-                    throw new TooLongFrameException(
-                            "ESL header line is longer than " + maxLineLength
-                                    + " bytes.");
-                }
-                sb.append((char) nextByte);
-            }
+    /**
+     * Returns the length of the line starting at the reader index, without
+     * moving it. Replays the decoding when the line feed has not been
+     * received yet.
+     */
+    private int lineLengthOrFail(ChannelBuffer buffer) throws TooLongFrameException {
+        // the replaying buffer pretends to hold everything, check what has really been received
+        ChannelBuffer received = internalBuffer();
+        int lineLength = received.bytesBefore(received.readerIndex(),
+                Math.min(received.readableBytes(), maxHeaderSize + 1), LF);
+        if (lineLength >= 0) {
+            return lineLength;
         }
-    }
-
-    private String readLine(ChannelBuffer buffer, int maxLineLength)
-            throws TooLongFrameException {
-        StringBuilder sb = new StringBuilder(64);
-        while (buffer.readable()) {
-            // this read should always succeed
-            byte nextByte = buffer.readByte();
-            if (nextByte == LF) {
-                return sb.toString();
-            } else {
-                // Abort decoding if the decoded line is too large.
-                if (sb.length() >= maxLineLength) {
-                    throw new TooLongFrameException(
-                            "ESL message line is longer than " + maxLineLength
-                                    + " bytes.");
-                }
-                sb.append((char) nextByte);
-            }
+        // Abort decoding if the decoded line is too large.
+        if (received.readableBytes() > maxHeaderSize) {
+            throw new TooLongFrameException(
+                    "ESL header line is longer than " + maxHeaderSize
+                            + " bytes.");
         }
-
-        return sb.toString();
+        // this read fails until the line feed arrives
+        return buffer.bytesBefore(LF);
     }
 
     protected static enum State {
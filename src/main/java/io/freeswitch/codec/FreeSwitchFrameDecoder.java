@@ -0,0 +1,188 @@
+/*
+ * Copyright 2015.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.freeswitch.codec;
+
+import io.freeswitch.message.FreeSwitchMessage;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.handler.codec.frame.FrameDecoder;
+import org.jboss.netty.handler.codec.frame.TooLongFrameException;
+
+import java.nio.charset.Charset;
+
+/**
+ * Alternative to {@link FreeSwitchDecoder} built on a plain {@link FrameDecoder}.
+ * <p>
+ * Header lines are located with indexed scans for the line feed instead of
+ * byte by byte reads, and the body is only taken once the whole
+ * {@code Content-Length} has been received. When a frame is only partially
+ * received the decoder remembers how far it has already scanned and resumes
+ * from there on the next read, rather than replaying the whole frame as the
+ * {@link org.jboss.netty.handler.codec.replay.ReplayingDecoder} does.
+ * <p>
+ * The produced {@link FreeSwitchMessage}s are the same as the ones produced by
+ * {@link FreeSwitchDecoder}. Both keep the body of the events as a slice of
+ * the received buffer whatever {@code sliceBody} says: {@link
+ * io.freeswitch.event.EslEvent} parses it from there, so that no line is
+ * turned into a String on its way.
+ *
+ * @author Arsene Tochemey GANDOTE
+ */
+public class FreeSwitchFrameDecoder extends FrameDecoder {
+
+    /**
+     * Line feed character
+     */
+    static final byte LF = 10;
+    static final byte COLON = ':';
+    static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+    static final String EVENT_CONTENT_TYPE = "text/event-";
+
+    private final int maxHeaderSize;
+    private final boolean treatUnknownHeadersAsBody;
+    private final boolean sliceBody;
+    private FreeSwitchMessage currentMessage;
+    private boolean readingBody;
+    /**
+     * Number of bytes past the reader index already scanned without finding a
+     * line feed. Kept relative to the reader index since the cumulation
+     * buffer may be replaced between two reads.
+     */
+    private int scannedBytes;
+
+    /**
+     * @param maxHeaderSize
+     */
+    public FreeSwitchFrameDecoder(int maxHeaderSize) {
+        this(maxHeaderSize, false);
+    }
+
+    public FreeSwitchFrameDecoder(int maxHeaderSize,
+                                  boolean treatUnknownHeadersAsBody) {
+        this(maxHeaderSize, treatUnknownHeadersAsBody, false);
+    }
+
+    /**
+     * @param maxHeaderSize
+     * @param treatUnknownHeadersAsBody
+     * @param sliceBody                 true to keep the body of every message as a
+     *                                  slice of the received buffer, only split into
+     *                                  lines when {@link FreeSwitchMessage#bodyLines()}
+     *                                  is called. Event bodies always are.
+     */
+    public FreeSwitchFrameDecoder(int maxHeaderSize,
+                                  boolean treatUnknownHeadersAsBody, boolean sliceBody) {
+        if (maxHeaderSize <= 0) {
+            throw new IllegalArgumentException(
+                    "maxHeaderSize must be a positive integer: "
+                            + maxHeaderSize);
+        }
+        this.maxHeaderSize = maxHeaderSize;
+        this.treatUnknownHeadersAsBody = treatUnknownHeadersAsBody;
+        this.sliceBody = sliceBody;
+    }
+
+    @Override
+    protected Object decode(ChannelHandlerContext ctx, Channel channel, ChannelBuffer buffer)
+            throws Exception {
+        if (currentMessage == null) {
+            currentMessage = new FreeSwitchMessage();
+        }
+
+        if (!readingBody) {
+            /*
+             *  read '\n' terminated lines until reach a single '\n'
+             */
+            while (true) {
+                int lineStart = buffer.readerIndex();
+                int lineEnd = buffer.indexOf(lineStart + scannedBytes, buffer.writerIndex(), LF);
+                if (lineEnd < 0) {
+                    // wait for more bytes, and do not scan these ones again
+                    scannedBytes = buffer.readableBytes();
+                    if (scannedBytes > maxHeaderSize) {
+                        throw new TooLongFrameException(
+                                "ESL header line is longer than " + maxHeaderSize
+                                        + " bytes.");
+                    }
+                    return null;
+                }
+                scannedBytes = 0;
+                if (lineEnd - lineStart > maxHeaderSize) {
+                    throw new TooLongFrameException(
+                            "ESL header line is longer than " + maxHeaderSize
+                                    + " bytes.");
+                }
+                buffer.readerIndex(lineEnd + 1);
+                if (lineEnd == lineStart) {
+                    break;
+                }
+                HeaderParser.readHeader(currentMessage, buffer, lineStart, lineEnd,
+                        treatUnknownHeadersAsBody);
+            }
+
+            // have read all headers - check for content-length
+            if (!currentMessage.hasContentLength()) {
+                return endOfMessage();
+            }
+            readingBody = true;
+        }
+
+        /*
+         *   read the content-length specified, once fully received
+         */
+        int contentLength = currentMessage.contentLength();
+        if (buffer.readableBytes() < contentLength) {
+            return null;
+        }
+        if (sliceBody || isEvent(currentMessage)) {
+            // Netty 3 never compacts the cumulation buffer, so the slice stays valid
+            currentMessage.setBodyBuffer(buffer.readSlice(contentLength));
+            return endOfMessage();
+        }
+        int bodyEnd = buffer.readerIndex() + contentLength;
+        while (buffer.readerIndex() < bodyEnd) {
+            int lineStart = buffer.readerIndex();
+            int lineEnd = buffer.indexOf(lineStart, bodyEnd, LF);
+            if (lineEnd < 0) {
+                lineEnd = bodyEnd;
+                buffer.readerIndex(bodyEnd);
+            } else {
+                buffer.readerIndex(lineEnd + 1);
+            }
+            currentMessage.addBodyLine(HeaderParser.decodeString(buffer, lineStart, lineEnd - lineStart,
+                    ISO_8859_1));
+        }
+
+        return endOfMessage();
+    }
+
+    /*
+     * Events are parsed from their body buffer, see EslEvent.
+     */
+    static boolean isEvent(FreeSwitchMessage message) {
+        String contentType = message.contentType();
+        return contentType != null && contentType.startsWith(EVENT_CONTENT_TYPE);
+    }
+
+    private FreeSwitchMessage endOfMessage() {
+        FreeSwitchMessage decodedMessage = currentMessage;
+        currentMessage = null;
+        readingBody = false;
+        return decodedMessage;
+    }
+
+}
@@ -15,6 +15,10 @@
  */
 package io.freeswitch.codec;
 
+import org.jboss.netty.buffer.ChannelBuffer;
+
+import java.util.Arrays;
+
 /**
  * @author david varnes
  * @author Arsene Tochemey GANDOTE
@@ -28,22 +32,26 @@ public class FreeSwitchMessageHeaders {
      */
     public enum HeaderName {
         /*
-		 * Minor optimization - put most often used headers at the top for
-		 * fastest resolution in static fromLiteral().
-		 */
+         * Adding a constant here is all that is needed for the decoders to
+         * recognise a new header: the lookup table is built from values().
+         */
 
         /**
          * {@code "Content-Type"}
          */
-        CONTENT_TYPE("Content-Type"),
+        CONTENT_TYPE("Content-Type", true),
         /**
          * {@code "Content-Length"}
          */
-        CONTENT_LENGTH("Content-Length"),
+        CONTENT_LENGTH("Content-Length", true),
         /**
          * {@code "Reply-Text"}
          */
-        REPLY_TEXT("Reply-Text"),
+        REPLY_TEXT("Reply-Text", true),
+        /**
+         * {@code "Content-Disposition"}
+         */
+        CONTENT_DISPOSITION("Content-Disposition", true),
         /**
          * {@code "Job-UUID"}
          */
@@ -55,16 +63,65 @@ public class FreeSwitchMessageHeaders {
         /**
          * {@code "Control"}
          */
-        Control("Control"),;
+        Control("Control"),
+        /**
+         * {@code "Event-Name"}
+         */
+        EVENT_NAME("Event-Name"),
+        /**
+         * {@code "Controlled-Session-UUID"}
+         */
+        CONTROLLED_SESSION_UUID("Controlled-Session-UUID"),;
+
+        /*
+         * Candidates keyed by literal length and lower cased first letter, so
+         * a lookup compares against one or two literals at most.
+         */
+        private static final int MAX_LITERAL_LENGTH;
+        private static final HeaderName[][] TABLE;
+
+        static {
+            int maxLength = 0;
+            for (HeaderName name : values()) {
+                maxLength = Math.max(maxLength, name.literal.length());
+            }
+            MAX_LITERAL_LENGTH = maxLength;
+            TABLE = new HeaderName[(maxLength + 1) << 5][];
+            for (HeaderName name : values()) {
+                int slot = slot(name.literal.length(), name.literal.charAt(0));
+                HeaderName[] candidates = TABLE[slot];
+                if (candidates == null) {
+                    candidates = new HeaderName[]{name};
+                } else {
+                    candidates = Arrays.copyOf(candidates, candidates.length + 1);
+                    candidates[candidates.length - 1] = name;
+                }
+                TABLE[slot] = candidates;
+            }
+        }
 
         private final String literal;
+        private final boolean framing;
 
         private HeaderName(String literal) {
+            this(literal, false);
+        }
+
+        private HeaderName(String literal, boolean framing) {
             this.literal = literal;
+            this.framing = framing;
         }
 
         public static HeaderName fromLiteral(String literal) {
-            for (HeaderName name : values()) {
+            int length = literal.length();
+            if (length == 0 || length > MAX_LITERAL_LENGTH) {
+                return null;
+            }
+            HeaderName[] candidates = TABLE[slot(length, literal.charAt(0))];
+            if (candidates == null) {
+                return null;
+            }
+            for (HeaderName name : candidates) {
                 if (name.literal.equalsIgnoreCase(literal)) {
                     return name;
                 }
@@ -73,9 +130,61 @@ public class FreeSwitchMessageHeaders {
             return null;
         }
 
+        /**
+         * Same as {@link #fromLiteral(String)} but reads the header name from
+         * raw bytes, so the decoders need not build a String first.
+         *
+         * @param buffer holding the header name
+         * @param index  of the first byte of the name
+         * @param length of the name in bytes
+         * @return the matching name, or null when the header is unknown
+         */
+        public static HeaderName fromBytes(ChannelBuffer buffer, int index, int length) {
+            if (length == 0 || length > MAX_LITERAL_LENGTH) {
+                return null;
+            }
+            HeaderName[] candidates = TABLE[slot(length, (char) buffer.getByte(index))];
+            if (candidates == null) {
+                return null;
+            }
+            for (HeaderName name : candidates) {
+                if (name.matches(buffer, index)) {
+                    return name;
+                }
+            }
+
+            return null;
+        }
+
+        private static int slot(int length, char first) {
+            return (length << 5) | (first & 0x1F);
+        }
+
+        private boolean matches(ChannelBuffer buffer, int index) {
+            for (int i = 0; i < literal.length(); i++) {
+                int c = buffer.getByte(index + i);
+                int expected = literal.charAt(i);
+                if (c != expected
+                        && (!Character.isLetter(expected) || (c | 0x20) != (expected | 0x20))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
         public String literal() {
             return literal;
         }
+
+        /**
+         * Framing headers describe the ESL message itself. The other ones may
+         * also be part of the channel data sent with an outbound connect reply.
+         *
+         * @return true for the framing headers
+         */
+        public boolean isFraming() {
+            return framing;
+        }
     }
 
     /**
@@ -106,6 +215,10 @@ public class FreeSwitchMessageHeaders {
          * {@code "text/event-plain"}
          */
         public static final String TEXT_EVENT_PLAIN = "text/event-plain";
+        /**
+         * {@code "text/event-json"}
+         */
+        public static final String TEXT_EVENT_JSON = "text/event-json";
         /**
          * {@code "text/event-xml"}
          */
@@ -0,0 +1,240 @@
+/*
+ * Copyright 2015.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.freeswitch.codec;
+
+import io.freeswitch.event.EventHeaders;
+import org.jboss.netty.buffer.ChannelBuffer;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * Shared dictionary of event header names.
+ * <p>
+ * Every event carries the same hundred or so header names. Resolving them
+ * through this table, straight from the received bytes, returns one canonical
+ * String per name instead of allocating a new key for every header of every
+ * event.
+ * <p>
+ * The well known names are pinned in a read only table built at class init
+ * from the {@link EventHeaders} constants and the names listed in the
+ * {@code header-names.txt} resource beside this class.
+ * Other names (typically the {@code variable_*} ones) go to a bounded cache
+ * organised in sets of two entries, each set keeping its most recently used
+ * name first. A rogue producer of unique names can therefore only churn the
+ * cache, never grow it. Lookups take no lock: the entries are immutable
+ * Strings, so a racy read at worst misses and allocates a new String.
+ *
+ * @author Arsene Tochemey GANDOTE
+ */
+public final class HeaderNameCache {
+
+    /**
+     * The table shared by all decoders.
+     */
+    public static final HeaderNameCache DEFAULT = new HeaderNameCache(4096);
+
+    /**
+     * Resource listing, one per line, the names pinned beside the
+     * {@link EventHeaders} constants.
+     */
+    static final String WELL_KNOWN_NAMES_RESOURCE = "header-names.txt";
+
+    private static final String[] PINNED;
+    private static final int PINNED_MASK;
+
+    static {
+        Set<String> names = wellKnownNames();
+        int size = Integer.highestOneBit(names.size() * 4);
+        String[] pinned = new String[size];
+        for (String name : names) {
+            int slot = hash(name) & (size - 1);
+            while (pinned[slot] != null && !pinned[slot].equals(name)) {
+                slot = (slot + 1) & (size - 1);
+            }
+            pinned[slot] = name;
+        }
+        PINNED = pinned;
+        PINNED_MASK = size - 1;
+    }
+
+    /*
+     * entries[2 * set] is the most recently used name of the set,
+     * entries[2 * set + 1] is the next one to be evicted.
+     */
+    private final String[] entries;
+    private final int setMask;
+
+    /**
+     * @param capacity maximum number of names cached beside the well known
+     *                 ones, rounded up to a power of two
+     */
+    public HeaderNameCache(int capacity) {
+        if (capacity < 2) {
+            throw new IllegalArgumentException(
+                    "capacity must be at least 2: " + capacity);
+        }
+        int sets = Integer.highestOneBit(capacity - 1);
+        this.entries = new String[sets * 2];
+        this.setMask = sets - 1;
+    }
+
+    /**
+     * Returns the canonical String for the header name held in the buffer
+     * between {@code index} and {@code index + length}. No String is created
+     * when the name has been seen before.
+     *
+     * @param buffer holding the header name
+     * @param index  of the first byte of the name
+     * @param length of the name in bytes
+     * @return the canonical header name
+     */
+    public String intern(ChannelBuffer buffer, int index, int length) {
+        int hash = hash(buffer, index, length);
+        for (int slot = hash & PINNED_MASK; PINNED[slot] != null; slot = (slot + 1) & PINNED_MASK) {
+            if (matches(PINNED[slot], buffer, index, length)) {
+                return PINNED[slot];
+            }
+        }
+
+        int first = (hash & setMask) << 1;
+        String mostRecent = entries[first];
+        if (mostRecent != null && matches(mostRecent, buffer, index, length)) {
+            return mostRecent;
+        }
+        String leastRecent = entries[first + 1];
+        if (leastRecent != null && matches(leastRecent, buffer, index, length)) {
+            // promote within its set
+            entries[first] = leastRecent;
+            entries[first + 1] = mostRecent;
+            return leastRecent;
+        }
+
+        String name = buffer.toString(index, length, FreeSwitchFrameDecoder.ISO_8859_1);
+        entries[first + 1] = mostRecent;
+        entries[first] = name;
+        return name;
+    }
+
+    /**
+     * Returns the canonical String for a header name that was already
+     * decoded, so that events kept in memory share their keys.
+     *
+     * @param name header name
+     * @return the canonical header name
+     */
+    public String intern(String name) {
+        int hash = hash(name);
+        for (int slot = hash & PINNED_MASK; PINNED[slot] != null; slot = (slot + 1) & PINNED_MASK) {
+            if (PINNED[slot].equals(name)) {
+                return PINNED[slot];
+            }
+        }
+
+        int first = (hash & setMask) << 1;
+        String mostRecent = entries[first];
+        if (name.equals(mostRecent)) {
+            return mostRecent;
+        }
+        String leastRecent = entries[first + 1];
+        if (name.equals(leastRecent)) {
+            entries[first] = leastRecent;
+            entries[first + 1] = mostRecent;
+            return leastRecent;
+        }
+
+        entries[first + 1] = mostRecent;
+        entries[first] = name;
+        return name;
+    }
+
+    /*
+     * The EventHeaders constants, then the names of the resource.
+     */
+    static Set<String> wellKnownNames() {
+        Set<String> names = new LinkedHashSet<String>();
+        for (Field field : EventHeaders.class.getFields()) {
+            if (Modifier.isStatic(field.getModifiers()) && field.getType() == String.class) {
+                try {
+                    names.add((String) field.get(null));
+                } catch (IllegalAccessException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        }
+        InputStream in = HeaderNameCache.class.getResourceAsStream(WELL_KNOWN_NAMES_RESOURCE);
+        if (in == null) {
+            return names;
+        }
+        try {
+            BufferedReader reader = new BufferedReader(
+                    new InputStreamReader(in, FreeSwitchFrameDecoder.ISO_8859_1));
+            try {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    line = line.trim();
+                    if (!line.isEmpty() && line.charAt(0) != '#') {
+                        names.add(line);
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("cannot read " + WELL_KNOWN_NAMES_RESOURCE, e);
+        }
+        return names;
+    }
+
+    private static int hash(String name) {
+        int hash = 0;
+        for (int i = 0; i < name.length(); i++) {
+            hash = 31 * hash + (name.charAt(i) & 0xFF);
+        }
+        return spread(hash);
+    }
+
+    private static int hash(ChannelBuffer buffer, int index, int length) {
+        int hash = 0;
+        for (int i = index; i < index + length; i++) {
+            hash = 31 * hash + (buffer.getByte(i) & 0xFF);
+        }
+        return spread(hash);
+    }
+
+    private static int spread(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+
+    private static boolean matches(String name, ChannelBuffer buffer, int index, int length) {
+        if (name.length() != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (name.charAt(i) != (buffer.getByte(index + i) & 0xFF)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+}
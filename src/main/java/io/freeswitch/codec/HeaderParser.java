@@ -15,12 +15,37 @@
  */
 package io.freeswitch.codec;
 
+import io.freeswitch.codec.FreeSwitchMessageHeaders.HeaderName;
+import io.freeswitch.message.FreeSwitchMessage;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.charset.Charset;
+
 /**
  * @author david varnes
  * @author Arsene Tochemey GANDOTE
  * @author Trustin Lee
  */
 public class HeaderParser {
+
+    private static final Logger log = LoggerFactory.getLogger(HeaderParser.class);
+    /**
+     * Content types FreeSWITCH sends, reused instead of decoded for every
+     * message.
+     */
+    private static final String[] CONTENT_TYPES = {
+            FreeSwitchMessageHeaders.HeaderValue.TEXT_EVENT_PLAIN,
+            FreeSwitchMessageHeaders.HeaderValue.TEXT_EVENT_JSON,
+            FreeSwitchMessageHeaders.HeaderValue.TEXT_EVENT_XML,
+            FreeSwitchMessageHeaders.HeaderValue.API_RESPONSE,
+            FreeSwitchMessageHeaders.HeaderValue.COMMAND_REPLY,
+            FreeSwitchMessageHeaders.HeaderValue.AUTH_REQUEST,
+            FreeSwitchMessageHeaders.HeaderValue.TEXT_DISCONNECT_NOTICE,
+            FreeSwitchMessageHeaders.HeaderValue.TEXT_RUDE_REJECTION,
+    };
+
     /**
      * Split a header in the form
      * <pre>
@@ -69,6 +94,101 @@ public class HeaderParser {
         };
     }
 
+    /**
+     * Splits the header line found between {@code lineStart} and
+     * {@code lineEnd} (exclusive) straight from the received bytes and adds
+     * it to the message. Only the header value is turned into a String, the
+     * name being resolved from the bytes, and known content types are not
+     * even decoded.
+     */
+    static void readHeader(FreeSwitchMessage message, ChannelBuffer buffer, int lineStart, int lineEnd,
+                           boolean treatUnknownHeadersAsBody) {
+        int nameStart = skipWhitespace(buffer, lineStart, lineEnd);
+        int colon = buffer.indexOf(nameStart, lineEnd, FreeSwitchFrameDecoder.COLON);
+        int nameEnd = trimWhitespace(buffer, nameStart, colon < 0 ? lineEnd : colon);
+        int valueStart = colon < 0 ? lineEnd : skipWhitespace(buffer, colon + 1, lineEnd);
+        int valueEnd = trimWhitespace(buffer, valueStart, lineEnd);
+
+        HeaderName headerName = HeaderName.fromBytes(buffer, nameStart, nameEnd - nameStart);
+        if (headerName == null && !treatUnknownHeadersAsBody) {
+            throw new IllegalStateException("Unhandled ESL header ["
+                    + buffer.toString(nameStart, nameEnd - nameStart, FreeSwitchFrameDecoder.ISO_8859_1) + ']');
+        }
+        if (headerName != null) {
+            String value = headerName == HeaderName.CONTENT_TYPE
+                    ? contentType(buffer, valueStart, valueEnd - valueStart)
+                    : decodeString(buffer, valueStart, valueEnd - valueStart, FreeSwitchFrameDecoder.ISO_8859_1);
+            if (log.isTraceEnabled()) {
+                log.trace("read header [{}] [{}]", headerName, value);
+            }
+            message.addHeader(headerName, value);
+        }
+        if (headerName == null || (treatUnknownHeadersAsBody && !headerName.isFraming())) {
+            // cache this 'header' as a body line <-- useful for Outbound client mode
+            message.addBodyLine(decodeString(buffer, lineStart, lineEnd - lineStart,
+                    FreeSwitchFrameDecoder.ISO_8859_1));
+        }
+    }
+
+    /**
+     * Same as {@link ChannelBuffer#toString(int, int, Charset)}, without the
+     * NIO byte and char buffers Netty decodes through when the buffer is
+     * backed by an array: only the String is allocated.
+     *
+     * @param buffer  holding the bytes
+     * @param index   of the first byte
+     * @param length  number of bytes
+     * @param charset of the bytes
+     * @return the decoded String
+     */
+    public static String decodeString(ChannelBuffer buffer, int index, int length, Charset charset) {
+        if (length == 0) {
+            return "";
+        }
+        if (buffer.hasArray()) {
+            return new String(buffer.array(), buffer.arrayOffset() + index, length, charset);
+        }
+        return buffer.toString(index, length, charset);
+    }
+
+    private static String contentType(ChannelBuffer buffer, int index, int length) {
+        for (String known : CONTENT_TYPES) {
+            if (known.length() == length && matches(known, buffer, index)) {
+                return known;
+            }
+        }
+        return decodeString(buffer, index, length, FreeSwitchFrameDecoder.ISO_8859_1);
+    }
+
+    private static boolean matches(String literal, ChannelBuffer buffer, int index) {
+        for (int i = 0; i < literal.length(); i++) {
+            if (buffer.getByte(index + i) != literal.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int skipWhitespace(ChannelBuffer buffer, int from, int to) {
+        int index = from;
+        while (index < to && isWhitespace(buffer.getByte(index))) {
+            index++;
+        }
+        return index;
+    }
+
+    private static int trimWhitespace(ChannelBuffer buffer, int from, int to) {
+        int index = to;
+        while (index > from && isWhitespace(buffer.getByte(index - 1))) {
+            index--;
+        }
+        return index;
+    }
+
+    private static boolean isWhitespace(byte b) {
+        return b == ' ' || b == '\t' || b == '\r';
+    }
+
     private static int findNonWhitespace(String sb, int offset) {
         int result;
         for (result = offset; result < sb.length(); result++) {
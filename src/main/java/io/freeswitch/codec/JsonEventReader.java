@@ -0,0 +1,272 @@
+/*
+ * Copyright 2015.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.freeswitch.codec;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+
+import java.nio.charset.Charset;
+
+/**
+ * Streaming reader for {@code text/event-json} event bodies.
+ * <p>
+ * FreeSWITCH serialises an event as one flat JSON object whose members are the
+ * event headers, plus an optional {@code _body} member holding the event body.
+ * The reader walks the body bytes once, hands every member to an
+ * {@link EventBodyHandler} and builds no intermediate tree. Member names are
+ * resolved through the {@link HeaderNameCache}, and string values without
+ * escape sequences are decoded straight from the buffer.
+ * <p>
+ * Values that are not strings are handed over as their JSON text: numbers and
+ * literals as they are, nested objects and arrays as their raw source.
+ *
+ * @author Arsene Tochemey GANDOTE
+ */
+public final class JsonEventReader {
+
+    /**
+     * Name of the member carrying the event body.
+     */
+    public static final String BODY_MEMBER = "_body";
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final ChannelBuffer buffer;
+    private final int end;
+    private int index;
+
+    private JsonEventReader(ChannelBuffer buffer) {
+        this.buffer = buffer;
+        this.index = buffer.readerIndex();
+        this.end = buffer.writerIndex();
+    }
+
+    /**
+     * Reads the JSON object held in the readable bytes of the buffer. The
+     * buffer indexes are left untouched. Values are handed over JSON
+     * unescaped.
+     *
+     * @param buffer  JSON event body
+     * @param names   table used to resolve member names
+     * @param handler receives the members in order
+     */
+    public static void read(ChannelBuffer buffer, HeaderNameCache names, EventBodyHandler handler) {
+        new JsonEventReader(buffer).readObject(names, handler);
+    }
+
+    private void readObject(HeaderNameCache names, EventBodyHandler handler) {
+        expect('{');
+        if (peek() == '}') {
+            index++;
+            return;
+        }
+        while (true) {
+            String name = readName(names);
+            expect(':');
+            String value = readValue();
+            if (BODY_MEMBER.equals(name)) {
+                handler.body(value);
+            } else {
+                handler.header(name, value);
+            }
+            byte next = peek();
+            index++;
+            if (next == '}') {
+                return;
+            }
+            if (next != ',') {
+                throw malformed("',' or '}'");
+            }
+        }
+    }
+
+    private String readName(HeaderNameCache names) {
+        if (peek() != '"') {
+            throw malformed("member name");
+        }
+        int start = ++index;
+        int close = scanString();
+        if (close < 0) {
+            // rare: escaped characters in a header name
+            index = start - 1;
+            return names.intern(readString());
+        }
+        index = close + 1;
+        return names.intern(buffer, start, close - start);
+    }
+
+    private String readValue() {
+        byte first = peek();
+        if (first == '"') {
+            return readString();
+        }
+        int start = index;
+        if (first == '{' || first == '[') {
+            skipNested();
+        } else {
+            while (index < end) {
+                byte b = buffer.getByte(index);
+                if (b == ',' || b == '}' || b == ']' || isWhitespace(b)) {
+                    break;
+                }
+                index++;
+            }
+        }
+        return HeaderParser.decodeString(buffer, start, index - start, UTF_8);
+    }
+
+    /*
+     * Returns the index of the closing quote of the string starting at the
+     * current index, or -1 if the string holds escape sequences.
+     */
+    private int scanString() {
+        for (int i = index; i < end; i++) {
+            byte b = buffer.getByte(i);
+            if (b == '"') {
+                return i;
+            }
+            if (b == '\\') {
+                return -1;
+            }
+        }
+        throw malformed("closing quote");
+    }
+
+    private String readString() {
+        int start = ++index;
+        int close = scanString();
+        if (close >= 0) {
+            index = close + 1;
+            return HeaderParser.decodeString(buffer, start, close - start, UTF_8);
+        }
+
+        StringBuilder sb = new StringBuilder();
+        int segment = start;
+        while (index < end) {
+            byte b = buffer.getByte(index);
+            if (b == '"') {
+                sb.append(HeaderParser.decodeString(buffer, segment, index - segment, UTF_8));
+                index++;
+                return sb.toString();
+            }
+            if (b != '\\') {
+                index++;
+                continue;
+            }
+            sb.append(HeaderParser.decodeString(buffer, segment, index - segment, UTF_8));
+            if (index + 1 >= end) {
+                break;
+            }
+            byte escaped = buffer.getByte(index + 1);
+            index += 2;
+            switch (escaped) {
+                case 'b':
+                    sb.append('\b');
+                    break;
+                case 'f':
+                    sb.append('\f');
+                    break;
+                case 'n':
+                    sb.append('\n');
+                    break;
+                case 'r':
+                    sb.append('\r');
+                    break;
+                case 't':
+                    sb.append('\t');
+                    break;
+                case 'u':
+                    if (index + 4 > end) {
+                        throw malformed("unicode escape");
+                    }
+                    sb.append(unicodeEscape());
+                    break;
+                case '"':
+                case '\\':
+                case '/':
+                    sb.append((char) escaped);
+                    break;
+                default:
+                    throw malformed("escape");
+            }
+            segment = index;
+        }
+        throw malformed("closing quote");
+    }
+
+    /*
+     * Reads the four hex digits of a unicode escape.
+     */
+    private char unicodeEscape() {
+        int c = 0;
+        for (int i = 0; i < 4; i++) {
+            int digit = Character.digit(buffer.getByte(index), 16);
+            if (digit < 0) {
+                throw malformed("unicode escape");
+            }
+            c = (c << 4) | digit;
+            index++;
+        }
+        return (char) c;
+    }
+
+    private void skipNested() {
+        int depth = 0;
+        while (index < end) {
+            byte b = buffer.getByte(index);
+            if (b == '"') {
+                readString();
+                continue;
+            }
+            index++;
+            if (b == '{' || b == '[') {
+                depth++;
+            } else if ((b == '}' || b == ']') && --depth == 0) {
+                return;
+            }
+        }
+        throw malformed("end of nested value");
+    }
+
+    private void expect(char c) {
+        if (peek() != c) {
+            throw malformed("'" + c + "'");
+        }
+        index++;
+    }
+
+    /*
+     * Skips whitespace and returns the next byte without consuming it.
+     */
+    private byte peek() {
+        while (index < end && isWhitespace(buffer.getByte(index))) {
+            index++;
+        }
+        if (index >= end) {
+            throw malformed("more input");
+        }
+        return buffer.getByte(index);
+    }
+
+    private IllegalStateException malformed(String expected) {
+        return new IllegalStateException("Malformed JSON event, expected " + expected
+                + " at offset " + (index - buffer.readerIndex()));
+    }
+
+    private static boolean isWhitespace(byte b) {
+        return b == ' ' || b == '\n' || b == '\r' || b == '\t';
+    }
+
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright 2015.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.freeswitch.codec;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBufferInputStream;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * Streaming reader for {@code text/event-xml} event bodies.
+ * <p>
+ * FreeSWITCH serialises an event as
+ * <pre>
+ * &lt;event&gt;
+ *   &lt;headers&gt;
+ *     &lt;Event-Name&gt;CHANNEL_CREATE&lt;/Event-Name&gt;
+ *     ...
+ *   &lt;/headers&gt;
+ *   &lt;body&gt;...&lt;/body&gt;
+ * &lt;/event&gt;
+ * </pre>
+ * The body bytes are pulled through a StAX {@link XMLStreamReader} reading
+ * the buffer in place, so no DOM is built and large events are not copied.
+ * Each child of {@code <headers>} is handed over as a header, with its text
+ * still URL encoded as FreeSWITCH sends it, and the text of {@code <body>} as
+ * the body.
+ *
+ * @author Arsene Tochemey GANDOTE
+ */
+public final class XmlEventReader {
+
+    private static final XMLInputFactory FACTORY = XMLInputFactory.newInstance();
+
+    static {
+        FACTORY.setProperty(XMLInputFactory.IS_COALESCING, Boolean.TRUE);
+        FACTORY.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+        FACTORY.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+    }
+
+    private XmlEventReader() {
+    }
+
+    /**
+     * Reads the XML event held in the readable bytes of the buffer. The
+     * buffer indexes are left untouched.
+     *
+     * @param buffer  XML event body
+     * @param names   table used to resolve header names
+     * @param handler receives the headers in order, then the body
+     */
+    public static void read(ChannelBuffer buffer, HeaderNameCache names, EventBodyHandler handler) {
+        XMLStreamReader reader = null;
+        try {
+            reader = FACTORY.createXMLStreamReader(new ChannelBufferInputStream(buffer.duplicate()));
+            int depth = 0;
+            boolean inHeaders = false;
+            while (reader.hasNext()) {
+                int token = reader.next();
+                if (token == XMLStreamConstants.START_ELEMENT) {
+                    depth++;
+                    String element = reader.getLocalName();
+                    if (depth == 2 && element.equals("headers")) {
+                        inHeaders = true;
+                    } else if (depth == 3 && inHeaders) {
+                        handler.header(names.intern(element), readText(reader));
+                        depth--;
+                    } else if (depth == 2 && element.equals("body")) {
+                        handler.body(readText(reader));
+                        depth--;
+                    }
+                } else if (token == XMLStreamConstants.END_ELEMENT) {
+                    if (depth == 2) {
+                        inHeaders = false;
+                    }
+                    depth--;
+                }
+            }
+        } catch (XMLStreamException e) {
+            throw new IllegalStateException("Malformed XML event", e);
+        } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (XMLStreamException e) {
+                    // nothing left to release
+                }
+            }
+        }
+    }
+
+    /*
+     * Collects the text of the current element, including the text of any
+     * nested element, and leaves the reader on its end tag.
+     */
+    private static String readText(XMLStreamReader reader) throws XMLStreamException {
+        String text = null;
+        StringBuilder sb = null;
+        int depth = 1;
+        while (depth > 0) {
+            int token = reader.next();
+            if (token == XMLStreamConstants.START_ELEMENT) {
+                depth++;
+            } else if (token == XMLStreamConstants.END_ELEMENT) {
+                depth--;
+            } else if (token == XMLStreamConstants.CHARACTERS || token == XMLStreamConstants.CDATA) {
+                if (text == null) {
+                    text = reader.getText();
+                } else {
+                    if (sb == null) {
+                        sb = new StringBuilder(text);
+                    }
+                    sb.append(reader.getText());
+                }
+            }
+        }
+        if (sb != null) {
+            return sb.toString();
+        }
+        return text == null ? "" : text;
+    }
+
+}
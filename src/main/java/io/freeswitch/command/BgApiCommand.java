@@ -31,12 +31,17 @@ public class BgApiCommand extends BaseCommand {
 
     /**
      * The command Id. Each bgapi command can explicitly have an Id since bgapi
-     * generates a UUID for each command executed on FreeSwitch
+     * generates a UUID for each command executed on FreeSwitch. When set, it is
+     * sent as the Job-UUID of the job.
      */
     public UUID CommandId;
 
     public BgApiCommand(String command, String argument) {
-        this._command = String.format("%s %s", command, argument);
+        if (argument == null || argument.isEmpty()) {
+            this._command = command;
+        } else {
+            this._command = String.format("%s %s", command, argument);
+        }
     }
 
     @Override
@@ -49,4 +54,12 @@ public class BgApiCommand extends BaseCommand {
         return "bgapi";
     }
 
+    @Override
+    public String toString() {
+        if (CommandId == null) {
+            return super.toString();
+        }
+        return String.format("%s %s\nJob-UUID: %s", command(), argument(), CommandId);
+    }
+
 }
@@ -0,0 +1,103 @@
+/*
+ * Copyright 2015.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.freeswitch.common;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs its tasks one at a time, in the order they were submitted, on the
+ * threads of another executor.
+ * <p>
+ * A thread is only taken while tasks are queued: it runs them all, then goes
+ * back to the executor. Over a virtual thread executor, each burst of tasks
+ * runs on a fresh virtual thread, which may block as long as it needs to.
+ * <p>
+ * When the executor refuses to run them, the task being submitted fails with
+ * its exception and the tasks queued behind it are dropped.
+ *
+ * @author Arsene Tochemey GANDOTE
+ */
+public final class SerialExecutor implements Executor {
+
+    private static final Logger log = LoggerFactory.getLogger(SerialExecutor.class);
+
+    private final Executor executor;
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<Runnable>();
+    private final AtomicInteger pending = new AtomicInteger();
+    private final Runnable drain = new Runnable() {
+        public void run() {
+            do {
+                try {
+                    tasks.poll().run();
+                } catch (Throwable t) {
+                    log.error("Error caught running serial task", t);
+                }
+            } while (pending.decrementAndGet() != 0);
+        }
+    };
+
+    /**
+     * @param executor runs the queued tasks
+     */
+    public SerialExecutor(Executor executor) {
+        if (executor == null) {
+            throw new NullPointerException("executor");
+        }
+        this.executor = executor;
+    }
+
+    public void execute(Runnable task) {
+        if (task == null) {
+            throw new NullPointerException("task");
+        }
+        tasks.add(task);
+        if (pending.getAndIncrement() == 0) {
+            try {
+                executor.execute(drain);
+            } catch (RuntimeException e) {
+                discard(task);
+                throw e;
+            }
+        }
+    }
+
+    /*
+     * The drain could not be started: drop the queued tasks in its place, as
+     * the tasks queued meanwhile count on it.
+     */
+    private void discard(Runnable rejected) {
+        do {
+            Runnable task = tasks.poll();
+            if (task != rejected) {
+                log.warn("Serial task [{}] dropped, its executor refused to run it", task);
+            }
+        } while (pending.decrementAndGet() != 0);
+    }
+
+    /**
+     * @return number of tasks queued or running
+     */
+    public int pending() {
+        return pending.get();
+    }
+
+}
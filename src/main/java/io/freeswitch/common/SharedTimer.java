@@ -0,0 +1,46 @@
+/*
+ * Copyright 2015.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.freeswitch.common;
+
+import org.jboss.netty.util.HashedWheelTimer;
+import org.jboss.netty.util.Timer;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The hashed wheel timer shared by all the connections to expire commands and
+ * background jobs. One thread serves every timeout, with a 100 ms precision.
+ *
+ * @author Arsene Tochemey GANDOTE
+ */
+public class SharedTimer {
+
+    private static final Timer TIMER = new HashedWheelTimer(new ThreadFactory() {
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "EslTimer");
+            thread.setDaemon(true);
+            return thread;
+        }
+    }, 100, TimeUnit.MILLISECONDS);
+
+    /**
+     * @return the shared timer
+     */
+    public static Timer get() {
+        return TIMER;
+    }
+}
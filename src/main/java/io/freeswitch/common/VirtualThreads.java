@@ -0,0 +1,140 @@
+/*
+ * Copyright 2015.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.freeswitch.common;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Virtual threads, for code written in blocking style.
+ * <p>
+ * The library is built for Java 8, so the virtual threads of Java 21 are
+ * reached through reflection. On an older runtime the same methods hand out
+ * daemon platform threads: the code runs the same, only without the scale,
+ * and the executors run at most {@link #FALLBACK_THREADS} tasks at a time.
+ * <p>
+ * A virtual thread waiting on a {@code java.util.concurrent} primitive, such
+ * as the future of a command reply, leaves its carrier thread to the others.
+ * Waiting inside a {@code synchronized} block, or in {@link Object#wait()},
+ * pins the carrier instead.
+ *
+ * @author Arsene Tochemey GANDOTE
+ */
+public final class VirtualThreads {
+
+    /**
+     * Number of platform threads of an executor from {@link #newExecutor}
+     * when the runtime has no virtual threads.
+     */
+    public static final int FALLBACK_THREADS = Runtime.getRuntime().availableProcessors() * 16;
+
+    private static final Logger log = LoggerFactory.getLogger(VirtualThreads.class);
+
+    private static final Method OF_VIRTUAL;
+    private static final Method BUILDER_NAME;
+    private static final Method BUILDER_FACTORY;
+    private static final Method NEW_THREAD_PER_TASK_EXECUTOR;
+
+    static {
+        Method ofVirtual = null;
+        Method builderName = null;
+        Method builderFactory = null;
+        Method newThreadPerTaskExecutor = null;
+        try {
+            Class<?> builder = Class.forName("java.lang.Thread$Builder");
+            ofVirtual = Thread.class.getMethod("ofVirtual");
+            builderName = builder.getMethod("name", String.class, long.class);
+            builderFactory = builder.getMethod("factory");
+            newThreadPerTaskExecutor = Executors.class.getMethod("newThreadPerTaskExecutor",
+                    ThreadFactory.class);
+            // a preview runtime has the methods but refuses to run them
+            ofVirtual.invoke(null);
+        } catch (Throwable t) {
+            log.debug("Virtual threads not available, using platform threads", t);
+            ofVirtual = null;
+        }
+        OF_VIRTUAL = ofVirtual;
+        BUILDER_NAME = builderName;
+        BUILDER_FACTORY = builderFactory;
+        NEW_THREAD_PER_TASK_EXECUTOR = newThreadPerTaskExecutor;
+    }
+
+    private VirtualThreads() {
+    }
+
+    /**
+     * @return true when the runtime has virtual threads
+     */
+    public static boolean isSupported() {
+        return OF_VIRTUAL != null;
+    }
+
+    /**
+     * @param prefix name of the threads, followed by their number
+     * @return a factory of virtual threads, or of daemon platform threads
+     * when the runtime has none
+     */
+    public static ThreadFactory threadFactory(final String prefix) {
+        if (OF_VIRTUAL != null) {
+            try {
+                Object builder = BUILDER_NAME.invoke(OF_VIRTUAL.invoke(null), prefix, 1L);
+                return (ThreadFactory) BUILDER_FACTORY.invoke(builder);
+            } catch (Exception e) {
+                throw new IllegalStateException("Could not build a virtual thread factory", e);
+            }
+        }
+        return new ThreadFactory() {
+            AtomicInteger threadNumber = new AtomicInteger(1);
+
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, prefix + threadNumber.getAndIncrement());
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+    }
+
+    /**
+     * @param prefix name of the threads, followed by their number
+     * @return an executor starting a virtual thread per task or, when the
+     * runtime has no virtual threads, a pool of {@link #FALLBACK_THREADS}
+     * daemon platform threads queuing the other tasks and stopped when idle
+     */
+    public static ExecutorService newExecutor(String prefix) {
+        ThreadFactory threadFactory = threadFactory(prefix);
+        if (OF_VIRTUAL != null) {
+            try {
+                return (ExecutorService) NEW_THREAD_PER_TASK_EXECUTOR.invoke(null, threadFactory);
+            } catch (Exception e) {
+                throw new IllegalStateException("Could not build a virtual thread executor", e);
+            }
+        }
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(FALLBACK_THREADS, FALLBACK_THREADS, 30,
+                TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), threadFactory);
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+}
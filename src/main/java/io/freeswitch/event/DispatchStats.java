@@ -0,0 +1,108 @@
+/*
+ * Copyright 2015.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.freeswitch.event;
+
+/**
+ * Snapshot of the events waiting to be delivered to the listeners of a
+ * client, and of the time reading was paused because of them.
+ *
+ * @author Arsene Tochemey GANDOTE
+ */
+public class DispatchStats {
+
+    private final int pending;
+    private final int lowWatermark;
+    private final int highWatermark;
+    private final boolean paused;
+    private final long pauses;
+    private final long pausedMillis;
+
+    public DispatchStats(int pending, int lowWatermark, int highWatermark, boolean paused, long pauses,
+                         long pausedMillis) {
+        this.pending = pending;
+        this.lowWatermark = lowWatermark;
+        this.highWatermark = highWatermark;
+        this.paused = paused;
+        this.pauses = pauses;
+        this.pausedMillis = pausedMillis;
+    }
+
+    /**
+     * @return number of event deliveries queued and not finished yet
+     */
+    public int pending() {
+        return pending;
+    }
+
+    /**
+     * @return pending deliveries under which reading resumes
+     */
+    public int lowWatermark() {
+        return lowWatermark;
+    }
+
+    /**
+     * @return pending deliveries from which reading is paused, 0 when never
+     */
+    public int highWatermark() {
+        return highWatermark;
+    }
+
+    /**
+     * @return true while reading from the connection is paused
+     */
+    public boolean paused() {
+        return paused;
+    }
+
+    /**
+     * @return number of times reading was paused
+     */
+    public long pauses() {
+        return pauses;
+    }
+
+    /**
+     * @return milliseconds spent with reading paused, the current pause
+     * included
+     */
+    public long pausedMillis() {
+        return pausedMillis;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("DispatchStats: pending=");
+        sb.append(pending);
+        if (highWatermark > 0) {
+            sb.append(", watermarks=");
+            sb.append(lowWatermark);
+            sb.append('/');
+            sb.append(highWatermark);
+        }
+        if (paused) {
+            sb.append(", paused");
+        }
+        sb.append(", pauses=");
+        sb.append(pauses);
+        sb.append(", pausedMillis=");
+        sb.append(pausedMillis);
+        sb.append('.');
+
+        return sb.toString();
+    }
+
+}
@@ -15,16 +15,19 @@
  */
 package io.freeswitch.event;
 
+import io.freeswitch.codec.EventBodyHandler;
 import io.freeswitch.codec.FreeSwitchMessageHeaders;
 import io.freeswitch.codec.FreeSwitchMessageHeaders.HeaderName;
 import io.freeswitch.codec.FreeSwitchMessageHeaders.HeaderValue;
+import io.freeswitch.codec.HeaderNameCache;
 import io.freeswitch.codec.HeaderParser;
+import io.freeswitch.codec.JsonEventReader;
+import io.freeswitch.codec.XmlEventReader;
 import io.freeswitch.message.FreeSwitchMessage;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
 
-import java.io.UnsupportedEncodingException;
-import java.net.URLDecoder;
+import java.nio.charset.Charset;
 import java.util.*;
 
 /**
@@ -37,7 +40,7 @@ import java.util.*;
  * which carried the event are also available.
  * <p>
  * The eventHeader lines are parsed and cached in a map keyed by the eventHeader
- * name string. An event is always expected to have an "Event-HeaderName" eventHeader.
+ * name string. An event is always expected to have an "Event-Name" eventHeader.
  * Commonly used eventHeader names are coded in {@link EslEventHeaderNames}
  * <p>
  * Any eventBody lines are cached in a list.
@@ -50,27 +53,75 @@ import java.util.*;
  * @see EventHeaders
  */
 public class EslEvent {
-    private final Logger log = LoggerFactory.getLogger(this.getClass());
+    private static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+    private static final byte LF = 10;
 
     private final Map<HeaderName, String> messageHeaders;
-    private final Map<String, String> eventHeaders;
+    private final EventHeaderMap eventHeaders;
     private final List<String> eventBody;
-    private boolean decodeEventHeaders = true;
+    private final boolean eagerDecoding;
+    private final boolean parseCommandReply;
+    private final HeaderProjection projection;
+    /*
+     * Only kept when the projection asks for it.
+     */
+    private final FreeSwitchMessage rawMessage;
 
     public EslEvent(FreeSwitchMessage rawMessage) {
         this(rawMessage, false);
     }
 
     public EslEvent(FreeSwitchMessage rawMessage, boolean parseCommandReply) {
+        this(rawMessage, parseCommandReply, false);
+    }
+
+    /**
+     * @param rawMessage        the message carrying the event
+     * @param parseCommandReply true to parse a command/reply body as event
+     *                          headers (outbound connect response)
+     * @param eagerDecoding     true to URL decode every header value up front,
+     *                          instead of on first access to each value
+     */
+    public EslEvent(FreeSwitchMessage rawMessage, boolean parseCommandReply, boolean eagerDecoding) {
+        this(rawMessage, parseCommandReply, eagerDecoding, null);
+    }
+
+    /**
+     * @param rawMessage        the message carrying the event
+     * @param parseCommandReply true to parse a command/reply body as event
+     *                          headers (outbound connect response)
+     * @param eagerDecoding     true to URL decode every header value up front,
+     *                          instead of on first access to each value
+     * @param projection        the event headers to keep, null to keep them all
+     */
+    public EslEvent(FreeSwitchMessage rawMessage, boolean parseCommandReply, boolean eagerDecoding,
+                    HeaderProjection projection) {
+        this.eagerDecoding = eagerDecoding;
+        this.parseCommandReply = parseCommandReply;
+        this.projection = projection;
+        this.rawMessage = projection != null && projection.isKeepRaw() ? rawMessage : null;
         messageHeaders = rawMessage.headers();
-        eventHeaders = new HashMap<String, String>(rawMessage.bodyLines()
-                .size());
+        // read once, the message may be split into lines by another thread
+        ChannelBuffer bodyBuffer = rawMessage.bodyBuffer();
+        int expectedHeaders;
+        if (projection != null) {
+            expectedHeaders = projection.names().size();
+        } else {
+            expectedHeaders = bodyBuffer != null ? 64 : rawMessage.bodyLines().size();
+        }
+        eventHeaders = new EventHeaderMap(expectedHeaders);
         eventBody = new ArrayList<String>();
         // plain or xml body
         if (rawMessage.contentType().equals(HeaderValue.TEXT_EVENT_PLAIN)) {
-            parsePlainBody(rawMessage.bodyLines());
+            if (bodyBuffer != null) {
+                parsePlainBody(bodyBuffer);
+            } else {
+                parsePlainBody(rawMessage.bodyLines());
+            }
+        } else if (rawMessage.contentType().equals(HeaderValue.TEXT_EVENT_JSON)) {
+            parseJsonBody(rawMessage);
         } else if (rawMessage.contentType().equals(HeaderValue.TEXT_EVENT_XML)) {
-            throw new IllegalStateException("XML event are not yet supported");
+            parseXmlBody(rawMessage);
         } else if (rawMessage.contentType().equals(HeaderValue.COMMAND_REPLY)
                 && parseCommandReply) {
             parsePlainBody(rawMessage.bodyLines());
@@ -96,7 +147,8 @@ public class EslEvent {
      * The event headers of this event. The headers are parsed and stored in a
      * map keyed by the string name of the header, and the string mapped value
      * is the parsed content of the event header line (ie, it does not include
-     * the header name).
+     * the header name). Unless eager decoding was asked for, each value is URL
+     * decoded the first time it is read.
      *
      * @return map of event header values
      */
@@ -116,7 +168,7 @@ public class EslEvent {
     /**
      * Convenience method.
      *
-     * @return the string value of the event header "Event-HeaderName"
+     * @return the string value of the event header "Event-Name"
      */
     public String eventName() {
         return eventHeaders().get(EventHeaders.EVENT_NAME);
@@ -169,25 +221,43 @@ public class EslEvent {
         return !eventBody.isEmpty();
     }
 
+    /**
+     * @return true if only some of the event headers were kept
+     */
+    public boolean isProjected() {
+        return projection != null;
+    }
+
+    /**
+     * Parses the event again with all its headers. Only possible when the
+     * event was not projected, or projected with
+     * {@link HeaderProjection#keepRaw()}.
+     *
+     * @return an event with all the headers, this one if it was not projected
+     */
+    public EslEvent unprojected() {
+        if (projection == null) {
+            return this;
+        }
+        if (rawMessage == null) {
+            throw new IllegalStateException("Raw message not kept, use HeaderProjection.keepRaw()");
+        }
+        return new EslEvent(rawMessage, parseCommandReply, eagerDecoding, null);
+    }
+
     private void parsePlainBody(final List<String> rawBodyLines) {
         boolean isEventBody = false;
         for (String rawLine : rawBodyLines) {
             if (!isEventBody) {
+                if (projection != null && !projection.accepts(rawLine, nameLength(rawLine))) {
+                    // not wanted: skip the line without splitting it
+                    continue;
+                }
                 // split the line
                 String[] headerParts = HeaderParser.splitHeader(rawLine);
-                if (decodeEventHeaders) {
-                    try {
-                        String decodedValue = URLDecoder.decode(headerParts[1],
-                                "UTF-8");
-                        log.trace("decoded from: [{}]", headerParts[1]);
-                        log.trace("decoded   to: [{}]", decodedValue);
-                        eventHeaders.put(headerParts[0], decodedValue);
-                    } catch (UnsupportedEncodingException e) {
-                        log.warn("Could not URL decode [{}]", headerParts[1]);
-                        eventHeaders.put(headerParts[0], headerParts[1]);
-                    }
-                } else {
-                    eventHeaders.put(headerParts[0], headerParts[1]);
+                headerParts[0] = HeaderNameCache.DEFAULT.intern(headerParts[0]);
+                if (projection == null || projection.accepts(headerParts[0])) {
+                    putEventHeader(headerParts[0], headerParts[1]);
                 }
                 if (headerParts[0].equals(EventHeaders.CONTENT_LENGTH)) {
                     // the remaining lines will be considered body lines
@@ -203,6 +273,139 @@ public class EslEvent {
 
     }
 
+    private static int nameLength(String rawLine) {
+        int colon = rawLine.indexOf(':');
+        return colon < 0 ? rawLine.length() : colon;
+    }
+
+    /**
+     * Same as {@link #parsePlainBody(List)} but reads the header lines
+     * straight from the body bytes. Header names are resolved through the
+     * shared {@link HeaderNameCache}, so known names cost no allocation.
+     */
+    private void parsePlainBody(final ChannelBuffer buffer) {
+        int index = buffer.readerIndex();
+        int end = buffer.writerIndex();
+        while (index < end) {
+            int lineEnd = buffer.indexOf(index, end, LF);
+            if (lineEnd < 0) {
+                lineEnd = end;
+            }
+            if (lineEnd == index) {
+                // blank line terminating the headers
+                index++;
+                continue;
+            }
+            int colon = buffer.indexOf(index, lineEnd, (byte) ':');
+            if (colon < 0) {
+                colon = lineEnd;
+            }
+            if (projection != null && !projection.accepts(buffer, index, colon - index)) {
+                // not wanted: skip the line without building anything
+                index = lineEnd + 1;
+                continue;
+            }
+            int valueStart = colon + 1;
+            while (valueStart < lineEnd && buffer.getByte(valueStart) == ' ') {
+                valueStart++;
+            }
+            int valueEnd = lineEnd;
+            while (valueEnd > valueStart && Character.isWhitespace(buffer.getByte(valueEnd - 1))) {
+                valueEnd--;
+            }
+            String name = HeaderNameCache.DEFAULT.intern(buffer, index, colon - index);
+            String value = valueStart < valueEnd
+                    ? HeaderParser.decodeString(buffer, valueStart, valueEnd - valueStart, ISO_8859_1) : "";
+            putEventHeader(name, value);
+            index = lineEnd + 1;
+            if (name.equals(EventHeaders.CONTENT_LENGTH)) {
+                // the remaining lines are body lines
+                parseEventBody(buffer, index, end);
+                return;
+            }
+        }
+    }
+
+    private void parseEventBody(final ChannelBuffer buffer, int index, int end) {
+        while (index < end) {
+            int lineEnd = buffer.indexOf(index, end, LF);
+            if (lineEnd < 0) {
+                lineEnd = end;
+            }
+            // ignore blank line (always is one following the content-length
+            if (lineEnd > index) {
+                eventBody.add(HeaderParser.decodeString(buffer, index, lineEnd - index, ISO_8859_1));
+            }
+            index = lineEnd + 1;
+        }
+    }
+
+    /**
+     * JSON values are not URL encoded, so they are stored as they are read.
+     */
+    private void parseJsonBody(final FreeSwitchMessage rawMessage) {
+        JsonEventReader.read(bodyOf(rawMessage), HeaderNameCache.DEFAULT, new EventBodyHandler() {
+            public void header(String name, String value) {
+                if (projection == null || projection.accepts(name)) {
+                    eventHeaders.put(name, value);
+                }
+            }
+
+            public void body(String body) {
+                addBodyText(body);
+            }
+        });
+    }
+
+    /**
+     * XML header values are URL encoded like the plain ones.
+     */
+    private void parseXmlBody(final FreeSwitchMessage rawMessage) {
+        XmlEventReader.read(bodyOf(rawMessage), HeaderNameCache.DEFAULT, new EventBodyHandler() {
+            public void header(String name, String value) {
+                if (projection == null || projection.accepts(name)) {
+                    putEventHeader(name, value);
+                }
+            }
+
+            public void body(String body) {
+                addBodyText(body);
+            }
+        });
+    }
+
+    /*
+     * The decoders keep event bodies as buffers, the lines are only joined
+     * back for messages built otherwise.
+     */
+    private static ChannelBuffer bodyOf(final FreeSwitchMessage rawMessage) {
+        ChannelBuffer buffer = rawMessage.bodyBuffer();
+        if (buffer != null) {
+            return buffer;
+        }
+        StringBuilder sb = new StringBuilder();
+        for (String line : rawMessage.bodyLines()) {
+            sb.append(line).append('\n');
+        }
+        return ChannelBuffers.copiedBuffer(sb, ISO_8859_1);
+    }
+
+    private void addBodyText(String body) {
+        for (String line : body.split("\n")) {
+            if (line.length() > 0) {
+                eventBody.add(line);
+            }
+        }
+    }
+
+    private void putEventHeader(String name, String value) {
+        if (eagerDecoding) {
+            eventHeaders.put(name, EventHeaderMap.decode(value));
+        } else {
+            eventHeaders.putRaw(name, value);
+        }
+    }
+
     @Override
     public String toString() {
         StringBuilder sb = new StringBuilder("EslEvent: name=[");
@@ -211,6 +414,9 @@ public class EslEvent {
         sb.append(messageHeaders.size());
         sb.append(", eventHeaders=");
         sb.append(eventHeaders.size());
+        if (projection != null) {
+            sb.append(" projected");
+        }
         sb.append(", eventBody=");
         sb.append(eventBody.size());
         sb.append(" lines.");
@@ -0,0 +1,356 @@
+/*
+ * Copyright 2015.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.freeswitch.event;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.util.*;
+
+/**
+ * Event header map that keeps the values as received on the wire and only URL
+ * decodes a value the first time it is read. The decoded value is then cached.
+ * <p>
+ * Values that contain neither {@code '%'} nor {@code '+'} decode to themselves
+ * and are stored as they are, so only the few encoded values of an event ever
+ * pay for decoding, and only if a listener asks for them.
+ * <p>
+ * Headers are stored in parallel key and value arrays with open addressing
+ * (linear probing), so an event costs a handful of arrays instead of one
+ * {@link HashMap} node per header. Keys are expected to be interned, which
+ * makes most probes an identity check on a String whose hash is cached.
+ * <p>
+ * Reads may happen concurrently from several listener threads: two threads
+ * reading the same encoded value may both decode it, which is harmless.
+ * Changing the map after the event has been handed to listeners is not
+ * thread safe, and its iterators do not support removal.
+ *
+ * @author Arsene Tochemey GANDOTE
+ */
+public class EventHeaderMap extends AbstractMap<String, String> {
+
+    private static final Logger log = LoggerFactory.getLogger(EventHeaderMap.class);
+    private static final int MIN_CAPACITY = 8;
+
+    private String[] keys;
+    /*
+     * Values as received, URL encoded where the matching encoded bit is set.
+     */
+    private String[] values;
+    private long[] encoded;
+    /*
+     * Decoded form of the encoded values, filled on first read.
+     */
+    private String[] decoded;
+    private int size;
+
+    public EventHeaderMap(int expectedSize) {
+        allocate(capacityFor(expectedSize));
+    }
+
+    /**
+     * Store a value as received on the wire, to be URL decoded on first read.
+     *
+     * @param name  header name
+     * @param value URL encoded header value
+     */
+    void putRaw(String name, String value) {
+        store(name, value, needsDecoding(value));
+    }
+
+    @Override
+    public String get(Object key) {
+        if (!(key instanceof String)) {
+            return null;
+        }
+        int slot = indexOf((String) key);
+        return slot < 0 ? null : valueAt(slot);
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return key instanceof String && indexOf((String) key) >= 0;
+    }
+
+    @Override
+    public String put(String key, String value) {
+        if (key == null) {
+            throw new NullPointerException("key");
+        }
+        return store(key, value, false);
+    }
+
+    @Override
+    public String remove(Object key) {
+        if (!(key instanceof String)) {
+            return null;
+        }
+        int slot = indexOf((String) key);
+        if (slot < 0) {
+            return null;
+        }
+        String previous = valueAt(slot);
+        deleteAt(slot);
+        return previous;
+    }
+
+    @Override
+    public void clear() {
+        Arrays.fill(keys, null);
+        Arrays.fill(values, null);
+        Arrays.fill(encoded, 0L);
+        if (decoded != null) {
+            Arrays.fill(decoded, null);
+        }
+        size = 0;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public Set<String> keySet() {
+        return new AbstractSet<String>() {
+            @Override
+            public Iterator<String> iterator() {
+                return new SlotIterator<String>() {
+                    @Override
+                    String at(int slot) {
+                        return keys[slot];
+                    }
+                };
+            }
+
+            @Override
+            public boolean contains(Object o) {
+                return containsKey(o);
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+
+    @Override
+    public Set<Entry<String, String>> entrySet() {
+        return new AbstractSet<Entry<String, String>>() {
+            @Override
+            public Iterator<Entry<String, String>> iterator() {
+                return new SlotIterator<Entry<String, String>>() {
+                    @Override
+                    Entry<String, String> at(int slot) {
+                        return new SimpleImmutableEntry<String, String>(keys[slot], valueAt(slot));
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+
+    static boolean needsDecoding(String value) {
+        return value.indexOf('%') >= 0 || value.indexOf('+') >= 0;
+    }
+
+    static String decode(String value) {
+        try {
+            return URLDecoder.decode(value, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            log.warn("Could not URL decode [{}]", value);
+            return value;
+        } catch (IllegalArgumentException e) {
+            log.warn("Could not URL decode [{}]", value);
+            return value;
+        }
+    }
+
+    private String store(String key, String value, boolean isEncoded) {
+        int slot = indexOf(key);
+        String previous = null;
+        if (slot >= 0) {
+            previous = valueAt(slot);
+        } else {
+            if ((size + 1) * 4 > keys.length * 3) {
+                rehash(keys.length * 2);
+            }
+            slot = freeSlot(key);
+            keys[slot] = key;
+            size++;
+        }
+        values[slot] = value;
+        setEncoded(slot, isEncoded);
+        return previous;
+    }
+
+    private String valueAt(int slot) {
+        if ((encoded[slot >>> 6] & (1L << slot)) == 0) {
+            return values[slot];
+        }
+        // the raw value never changes, so a racy decode is idempotent
+        String value = decoded[slot];
+        if (value == null) {
+            value = decode(values[slot]);
+            decoded[slot] = value;
+        }
+        return value;
+    }
+
+    private void setEncoded(int slot, boolean isEncoded) {
+        if (isEncoded) {
+            if (decoded == null) {
+                decoded = new String[keys.length];
+            }
+            encoded[slot >>> 6] |= 1L << slot;
+            decoded[slot] = null;
+        } else {
+            encoded[slot >>> 6] &= ~(1L << slot);
+            if (decoded != null) {
+                decoded[slot] = null;
+            }
+        }
+    }
+
+    private int indexOf(String key) {
+        int mask = keys.length - 1;
+        for (int slot = hash(key) & mask; keys[slot] != null; slot = (slot + 1) & mask) {
+            String candidate = keys[slot];
+            if (candidate == key || candidate.equals(key)) {
+                return slot;
+            }
+        }
+        return -1;
+    }
+
+    private int freeSlot(String key) {
+        int mask = keys.length - 1;
+        int slot = hash(key) & mask;
+        while (keys[slot] != null) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    /*
+     * Backward shift deletion, so that lookups never need tombstones.
+     */
+    private void deleteAt(int slot) {
+        int mask = keys.length - 1;
+        int hole = slot;
+        for (int next = (hole + 1) & mask; keys[next] != null; next = (next + 1) & mask) {
+            int home = hash(keys[next]) & mask;
+            // move the entry back if the hole lies between its home and its slot
+            if (((next - home) & mask) >= ((next - hole) & mask)) {
+                moveTo(next, hole);
+                hole = next;
+            }
+        }
+        keys[hole] = null;
+        values[hole] = null;
+        setEncoded(hole, false);
+        size--;
+    }
+
+    private void moveTo(int from, int to) {
+        keys[to] = keys[from];
+        values[to] = values[from];
+        boolean isEncoded = (encoded[from >>> 6] & (1L << from)) != 0;
+        String decodedValue = isEncoded ? decoded[from] : null;
+        setEncoded(to, isEncoded);
+        if (isEncoded) {
+            decoded[to] = decodedValue;
+        }
+    }
+
+    private void rehash(int capacity) {
+        String[] oldKeys = keys;
+        String[] oldValues = values;
+        long[] oldEncoded = encoded;
+        String[] oldDecoded = decoded;
+        allocate(capacity);
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != null) {
+                int slot = freeSlot(oldKeys[i]);
+                keys[slot] = oldKeys[i];
+                values[slot] = oldValues[i];
+                if ((oldEncoded[i >>> 6] & (1L << i)) != 0) {
+                    setEncoded(slot, true);
+                    decoded[slot] = oldDecoded[i];
+                }
+            }
+        }
+    }
+
+    private void allocate(int capacity) {
+        keys = new String[capacity];
+        values = new String[capacity];
+        encoded = new long[(capacity + 63) >>> 6];
+        decoded = null;
+    }
+
+    private static int capacityFor(int expectedSize) {
+        int capacity = MIN_CAPACITY;
+        while (capacity * 3 < expectedSize * 4) {
+            capacity <<= 1;
+        }
+        return capacity;
+    }
+
+    private static int hash(String key) {
+        int hash = key.hashCode();
+        return hash ^ (hash >>> 16);
+    }
+
+    private abstract class SlotIterator<T> implements Iterator<T> {
+
+        private int next = advance(0);
+
+        abstract T at(int slot);
+
+        public boolean hasNext() {
+            return next < keys.length;
+        }
+
+        public T next() {
+            if (next >= keys.length) {
+                throw new NoSuchElementException();
+            }
+            T element = at(next);
+            next = advance(next + 1);
+            return element;
+        }
+
+        public void remove() {
+            throw new UnsupportedOperationException("remove");
+        }
+
+        private int advance(int slot) {
+            while (slot < keys.length && keys[slot] == null) {
+                slot++;
+            }
+            return slot;
+        }
+    }
+
+}
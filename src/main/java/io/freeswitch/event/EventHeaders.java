@@ -20,9 +20,9 @@ package io.freeswitch.event;
  */
 public class EventHeaders {
     /**
-     * {@code "Event-HeaderName"}
+     * {@code "Event-Name"}
      */
-    public static final String EVENT_NAME = "Event-HeaderName";
+    public static final String EVENT_NAME = "Event-Name";
     /**
      * {@code "Event-Date-Local"}
      */
@@ -87,6 +87,22 @@ public class EventHeaders {
      * {@code "Unique-ID"}
      */
     public static final String UNIQUE_ID = "Unique-ID";
+    /**
+     * {@code "Session-Count"}
+     */
+    public static final String SESSION_COUNT = "Session-Count";
+    /**
+     * {@code "Max-Sessions"}
+     */
+    public static final String MAX_SESSIONS = "Max-Sessions";
+    /**
+     * {@code "Idle-CPU"}
+     */
+    public static final String IDLE_CPU = "Idle-CPU";
+    /**
+     * {@code "Heartbeat-Interval"}
+     */
+    public static final String HEARTBEAT_INTERVAL = "Heartbeat-Interval";
 
     private EventHeaders() {
     }
@@ -0,0 +1,173 @@
+/*
+ * Copyright 2015.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.freeswitch.event;
+
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * The events a listener wants: event names, {@code CUSTOM} subclasses and,
+ * optionally, header conditions narrowing them down.
+ * <p>
+ * A client subscribing by interest turns the interests of its listeners
+ * into the {@code event} subscription and {@code filter} set of the
+ * connection, so that FreeSWITCH does not send the events nobody listens to.
+ * Header conditions follow the filter semantics of the server: an event
+ * matching any of them is sent. They are a hint, not a guarantee: the
+ * listener may still receive events wanted by other listeners.
+ * <p>
+ * Instances are immutable.
+ *
+ * @author Arsene Tochemey GANDOTE
+ */
+public final class EventInterest {
+
+    /**
+     * Interest in every event, the interest of a listener that declares none.
+     */
+    public static final EventInterest ALL = new EventInterest(true, Collections.<String>emptySet(),
+            Collections.<String>emptySet(), Collections.<String>emptySet());
+
+    private final boolean all;
+    private final Set<String> eventNames;
+    private final Set<String> customSubclasses;
+    private final Set<String> conditions;
+
+    private EventInterest(boolean all, Set<String> eventNames, Set<String> customSubclasses,
+                          Set<String> conditions) {
+        this.all = all;
+        this.eventNames = eventNames;
+        this.customSubclasses = customSubclasses;
+        this.conditions = conditions;
+    }
+
+    /**
+     * @param eventNames names of the events wanted, such as {@code CHANNEL_ANSWER}
+     * @return the interest in these events
+     */
+    public static EventInterest of(String... eventNames) {
+        return of(toSet(eventNames), Collections.<String>emptySet());
+    }
+
+    /**
+     * @param eventNames       names of the events wanted, {@code CUSTOM} excluded
+     * @param customSubclasses subclasses of the {@code CUSTOM} events wanted
+     * @return the interest in these events
+     */
+    public static EventInterest of(Set<String> eventNames, Set<String> customSubclasses) {
+        Set<String> names = new LinkedHashSet<String>(eventNames);
+        names.remove(EventRegistry.CUSTOM);
+        if (names.contains("ALL")) {
+            return ALL;
+        }
+        return new EventInterest(false, Collections.unmodifiableSet(names),
+                Collections.unmodifiableSet(new LinkedHashSet<String>(customSubclasses)),
+                Collections.<String>emptySet());
+    }
+
+    /**
+     * @param subclasses subclasses of the {@code CUSTOM} events wanted
+     * @return this interest extended to these {@code CUSTOM} events
+     */
+    public EventInterest custom(String... subclasses) {
+        if (all) {
+            return this;
+        }
+        Set<String> merged = new LinkedHashSet<String>(customSubclasses);
+        merged.addAll(toSet(subclasses));
+        return new EventInterest(false, eventNames, Collections.unmodifiableSet(merged), conditions);
+    }
+
+    /**
+     * Narrow this interest down to the events carrying a header value, such
+     * as the {@code Unique-ID} of one call. Conditions add up: events
+     * matching any of them are wanted.
+     *
+     * @param header event header
+     * @param value  value the header must have
+     * @return this interest narrowed down
+     */
+    public EventInterest where(String header, String value) {
+        if (header == null || header.isEmpty() || value == null || value.isEmpty()) {
+            throw new IllegalArgumentException("header and value are required");
+        }
+        if (all) {
+            throw new IllegalStateException("Conditions apply to named events only");
+        }
+        Set<String> merged = new LinkedHashSet<String>(conditions);
+        merged.add(header + ' ' + value);
+        return new EventInterest(false, eventNames, customSubclasses, Collections.unmodifiableSet(merged));
+    }
+
+    /**
+     * @return true for the interest in every event
+     */
+    public boolean isAll() {
+        return all;
+    }
+
+    /**
+     * @return names of the events wanted, {@code CUSTOM} excluded
+     */
+    public Set<String> eventNames() {
+        return eventNames;
+    }
+
+    /**
+     * @return subclasses of the {@code CUSTOM} events wanted
+     */
+    public Set<String> customSubclasses() {
+        return customSubclasses;
+    }
+
+    /**
+     * @return the header conditions, as {@code filter} arguments
+     * ({@code "header value"})
+     */
+    public Set<String> conditions() {
+        return conditions;
+    }
+
+    @Override
+    public String toString() {
+        if (all) {
+            return "EventInterest: ALL";
+        }
+        StringBuilder sb = new StringBuilder("EventInterest: events=");
+        sb.append(eventNames);
+        if (!customSubclasses.isEmpty()) {
+            sb.append(", custom=");
+            sb.append(customSubclasses);
+        }
+        if (!conditions.isEmpty()) {
+            sb.append(", where=");
+            sb.append(conditions);
+        }
+        return sb.toString();
+    }
+
+    private static Set<String> toSet(String... values) {
+        Set<String> set = new LinkedHashSet<String>();
+        for (String value : values) {
+            if (value != null && !value.isEmpty()) {
+                set.add(value);
+            }
+        }
+        return set;
+    }
+
+}
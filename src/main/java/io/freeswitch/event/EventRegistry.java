@@ -0,0 +1,381 @@
+/*
+ * Copyright 2015.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.freeswitch.event;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Routes the received events to the handlers subscribed to their name, or
+ * to their subclass for {@code CUSTOM} events.
+ * <p>
+ * Add the registry as an {@link IEventsListener} to a client. Each event
+ * costs one hash lookup on its name: events nobody subscribed to stop there.
+ * The others are wrapped once, into the wrapper of their subscription, and
+ * that one instance is handed to every handler of the event.
+ * <p>
+ * The events that have a dedicated wrapper, such as {@link Dtmf} or
+ * {@link ChannelHangupComplete}, are subscribed to through their wrapper
+ * class. Any other event, {@code CUSTOM} ones in particular, can be
+ * subscribed to by name as a {@link GenericEvent}, or with a factory building
+ * an application wrapper. All the subscriptions to one name must use the same
+ * wrapper.
+ * <p>
+ * The subscriptions make up the {@link #interest()} of the registry: a client
+ * subscribing by interest only receives the events subscribed to, and
+ * updates its subscription as the registry tells it, through
+ * {@link IInterestChangeListener}, that events are subscribed to or
+ * unsubscribed from.
+ *
+ * @author Arsene Tochemey GANDOTE
+ */
+public class EventRegistry implements IInterestedListener {
+
+    public static final String CUSTOM = "CUSTOM";
+
+    private static final Logger log = LoggerFactory.getLogger(EventRegistry.class);
+    private static final Map<Class<?>, Binding<?>> WRAPPERS = new HashMap<Class<?>, Binding<?>>();
+    private static final IEventFactory<GenericEvent> GENERIC = new IEventFactory<GenericEvent>() {
+        public GenericEvent create(EslEvent event) {
+            return new GenericEvent(event);
+        }
+    };
+
+    static {
+        bind("BACKGROUND_JOB", BackgroundJob.class, new IEventFactory<BackgroundJob>() {
+            public BackgroundJob create(EslEvent event) {
+                return new BackgroundJob(event);
+            }
+        });
+        bind("CHANNEL_BRIDGE", ChannelBridge.class, new IEventFactory<ChannelBridge>() {
+            public ChannelBridge create(EslEvent event) {
+                return new ChannelBridge(event);
+            }
+        });
+        bind("CHANNEL_EXECUTE", ChannelExecute.class, new IEventFactory<ChannelExecute>() {
+            public ChannelExecute create(EslEvent event) {
+                return new ChannelExecute(event);
+            }
+        });
+        bind("CHANNEL_EXECUTE_COMPLETE", ChannelExecuteComplete.class,
+                new IEventFactory<ChannelExecuteComplete>() {
+                    public ChannelExecuteComplete create(EslEvent event) {
+                        return new ChannelExecuteComplete(event);
+                    }
+                });
+        bind("CHANNEL_HANGUP", ChannelHangup.class, new IEventFactory<ChannelHangup>() {
+            public ChannelHangup create(EslEvent event) {
+                return new ChannelHangup(event);
+            }
+        });
+        bind("CHANNEL_HANGUP_COMPLETE", ChannelHangupComplete.class,
+                new IEventFactory<ChannelHangupComplete>() {
+                    public ChannelHangupComplete create(EslEvent event) {
+                        return new ChannelHangupComplete(event);
+                    }
+                });
+        bind("CHANNEL_PROGRESS", ChannelProgress.class, new IEventFactory<ChannelProgress>() {
+            public ChannelProgress create(EslEvent event) {
+                return new ChannelProgress(event);
+            }
+        });
+        bind("CHANNEL_PROGRESS_MEDIA", ChannelProgressMedia.class,
+                new IEventFactory<ChannelProgressMedia>() {
+                    public ChannelProgressMedia create(EslEvent event) {
+                        return new ChannelProgressMedia(event);
+                    }
+                });
+        bind("CHANNEL_UNBRIDGE", ChannelUnbridge.class, new IEventFactory<ChannelUnbridge>() {
+            public ChannelUnbridge create(EslEvent event) {
+                return new ChannelUnbridge(event);
+            }
+        });
+        bind("DTMF", Dtmf.class, new IEventFactory<Dtmf>() {
+            public Dtmf create(EslEvent event) {
+                return new Dtmf(event);
+            }
+        });
+        bind("RECORD_STOP", RecordStop.class, new IEventFactory<RecordStop>() {
+            public RecordStop create(EslEvent event) {
+                return new RecordStop(event);
+            }
+        });
+        bind("SESSION_HEARTBEAT", SessionHeartbeat.class, new IEventFactory<SessionHeartbeat>() {
+            public SessionHeartbeat create(EslEvent event) {
+                return new SessionHeartbeat(event);
+            }
+        });
+    }
+
+    private final ConcurrentHashMap<String, Route<?>> routes = new ConcurrentHashMap<String, Route<?>>();
+    private final ConcurrentHashMap<String, Route<?>> customRoutes = new ConcurrentHashMap<String, Route<?>>();
+    private final CopyOnWriteArrayList<IInterestChangeListener> interestChangeListeners =
+            new CopyOnWriteArrayList<IInterestChangeListener>();
+
+    /**
+     * Subscribe to the event delivered as the given wrapper.
+     *
+     * @param type    wrapper of the event, such as {@code Dtmf.class}
+     * @param handler receives the events
+     */
+    @SuppressWarnings("unchecked")
+    public <T extends AbstractEvent> void subscribe(Class<T> type, IEventHandler<? super T> handler) {
+        Binding<T> binding = (Binding<T>) WRAPPERS.get(type);
+        if (binding == null) {
+            throw new IllegalArgumentException("No event is delivered as " + type.getName()
+                    + ", subscribe by event name instead");
+        }
+        if (subscribe(routes, binding.eventName, binding.factory, handler)) {
+            interestChanged();
+        }
+    }
+
+    /**
+     * Subscribe to an event by name, delivered as a {@link GenericEvent}.
+     *
+     * @param eventName name of the event, such as {@code CHANNEL_ANSWER}
+     * @param handler   receives the events
+     */
+    public void subscribe(String eventName, IEventHandler<? super GenericEvent> handler) {
+        subscribe(eventName, GENERIC, handler);
+    }
+
+    /**
+     * Subscribe to an event by name, delivered as the wrapper built by the
+     * given factory.
+     *
+     * @param eventName name of the event
+     * @param factory   builds the wrapper, shared by all the subscriptions
+     *                  to the event
+     * @param handler   receives the events
+     */
+    public <T extends AbstractEvent> void subscribe(String eventName, IEventFactory<T> factory,
+                                                    IEventHandler<? super T> handler) {
+        if (CUSTOM.equals(eventName)) {
+            throw new IllegalArgumentException("Subscribe to CUSTOM events by subclass");
+        }
+        if (subscribe(routes, eventName, factory, handler)) {
+            interestChanged();
+        }
+    }
+
+    /**
+     * Subscribe to a {@code CUSTOM} event, delivered as a
+     * {@link GenericEvent}.
+     *
+     * @param subclass the event subclass, such as {@code sofia::register}
+     * @param handler  receives the events
+     */
+    public void subscribeCustom(String subclass, IEventHandler<? super GenericEvent> handler) {
+        subscribeCustom(subclass, GENERIC, handler);
+    }
+
+    /**
+     * Subscribe to a {@code CUSTOM} event, delivered as the wrapper built by
+     * the given factory.
+     *
+     * @param subclass the event subclass
+     * @param factory  builds the wrapper, shared by all the subscriptions to
+     *                 the subclass
+     * @param handler  receives the events
+     */
+    public <T extends AbstractEvent> void subscribeCustom(String subclass, IEventFactory<T> factory,
+                                                          IEventHandler<? super T> handler) {
+        if (subscribe(customRoutes, subclass, factory, handler)) {
+            interestChanged();
+        }
+    }
+
+    /**
+     * Remove a handler from all its subscriptions.
+     *
+     * @param handler the handler to remove
+     */
+    public void unsubscribe(IEventHandler<?> handler) {
+        boolean changed;
+        synchronized (this) {
+            changed = unsubscribe(routes, handler) | unsubscribe(customRoutes, handler);
+        }
+        if (changed) {
+            interestChanged();
+        }
+    }
+
+    /**
+     * Be told when the events subscribed to change. Clients subscribing by
+     * interest register themselves when the registry is added to them.
+     *
+     * @param listener told of the changes
+     */
+    public void addInterestChangeListener(IInterestChangeListener listener) {
+        if (listener != null) {
+            interestChangeListeners.addIfAbsent(listener);
+        }
+    }
+
+    /**
+     * @param listener no longer told of the changes
+     */
+    public void removeInterestChangeListener(IInterestChangeListener listener) {
+        interestChangeListeners.remove(listener);
+    }
+
+    /**
+     * @return the names of the events subscribed to, {@code CUSTOM} included
+     * when a subclass is
+     */
+    public Set<String> eventNames() {
+        Set<String> names = new TreeSet<String>(routes.keySet());
+        if (!customRoutes.isEmpty()) {
+            names.add(CUSTOM);
+        }
+        return names;
+    }
+
+    /**
+     * @return the {@code CUSTOM} subclasses subscribed to
+     */
+    public Set<String> customSubclasses() {
+        return new TreeSet<String>(customRoutes.keySet());
+    }
+
+    /**
+     * @return the events subscribed to at the moment
+     */
+    public EventInterest interest() {
+        return EventInterest.of(routes.keySet(), customRoutes.keySet());
+    }
+
+    public void eventReceived(EslEvent event) {
+        route(event);
+    }
+
+    public void backgroundJobEventReceived(EslEvent event) {
+        route(event);
+    }
+
+    private void route(EslEvent event) {
+        String eventName = event.eventName();
+        if (eventName == null) {
+            return;
+        }
+        Route<?> route;
+        if (CUSTOM.equals(eventName)) {
+            String subclass = event.eventHeaders().get(EventHeaders.EVENT_SUBCLASS);
+            route = subclass == null ? null : customRoutes.get(subclass);
+        } else {
+            route = routes.get(eventName);
+        }
+        if (route != null) {
+            route.deliver(event);
+        }
+    }
+
+    private void interestChanged() {
+        for (IInterestChangeListener listener : interestChangeListeners) {
+            try {
+                listener.interestChanged(this);
+            } catch (Throwable t) {
+                log.error("Error caught notifying an interest change", t);
+            }
+        }
+    }
+
+    /*
+     * Returns true when the event was not subscribed to before.
+     */
+    @SuppressWarnings("unchecked")
+    private synchronized <T extends AbstractEvent> boolean subscribe(Map<String, Route<?>> table, String key,
+                                                                  IEventFactory<T> factory,
+                                                                  IEventHandler<? super T> handler) {
+        if (key == null) {
+            throw new NullPointerException("eventName");
+        }
+        if (handler == null) {
+            throw new NullPointerException("handler");
+        }
+        Route<T> route = (Route<T>) table.get(key);
+        boolean created = route == null;
+        if (created) {
+            route = new Route<T>(factory);
+            table.put(key, route);
+        } else if (route.factory != factory) {
+            throw new IllegalStateException("Event [" + key
+                    + "] is already subscribed to with another wrapper");
+        }
+        route.handlers.add(handler);
+        return created;
+    }
+
+    /*
+     * Returns true when an event is no longer subscribed to.
+     */
+    private static boolean unsubscribe(Map<String, Route<?>> table, IEventHandler<?> handler) {
+        boolean removed = false;
+        Iterator<Route<?>> routes = table.values().iterator();
+        while (routes.hasNext()) {
+            Route<?> route = routes.next();
+            route.handlers.remove(handler);
+            if (route.handlers.isEmpty()) {
+                routes.remove();
+                removed = true;
+            }
+        }
+        return removed;
+    }
+
+    private static <T extends AbstractEvent> void bind(String eventName, Class<T> type,
+                                                       IEventFactory<T> factory) {
+        WRAPPERS.put(type, new Binding<T>(eventName, factory));
+    }
+
+    private static final class Binding<T extends AbstractEvent> {
+
+        final String eventName;
+        final IEventFactory<T> factory;
+
+        Binding(String eventName, IEventFactory<T> factory) {
+            this.eventName = eventName;
+            this.factory = factory;
+        }
+    }
+
+    private static final class Route<T extends AbstractEvent> {
+
+        final IEventFactory<T> factory;
+        final List<IEventHandler<? super T>> handlers = new CopyOnWriteArrayList<IEventHandler<? super T>>();
+
+        Route(IEventFactory<T> factory) {
+            this.factory = factory;
+        }
+
+        void deliver(EslEvent event) {
+            T wrapper = factory.create(event);
+            for (IEventHandler<? super T> handler : handlers) {
+                try {
+                    handler.handle(wrapper);
+                } catch (Throwable t) {
+                    log.error("Error caught handling event [" + event + ']', t);
+                }
+            }
+        }
+    }
+
+}
@@ -0,0 +1,46 @@
+/*
+ * Copyright 2015.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.freeswitch.event;
+
+/**
+ * Wrapper of the events that have no dedicated one, {@code CUSTOM} events
+ * in particular.
+ *
+ * @author Arsene Tochemey GANDOTE
+ */
+public class GenericEvent extends AbstractEvent {
+
+    /**
+     * @param event
+     */
+    public GenericEvent(EslEvent event) {
+        super(event);
+    }
+
+    /**
+     * @return the event name
+     */
+    public String eventName() {
+        return _event.eventName();
+    }
+
+    /**
+     * @return the subclass of a {@code CUSTOM} event, null for other events
+     */
+    public String eventSubclass() {
+        return _event.eventHeaders().get(EventHeaders.EVENT_SUBCLASS);
+    }
+}
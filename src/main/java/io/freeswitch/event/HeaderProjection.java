@@ -0,0 +1,198 @@
+/*
+ * Copyright 2015.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.freeswitch.event;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * The event header names a consumer is interested in.
+ * <p>
+ * When a projection is set, {@link EslEvent} only keeps the listed headers:
+ * the other header lines are skipped by comparing their name bytes, without
+ * creating any String or URL decoding anything. The decoders keep the event
+ * bodies as buffers for that, whatever their {@code sliceBody} setting. {@link EventHeaders#EVENT_NAME},
+ * {@link EventHeaders#CONTENT_LENGTH} and {@link EventHeaders#JOB_UUID} are
+ * always kept, since events are routed on the first, the body is found with
+ * the second and background job replies are matched to their job with the
+ * third.
+ * <p>
+ * A projection built with {@link #keepRaw()} also has the events keep the
+ * message they were decoded from, so that {@link EslEvent#unprojected()} can
+ * parse them again in full when a consumer needs a header it did not ask for.
+ * <p>
+ * Instances are immutable and can be shared between connections.
+ *
+ * @author Arsene Tochemey GANDOTE
+ */
+public final class HeaderProjection {
+
+    private final Set<String> names;
+    private final String[] table;
+    private final int mask;
+    private final boolean keepRaw;
+
+    private HeaderProjection(Set<String> names, boolean keepRaw) {
+        this.names = Collections.unmodifiableSet(names);
+        this.keepRaw = keepRaw;
+        int size = Integer.highestOneBit(names.size() * 4);
+        String[] table = new String[size];
+        for (String name : names) {
+            int slot = hash(name) & (size - 1);
+            while (table[slot] != null) {
+                slot = (slot + 1) & (size - 1);
+            }
+            table[slot] = name;
+        }
+        this.table = table;
+        this.mask = size - 1;
+    }
+
+    /**
+     * @param names event header names to keep, matched case sensitively
+     * @return a projection keeping these headers
+     */
+    public static HeaderProjection of(String... names) {
+        return of(Arrays.asList(names));
+    }
+
+    /**
+     * @param names event header names to keep, matched case sensitively
+     * @return a projection keeping these headers
+     */
+    public static HeaderProjection of(Collection<String> names) {
+        Set<String> set = new LinkedHashSet<String>();
+        set.add(EventHeaders.EVENT_NAME);
+        set.add(EventHeaders.CONTENT_LENGTH);
+        set.add(EventHeaders.JOB_UUID);
+        for (String name : names) {
+            if (name == null) {
+                throw new NullPointerException("header name");
+            }
+            set.add(name);
+        }
+        return new HeaderProjection(set, false);
+    }
+
+    /**
+     * @return the same projection, with the events keeping their raw message
+     * so that they can be parsed again in full
+     */
+    public HeaderProjection keepRaw() {
+        return keepRaw ? this : new HeaderProjection(names, true);
+    }
+
+    /**
+     * @return true when the events keep their raw message
+     */
+    public boolean isKeepRaw() {
+        return keepRaw;
+    }
+
+    /**
+     * @return the header names kept, including the ones always kept
+     */
+    public Set<String> names() {
+        return names;
+    }
+
+    /**
+     * @param name event header name
+     * @return true if the header is kept
+     */
+    public boolean accepts(String name) {
+        return names.contains(name);
+    }
+
+    /**
+     * Same as {@link #accepts(String)} for a header name held in the buffer
+     * between {@code index} and {@code index + length}. Nothing is allocated.
+     *
+     * @param buffer holding the header name
+     * @param index  of the first byte of the name
+     * @param length of the name in bytes
+     * @return true if the header is kept
+     */
+    public boolean accepts(ChannelBuffer buffer, int index, int length) {
+        int hash = 0;
+        for (int i = index; i < index + length; i++) {
+            hash = 31 * hash + (buffer.getByte(i) & 0xFF);
+        }
+        for (int slot = spread(hash) & mask; table[slot] != null; slot = (slot + 1) & mask) {
+            if (matches(table[slot], buffer, index, length)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Same as {@link #accepts(String)} for the header name making up the first
+     * {@code length} characters of a header line. Nothing is allocated.
+     *
+     * @param line   header line starting with the header name
+     * @param length of the name in characters
+     * @return true if the header is kept
+     */
+    public boolean accepts(String line, int length) {
+        int hash = 0;
+        for (int i = 0; i < length; i++) {
+            hash = 31 * hash + (line.charAt(i) & 0xFF);
+        }
+        for (int slot = spread(hash) & mask; table[slot] != null; slot = (slot + 1) & mask) {
+            String name = table[slot];
+            if (name.length() == length && name.regionMatches(0, line, 0, length)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public String toString() {
+        return "HeaderProjection" + names + (keepRaw ? " keeping raw" : "");
+    }
+
+    private static int hash(String name) {
+        int hash = 0;
+        for (int i = 0; i < name.length(); i++) {
+            hash = 31 * hash + (name.charAt(i) & 0xFF);
+        }
+        return spread(hash);
+    }
+
+    private static int spread(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+
+    private static boolean matches(String name, ChannelBuffer buffer, int index, int length) {
+        if (name.length() != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (name.charAt(i) != (buffer.getByte(index + i) & 0xFF)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+}
@@ -0,0 +1,39 @@
+/*
+ * Copyright 2015.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.freeswitch.event;
+
+import java.util.List;
+
+/**
+ * Listener able to take several events at once.
+ * <p>
+ * A dispatcher that has more than one event ready for such a listener, like
+ * the {@link RingBufferEventDispatcher}, hands them over in one call instead
+ * of one {@link #eventReceived(EslEvent)} call per event. Other dispatchers
+ * keep calling {@link #eventReceived(EslEvent)}.
+ *
+ * @author Arsene Tochemey GANDOTE
+ */
+public interface IEventBatchListener extends IEventsListener {
+
+    /**
+     * Signal of consecutive server initiated events, in the order they were
+     * received.
+     *
+     * @param events the events, only valid for the duration of the call
+     */
+    void eventsReceived(List<EslEvent> events);
+}
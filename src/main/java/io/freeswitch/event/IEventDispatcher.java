@@ -0,0 +1,42 @@
+/*
+ * Copyright 2015.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.freeswitch.event;
+
+/**
+ * Runs the delivery of received events to the listeners, away from the IO
+ * threads.
+ *
+ * @author Arsene Tochemey GANDOTE
+ */
+public interface IEventDispatcher {
+
+    /**
+     * Schedule the delivery of an event. Deliveries of events that the
+     * dispatcher considers related run one at a time, in the order they were
+     * dispatched.
+     *
+     * @param event    the event being delivered
+     * @param listener receives the event through
+     *                 {@link IEventsListener#eventReceived(EslEvent)}
+     */
+    void dispatch(EslEvent event, IEventsListener listener);
+
+    /**
+     * Stop the delivery threads once the events already dispatched have been
+     * delivered.
+     */
+    void shutdown();
+}
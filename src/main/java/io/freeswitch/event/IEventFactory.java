@@ -0,0 +1,31 @@
+/*
+ * Copyright 2015.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.freeswitch.event;
+
+/**
+ * Builds the wrapper of a received event.
+ *
+ * @param <T> the wrapper type
+ * @author Arsene Tochemey GANDOTE
+ */
+public interface IEventFactory<T extends AbstractEvent> {
+
+    /**
+     * @param event the received event
+     * @return the event wrapped
+     */
+    T create(EslEvent event);
+}
@@ -0,0 +1,58 @@
+/*
+ * Copyright 2015.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.freeswitch.event;
+
+/**
+ * Receives the events of a connection at the pace it asks for them.
+ * <p>
+ * Follows the Reactive Streams {@code Subscriber} contract: nothing is
+ * received before {@link IEventSubscription#request(long)} is called, the
+ * calls are never concurrent, and {@link #onError(Throwable)} or
+ * {@link #onComplete()} end the subscription. Adapting it to a Reactive
+ * Streams or {@code java.util.concurrent.Flow} subscriber is a matter of
+ * forwarding the calls.
+ *
+ * @author Arsene Tochemey GANDOTE
+ */
+public interface IEventSubscriber {
+
+    /**
+     * First call of the subscription.
+     *
+     * @param subscription to request events with, or cancel
+     */
+    void onSubscribe(IEventSubscription subscription);
+
+    /**
+     * Signal of a requested event.
+     *
+     * @param event the received event
+     */
+    void onNext(EslEvent event);
+
+    /**
+     * The subscription failed, no other call follows.
+     *
+     * @param cause of the failure
+     */
+    void onError(Throwable cause);
+
+    /**
+     * The connection closed and all its events were delivered, no other
+     * call follows.
+     */
+    void onComplete();
+}
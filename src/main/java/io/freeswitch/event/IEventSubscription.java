@@ -0,0 +1,37 @@
+/*
+ * Copyright 2015.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.freeswitch.event;
+
+/**
+ * Link between an {@link IEventSubscriber} and the connection it receives
+ * the events of.
+ *
+ * @author Arsene Tochemey GANDOTE
+ */
+public interface IEventSubscription {
+
+    /**
+     * Ask for more events. Demand adds up.
+     *
+     * @param n number of events the subscriber is ready for, positive
+     */
+    void request(long n);
+
+    /**
+     * Stop receiving events. Events already on their way may still arrive.
+     */
+    void cancel();
+}
@@ -0,0 +1,33 @@
+/*
+ * Copyright 2015.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.freeswitch.event;
+
+/**
+ * Told when the events wanted by an {@link IInterestedListener} change, so
+ * that a client subscribing by interest can update the subscription.
+ *
+ * @author Arsene Tochemey GANDOTE
+ */
+public interface IInterestChangeListener {
+
+    /**
+     * Signal that {@link IInterestedListener#interest()} now returns other
+     * events.
+     *
+     * @param listener the listener whose interest changed
+     */
+    void interestChanged(IInterestedListener listener);
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright 2015.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.freeswitch.event;
+
+/**
+ * Snapshot of one lane of a {@link PartitionedEventDispatcher}.
+ *
+ * @author Arsene Tochemey GANDOTE
+ */
+public class LaneStats {
+
+    private final int lane;
+    private final int depth;
+    private final long delivered;
+    private final long totalLatencyNanos;
+    private final long maxLatencyNanos;
+
+    public LaneStats(int lane, int depth, long delivered, long totalLatencyNanos,
+                     long maxLatencyNanos) {
+        this.lane = lane;
+        this.depth = depth;
+        this.delivered = delivered;
+        this.totalLatencyNanos = totalLatencyNanos;
+        this.maxLatencyNanos = maxLatencyNanos;
+    }
+
+    /**
+     * @return index of the lane
+     */
+    public int lane() {
+        return lane;
+    }
+
+    /**
+     * @return number of events waiting in the lane
+     */
+    public int depth() {
+        return depth;
+    }
+
+    /**
+     * @return number of events delivered by the lane
+     */
+    public long delivered() {
+        return delivered;
+    }
+
+    /**
+     * @return nanoseconds spent by all the delivered events between their
+     * dispatch and the end of their delivery
+     */
+    public long totalLatencyNanos() {
+        return totalLatencyNanos;
+    }
+
+    /**
+     * @return longest time in nanoseconds between the dispatch of an event
+     * and the end of its delivery
+     */
+    public long maxLatencyNanos() {
+        return maxLatencyNanos;
+    }
+
+    /**
+     * @return average time in microseconds between the dispatch of an event
+     * and the end of its delivery
+     */
+    public double averageLatencyMicros() {
+        return delivered == 0 ? 0 : totalLatencyNanos / 1000.0 / delivered;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("LaneStats: lane=");
+        sb.append(lane);
+        sb.append(", depth=");
+        sb.append(depth);
+        sb.append(", delivered=");
+        sb.append(delivered);
+        sb.append(", latency=");
+        sb.append(String.format("%.1f", averageLatencyMicros()));
+        sb.append("us avg/");
+        sb.append(maxLatencyNanos / 1000);
+        sb.append("us max.");
+
+        return sb.toString();
+    }
+
+}
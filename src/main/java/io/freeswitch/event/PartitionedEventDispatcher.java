@@ -0,0 +1,177 @@
+/*
+ * Copyright 2015.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.freeswitch.event;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Dispatcher spreading the events over a fixed number of lanes, each run by
+ * one thread.
+ * <p>
+ * The lane of an event is chosen by hashing the value of a key header, the
+ * {@code Unique-ID} of the call by default. Events of one call therefore
+ * reach the listeners in order while events of different calls are
+ * delivered in parallel. Events without the key header, such as
+ * {@code HEARTBEAT}, all go to the first lane. When a
+ * {@link HeaderProjection} is in use it must keep the key header.
+ * <p>
+ * The lanes are unbounded: {@link #laneStats()} tells how far each one lags
+ * behind.
+ *
+ * @author Arsene Tochemey GANDOTE
+ */
+public class PartitionedEventDispatcher implements IEventDispatcher {
+
+    private static final Logger log = LoggerFactory.getLogger(PartitionedEventDispatcher.class);
+
+    private final String keyHeader;
+    private final Lane[] lanes;
+
+    /**
+     * One lane per core, keyed on the {@code Unique-ID}.
+     */
+    public PartitionedEventDispatcher() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param lanes number of delivery threads
+     */
+    public PartitionedEventDispatcher(int lanes) {
+        this(lanes, EventHeaders.UNIQUE_ID);
+    }
+
+    /**
+     * @param lanes     number of delivery threads
+     * @param keyHeader header whose value selects the lane of an event
+     */
+    public PartitionedEventDispatcher(int lanes, String keyHeader) {
+        if (lanes <= 0) {
+            throw new IllegalArgumentException("lanes must be a positive integer: " + lanes);
+        }
+        if (keyHeader == null) {
+            throw new NullPointerException("keyHeader");
+        }
+        this.keyHeader = keyHeader;
+        this.lanes = new Lane[lanes];
+        for (int i = 0; i < lanes; i++) {
+            this.lanes[i] = new Lane(i);
+        }
+    }
+
+    public void dispatch(final EslEvent event, final IEventsListener listener) {
+        lanes[laneOf(event)].execute(new Runnable() {
+            public void run() {
+                listener.eventReceived(event);
+            }
+        });
+    }
+
+    public void shutdown() {
+        for (Lane lane : lanes) {
+            lane.shutdown();
+        }
+    }
+
+    /**
+     * @return the header whose value selects the lane of an event
+     */
+    public String keyHeader() {
+        return keyHeader;
+    }
+
+    /**
+     * @return a snapshot of every lane
+     */
+    public List<LaneStats> laneStats() {
+        List<LaneStats> stats = new ArrayList<LaneStats>(lanes.length);
+        for (Lane lane : lanes) {
+            stats.add(lane.stats());
+        }
+        return stats;
+    }
+
+    int laneOf(EslEvent event) {
+        String key = event.eventHeaders().get(keyHeader);
+        if (key == null || lanes.length == 1) {
+            return 0;
+        }
+        int hash = key.hashCode();
+        hash ^= hash >>> 16;
+        return (hash & Integer.MAX_VALUE) % lanes.length;
+    }
+
+    private static final class Lane extends ThreadPoolExecutor {
+
+        private final int index;
+        private final AtomicLong delivered = new AtomicLong();
+        private final AtomicLong totalLatencyNanos = new AtomicLong();
+        private volatile long maxLatencyNanos;
+
+        Lane(final int index) {
+            super(1, 1, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(),
+                    new ThreadFactory() {
+                        public Thread newThread(Runnable r) {
+                            Thread thread = new Thread(r, "EslEventNotifier-" + (index + 1));
+                            thread.setDaemon(true);
+                            return thread;
+                        }
+                    });
+            this.index = index;
+        }
+
+        @Override
+        public void execute(final Runnable delivery) {
+            final long dispatchedAt = System.nanoTime();
+            super.execute(new Runnable() {
+                public void run() {
+                    try {
+                        delivery.run();
+                    } catch (Throwable t) {
+                        log.error("Error caught delivering event", t);
+                    }
+                    record(System.nanoTime() - dispatchedAt);
+                }
+            });
+        }
+
+        /*
+         * Only the lane thread writes the max, so it needs no CAS.
+         */
+        private void record(long latencyNanos) {
+            delivered.incrementAndGet();
+            totalLatencyNanos.addAndGet(latencyNanos);
+            if (latencyNanos > maxLatencyNanos) {
+                maxLatencyNanos = latencyNanos;
+            }
+        }
+
+        LaneStats stats() {
+            return new LaneStats(index, getQueue().size(), delivered.get(), totalLatencyNanos.get(),
+                    maxLatencyNanos);
+        }
+    }
+
+}
@@ -0,0 +1,278 @@
+/*
+ * Copyright 2015.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.freeswitch.event;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Dispatcher handing the events to one consumer thread through a
+ * preallocated ring buffer.
+ * <p>
+ * Dispatching an event writes it into the next slot and publishes the slot
+ * sequence: nothing is allocated and no lock is taken. The consumer takes all
+ * the published slots at once, up to the batch size, and hands consecutive
+ * events of an {@link IEventBatchListener} over in one call. All the events
+ * are delivered in order, on the one consumer thread.
+ * <p>
+ * The ring has a single producer: it must be fed by one connection, whose
+ * events are handled by one thread at a time. When the ring is full the
+ * producer waits for the consumer, which slows down reading from the
+ * connection instead of queueing without bound. A
+ * {@link io.freeswitch.outbound.FreeSwitchClient} pauses reading before the
+ * ring fills, see
+ * {@link io.freeswitch.outbound.FreeSwitchClient#setDispatchWatermarks}.
+ * <p>
+ * The listeners must not block: the producer may be waiting for them on the
+ * thread that reads the replies, and a listener waiting for one would never
+ * get it. Commands are sent from the listeners with the asynchronous
+ * methods, the blocking ones of the client fail on the consumer thread, see
+ * {@link #isConsumerThread()}.
+ *
+ * @author Arsene Tochemey GANDOTE
+ */
+public class RingBufferEventDispatcher implements IEventDispatcher {
+
+    /**
+     * How a thread waits for the other side of the ring.
+     */
+    public enum WaitStrategy {
+        /**
+         * Keep a core spinning: lowest latency, one core always busy.
+         */
+        BUSY_SPIN,
+        /**
+         * Spin, yielding the core to other threads between checks.
+         */
+        YIELD,
+        /**
+         * Spin a little, then sleep until the producer signals new events:
+         * no core burnt while idle, at the cost of a wake up.
+         */
+        PARK
+    }
+
+    private static final Logger log = LoggerFactory.getLogger(RingBufferEventDispatcher.class);
+    private static final int SPIN_TRIES = 100;
+    private static final long PARK_NANOS = 1000000;
+
+    private final EslEvent[] events;
+    private final IEventsListener[] listeners;
+    private final int mask;
+    private final int maxBatchSize;
+    private final WaitStrategy waitStrategy;
+    private final Thread consumer;
+    /*
+     * Last sequence written by the producer, only read by the producer.
+     */
+    private long claimed = -1;
+    private final AtomicLong published = new AtomicLong(-1);
+    private final AtomicLong consumed = new AtomicLong(-1);
+    private volatile boolean consumerParked = false;
+    private volatile boolean running = true;
+
+    /**
+     * 4096 slots, batches of up to 256 events, parking when idle.
+     */
+    public RingBufferEventDispatcher() {
+        this(4096, 256, WaitStrategy.PARK);
+    }
+
+    /**
+     * @param capacity     number of slots, rounded up to a power of two
+     * @param maxBatchSize maximum number of events handed over in one call
+     * @param waitStrategy how the consumer waits for events, and the
+     *                     producer for free slots
+     */
+    public RingBufferEventDispatcher(int capacity, int maxBatchSize, WaitStrategy waitStrategy) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be a positive integer: " + capacity);
+        }
+        if (maxBatchSize <= 0) {
+            throw new IllegalArgumentException(
+                    "maxBatchSize must be a positive integer: " + maxBatchSize);
+        }
+        if (waitStrategy == null) {
+            throw new NullPointerException("waitStrategy");
+        }
+        int size = capacity == 1 ? 1 : Integer.highestOneBit(capacity - 1) << 1;
+        this.events = new EslEvent[size];
+        this.listeners = new IEventsListener[size];
+        this.mask = size - 1;
+        this.maxBatchSize = Math.min(maxBatchSize, size);
+        this.waitStrategy = waitStrategy;
+        this.consumer = new Consumer(new Runnable() {
+            public void run() {
+                consume();
+            }
+        });
+        this.consumer.setDaemon(true);
+        this.consumer.start();
+    }
+
+    public void dispatch(EslEvent event, IEventsListener listener) {
+        if (!running) {
+            throw new IllegalStateException("Dispatcher shut down");
+        }
+        long sequence = ++claimed;
+        int tries = 0;
+        while (sequence - events.length > consumed.get()) {
+            if (!running) {
+                throw new IllegalStateException("Dispatcher shut down");
+            }
+            tries = waitForConsumer(tries);
+        }
+        int slot = (int) sequence & mask;
+        events[slot] = event;
+        listeners[slot] = listener;
+        if (waitStrategy != WaitStrategy.PARK) {
+            published.lazySet(sequence);
+        } else {
+            // full fence, so that the consumer either sees the event or is seen parking
+            published.set(sequence);
+            if (consumerParked) {
+                LockSupport.unpark(consumer);
+            }
+        }
+    }
+
+    public void shutdown() {
+        running = false;
+        LockSupport.unpark(consumer);
+    }
+
+    /**
+     * @return true on the thread delivering the events of a ring, where
+     * nothing may block
+     */
+    public static boolean isConsumerThread() {
+        return Thread.currentThread() instanceof Consumer;
+    }
+
+    /**
+     * @return number of events dispatched and not delivered yet
+     */
+    public long backlog() {
+        return published.get() - consumed.get();
+    }
+
+    /**
+     * @return number of slots of the ring
+     */
+    public int capacity() {
+        return events.length;
+    }
+
+    private void consume() {
+        ArrayList<EslEvent> batch = new ArrayList<EslEvent>(maxBatchSize);
+        long next = 0;
+        int tries = 0;
+        while (true) {
+            long available = published.get();
+            if (available < next) {
+                if (!running) {
+                    return;
+                }
+                tries = waitForProducer(tries);
+                continue;
+            }
+            tries = 0;
+            long last = Math.min(available, next + maxBatchSize - 1);
+            IEventsListener current = null;
+            for (long sequence = next; sequence <= last; sequence++) {
+                int slot = (int) sequence & mask;
+                IEventsListener listener = listeners[slot];
+                if (listener != current) {
+                    deliver(current, batch);
+                    current = listener;
+                }
+                batch.add(events[slot]);
+                events[slot] = null;
+                listeners[slot] = null;
+            }
+            deliver(current, batch);
+            consumed.lazySet(last);
+            next = last + 1;
+        }
+    }
+
+    private void deliver(IEventsListener listener, ArrayList<EslEvent> batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        try {
+            if (listener instanceof IEventBatchListener && batch.size() > 1) {
+                ((IEventBatchListener) listener).eventsReceived(batch);
+            } else {
+                for (int i = 0; i < batch.size(); i++) {
+                    listener.eventReceived(batch.get(i));
+                }
+            }
+        } catch (Throwable t) {
+            log.error("Error caught delivering events", t);
+        }
+        batch.clear();
+    }
+
+    private int waitForProducer(int tries) {
+        switch (waitStrategy) {
+            case BUSY_SPIN:
+                return tries;
+            case YIELD:
+                Thread.yield();
+                return tries;
+            default:
+                if (tries < SPIN_TRIES) {
+                    return tries + 1;
+                }
+                consumerParked = true;
+                // the producer may have published before seeing the flag
+                if (published.get() < consumed.get() + 1 && running) {
+                    LockSupport.parkNanos(this, PARK_NANOS);
+                }
+                consumerParked = false;
+                return tries;
+        }
+    }
+
+    private int waitForConsumer(int tries) {
+        switch (waitStrategy) {
+            case BUSY_SPIN:
+                return tries;
+            case YIELD:
+                Thread.yield();
+                return tries;
+            default:
+                if (tries < SPIN_TRIES) {
+                    return tries + 1;
+                }
+                LockSupport.parkNanos(this, PARK_NANOS / 100);
+                return tries;
+        }
+    }
+
+    private static final class Consumer extends Thread {
+
+        Consumer(Runnable consume) {
+            super(consume, "EslRingDispatcher");
+        }
+    }
+
+}
@@ -0,0 +1,152 @@
+/*
+ * Copyright 2015.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.freeswitch.event;
+
+import io.freeswitch.common.VirtualThreads;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Dispatcher giving each call its own virtual thread.
+ * <p>
+ * Events are grouped by the value of a key header, the {@code Unique-ID} of
+ * the call by default, and each group is delivered in order by a virtual
+ * thread started for it. The thread ends once the events of its call are
+ * delivered. A listener may therefore block, waiting for the reply to a
+ * command or sleeping between two prompts, without holding up other calls
+ * or pinning a platform thread: tens of thousands of calls can each run
+ * plain blocking code. Events without the key header, such as
+ * {@code HEARTBEAT}, form a group of their own.
+ * <p>
+ * Without virtual threads at runtime the groups run on at most
+ * {@link VirtualThreads#FALLBACK_THREADS} platform threads, the other calls
+ * waiting for one of them: listeners blocking for all of those calls hold up
+ * the rest.
+ *
+ * @author Arsene Tochemey GANDOTE
+ */
+public class VirtualThreadEventDispatcher implements IEventDispatcher {
+
+    private static final Logger log = LoggerFactory.getLogger(VirtualThreadEventDispatcher.class);
+
+    private final String keyHeader;
+    private final ExecutorService executor = VirtualThreads.newExecutor("EslEventListener-");
+    /*
+     * Groups with events pending, guarded by itself.
+     */
+    private final Map<String, Group> groups = new HashMap<String, Group>();
+
+    /**
+     * Groups the events by {@code Unique-ID}.
+     */
+    public VirtualThreadEventDispatcher() {
+        this(EventHeaders.UNIQUE_ID);
+    }
+
+    /**
+     * @param keyHeader header whose value groups the events delivered in
+     *                  order
+     */
+    public VirtualThreadEventDispatcher(String keyHeader) {
+        if (keyHeader == null) {
+            throw new NullPointerException("keyHeader");
+        }
+        this.keyHeader = keyHeader;
+    }
+
+    public void dispatch(EslEvent event, IEventsListener listener) {
+        String key = event.eventHeaders().get(keyHeader);
+        if (key == null) {
+            key = "";
+        }
+        Group group;
+        boolean start;
+        synchronized (groups) {
+            group = groups.get(key);
+            if (group == null) {
+                group = new Group(key);
+                groups.put(key, group);
+            }
+            group.events.add(event);
+            group.listeners.add(listener);
+            start = !group.running;
+            group.running = true;
+        }
+        if (start) {
+            executor.execute(group);
+        }
+    }
+
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    /**
+     * @return the header whose value groups the events
+     */
+    public String keyHeader() {
+        return keyHeader;
+    }
+
+    /**
+     * @return number of calls with events being delivered
+     */
+    public int activeGroups() {
+        synchronized (groups) {
+            return groups.size();
+        }
+    }
+
+    private final class Group implements Runnable {
+
+        private final String key;
+        private final ArrayDeque<EslEvent> events = new ArrayDeque<EslEvent>();
+        private final ArrayDeque<IEventsListener> listeners = new ArrayDeque<IEventsListener>();
+        private boolean running = false;
+
+        Group(String key) {
+            this.key = key;
+        }
+
+        public void run() {
+            while (true) {
+                EslEvent event;
+                IEventsListener listener;
+                synchronized (groups) {
+                    event = events.poll();
+                    if (event == null) {
+                        // the next event of the call starts a new group
+                        running = false;
+                        groups.remove(key);
+                        return;
+                    }
+                    listener = listeners.poll();
+                }
+                try {
+                    listener.eventReceived(event);
+                } catch (Throwable t) {
+                    log.error("Error caught delivering event [" + event + ']', t);
+                }
+            }
+        }
+    }
+
+}
@@ -18,17 +18,21 @@ package io.freeswitch.inbound;
 import io.freeswitch.codec.FreeSwitchMessageHeaders.HeaderName;
 import io.freeswitch.codec.FreeSwitchMessageHeaders.HeaderValue;
 import io.freeswitch.command.ConnectCommand;
+import io.freeswitch.common.SerialExecutor;
 import io.freeswitch.event.EslEvent;
+import io.freeswitch.event.HeaderProjection;
 import io.freeswitch.message.FreeSwitchMessage;
+import io.freeswitch.message.PendingReplies;
 import org.jboss.netty.channel.*;
+import org.jboss.netty.util.Timer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.Queue;
-import java.util.concurrent.ConcurrentLinkedQueue;
-import java.util.concurrent.CountDownLatch;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BiConsumer;
 
 /**
  * @author Arsene Tochemey GANDOTE
@@ -38,12 +42,22 @@ public abstract class FreeSwitchHandler extends SimpleChannelUpstreamHandler {
 
     public static final String MESSAGE_TERMINATOR = "\n\n";
     public static final String LINE_TERMINATOR = "\n";
+    /*
+     * Session tasks queued before reading from the connection is suspended,
+     * and resumed.
+     */
+    private static final int SESSION_HIGH_WATERMARK = 1024;
+    private static final int SESSION_LOW_WATERMARK = 256;
     protected final Logger log = LoggerFactory.getLogger(this.getClass());
-    private final Lock syncLock = new ReentrantLock();
-    private final Queue<SyncCallback> syncCallbacks = new ConcurrentLinkedQueue<SyncCallback>();
+    private volatile PendingReplies pendingReplies = new PendingReplies();
+    private volatile long commandTimeoutMillis = 0;
+    private volatile boolean eagerHeaderDecoding = false;
+    private volatile HeaderProjection headerProjection;
+    private volatile SerialExecutor session;
+    private final AtomicBoolean sessionPaused = new AtomicBoolean(false);
 
     @Override
-    public void channelConnected(ChannelHandlerContext ctx, ChannelStateEvent e) throws Exception {
+    public void channelConnected(final ChannelHandlerContext ctx, ChannelStateEvent e) throws Exception {
 
         Channel channel = ctx.getChannel();
         // Have received a connection from FreeSWITCH server, send connect
@@ -52,34 +66,73 @@ public abstract class FreeSwitchHandler extends SimpleChannelUpstreamHandler {
                 "Received new connection from server [{}], sending connect message",
                 channel.getLocalAddress().toString());
         ConnectCommand connect = new ConnectCommand();
-        FreeSwitchMessage response = sendSyncCommand(ctx.getChannel(),
-                connect.toString());
-        // The message decoder for outbound, treats most of this incoming
-        // message as an 'event' in
-        // message body, so it parse now
-        EslEvent channelDataEvent = new EslEvent(response, true);
-        // Let implementing sub classes choose what to do next
-        handleConnectResponse(ctx, channelDataEvent);
+        /*
+         * The reply is handled by the executor thread of this connection,
+         * which is this one: waiting for it here would never return, and
+         * would hold a thread shared with the other connections.
+         */
+        sendCommand(channel, connect.toString()).whenComplete(new BiConsumer<FreeSwitchMessage, Throwable>() {
+            public void accept(final FreeSwitchMessage response, final Throwable cause) {
+                runSession(ctx, new Runnable() {
+                    public void run() {
+                        if (cause != null) {
+                            handleException(ctx, cause);
+                            return;
+                        }
+                        // The message decoder for outbound, treats most of this incoming
+                        // message as an 'event' in
+                        // message body, so it parse now
+                        EslEvent channelDataEvent = new EslEvent(response, true, eagerHeaderDecoding);
+                        // Let implementing sub classes choose what to do next
+                        handleConnectResponse(ctx, channelDataEvent);
+                    }
+                });
+            }
+        });
+    }
+
+    @Override
+    public void channelDisconnected(final ChannelHandlerContext ctx, ChannelStateEvent e) throws Exception {
+        runSession(ctx, new Runnable() {
+            public void run() {
+                handleDisconnectionNotice(ctx);
+            }
+        });
     }
 
     @Override
-    public void channelDisconnected(ChannelHandlerContext ctx, ChannelStateEvent e) throws Exception {
-        handleDisconnectionNotice(ctx);
+    public void channelClosed(ChannelHandlerContext ctx, ChannelStateEvent e) throws Exception {
+        pendingReplies.close();
+        super.channelClosed(ctx, e);
     }
 
     @Override
-    public void messageReceived(ChannelHandlerContext ctx, MessageEvent e)
+    public void messageReceived(final ChannelHandlerContext ctx, MessageEvent e)
             throws Exception {
         if (e.getMessage() instanceof FreeSwitchMessage) {
-            FreeSwitchMessage message = (FreeSwitchMessage) e.getMessage();
+            final FreeSwitchMessage message = (FreeSwitchMessage) e.getMessage();
             String contentType = message.contentType();
             if (contentType.equals(HeaderValue.TEXT_EVENT_PLAIN)
+                    || contentType.equals(HeaderValue.TEXT_EVENT_JSON)
                     || contentType.equals(HeaderValue.TEXT_EVENT_XML)) {
                 // transform into an event
-                EslEvent eslEvent = new EslEvent(message);
-                handleEslEvent(ctx, eslEvent);
+                final EslEvent eslEvent = new EslEvent(message, false, eagerHeaderDecoding,
+                        headerProjection);
+                runSession(ctx, new Runnable() {
+                    public void run() {
+                        handleEslEvent(ctx, eslEvent);
+                    }
+                });
+            } else if (contentType.equals(HeaderValue.API_RESPONSE)
+                    || contentType.equals(HeaderValue.COMMAND_REPLY)) {
+                // the session may be blocked waiting for this very reply
+                handleEslMessage(ctx, message);
             } else {
-                handleEslMessage(ctx, (FreeSwitchMessage) e.getMessage());
+                runSession(ctx, new Runnable() {
+                    public void run() {
+                        handleEslMessage(ctx, message);
+                    }
+                });
             }
             return;
         }
@@ -88,8 +141,12 @@ public abstract class FreeSwitchHandler extends SimpleChannelUpstreamHandler {
     }
 
     @Override
-    public void exceptionCaught(ChannelHandlerContext ctx, ExceptionEvent e) {
-        handleException(ctx, e.getCause());
+    public void exceptionCaught(final ChannelHandlerContext ctx, final ExceptionEvent e) {
+        runSession(ctx, new Runnable() {
+            public void run() {
+                handleException(ctx, e.getCause());
+            }
+        });
     }
 
     protected abstract void handleConnectResponse(ChannelHandlerContext ctx,
@@ -97,6 +154,71 @@ public abstract class FreeSwitchHandler extends SimpleChannelUpstreamHandler {
 
     protected abstract void handleDisconnectionNotice(ChannelHandlerContext ctx);
 
+    /**
+     * By default event header values are URL decoded on first access. Set
+     * this to decode every value when the event is built, as it used to be.
+     *
+     * @param eagerHeaderDecoding true to decode all header values up front
+     */
+    public void setEagerHeaderDecoding(boolean eagerHeaderDecoding) {
+        this.eagerHeaderDecoding = eagerHeaderDecoding;
+    }
+
+    /**
+     * Only keep the given event headers in the events built from now on. The
+     * channel data received on connection is always kept in full.
+     *
+     * @param headerProjection the headers to keep, null to keep them all
+     */
+    public void setHeaderProjection(HeaderProjection headerProjection) {
+        this.headerProjection = headerProjection;
+    }
+
+    /**
+     * Deadline of the commands sent without one. A command whose reply has
+     * not arrived by then fails with a
+     * {@link org.jboss.netty.handler.timeout.TimeoutException}.
+     *
+     * @param timeout time to wait for a reply, 0 to wait forever
+     * @param unit    unit of the timeout
+     */
+    public void setCommandTimeout(long timeout, TimeUnit unit) {
+        this.commandTimeoutMillis = unit.toMillis(timeout);
+        pendingReplies.setDefaultTimeout(timeout, unit);
+    }
+
+    /**
+     * Timer enforcing the command deadlines, the
+     * {@link io.freeswitch.common.SharedTimer} unless set. Must be set before
+     * the handler is added to a pipeline.
+     *
+     * @param timer timer shared with other connections
+     */
+    public void setTimer(Timer timer) {
+        PendingReplies replies = new PendingReplies(0, timer);
+        replies.setDefaultTimeout(commandTimeoutMillis, TimeUnit.MILLISECONDS);
+        this.pendingReplies = replies;
+    }
+
+    /**
+     * Run the session logic, {@link #handleConnectResponse},
+     * {@link #handleEslEvent} and the other callbacks, one at a time on the
+     * threads of the given executor instead of the thread delivering the
+     * messages. Replies are then handed to the commands waiting for them as
+     * soon as they are read, so the callbacks may block in
+     * {@link #sendSyncCommand}: over a virtual thread executor, each session
+     * is plain blocking code costing one virtual thread, over platform
+     * threads one platform thread. Reading from the connection pauses while
+     * too many callbacks are queued, but never while a command waits for its
+     * reply. Must be set before the handler is added to a pipeline.
+     *
+     * @param executor runs the session logic, null to run it on the thread
+     *                 delivering the messages
+     */
+    public void setSessionExecutor(Executor executor) {
+        this.session = executor == null ? null : new SerialExecutor(executor);
+    }
+
     protected abstract void handleEslEvent(ChannelHandlerContext ctx,
                                            EslEvent event);
 
@@ -107,10 +229,10 @@ public abstract class FreeSwitchHandler extends SimpleChannelUpstreamHandler {
 
         if (contentType.equals(HeaderValue.API_RESPONSE)) {
             log.debug("Api response received [{}]", message);
-            syncCallbacks.poll().handle(message);
+            pendingReplies.complete(message);
         } else if (contentType.equals(HeaderValue.COMMAND_REPLY)) {
             log.debug("Command reply received [{}]", message);
-            syncCallbacks.poll().handle(message);
+            pendingReplies.complete(message);
         } else if (contentType.equals(HeaderValue.TEXT_DISCONNECT_NOTICE)) {
             log.debug("Disconnect notice received [{}]", message);
             handleDisconnectionNotice(ctx);
@@ -122,6 +244,48 @@ public abstract class FreeSwitchHandler extends SimpleChannelUpstreamHandler {
     protected abstract void handleException(ChannelHandlerContext ctx,
                                             Throwable cause);
 
+    /*
+     * Runs a session callback in place, or queues it on the session executor.
+     * Reading from the connection is suspended while the session lags too
+     * far behind, unless a command waits for its reply.
+     */
+    private void runSession(ChannelHandlerContext ctx, final Runnable callback) {
+        final SerialExecutor serial = session;
+        if (serial == null) {
+            callback.run();
+            return;
+        }
+        final Channel channel = ctx.getChannel();
+        serial.execute(new Runnable() {
+            public void run() {
+                try {
+                    callback.run();
+                } finally {
+                    if (serial.pending() <= SESSION_LOW_WATERMARK) {
+                        resumeReading(channel);
+                    }
+                }
+            }
+        });
+        if (serial.pending() >= SESSION_HIGH_WATERMARK && sessionPaused.compareAndSet(false, true)) {
+            channel.setReadable(false);
+            /*
+             * The session may have caught up in the meantime, or be blocked
+             * on a reply that must still be read. A command sent from now on
+             * sees the flag and resumes by itself.
+             */
+            if (serial.pending() <= SESSION_LOW_WATERMARK || pendingReplies.awaited() > 0) {
+                resumeReading(channel);
+            }
+        }
+    }
+
+    private void resumeReading(Channel channel) {
+        if (sessionPaused.compareAndSet(true, false)) {
+            channel.setReadable(true);
+        }
+    }
+
     /**
      * Returns the Job UUID of that the response event will have.
      *
@@ -155,54 +319,28 @@ public abstract class FreeSwitchHandler extends SimpleChannelUpstreamHandler {
      */
     public FreeSwitchMessage sendSyncCommand(Channel channel,
                                              final String command) {
-        SyncCallback callback = new SyncCallback();
-        syncLock.lock();
-        try {
-            syncCallbacks.add(callback);
-            channel.write(command + MESSAGE_TERMINATOR);
-        } finally {
-            syncLock.unlock();
-        }
-
         // Block until the response is available
-        return callback.get();
+        return PendingReplies.await(sendCommand(channel, command));
     }
 
-    private static class SyncCallback {
-
-        private static final Logger log = LoggerFactory
-                .getLogger(SyncCallback.class);
-        private final CountDownLatch latch = new CountDownLatch(1);
-        private FreeSwitchMessage response;
-
-        /**
-         * Block waiting for the countdown latch to be released, then return the
-         * associated response object.
-         *
-         * @return
-         */
-        FreeSwitchMessage get() {
-            try {
-                log.trace("awaiting latch ... ");
-                latch.await();
-            } catch (InterruptedException e) {
-                throw new RuntimeException(e);
-            }
-
-            log.trace("returning response [{}]", response);
-            return response;
-        }
-
-        /**
-         * Attach this response to the callback and release the countdown latch.
-         *
-         * @param response
-         */
-        void handle(FreeSwitchMessage response) {
-            this.response = response;
-            log.trace("releasing latch for response [{}]", response);
-            latch.countDown();
+    /**
+     * Send a command without waiting for its response. The returned future is
+     * completed by the IO path when the matching {@link FreeSwitchMessage}
+     * arrives.
+     *
+     * @param channel
+     * @param command single string to send
+     * @return a future completed with the response to this command
+     */
+    public CompletableFuture<FreeSwitchMessage> sendCommand(Channel channel,
+                                                            final String command) {
+        CompletableFuture<FreeSwitchMessage> reply = pendingReplies.send(channel,
+                command + MESSAGE_TERMINATOR);
+        if (sessionPaused.get()) {
+            // the reply must be read, the session may block on it
+            resumeReading(channel);
         }
+        return reply;
     }
 
 }
@@ -15,30 +15,245 @@
  */
 package io.freeswitch.inbound;
 
+import io.freeswitch.EslResources;
 import io.freeswitch.ExecutionHandler;
 import io.freeswitch.codec.FreeSwitchDecoder;
+import io.freeswitch.codec.FreeSwitchFrameDecoder;
+import io.freeswitch.common.VirtualThreads;
+import io.freeswitch.event.HeaderProjection;
+import org.jboss.netty.channel.ChannelHandler;
 import org.jboss.netty.channel.ChannelPipelineFactory;
 import org.jboss.netty.channel.Channels;
 import org.jboss.netty.handler.execution.OrderedMemoryAwareThreadPoolExecutor;
+import org.jboss.netty.util.ExternalResourceReleasable;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
+ * Builds the pipeline of every outbound socket connection accepted by a
+ * {@link FreeSwitchServer}.
+ * <p>
+ * All the connections accepted through one factory hand their messages to
+ * the same ordered executor: messages of a connection are still handled one
+ * at a time and in order, but the number of threads and the memory held by
+ * queued messages are bounded for the whole server instead of per call.
+ * <p>
+ * The session logic of each connection runs one callback at a time on a
+ * session executor of its own, see
+ * {@link FreeSwitchHandler#setSessionExecutor}, never on the ordered
+ * executor: a session blocked in {@link FreeSwitchHandler#sendSyncCommand}
+ * does not hold back the replies it waits for, nor the other connections.
+ * The session threads are platform threads, at most
+ * {@link #DEFAULT_SESSION_THREADS} unless set, or virtual threads.
+ *
  * @author Arsene Tochemey GANDOTE
  */
-public abstract class FreeSwitchPipelineFactory implements ChannelPipelineFactory {
+public abstract class FreeSwitchPipelineFactory implements ChannelPipelineFactory, ExternalResourceReleasable {
+
+    /**
+     * Bytes of received messages queued per connection before reading from
+     * it is suspended.
+     */
+    public static final long MAX_CHANNEL_MEMORY_SIZE = 1048576;
+    /**
+     * Bytes of received messages queued for all the connections before the
+     * IO threads block.
+     */
+    public static final long MAX_TOTAL_MEMORY_SIZE = 64 * 1048576;
+    /**
+     * Platform threads running session logic for all the connections. A
+     * session blocked waiting for a reply holds one of them, the sessions
+     * beyond wait for a thread to be free.
+     */
+    public static final int DEFAULT_SESSION_THREADS = Runtime.getRuntime().availableProcessors() * 16;
+
+    private final boolean useFrameDecoder;
+    private final boolean sliceBody;
+    private volatile HeaderProjection headerProjection;
+    private volatile EslResources resources;
+    private volatile boolean useVirtualThreads = false;
+    private volatile int sessionThreads = DEFAULT_SESSION_THREADS;
+    private ExecutionHandler executionHandler;
+    private ExecutorService sessionExecutor;
+    private ExecutorService virtualSessionExecutor;
+
+    public FreeSwitchPipelineFactory() {
+        this(false, false);
+    }
+
+    /**
+     * @param useFrameDecoder true to decode with the scanning {@link FreeSwitchFrameDecoder}
+     *                        instead of the replaying {@link FreeSwitchDecoder}
+     */
+    public FreeSwitchPipelineFactory(boolean useFrameDecoder) {
+        this(useFrameDecoder, false);
+    }
+
+    /**
+     * @param useFrameDecoder true to decode with the scanning {@link FreeSwitchFrameDecoder}
+     *                        instead of the replaying {@link FreeSwitchDecoder}
+     * @param sliceBody       true to keep message bodies as slices of the received buffers
+     */
+    public FreeSwitchPipelineFactory(boolean useFrameDecoder, boolean sliceBody) {
+        this.useFrameDecoder = useFrameDecoder;
+        this.sliceBody = sliceBody;
+    }
 
     public org.jboss.netty.channel.ChannelPipeline getPipeline() throws Exception {
         org.jboss.netty.channel.ChannelPipeline pipeline = Channels.pipeline();
         pipeline.addLast("encoder", new org.jboss.netty.handler.codec.string.StringEncoder());
-        pipeline.addLast("decoder", new FreeSwitchDecoder(8192, true));
-        // Add an executor to ensure separate thread for each upstream message from here
-        pipeline.addLast("executor", new ExecutionHandler(
-                new OrderedMemoryAwareThreadPoolExecutor(16, 1048576, 1048576)));
+        pipeline.addLast("decoder", buildDecoder());
+        EslResources shared = resources;
+        boolean virtual = useVirtualThreads;
+        if (!virtual) {
+            // Add an executor to ensure separate thread for each upstream message from here
+            pipeline.addLast("executor", shared != null ? shared.executionHandler() : executionHandler());
+        }
 
         // now the inbound client logic
-        pipeline.addLast("clientHandler", buildHandler());
+        FreeSwitchHandler handler = buildHandler();
+        handler.setHeaderProjection(headerProjection);
+        if (virtual) {
+            handler.setSessionExecutor(shared != null ? shared.sessionExecutor() : virtualSessionExecutor());
+        } else {
+            handler.setSessionExecutor(sessionExecutor());
+        }
+        if (shared != null) {
+            handler.setTimer(shared.timer());
+        }
+        pipeline.addLast("clientHandler", handler);
 
         return pipeline;
     }
 
+    /**
+     * Only keep the given event headers in the events of the connections
+     * accepted from now on.
+     *
+     * @param headerProjection the headers to keep, null to keep them all
+     */
+    public void setHeaderProjection(HeaderProjection headerProjection) {
+        this.headerProjection = headerProjection;
+    }
+
+    /**
+     * Run the connections accepted from now on with the shared handler
+     * executor and timer instead of an executor per connection.
+     *
+     * @param resources shared threads and timer, null for dedicated ones
+     */
+    public void setResources(EslResources resources) {
+        this.resources = resources;
+    }
+
+    /**
+     * Run the session logic of the connections accepted from now on with a
+     * virtual thread per session rather than on the bounded platform session
+     * threads, so that any number of sessions can block waiting for replies.
+     * The messages are then read without the ordered executor. At most
+     * {@link VirtualThreads#FALLBACK_THREADS} platform threads are used when
+     * the runtime has no virtual threads.
+     *
+     * @param useVirtualThreads true for virtual threads
+     */
+    public void setUseVirtualThreads(boolean useVirtualThreads) {
+        this.useVirtualThreads = useVirtualThreads;
+    }
+
+    /**
+     * Number of platform threads running the session logic of all the
+     * connections, when not on virtual threads. Takes effect when the
+     * session threads are next started.
+     *
+     * @param sessionThreads at least one
+     */
+    public void setSessionThreads(int sessionThreads) {
+        if (sessionThreads < 1) {
+            throw new IllegalArgumentException("sessionThreads: " + sessionThreads);
+        }
+        this.sessionThreads = sessionThreads;
+    }
+
+    /**
+     * Stop the executors shared by the connections, unless they belong to the
+     * {@link EslResources}. A later connection starts new ones.
+     */
+    public synchronized void releaseExternalResources() {
+        if (executionHandler != null) {
+            executionHandler.releaseExternalResources();
+            executionHandler = null;
+        }
+        if (sessionExecutor != null) {
+            sessionExecutor.shutdown();
+            sessionExecutor = null;
+        }
+        if (virtualSessionExecutor != null) {
+            virtualSessionExecutor.shutdown();
+            virtualSessionExecutor = null;
+        }
+    }
+
+    private synchronized ExecutorService virtualSessionExecutor() {
+        if (virtualSessionExecutor == null) {
+            virtualSessionExecutor = VirtualThreads.newExecutor("EslSession-");
+        }
+        return virtualSessionExecutor;
+    }
+
+    /*
+     * Bounded platform threads for the session logic, off the ordered
+     * executor, stopped when idle.
+     */
+    private synchronized ExecutorService sessionExecutor() {
+        if (sessionExecutor == null) {
+            int threads = sessionThreads;
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                        AtomicInteger threadNumber = new AtomicInteger(1);
+
+                        public Thread newThread(Runnable r) {
+                            Thread thread = new Thread(r, "EslSession-" + threadNumber.getAndIncrement());
+                            thread.setDaemon(true);
+                            return thread;
+                        }
+                    });
+            executor.allowCoreThreadTimeOut(true);
+            sessionExecutor = executor;
+        }
+        return sessionExecutor;
+    }
+
+    /*
+     * One executor for all the connections, sized on the cores.
+     */
+    private synchronized ExecutionHandler executionHandler() {
+        if (executionHandler == null) {
+            executionHandler = new ExecutionHandler(new OrderedMemoryAwareThreadPoolExecutor(
+                    Runtime.getRuntime().availableProcessors() * 2,
+                    MAX_CHANNEL_MEMORY_SIZE, MAX_TOTAL_MEMORY_SIZE, 30, TimeUnit.SECONDS,
+                    new ThreadFactory() {
+                        AtomicInteger threadNumber = new AtomicInteger(1);
+
+                        public Thread newThread(Runnable r) {
+                            return new Thread(r, "EslSessionHandler-"
+                                    + threadNumber.getAndIncrement());
+                        }
+                    }));
+        }
+        return executionHandler;
+    }
+
+    protected ChannelHandler buildDecoder() {
+        if (useFrameDecoder) {
+            return new FreeSwitchFrameDecoder(8192, true, sliceBody);
+        }
+        return new FreeSwitchDecoder(8192, true, sliceBody);
+    }
+
     protected abstract FreeSwitchHandler buildHandler();
 }
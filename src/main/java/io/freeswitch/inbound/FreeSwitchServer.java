@@ -15,6 +15,8 @@
  */
 package io.freeswitch.inbound;
 
+import io.freeswitch.EslResources;
+import io.freeswitch.event.HeaderProjection;
 import org.jboss.netty.bootstrap.ServerBootstrap;
 import org.jboss.netty.channel.Channel;
 import org.jboss.netty.channel.ChannelFactory;
@@ -54,6 +56,7 @@ public class FreeSwitchServer {
 
     private final ChannelFactory channelFactory;
     private final FreeSwitchPipelineFactory pipelineFactory;
+    private final boolean sharedResources;
 
     /**
      *
@@ -65,6 +68,48 @@ public class FreeSwitchServer {
         this.channelFactory = new NioServerSocketChannelFactory(
                 Executors.newCachedThreadPool(),
                 Executors.newCachedThreadPool());
+        this.sharedResources = false;
+    }
+
+    /**
+     * Server accepting connections on threads shared with other clients and
+     * servers. The resources are not released when the server stops.
+     *
+     * @param port            binding port
+     * @param pipelineFactory builds the pipeline of the accepted connections
+     * @param resources       shared threads and timer
+     */
+    public FreeSwitchServer(int port, FreeSwitchPipelineFactory pipelineFactory,
+                            EslResources resources) {
+        this.port = port;
+        this.pipelineFactory = pipelineFactory;
+        this.channelFactory = resources.serverChannelFactory();
+        this.sharedResources = true;
+        pipelineFactory.setResources(resources);
+    }
+
+    /**
+     * Declare the event headers the sessions need. Events of the connections
+     * accepted afterwards only carry these headers.
+     *
+     * @param headerProjection the headers to keep, null to keep them all
+     */
+    public void setHeaderProjection(HeaderProjection headerProjection) {
+        pipelineFactory.setHeaderProjection(headerProjection);
+    }
+
+    /**
+     * Run the session logic of the connections accepted afterwards on virtual
+     * threads, one per session, so that any number of sessions can be written
+     * in blocking style with {@link FreeSwitchHandler#sendSyncCommand}. Over
+     * platform threads, a blocked session holds one of the
+     * {@link FreeSwitchPipelineFactory#setSessionThreads session threads}.
+     *
+     * @param useVirtualThreads true for virtual threads
+     * @see FreeSwitchPipelineFactory#setUseVirtualThreads
+     */
+    public void setUseVirtualThreads(boolean useVirtualThreads) {
+        pipelineFactory.setUseVirtualThreads(useVirtualThreads);
     }
 
     /**
@@ -92,7 +137,10 @@ public class FreeSwitchServer {
         // Wait until the server socket is closed.
         ChannelGroupFuture future = allChannels.close();
         future.awaitUninterruptibly();
-        channelFactory.releaseExternalResources();
+        if (!sharedResources) {
+            pipelineFactory.releaseExternalResources();
+            channelFactory.releaseExternalResources();
+        }
         log.info("SocketClient stopped");
     }
 }
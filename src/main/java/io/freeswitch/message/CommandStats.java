@@ -0,0 +1,137 @@
+/*
+ * Copyright 2015.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.freeswitch.message;
+
+/**
+ * Snapshot of the command traffic of one connection.
+ *
+ * @author Arsene Tochemey GANDOTE
+ */
+public class CommandStats {
+
+    private final long sent;
+    private final long completed;
+    private final int inFlight;
+    private final int maxInFlight;
+    private final long timedOut;
+    private final long lateReplies;
+    private final int expiredUnanswered;
+    private final long elapsedMillis;
+
+    public CommandStats(long sent, long completed, int inFlight, int maxInFlight, long timedOut,
+                        long lateReplies, int expiredUnanswered, long elapsedMillis) {
+        this.sent = sent;
+        this.completed = completed;
+        this.inFlight = inFlight;
+        this.maxInFlight = maxInFlight;
+        this.timedOut = timedOut;
+        this.lateReplies = lateReplies;
+        this.expiredUnanswered = expiredUnanswered;
+        this.elapsedMillis = elapsedMillis;
+    }
+
+    /**
+     * @return number of commands written since the connection was set up
+     */
+    public long sent() {
+        return sent;
+    }
+
+    /**
+     * @return number of commands whose reply has been received in time
+     */
+    public long completed() {
+        return completed;
+    }
+
+    /**
+     * @return number of commands sent and still waiting for their reply
+     */
+    public int inFlight() {
+        return inFlight;
+    }
+
+    /**
+     * @return the in-flight window, 0 when unbounded
+     */
+    public int maxInFlight() {
+        return maxInFlight;
+    }
+
+    /**
+     * @return number of commands that failed because their deadline passed
+     */
+    public long timedOut() {
+        return timedOut;
+    }
+
+    /**
+     * @return number of replies dropped because their command had expired
+     */
+    public long lateReplies() {
+        return lateReplies;
+    }
+
+    /**
+     * @return number of commands in flight whose deadline has passed, still
+     * holding their place until their reply arrives
+     */
+    public int expiredUnanswered() {
+        return expiredUnanswered;
+    }
+
+    /**
+     * @return milliseconds since the connection was set up
+     */
+    public long elapsedMillis() {
+        return elapsedMillis;
+    }
+
+    /**
+     * @return average number of replies received per second
+     */
+    public double completedPerSecond() {
+        return elapsedMillis == 0 ? 0 : completed * 1000.0 / elapsedMillis;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("CommandStats: sent=");
+        sb.append(sent);
+        sb.append(", completed=");
+        sb.append(completed);
+        sb.append(", inFlight=");
+        sb.append(inFlight);
+        if (maxInFlight > 0) {
+            sb.append('/');
+            sb.append(maxInFlight);
+        }
+        if (timedOut > 0) {
+            sb.append(", timedOut=");
+            sb.append(timedOut);
+            sb.append(", lateReplies=");
+            sb.append(lateReplies);
+            sb.append(", expiredUnanswered=");
+            sb.append(expiredUnanswered);
+        }
+        sb.append(", ");
+        sb.append(String.format("%.1f", completedPerSecond()));
+        sb.append(" replies/s.");
+
+        return sb.toString();
+    }
+
+}
@@ -17,9 +17,12 @@ package io.freeswitch.message;
 
 import io.freeswitch.codec.FreeSwitchMessageHeaders;
 import io.freeswitch.codec.FreeSwitchMessageHeaders.HeaderName;
+import io.freeswitch.codec.HeaderParser;
+import org.jboss.netty.buffer.ChannelBuffer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
@@ -30,12 +33,21 @@ import java.util.Map;
  * @author david varnes
  */
 public class FreeSwitchMessage {
-    private final Logger log = LoggerFactory.getLogger(this.getClass());
+    private static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+    private static final byte LF = 10;
+
+    private static final Logger log = LoggerFactory.getLogger(FreeSwitchMessage.class);
 
     private final Map<HeaderName, String> headers = new HashMap<FreeSwitchMessageHeaders.HeaderName, String>();
     private final List<String> body = new ArrayList<String>();
 
     private Integer contentLength = null;
+    /**
+     * Undecoded body, only split into lines on demand. Set back to null once
+     * the lines are in {@link #body}, which is therefore complete for any
+     * thread reading null here.
+     */
+    private volatile ChannelBuffer bodyBuffer = null;
 
     /**
      * All the received message headers in a map keyed by
@@ -103,14 +115,41 @@ public class FreeSwitchMessage {
     }
 
     /**
-     * Any received message body lines
+     * Any received message body lines. When the body was kept as a buffer by
+     * the decoder, it is split into lines on the first call, once even when
+     * several threads read the message.
      *
      * @return list with a string for each line received, may be an empty list
      */
     public List<String> bodyLines() {
+        if (bodyBuffer != null) {
+            splitBodyBuffer();
+        }
         return body;
     }
 
+    /**
+     * Convenience method
+     *
+     * @return true if and only if the body was kept as a buffer by the decoder
+     */
+    public boolean hasBodyBuffer() {
+        return bodyBuffer != null;
+    }
+
+    /**
+     * The undecoded body as received on the wire, when the decoder was set to
+     * keep it as a buffer. The returned buffer has its own indexes but shares
+     * its content with the message.
+     *
+     * @return the body bytes, or null when the body was decoded into lines
+     * or has already been split by {@link #bodyLines()}
+     */
+    public ChannelBuffer bodyBuffer() {
+        ChannelBuffer buffer = bodyBuffer;
+        return buffer == null ? null : buffer.duplicate();
+    }
+
     /**
      * Used by the {@link FreeSwitchDecoder}.
      *
@@ -118,7 +157,9 @@ public class FreeSwitchMessage {
      * @param value
      */
     public void addHeader(FreeSwitchMessageHeaders.HeaderName name, String value) {
-        log.debug("adding header [{}] [{}]", name, value);
+        if (log.isDebugEnabled()) {
+            log.debug("adding header [{}] [{}]", name, value);
+        }
         headers.put(name, value);
     }
 
@@ -134,6 +175,35 @@ public class FreeSwitchMessage {
         body.add(line);
     }
 
+    /**
+     * Used by the {@link FreeSwitchDecoder}. The buffer is normally a slice of
+     * the decoder cumulation buffer, so no body bytes are copied.
+     *
+     * @param buffer
+     */
+    public void setBodyBuffer(ChannelBuffer buffer) {
+        bodyBuffer = buffer;
+    }
+
+    private synchronized void splitBodyBuffer() {
+        ChannelBuffer buffer = bodyBuffer;
+        if (buffer == null) {
+            // split by another thread meanwhile
+            return;
+        }
+        int index = buffer.readerIndex();
+        int end = buffer.writerIndex();
+        while (index < end) {
+            int lineEnd = buffer.indexOf(index, end, LF);
+            if (lineEnd < 0) {
+                lineEnd = end;
+            }
+            body.add(HeaderParser.decodeString(buffer, index, lineEnd - index, ISO_8859_1));
+            index = lineEnd + 1;
+        }
+        bodyBuffer = null;
+    }
+
     @Override
     public String toString() {
         StringBuilder sb = new StringBuilder("FreeSwitchMessage: contentType=[");
@@ -141,8 +211,14 @@ public class FreeSwitchMessage {
         sb.append("] headers=");
         sb.append(headers.size());
         sb.append(", body=");
-        sb.append(body.size());
-        sb.append(" lines.");
+        ChannelBuffer buffer = bodyBuffer;
+        if (buffer != null) {
+            sb.append(buffer.readableBytes());
+            sb.append(" bytes.");
+        } else {
+            sb.append(body.size());
+            sb.append(" lines.");
+        }
 
         return sb.toString();
     }
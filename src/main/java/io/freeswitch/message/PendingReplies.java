@@ -0,0 +1,422 @@
+/*
+ * Copyright 2015.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.freeswitch.message;
+
+import io.freeswitch.common.SharedTimer;
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelException;
+import org.jboss.netty.handler.timeout.TimeoutException;
+import org.jboss.netty.util.Timeout;
+import org.jboss.netty.util.Timer;
+import org.jboss.netty.util.TimerTask;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The commands of one connection still waiting for their reply.
+ * <p>
+ * FreeSWITCH answers the commands of a connection in the order they were
+ * sent, so each command sent registers a future at the tail of a FIFO queue,
+ * and each api/response or command/reply received completes the future at its
+ * head. Commands are queued and written under one lock so that the queue
+ * order is the wire order.
+ * <p>
+ * Commands are pipelined: they are written without waiting for the previous
+ * replies. An in-flight window can bound the number of commands waiting for
+ * their reply, in which case senders block once the window is full, until a
+ * reply frees a slot.
+ * <p>
+ * Commands can be given a deadline, enforced by the shared wheel timer rather
+ * than by timed waits. An expired command fails with a
+ * {@link TimeoutException} but keeps its place in the queue, since its reply
+ * may still come: that late reply is then dropped instead of being handed to
+ * the next command. The expired command also keeps its window slot until
+ * then.
+ * <p>
+ * A server that never answers would hold those places for good, so expired
+ * commands are bounded: once too many of them are still unanswered, or one
+ * is still unanswered a grace period past its deadline, the server is taken
+ * as stalled and the connection is closed. Closing fails everything in
+ * flight and frees the window.
+ * <p>
+ * The futures are completed from the thread handling the connection events.
+ * Callbacks doing anything long or blocking should be attached with the
+ * {@code *Async} methods of {@link CompletableFuture}, and must never wait
+ * for another reply of the same connection.
+ *
+ * @author Arsene Tochemey GANDOTE
+ */
+public final class PendingReplies {
+
+    /**
+     * Expired commands still unanswered from which the connection is closed,
+     * unless set.
+     */
+    public static final int DEFAULT_MAX_EXPIRED = 100;
+    /**
+     * Time an expired command may wait for its reply past its deadline before
+     * the connection is closed, unless set.
+     */
+    public static final long DEFAULT_EXPIRED_GRACE_MILLIS = TimeUnit.SECONDS.toMillis(30);
+
+    private static final Logger log = LoggerFactory.getLogger(PendingReplies.class);
+
+    private final Lock sendLock = new ReentrantLock();
+    private final Queue<Callback> callbacks = new ConcurrentLinkedQueue<Callback>();
+    private final AtomicInteger waiting = new AtomicInteger();
+    private final AtomicInteger expired = new AtomicInteger();
+    private final int maxInFlight;
+    private final Semaphore window;
+    private final Timer timer;
+    private final AtomicLong sent = new AtomicLong();
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong timedOut = new AtomicLong();
+    private final AtomicLong lateReplies = new AtomicLong();
+    private volatile long defaultTimeoutMillis = 0;
+    private volatile int maxExpired = DEFAULT_MAX_EXPIRED;
+    private volatile long expiredGraceMillis = DEFAULT_EXPIRED_GRACE_MILLIS;
+    private volatile Channel channel;
+    private volatile Runnable idleListener;
+    private final long createdAt = System.nanoTime();
+    private volatile boolean closed = false;
+
+    public PendingReplies() {
+        this(0);
+    }
+
+    /**
+     * @param maxInFlight maximum number of commands waiting for their reply,
+     *                    0 for no limit
+     */
+    public PendingReplies(int maxInFlight) {
+        this(maxInFlight, SharedTimer.get());
+    }
+
+    /**
+     * @param maxInFlight maximum number of commands waiting for their reply,
+     *                    0 for no limit
+     * @param timer       timer enforcing the command deadlines
+     */
+    public PendingReplies(int maxInFlight, Timer timer) {
+        if (maxInFlight < 0) {
+            throw new IllegalArgumentException(
+                    "maxInFlight must not be negative: " + maxInFlight);
+        }
+        this.maxInFlight = maxInFlight;
+        this.window = maxInFlight > 0 ? new Semaphore(maxInFlight) : null;
+        this.timer = timer;
+    }
+
+    /**
+     * Deadline given to the commands sent without one.
+     *
+     * @param timeout time to wait for a reply, 0 to wait forever
+     * @param unit    unit of the timeout
+     */
+    public void setDefaultTimeout(long timeout, TimeUnit unit) {
+        this.defaultTimeoutMillis = unit.toMillis(timeout);
+    }
+
+    /**
+     * Bound the expired commands still waiting for their reply. Once
+     * {@code maxExpired} of them are unanswered, or one is unanswered
+     * {@code gracePeriod} past its deadline, the connection is closed.
+     *
+     * @param maxExpired  expired commands unanswered from which the
+     *                    connection is closed, 0 for no limit
+     * @param gracePeriod time an expired command may wait for its reply, 0
+     *                    to wait forever
+     * @param unit        unit of the grace period
+     */
+    public void setExpiredLimits(int maxExpired, long gracePeriod, TimeUnit unit) {
+        if (maxExpired < 0 || gracePeriod < 0) {
+            throw new IllegalArgumentException(
+                    "Invalid expired limits " + maxExpired + '/' + gracePeriod);
+        }
+        this.maxExpired = maxExpired;
+        this.expiredGraceMillis = unit.toMillis(gracePeriod);
+    }
+
+    /**
+     * Run each time no sender is left waiting for a reply: the last awaited
+     * command has been answered or has expired. Run on the thread handling
+     * the connection events, or on the timer thread.
+     *
+     * @param idleListener told when no command is awaited anymore, null for
+     *                     none
+     */
+    public void setIdleListener(Runnable idleListener) {
+        this.idleListener = idleListener;
+    }
+
+    /**
+     * Write a request and register for its reply. Blocks while the in-flight
+     * window is full, so it must not be called from the thread handling the
+     * connection events when a window is set.
+     *
+     * @param channel the connection to FreeSWITCH
+     * @param request the command, terminated by an empty line
+     * @return a future completed with the reply, or failed with a
+     * {@link ChannelException} if the connection closes first
+     */
+    public CompletableFuture<FreeSwitchMessage> send(Channel channel, String request) {
+        return send(channel, request, defaultTimeoutMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Same as {@link #send(Channel, String)} with a deadline.
+     *
+     * @param channel the connection to FreeSWITCH
+     * @param request the command, terminated by an empty line
+     * @param timeout time to wait for the reply, 0 to wait forever
+     * @param unit    unit of the timeout
+     * @return a future completed with the reply, or failed with a
+     * {@link TimeoutException} once the deadline has passed
+     */
+    public CompletableFuture<FreeSwitchMessage> send(Channel channel, String request, long timeout,
+                                                     TimeUnit unit) {
+        final Callback callback = new Callback();
+        if (window != null) {
+            try {
+                if (!acquireSlot()) {
+                    callback.completeExceptionally(new ChannelException("Connection closed"));
+                    return callback;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                callback.completeExceptionally(e);
+                return callback;
+            }
+        }
+        sendLock.lock();
+        try {
+            if (closed) {
+                callback.completeExceptionally(new ChannelException("Connection closed"));
+                return callback;
+            }
+            this.channel = channel;
+            waiting.incrementAndGet();
+            callbacks.add(callback);
+            sent.incrementAndGet();
+            channel.write(request);
+        } finally {
+            sendLock.unlock();
+        }
+        if (timeout > 0) {
+            final String message = "No reply within " + unit.toMillis(timeout) + " ms";
+            callback.timeout = timer.newTimeout(new TimerTask() {
+                public void run(Timeout t) {
+                    expire(callback, message);
+                }
+            }, timeout, unit);
+        }
+        return callback;
+    }
+
+    private void expire(final Callback callback, String message) {
+        if (!callback.state.compareAndSet(Callback.WAITING, Callback.EXPIRED)) {
+            return;
+        }
+        timedOut.incrementAndGet();
+        int unanswered = expired.incrementAndGet();
+        callback.completeExceptionally(new TimeoutException(message));
+        idle();
+        int max = maxExpired;
+        if (max > 0 && unanswered >= max) {
+            stalled(unanswered + " expired commands without a reply");
+            return;
+        }
+        final long grace = expiredGraceMillis;
+        if (grace > 0) {
+            callback.timeout = timer.newTimeout(new TimerTask() {
+                public void run(Timeout t) {
+                    if (callback.state.get() == Callback.EXPIRED) {
+                        stalled("No reply " + grace + " ms past a command deadline");
+                    }
+                }
+            }, grace, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /*
+     * The server no longer answers: closing the connection fails the
+     * commands in flight through close().
+     */
+    private void stalled(String reason) {
+        Channel stalled = channel;
+        if (closed || stalled == null) {
+            return;
+        }
+        log.warn("{}, closing the connection {}", reason, stalled);
+        stalled.close();
+    }
+
+    private void idle() {
+        Runnable listener = idleListener;
+        if (listener == null || awaited() > 0) {
+            return;
+        }
+        try {
+            listener.run();
+        } catch (Throwable t) {
+            log.error("Error caught notifying that no command is awaited", t);
+        }
+    }
+
+    /*
+     * Waits for a free slot in the window, giving up once the connection is closed.
+     */
+    private boolean acquireSlot() throws InterruptedException {
+        while (!window.tryAcquire(100, TimeUnit.MILLISECONDS)) {
+            if (closed) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Hand a reply to the oldest command waiting for one.
+     *
+     * @param reply an api/response or command/reply message
+     */
+    public void complete(FreeSwitchMessage reply) {
+        Callback callback = callbacks.poll();
+        if (callback == null) {
+            log.warn("Dropping reply with no command waiting for it [{}]", reply);
+            return;
+        }
+        waiting.decrementAndGet();
+        if (window != null) {
+            window.release();
+        }
+        Timeout timeout = callback.timeout;
+        if (timeout != null) {
+            timeout.cancel();
+        }
+        boolean wasExpired = callback.state.getAndSet(Callback.ANSWERED) == Callback.EXPIRED;
+        if (wasExpired) {
+            expired.decrementAndGet();
+        }
+        if (!wasExpired && callback.complete(reply)) {
+            completed.incrementAndGet();
+            idle();
+        } else {
+            // this command has expired, its reply must not go to the next one
+            lateReplies.incrementAndGet();
+            if (log.isDebugEnabled()) {
+                log.debug("Dropping late reply [{}]", reply);
+            }
+        }
+    }
+
+    /**
+     * Fail all the commands still waiting, and the ones sent from now on.
+     * Called once the connection is closed.
+     */
+    public void close() {
+        sendLock.lock();
+        try {
+            closed = true;
+        } finally {
+            sendLock.unlock();
+        }
+        Callback callback;
+        while ((callback = callbacks.poll()) != null) {
+            waiting.decrementAndGet();
+            Timeout timeout = callback.timeout;
+            if (timeout != null) {
+                timeout.cancel();
+            }
+            if (callback.state.getAndSet(Callback.ANSWERED) == Callback.EXPIRED) {
+                expired.decrementAndGet();
+            }
+            if (window != null) {
+                window.release();
+            }
+            callback.completeExceptionally(
+                    new ChannelException("Connection closed before the reply was received"));
+        }
+    }
+
+    /**
+     * @return the number of commands waiting for their reply, including
+     * the expired ones
+     */
+    public int size() {
+        return waiting.get();
+    }
+
+    /**
+     * @return the number of commands whose sender still waits for the reply,
+     * the expired ones excluded
+     */
+    public int awaited() {
+        return Math.max(0, waiting.get() - expired.get());
+    }
+
+    /**
+     * @return the traffic seen since this queue was created
+     */
+    public CommandStats stats() {
+        return new CommandStats(sent.get(), completed.get(), waiting.get(), maxInFlight,
+                timedOut.get(), lateReplies.get(), expired.get(),
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - createdAt));
+    }
+
+    /**
+     * Block until the reply is available. The wait parks on the future and
+     * holds no monitor, so a virtual thread waiting here leaves its carrier
+     * thread to the other sessions.
+     *
+     * @param reply as returned by {@link #send}
+     * @return the reply
+     */
+    public static FreeSwitchMessage await(CompletableFuture<FreeSwitchMessage> reply) {
+        try {
+            return reply.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    private static final class Callback extends CompletableFuture<FreeSwitchMessage> {
+        static final int WAITING = 0;
+        static final int EXPIRED = 1;
+        static final int ANSWERED = 2;
+
+        final AtomicInteger state = new AtomicInteger(WAITING);
+        volatile Timeout timeout;
+    }
+
+}
@@ -23,6 +23,8 @@ import io.freeswitch.message.CommandReply;
 import io.freeswitch.message.FreeSwitchMessage;
 import org.jboss.netty.channel.ChannelHandlerContext;
 
+import java.util.function.Consumer;
+
 /**
  * @author Arsene Tochemey GANDOTE
  */
@@ -43,19 +45,23 @@ public class DefaultFreeSwitchClientHandler extends FreeSwitchClientHandler {
     }
 
     @Override
-    protected void handleAuthRequest(ChannelHandlerContext ctx) {
+    protected void handleAuthRequest(final ChannelHandlerContext ctx) {
         log.debug("Auth requested, sending [auth {}]", "*****");
         AuthCommand auth = new AuthCommand(password);
-        FreeSwitchMessage response = sendSyncCommand(ctx.getChannel(), auth.toString());
-        log.debug("Auth response [{}]", response);
-        if (response.contentType().equals(HeaderValue.COMMAND_REPLY)) {
-            CommandReply commandResponse = new CommandReply("auth " + password,
-                    response);
-            listener.authResponseReceived(commandResponse);
-        } else {
-            log.error("Bad auth response message [{}]", response);
-            throw new IllegalStateException("Incorrect auth response");
-        }
+        // the reply comes through this same thread, so it must not be waited for here
+        sendCommand(ctx.getChannel(), auth.toString()).thenAccept(new Consumer<FreeSwitchMessage>() {
+            public void accept(FreeSwitchMessage response) {
+                log.debug("Auth response [{}]", response);
+                if (response.contentType().equals(HeaderValue.COMMAND_REPLY)) {
+                    CommandReply commandResponse = new CommandReply("auth " + password,
+                            response);
+                    listener.authResponseReceived(commandResponse);
+                } else {
+                    log.error("Bad auth response message [{}]", response);
+                    ctx.getChannel().close();
+                }
+            }
+        });
     }
 
     @Override
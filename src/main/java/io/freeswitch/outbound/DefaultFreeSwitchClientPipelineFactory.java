@@ -17,6 +17,7 @@ package io.freeswitch.outbound;
 
 import io.freeswitch.ExecutionHandler;
 import io.freeswitch.codec.FreeSwitchDecoder;
+import io.freeswitch.codec.FreeSwitchFrameDecoder;
 import org.jboss.netty.channel.ChannelHandler;
 import org.jboss.netty.channel.ChannelPipeline;
 import org.jboss.netty.channel.ChannelPipelineFactory;
@@ -30,18 +31,61 @@ import org.jboss.netty.handler.execution.OrderedMemoryAwareThreadPoolExecutor;
 public class DefaultFreeSwitchClientPipelineFactory implements ChannelPipelineFactory {
 
     private final ChannelHandler handler;
+    private final boolean useFrameDecoder;
+    private final boolean sliceBody;
+    private final ExecutionHandler executionHandler;
 
     public DefaultFreeSwitchClientPipelineFactory(ChannelHandler handler) {
+        this(handler, false, false);
+    }
+
+    /**
+     * @param handler         the inbound client logic
+     * @param useFrameDecoder true to decode with the scanning {@link FreeSwitchFrameDecoder}
+     *                        instead of the replaying {@link FreeSwitchDecoder}
+     */
+    public DefaultFreeSwitchClientPipelineFactory(ChannelHandler handler, boolean useFrameDecoder) {
+        this(handler, useFrameDecoder, false);
+    }
+
+    /**
+     * @param handler         the inbound client logic
+     * @param useFrameDecoder true to decode with the scanning {@link FreeSwitchFrameDecoder}
+     *                        instead of the replaying {@link FreeSwitchDecoder}
+     * @param sliceBody       true to keep message bodies as slices of the received buffers
+     */
+    public DefaultFreeSwitchClientPipelineFactory(ChannelHandler handler, boolean useFrameDecoder,
+                                                  boolean sliceBody) {
+        this(handler, useFrameDecoder, sliceBody, null);
+    }
+
+    /**
+     * @param handler          the inbound client logic
+     * @param useFrameDecoder  true to decode with the scanning {@link FreeSwitchFrameDecoder}
+     *                         instead of the replaying {@link FreeSwitchDecoder}
+     * @param sliceBody        true to keep message bodies as slices of the received buffers
+     * @param executionHandler shared handler to the executor running the client logic,
+     *                         null to give each pipeline its own executor
+     */
+    public DefaultFreeSwitchClientPipelineFactory(ChannelHandler handler, boolean useFrameDecoder,
+                                                  boolean sliceBody, ExecutionHandler executionHandler) {
         this.handler = handler;
+        this.useFrameDecoder = useFrameDecoder;
+        this.sliceBody = sliceBody;
+        this.executionHandler = executionHandler;
     }
 
     public ChannelPipeline getPipeline() throws Exception {
         ChannelPipeline pipeline = Channels.pipeline();
         pipeline.addLast("encoder", new StringEncoder());
-        pipeline.addLast("decoder", new FreeSwitchDecoder(8192));
+        pipeline.addLast("decoder", buildDecoder());
         // Add an executor to ensure separate thread for each upstream message from here
-        pipeline.addLast("executor", new ExecutionHandler(
-                new OrderedMemoryAwareThreadPoolExecutor(16, 1048576, 1048576)));
+        if (executionHandler != null) {
+            pipeline.addLast("executor", executionHandler);
+        } else {
+            pipeline.addLast("executor", new ExecutionHandler(
+                    new OrderedMemoryAwareThreadPoolExecutor(16, 1048576, 1048576)));
+        }
 
         // now the inbound client logic
         pipeline.addLast("clientHandler", handler);
@@ -49,4 +93,11 @@ public class DefaultFreeSwitchClientPipelineFactory implements ChannelPipelineFa
         return pipeline;
     }
 
+    protected ChannelHandler buildDecoder() {
+        if (useFrameDecoder) {
+            return new FreeSwitchFrameDecoder(8192, false, sliceBody);
+        }
+        return new FreeSwitchDecoder(8192, false, sliceBody);
+    }
+
 }
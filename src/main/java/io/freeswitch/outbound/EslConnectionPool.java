@@ -0,0 +1,326 @@
+/*
+ * Copyright 2015.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.freeswitch.outbound;
+
+import io.freeswitch.ConnectionFailure;
+import io.freeswitch.EslResources;
+import io.freeswitch.event.BackgroundJob;
+import io.freeswitch.message.CommandStats;
+import io.freeswitch.message.FreeSwitchMessage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Several authenticated connections to one FreeSWITCH server.
+ * <p>
+ * Replies come back in the order the commands were sent, so on a single
+ * connection a slow command holds up all the ones sent after it. The pool
+ * keeps a number of command connections and sends each {@code api} and
+ * {@code bgapi} call over the connection with the fewest commands waiting
+ * for their reply, the search starting from a different connection every
+ * time so that idle connections take turns.
+ * <p>
+ * Events are received on a connection of their own, {@link #events()}: the
+ * listeners and subscriptions go there. That connection also reads and
+ * decodes on a worker and handler thread of its own, so however many events
+ * arrive, they are never queued ahead of a command reply. The command
+ * connections only subscribe to the {@code BACKGROUND_JOB} events of the jobs
+ * they start, which complete the futures of {@link #bgApiAsync}.
+ * <p>
+ * The command connections share one set of threads, the given
+ * {@link EslResources} or the pool's own. The event connection runs on
+ * another set, shared with the event connections of other pools when given,
+ * a worker and handler thread of the pool's own otherwise.
+ *
+ * @author Arsene Tochemey GANDOTE
+ */
+public class EslConnectionPool {
+
+    private final Logger log = LoggerFactory.getLogger(this.getClass());
+
+    private final String host;
+    private final int port;
+    private final String password;
+    private final FreeSwitchClient[] commandClients;
+    private final FreeSwitchClient eventClient;
+    private final EslResources resources;
+    private final EslResources eventResources;
+    private final boolean ownsResources;
+    private final boolean ownsEventResources;
+    private final AtomicInteger nextClient = new AtomicInteger();
+
+    /**
+     * Pool running on threads of its own, released on {@link #close()}.
+     *
+     * @param host               can be either ip address or hostname
+     * @param port               tcp port of the server socket
+     * @param password           server event socket password
+     * @param commandConnections number of connections sending commands
+     */
+    public EslConnectionPool(String host, int port, String password, int commandConnections) {
+        this(host, port, password, commandConnections, null);
+    }
+
+    /**
+     * @param host               can be either ip address or hostname
+     * @param port               tcp port of the server socket
+     * @param password           server event socket password
+     * @param commandConnections number of connections sending commands
+     * @param resources          threads of the command connections, shared
+     *                           with other clients and not released by the
+     *                           pool, null for the pool's own
+     */
+    public EslConnectionPool(String host, int port, String password, int commandConnections,
+                             EslResources resources) {
+        this(host, port, password, commandConnections, resources, null);
+    }
+
+    /**
+     * @param host               can be either ip address or hostname
+     * @param port               tcp port of the server socket
+     * @param password           server event socket password
+     * @param commandConnections number of connections sending commands
+     * @param resources          threads of the command connections, shared
+     *                           with other clients and not released by the
+     *                           pool, null for the pool's own
+     * @param eventResources     threads of the event connection, shared with
+     *                           the event connections of other pools and not
+     *                           released by the pool, null for the pool's own.
+     *                           They must not be the command threads, or
+     *                           events would be queued ahead of the replies.
+     */
+    public EslConnectionPool(String host, int port, String password, int commandConnections,
+                             EslResources resources, EslResources eventResources) {
+        if (commandConnections <= 0) {
+            throw new IllegalArgumentException(
+                    "commandConnections must be a positive integer: " + commandConnections);
+        }
+        this.host = host;
+        this.port = port;
+        this.password = password;
+        if (eventResources != null && eventResources == resources) {
+            throw new IllegalArgumentException("The event connection needs threads of its own");
+        }
+        this.ownsResources = resources == null;
+        this.resources = resources != null ? resources : new EslResources();
+        this.ownsEventResources = eventResources == null;
+        this.eventResources = eventResources != null ? eventResources : new EslResources(1, 1);
+        this.commandClients = new FreeSwitchClient[commandConnections];
+        for (int i = 0; i < commandConnections; i++) {
+            commandClients[i] = new FreeSwitchClient(this.resources);
+        }
+        // threads of its own, so that a flood of events cannot hold up the replies
+        this.eventClient = new FreeSwitchClient(this.eventResources);
+    }
+
+    /**
+     * Connect every connection of the pool that is not connected, the ones
+     * lost since the last call included. A connection that fails does not
+     * stop the others from being attempted.
+     *
+     * @param timeoutSeconds number of seconds to wait for each connection
+     * @throws ConnectionFailure    the first connection failure, once all
+     *                              the connections have been attempted
+     * @throws InterruptedException
+     */
+    public void connect(int timeoutSeconds) throws ConnectionFailure, InterruptedException {
+        ConnectionFailure failure = null;
+        for (FreeSwitchClient client : commandClients) {
+            failure = connect(client, timeoutSeconds, failure);
+        }
+        failure = connect(eventClient, timeoutSeconds, failure);
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    private ConnectionFailure connect(FreeSwitchClient client, int timeoutSeconds,
+                                      ConnectionFailure failure) throws InterruptedException {
+        if (client.canSend()) {
+            return failure;
+        }
+        try {
+            client.connect(host, port, password, timeoutSeconds);
+            return failure;
+        } catch (ConnectionFailure e) {
+            log.warn("Failed to connect pooled connection to [{}:{}]", host, port);
+            return failure != null ? failure : e;
+        }
+    }
+
+    /**
+     * Deadline of the commands sent from now on, on every command connection.
+     *
+     * @param timeout time to wait for a reply, 0 to wait forever
+     * @param unit    unit of the timeout
+     * @see FreeSwitchClient#setCommandTimeout(long, TimeUnit)
+     */
+    public void setCommandTimeout(long timeout, TimeUnit unit) {
+        for (FreeSwitchClient client : commandClients) {
+            client.setCommandTimeout(timeout, unit);
+        }
+    }
+
+    /**
+     * @return the connection receiving the events, to add the listeners to
+     * and set the subscriptions on
+     */
+    public FreeSwitchClient events() {
+        return eventClient;
+    }
+
+    /**
+     * @see FreeSwitchClient#api(String, String)
+     */
+    public FreeSwitchMessage api(String command, String arg) {
+        return commandClient().api(command, arg);
+    }
+
+    /**
+     * @see FreeSwitchClient#apiAsync(String, String)
+     */
+    public CompletableFuture<FreeSwitchMessage> apiAsync(String command, String arg) {
+        return commandClient().apiAsync(command, arg);
+    }
+
+    /**
+     * @see FreeSwitchClient#bgApi(String, String)
+     */
+    public UUID bgApi(String command, String arg) {
+        return commandClient().bgApi(command, arg);
+    }
+
+    /**
+     * @see FreeSwitchClient#bgApiAsync(String, String)
+     */
+    public CompletableFuture<BackgroundJob> bgApiAsync(String command, String arg) {
+        return commandClient().bgApiAsync(command, arg);
+    }
+
+    /**
+     * @see FreeSwitchClient#bgApiAsync(String, String, long, TimeUnit)
+     */
+    public CompletableFuture<BackgroundJob> bgApiAsync(String command, String arg, long timeout,
+                                                       TimeUnit unit) {
+        return commandClient().bgApiAsync(command, arg, timeout, unit);
+    }
+
+    /**
+     * @return the connected command connection with the fewest commands
+     * waiting for their reply
+     * @throws IllegalStateException when no command connection is connected
+     */
+    public FreeSwitchClient commandClient() {
+        int count = commandClients.length;
+        int start = (nextClient.getAndIncrement() & Integer.MAX_VALUE) % count;
+        FreeSwitchClient best = null;
+        int bestInFlight = Integer.MAX_VALUE;
+        for (int i = 0; i < count; i++) {
+            FreeSwitchClient client = commandClients[(start + i) % count];
+            if (!client.canSend()) {
+                continue;
+            }
+            int inFlight = client.commandStats().inFlight();
+            if (inFlight < bestInFlight) {
+                best = client;
+                bestInFlight = inFlight;
+                if (inFlight == 0) {
+                    break;
+                }
+            }
+        }
+        if (best == null) {
+            throw new IllegalStateException("No connection to FreeSWITCH at " + host + ':' + port);
+        }
+        return best;
+    }
+
+    /**
+     * @return number of command connections connected
+     */
+    public int available() {
+        int available = 0;
+        for (FreeSwitchClient client : commandClients) {
+            if (client.canSend()) {
+                available++;
+            }
+        }
+        return available;
+    }
+
+    /**
+     * @return the command traffic of each connected command connection
+     */
+    public List<CommandStats> commandStats() {
+        List<CommandStats> stats = new ArrayList<CommandStats>(commandClients.length);
+        for (FreeSwitchClient client : commandClients) {
+            if (client.canSend()) {
+                stats.add(client.commandStats());
+            }
+        }
+        return stats;
+    }
+
+    /**
+     * @return the server host
+     */
+    public String host() {
+        return host;
+    }
+
+    /**
+     * @return the server port
+     */
+    public int port() {
+        return port;
+    }
+
+    /**
+     * Close all the connections, and release the threads unless they were
+     * given to the pool.
+     */
+    public void close() {
+        for (FreeSwitchClient client : commandClients) {
+            close(client);
+        }
+        close(eventClient);
+        if (ownsEventResources) {
+            eventResources.releaseExternalResources();
+        }
+        if (ownsResources) {
+            resources.releaseExternalResources();
+        }
+    }
+
+    private void close(FreeSwitchClient client) {
+        if (!client.canSend()) {
+            return;
+        }
+        try {
+            client.close();
+        } catch (RuntimeException e) {
+            log.warn("Error caught closing pooled connection to [" + host + ':' + port + ']', e);
+        }
+    }
+
+}
@@ -0,0 +1,336 @@
+/*
+ * Copyright 2015.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.freeswitch.outbound;
+
+import io.freeswitch.event.EslEvent;
+import io.freeswitch.event.IEventSubscriber;
+import io.freeswitch.event.IEventSubscription;
+import io.freeswitch.event.IEventsListener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Demand driven view of the events of one {@link FreeSwitchClient}
+ * connection.
+ * <p>
+ * Every subscriber has its own buffer and its own demand. Events are taken
+ * off the buffer as the subscriber requests them. Once half its buffer is
+ * used, a subscriber is saturated: when all the subscribers are, the client
+ * stops reading from the connection until one of them has drained its buffer
+ * down to a quarter. A single subscriber, or subscribers going at the same
+ * pace, therefore drive the reads with their demand. A subscriber lagging
+ * behind faster ones fills its buffer up, and the {@link OverflowPolicy} it
+ * subscribed with decides what happens next. While reading is actually
+ * paused, the events read before the pause took effect are buffered beyond
+ * the buffer size rather than dropped. Reading is not paused while a command
+ * waits for its reply: the overflow policy then applies, and the pause comes
+ * once the replies are in.
+ * <p>
+ * The subscribers are completed once the connection closes.
+ *
+ * @author Arsene Tochemey GANDOTE
+ */
+public class EventPublisher implements IEventsListener {
+
+    /**
+     * What to do with an event received for a subscriber whose buffer is
+     * full.
+     */
+    public enum OverflowPolicy {
+        /**
+         * Drop the oldest buffered event to make room.
+         */
+        DROP_OLDEST,
+        /**
+         * Drop the received event.
+         */
+        DROP_NEWEST,
+        /**
+         * End the subscription with an {@link IllegalStateException}.
+         */
+        ERROR
+    }
+
+    public static final int DEFAULT_BUFFER_SIZE = 1024;
+
+    private static final Logger log = LoggerFactory.getLogger(EventPublisher.class);
+
+    private final ReadBackpressure readBackpressure;
+    private final List<Subscription> subscriptions = new CopyOnWriteArrayList<Subscription>();
+    private int saturated = 0;
+    private volatile boolean holdingReads = false;
+    private volatile boolean completed = false;
+
+    EventPublisher(ReadBackpressure readBackpressure) {
+        this.readBackpressure = readBackpressure;
+    }
+
+    /**
+     * Subscribe with a buffer of {@value #DEFAULT_BUFFER_SIZE} events,
+     * failing on overflow.
+     *
+     * @param subscriber receives the events
+     */
+    public void subscribe(IEventSubscriber subscriber) {
+        subscribe(subscriber, DEFAULT_BUFFER_SIZE, OverflowPolicy.ERROR);
+    }
+
+    /**
+     * @param subscriber receives the events
+     * @param bufferSize number of events buffered for the subscriber, at
+     *                   least 4
+     * @param policy     what to do when the buffer is full
+     */
+    public void subscribe(IEventSubscriber subscriber, int bufferSize, OverflowPolicy policy) {
+        if (subscriber == null) {
+            throw new NullPointerException("subscriber");
+        }
+        if (bufferSize < 4) {
+            throw new IllegalArgumentException("bufferSize must be at least 4: " + bufferSize);
+        }
+        if (policy == null) {
+            throw new NullPointerException("policy");
+        }
+        Subscription subscription = new Subscription(subscriber, bufferSize, policy);
+        subscriptions.add(subscription);
+        subscriber.onSubscribe(subscription);
+        if (completed) {
+            subscription.complete();
+        }
+    }
+
+    /**
+     * @return number of active subscriptions
+     */
+    public int subscribers() {
+        return subscriptions.size();
+    }
+
+    public void eventReceived(EslEvent event) {
+        for (Subscription subscription : subscriptions) {
+            subscription.offer(event);
+        }
+    }
+
+    public void backgroundJobEventReceived(EslEvent event) {
+        eventReceived(event);
+    }
+
+    /*
+     * The connection closed: complete every subscription once drained.
+     */
+    void complete() {
+        completed = true;
+        synchronized (this) {
+            updateHold();
+        }
+        for (Subscription subscription : subscriptions) {
+            subscription.complete();
+        }
+    }
+
+    private synchronized void saturationChanged(boolean nowSaturated) {
+        saturated += nowSaturated ? 1 : -1;
+        updateHold();
+    }
+
+    private synchronized void removed(Subscription subscription, boolean wasSaturated) {
+        if (subscriptions.remove(subscription) && wasSaturated) {
+            saturated--;
+        }
+        updateHold();
+    }
+
+    private void updateHold() {
+        boolean hold = !completed && !subscriptions.isEmpty() && saturated >= subscriptions.size();
+        if (hold != holdingReads) {
+            holdingReads = hold;
+            if (hold) {
+                readBackpressure.hold();
+            } else {
+                readBackpressure.release();
+            }
+        }
+    }
+
+    private final class Subscription implements IEventSubscription {
+
+        private final IEventSubscriber subscriber;
+        private final int capacity;
+        private final OverflowPolicy policy;
+        private final ArrayDeque<EslEvent> buffer;
+        private final AtomicLong demand = new AtomicLong();
+        private final AtomicInteger wip = new AtomicInteger();
+        private boolean saturated = false;
+        private Throwable error;
+        private boolean done = false;
+        private volatile boolean cancelled = false;
+
+        Subscription(IEventSubscriber subscriber, int capacity, OverflowPolicy policy) {
+            this.subscriber = subscriber;
+            this.capacity = capacity;
+            this.policy = policy;
+            this.buffer = new ArrayDeque<EslEvent>(Math.min(capacity, 64));
+        }
+
+        public void request(long n) {
+            if (n <= 0) {
+                fail(new IllegalArgumentException("request must be positive: " + n));
+                return;
+            }
+            long current;
+            long next;
+            do {
+                current = demand.get();
+                next = current + n < 0 ? Long.MAX_VALUE : current + n;
+            } while (!demand.compareAndSet(current, next));
+            drain();
+        }
+
+        public void cancel() {
+            if (cancelled) {
+                return;
+            }
+            cancelled = true;
+            boolean wasSaturated;
+            synchronized (this) {
+                buffer.clear();
+                wasSaturated = saturated;
+                saturated = false;
+            }
+            removed(this, wasSaturated);
+        }
+
+        void offer(EslEvent event) {
+            if (cancelled) {
+                return;
+            }
+            synchronized (this) {
+                if (done || cancelled) {
+                    return;
+                }
+                if (buffer.size() < capacity || readBackpressure.paused()) {
+                    // events read before the pause took effect are kept
+                    buffer.add(event);
+                } else if (policy == OverflowPolicy.DROP_OLDEST) {
+                    buffer.poll();
+                    buffer.add(event);
+                } else if (policy == OverflowPolicy.ERROR) {
+                    buffer.clear();
+                    error = new IllegalStateException("Subscriber buffer of " + capacity
+                            + " events overflowed");
+                    done = true;
+                }
+                // DROP_NEWEST: nothing to do
+                updateSaturation();
+            }
+            drain();
+        }
+
+        void complete() {
+            synchronized (this) {
+                done = true;
+            }
+            drain();
+        }
+
+        private void fail(Throwable cause) {
+            synchronized (this) {
+                buffer.clear();
+                error = cause;
+                done = true;
+            }
+            drain();
+        }
+
+        /*
+         * Only one thread at a time delivers, the others leave their work
+         * to it.
+         */
+        private void drain() {
+            if (wip.getAndIncrement() != 0) {
+                return;
+            }
+            int missed = 1;
+            while (true) {
+                while (!cancelled && demand.get() > 0) {
+                    EslEvent event;
+                    synchronized (this) {
+                        event = buffer.poll();
+                        if (event != null) {
+                            updateSaturation();
+                        }
+                    }
+                    if (event == null) {
+                        break;
+                    }
+                    demand.decrementAndGet();
+                    try {
+                        subscriber.onNext(event);
+                    } catch (Throwable t) {
+                        log.error("Error caught delivering event to subscriber", t);
+                        cancel();
+                    }
+                }
+                if (!cancelled) {
+                    Throwable cause;
+                    boolean finished;
+                    synchronized (this) {
+                        cause = error;
+                        finished = done && buffer.isEmpty();
+                    }
+                    if (finished) {
+                        cancel();
+                        try {
+                            if (cause != null) {
+                                subscriber.onError(cause);
+                            } else {
+                                subscriber.onComplete();
+                            }
+                        } catch (Throwable t) {
+                            log.error("Error caught ending subscription", t);
+                        }
+                    }
+                }
+                missed = wip.addAndGet(-missed);
+                if (missed == 0) {
+                    return;
+                }
+            }
+        }
+
+        /*
+         * Called holding the subscription lock.
+         */
+        private void updateSaturation() {
+            int size = buffer.size();
+            if (!saturated && size >= capacity / 2) {
+                saturated = true;
+                saturationChanged(true);
+            } else if (saturated && size <= capacity / 4) {
+                saturated = false;
+                saturationChanged(false);
+            }
+        }
+    }
+
+}
@@ -16,27 +16,54 @@
 package io.freeswitch.outbound;
 
 import io.freeswitch.ConnectionFailure;
+import io.freeswitch.EslResources;
 import io.freeswitch.IProtocolListener;
+import io.freeswitch.codec.FreeSwitchMessageHeaders.HeaderName;
 import io.freeswitch.command.*;
 import io.freeswitch.common.LogLevels;
+import io.freeswitch.common.SerialExecutor;
+import io.freeswitch.common.SharedTimer;
+import io.freeswitch.common.UuidFactory;
+import io.freeswitch.common.VirtualThreads;
+import io.freeswitch.event.BackgroundJob;
 import io.freeswitch.event.EslEvent;
+import io.freeswitch.event.DispatchStats;
+import io.freeswitch.event.EventInterest;
+import io.freeswitch.event.EventRegistry;
+import io.freeswitch.event.HeaderProjection;
+import io.freeswitch.event.IEventBatchListener;
+import io.freeswitch.event.IEventDispatcher;
 import io.freeswitch.event.IEventsListener;
+import io.freeswitch.event.IInterestChangeListener;
+import io.freeswitch.event.IInterestedListener;
+import io.freeswitch.event.PartitionedEventDispatcher;
+import io.freeswitch.event.RingBufferEventDispatcher;
+import io.freeswitch.event.VirtualThreadEventDispatcher;
 import io.freeswitch.message.CommandReply;
+import io.freeswitch.message.CommandStats;
 import io.freeswitch.message.FreeSwitchMessage;
+import io.freeswitch.message.PendingReplies;
 import org.apache.commons.lang3.StringUtils;
 import org.jboss.netty.bootstrap.ClientBootstrap;
 import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelException;
 import org.jboss.netty.channel.ChannelFuture;
+import org.jboss.netty.channel.ChannelFutureListener;
 import org.jboss.netty.channel.socket.nio.NioClientSocketChannelFactory;
+import org.jboss.netty.util.Timer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.net.InetSocketAddress;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
 
 /**
  * Entry point to connect to a running FreeSWITCH Event Socket Library module,
@@ -57,17 +84,48 @@ public class FreeSwitchClient {
     private final Logger log = LoggerFactory.getLogger(this.getClass());
 
     private final List<IEventsListener> eventListeners = new CopyOnWriteArrayList<IEventsListener>();
-    private final Executor eventListenerExecutor = Executors
-            .newSingleThreadExecutor(new ThreadFactory() {
-                AtomicInteger threadNumber = new AtomicInteger(1);
+    /*
+     * Hands each event to all the listeners in turn, so that every listener
+     * sees the events in the order the dispatcher delivers them.
+     */
+    private final IEventBatchListener eventFanOut = new IEventBatchListener() {
+        public void eventReceived(EslEvent event) {
+            for (IEventsListener listener : eventListeners) {
+                try {
+                    listener.eventReceived(event);
+                } catch (Throwable t) {
+                    log.error("Error caught notifying listener of event [" + event + ']', t);
+                }
+            }
+            readBackpressure.delivered(1);
+        }
 
-                public Thread newThread(Runnable r) {
-                    return new Thread(r, "EslEventNotifier-"
-                            + threadNumber.getAndIncrement());
+        public void eventsReceived(List<EslEvent> events) {
+            for (IEventsListener listener : eventListeners) {
+                try {
+                    if (listener instanceof IEventBatchListener) {
+                        ((IEventBatchListener) listener).eventsReceived(events);
+                    } else {
+                        for (int i = 0; i < events.size(); i++) {
+                            listener.eventReceived(events.get(i));
+                        }
+                    }
+                } catch (Throwable t) {
+                    log.error("Error caught notifying listener of " + events.size() + " events", t);
                 }
-            });
+            }
+            readBackpressure.delivered(events.size());
+        }
+
+        public void backgroundJobEventReceived(EslEvent event) {
+        }
+    };
+    private volatile IEventDispatcher eventDispatcher = new PartitionedEventDispatcher(1);
+    private final ReadBackpressure readBackpressure = new ReadBackpressure(0, 0);
+    private EventPublisher publisher;
+    private volatile boolean ownsEventDispatcher = true;
 
-    private final Executor backgroundJobListenerExecutor = Executors
+    private final Executor pooledJobListenerExecutor = Executors
             .newSingleThreadExecutor(new ThreadFactory() {
                 AtomicInteger threadNumber = new AtomicInteger(1);
 
@@ -76,10 +134,12 @@ public class FreeSwitchClient {
                             + threadNumber.getAndIncrement());
                 }
             });
+    private volatile Executor backgroundJobListenerExecutor = pooledJobListenerExecutor;
+    private Executor virtualJobListenerExecutor;
 
-    private AtomicBoolean authenticatorResponded = new AtomicBoolean(false);
-    private boolean authenticated;
-    private CommandReply authenticationResponse;
+    private final AtomicBoolean authenticatorResponded = new AtomicBoolean(false);
+    private volatile boolean authenticated;
+    private volatile CommandReply authenticationResponse;
     /*
      * Internal observer of the ESL protocol
      */
@@ -105,8 +165,13 @@ public class FreeSwitchClient {
              * different worker thread pool for async job results than for event
              * driven event to keep the latency as low as possible.
              */
-            if (event.eventName().equals("BACKGROUND_JOB")) {
+            if ("BACKGROUND_JOB".equals(event.eventName())) {
+                PendingJobs jobs = pendingJobs;
+                if (jobs != null) {
+                    jobs.complete(event);
+                }
                 for (final IEventsListener listener : eventListeners) {
+                    readBackpressure.queued(1);
                     backgroundJobListenerExecutor.execute(new Runnable() {
                         public void run() {
                             try {
@@ -115,32 +180,307 @@ public class FreeSwitchClient {
                                 log.error(
                                         "Error caught notifying listener of job result ["
                                                 + event + ']', t);
+                            } finally {
+                                readBackpressure.delivered(1);
                             }
                         }
                     });
                 }
-            } else {
-                for (final IEventsListener listener : eventListeners) {
-                    eventListenerExecutor.execute(new Runnable() {
-                        public void run() {
-                            try {
-                                listener.eventReceived(event);
-                            } catch (Throwable t) {
-                                log.error(
-                                        "Error caught notifying listener of event ["
-                                                + event + ']', t);
-                            }
-                        }
-                    });
+            } else if (!eventListeners.isEmpty()) {
+                readBackpressure.queued(1);
+                try {
+                    eventDispatcher.dispatch(event, eventFanOut);
+                } catch (RuntimeException e) {
+                    readBackpressure.delivered(1);
+                    throw e;
                 }
             }
         }
     };
     private Channel channel;
+    private boolean useFrameDecoder = false;
+    private boolean sliceBody = false;
+    private boolean eagerHeaderDecoding = false;
+    private HeaderProjection headerProjection;
+    private int maxInFlightCommands = 0;
+    private long commandTimeoutMillis = 0;
+    private int maxExpiredCommands = PendingReplies.DEFAULT_MAX_EXPIRED;
+    private long expiredGraceMillis = PendingReplies.DEFAULT_EXPIRED_GRACE_MILLIS;
+    private int maxPendingJobs = 10000;
+    private long backgroundJobTimeoutMillis = TimeUnit.MINUTES.toMillis(2);
+    private volatile PendingJobs pendingJobs;
+    private final AtomicBoolean backgroundJobSubscribed = new AtomicBoolean(false);
+    private volatile boolean filtersInUse = false;
+    private volatile String eventFormat = "plain";
+    private final Map<IEventsListener, EventInterest> declaredInterests =
+            new ConcurrentHashMap<IEventsListener, EventInterest>();
+    private final InterestSubscription interestSubscription = new InterestSubscription();
+    private final IInterestChangeListener interestRefresher = new IInterestChangeListener() {
+        public void interestChanged(IInterestedListener listener) {
+            refreshInterest();
+        }
+    };
+    private volatile String interestFormat;
+    private final EslResources resources;
+
+    /**
+     * Client with its own IO threads, released when the connection fails.
+     */
+    public FreeSwitchClient() {
+        this(null);
+    }
+
+    /**
+     * Client running on threads shared with other clients and servers. The
+     * resources are not released by this client.
+     *
+     * @param resources shared threads and timer, null for dedicated ones
+     */
+    public FreeSwitchClient(EslResources resources) {
+        this.resources = resources;
+    }
+
+    /**
+     * Replace the dispatcher delivering the events other than
+     * {@code BACKGROUND_JOB} to the listeners. By default a
+     * {@link PartitionedEventDispatcher} with a single lane delivers all the
+     * events in order on one thread. One with several lanes keeps the events
+     * of each call in order and delivers different calls in parallel, the
+     * listeners must then be thread safe.
+     * A {@link io.freeswitch.event.RingBufferEventDispatcher} delivers all
+     * the events in order on one thread with less overhead per event, and
+     * hands batches to the {@link IEventBatchListener}s. Its listeners must
+     * not block, and reading pauses before its ring fills whatever the
+     * {@link #setDispatchWatermarks watermarks}.
+     * The default dispatcher is shut down when replaced, a dispatcher set
+     * here is left to its owner.
+     *
+     * @param eventDispatcher the dispatcher to use from now on
+     */
+    public void setEventDispatcher(IEventDispatcher eventDispatcher) {
+        if (eventDispatcher == null) {
+            throw new NullPointerException("eventDispatcher");
+        }
+        IEventDispatcher previous = this.eventDispatcher;
+        boolean ownsPrevious = ownsEventDispatcher;
+        this.eventDispatcher = eventDispatcher;
+        this.ownsEventDispatcher = false;
+        readBackpressure.setCapacity(eventDispatcher instanceof RingBufferEventDispatcher
+                ? ((RingBufferEventDispatcher) eventDispatcher).capacity() : 0);
+        if (ownsPrevious && previous != eventDispatcher) {
+            previous.shutdown();
+        }
+    }
+
+    /**
+     * Run the listeners on virtual threads, so that they can be written in
+     * blocking style: each call gets a virtual thread delivering its events
+     * in order, see {@link VirtualThreadEventDispatcher}, and the job results
+     * are delivered in order on virtual threads too. A listener waiting for
+     * the reply to a command, through {@link #api} or {@link #execute} for
+     * instance, then only holds its own call: reading from the connection is
+     * never paused while its reply is awaited, see
+     * {@link #setDispatchWatermarks}. Replaces the current dispatcher like
+     * {@link #setEventDispatcher} does. The listeners are then called for
+     * different calls at the same time and must be thread safe.
+     * <p>
+     * Without virtual threads at runtime, see
+     * {@link VirtualThreads#isSupported()}, at most
+     * {@link VirtualThreads#FALLBACK_THREADS} platform threads are used
+     * instead.
+     *
+     * @param useVirtualThreads true for virtual threads, false for the
+     *                          default dispatcher and job thread
+     */
+    public synchronized void setUseVirtualThreads(boolean useVirtualThreads) {
+        setEventDispatcher(useVirtualThreads ? new VirtualThreadEventDispatcher()
+                : new PartitionedEventDispatcher(1));
+        this.ownsEventDispatcher = true;
+        if (useVirtualThreads && virtualJobListenerExecutor == null) {
+            virtualJobListenerExecutor = new SerialExecutor(
+                    VirtualThreads.newExecutor("EslBackgroundJobNotifier-"));
+        }
+        this.backgroundJobListenerExecutor = useVirtualThreads
+                ? virtualJobListenerExecutor : pooledJobListenerExecutor;
+    }
+
+    /**
+     * @return the dispatcher delivering the events to the listeners
+     */
+    public IEventDispatcher eventDispatcher() {
+        return eventDispatcher;
+    }
 
+    /**
+     * Bound the events waiting for the listeners. Once {@code highWatermark}
+     * events are queued, the client stops reading from the connection, and
+     * resumes once they are down to {@code lowWatermark}. By default reading
+     * never pauses for the pending events, 5000 and 10000 suit a client whose
+     * listeners may fall behind a busy server. Reading does not
+     * pause while a command waits for its reply, and resumes when one is
+     * sent, so that a listener blocked in {@link #api} still gets it. With a
+     * {@link RingBufferEventDispatcher}, reading pauses at half its capacity
+     * at the latest.
+     *
+     * @param lowWatermark  pending events under which reading resumes
+     * @param highWatermark pending events from which reading pauses, 0 to
+     *                      never pause
+     */
+    public void setDispatchWatermarks(int lowWatermark, int highWatermark) {
+        readBackpressure.setWatermarks(lowWatermark, highWatermark);
+    }
+
+    /**
+     * @return the events waiting for the listeners and the time reading was
+     * paused because of them
+     */
+    public DispatchStats dispatchStats() {
+        return readBackpressure.stats();
+    }
+
+    /**
+     * Demand driven view of the events of the current connection. The
+     * subscribers receive the events as they request them, and reading from
+     * the connection pauses when none of them keeps up. The subscribers are
+     * completed when the connection closes, a new connection has a new
+     * publisher.
+     *
+     * @return the publisher of the current connection
+     */
+    public synchronized EventPublisher publisher() {
+        checkConnected();
+        if (publisher == null) {
+            publisher = new EventPublisher(readBackpressure);
+            addEventListener(publisher);
+        }
+        return publisher;
+    }
+
+    /**
+     * Add a listener. When subscribing by interest, a listener that is not an
+     * {@link IInterestedListener} wants all the events.
+     * <p>
+     * The listeners are called from the dispatcher threads: with the default
+     * dispatcher, one thread delivering all the events in order. A
+     * dispatcher with several lanes, see {@link #setEventDispatcher}, or
+     * {@link #setUseVirtualThreads} calls them concurrently for different
+     * calls.
+     *
+     * @param listener the listener to add
+     */
     public void addEventListener(IEventsListener listener) {
         if (listener != null) {
             eventListeners.add(listener);
+            watchInterest(listener);
+            refreshInterest();
+        }
+    }
+
+    /**
+     * Add a listener declaring the events it wants, for the subscription by
+     * interest.
+     *
+     * @param listener the listener to add
+     * @param interest the events it wants
+     */
+    public void addEventListener(IEventsListener listener, EventInterest interest) {
+        if (listener != null) {
+            if (interest != null) {
+                declaredInterests.put(listener, interest);
+            }
+            eventListeners.add(listener);
+            watchInterest(listener);
+            refreshInterest();
+        }
+    }
+
+    /**
+     * Remove a listener. When subscribing by interest, FreeSWITCH stops
+     * sending the events only it wanted.
+     *
+     * @param listener the listener to remove
+     */
+    public void removeEventListener(IEventsListener listener) {
+        if (eventListeners.remove(listener)) {
+            declaredInterests.remove(listener);
+            if (listener instanceof EventRegistry && !eventListeners.contains(listener)) {
+                ((EventRegistry) listener).removeInterestChangeListener(interestRefresher);
+            }
+            refreshInterest();
+        }
+    }
+
+    /*
+     * A registry tells the client when its subscriptions change, so that the
+     * subscription by interest follows them.
+     */
+    private void watchInterest(IEventsListener listener) {
+        if (listener instanceof EventRegistry) {
+            ((EventRegistry) listener).addInterestChangeListener(interestRefresher);
+        }
+    }
+
+    /**
+     * Let the listeners decide which events FreeSWITCH sends. From now on,
+     * and on every connection, the client subscribes to the events and sets
+     * the filters that the interests of its listeners call for, and updates
+     * them as listeners are added and removed. Listeners that are neither
+     * added with an {@link EventInterest} nor {@link IInterestedListener}s
+     * want all the events.
+     * <p>
+     * Filters set beforehand through {@link #filter(String, String)} are not
+     * known to the client: delete them first. Do not mix with
+     * {@link #event(String, String)} afterwards.
+     *
+     * @param format can be { plain | json | xml }
+     */
+    public void subscribeByInterest(String format) {
+        eventCommand(format, null);
+        interestFormat = format;
+        eventFormat = format;
+        // whatever was subscribed to before is replaced
+        interestSubscription.reset(true);
+        refreshInterest();
+    }
+
+    /**
+     * Apply the current interests of the listeners to the connection, when
+     * subscribing by interest. This is done automatically as listeners come
+     * and go and as the subscriptions of an {@link EventRegistry} added
+     * change: call it after the interest of another
+     * {@link IInterestedListener} changed.
+     */
+    public void refreshInterest() {
+        String format = interestFormat;
+        if (format == null || !canSend()) {
+            return;
+        }
+        DefaultFreeSwitchClientHandler handler = (DefaultFreeSwitchClientHandler) channel.getPipeline().getLast();
+        // the interests are read and the commands sent under one lock, so
+        // that a later snapshot never reaches the wire before an earlier one
+        synchronized (interestSubscription) {
+            List<EventInterest> interests = new ArrayList<EventInterest>();
+            for (IEventsListener listener : eventListeners) {
+                EventInterest interest = declaredInterests.get(listener);
+                if (interest == null) {
+                    interest = listener instanceof IInterestedListener
+                            ? ((IInterestedListener) listener).interest() : EventInterest.ALL;
+                }
+                interests.add(interest);
+            }
+            for (final String command : interestSubscription.update(format, interests,
+                    backgroundJobSubscribed.get())) {
+                commandReply(command, handler.sendCommand(channel, command)).whenComplete(
+                        new BiConsumer<CommandReply, Throwable>() {
+                            public void accept(CommandReply reply, Throwable cause) {
+                                if (cause != null || !reply.isOk()) {
+                                    log.warn("Subscription update [{}] failed: {}", command.trim(),
+                                            cause != null ? cause.toString() : reply.replyText());
+                                }
+                            }
+                        });
+            }
+            filtersInUse = interestSubscription.filtering();
         }
     }
 
@@ -158,7 +498,70 @@ public class FreeSwitchClient {
     public FreeSwitchMessage api(String command, String arg) {
         checkConnected();
         DefaultFreeSwitchClientHandler handler = (DefaultFreeSwitchClientHandler) channel.getPipeline().getLast();
+        ApiCommand api = apiCommand(command, arg);
+        // Here no command is really set to be executed
+        if (api == null) {
+            return null;
+        }
+        return handler.sendSyncCommand(channel, api.toString());
+    }
+
+    /**
+     * Same as {@link #api(String, String)} without blocking. The returned
+     * future is completed from the IO path when the response arrives, so the
+     * calling thread is free to send other commands meanwhile.
+     *
+     * @param command API command to send
+     * @param arg     command arguments
+     * @return a future completed with the command results, or with null if
+     * there was no command to send
+     */
+    public CompletableFuture<FreeSwitchMessage> apiAsync(String command, String arg) {
+        checkConnected();
+        DefaultFreeSwitchClientHandler handler = (DefaultFreeSwitchClientHandler) channel.getPipeline().getLast();
+        ApiCommand api = apiCommand(command, arg);
+        if (api == null) {
+            return CompletableFuture.completedFuture(null);
+        }
+        return handler.sendCommand(channel, api.toString());
+    }
+
+    /**
+     * Same as {@link #api(String, String)} with its own deadline.
+     *
+     * @param command API command to send
+     * @param arg     command arguments
+     * @param timeout time to wait for the response, 0 to wait forever
+     * @param unit    unit of the timeout
+     * @return an {@link FreeSwitchMessage} containing command results
+     */
+    public FreeSwitchMessage api(String command, String arg, long timeout, TimeUnit unit) {
+        FreeSwitchClientHandler.checkMayBlock();
+        return PendingReplies.await(apiAsync(command, arg, timeout, unit));
+    }
 
+    /**
+     * Same as {@link #apiAsync(String, String)} with its own deadline.
+     *
+     * @param command API command to send
+     * @param arg     command arguments
+     * @param timeout time to wait for the response, 0 to wait forever
+     * @param unit    unit of the timeout
+     * @return a future completed with the command results, or failed with a
+     * {@link org.jboss.netty.handler.timeout.TimeoutException}
+     */
+    public CompletableFuture<FreeSwitchMessage> apiAsync(String command, String arg, long timeout,
+                                                         TimeUnit unit) {
+        checkConnected();
+        DefaultFreeSwitchClientHandler handler = (DefaultFreeSwitchClientHandler) channel.getPipeline().getLast();
+        ApiCommand api = apiCommand(command, arg);
+        if (api == null) {
+            return CompletableFuture.completedFuture(null);
+        }
+        return handler.sendCommand(channel, api.toString(), timeout, unit);
+    }
+
+    private static ApiCommand apiCommand(String command, String arg) {
         StringBuilder sb = new StringBuilder();
         if (!StringUtils.isEmpty(command)) {
             sb.append(command);
@@ -167,14 +570,10 @@ public class FreeSwitchClient {
             sb.append(' ');
             sb.append(arg);
         }
-
-        // Here no command is really set to be executed
         if (StringUtils.isEmpty(sb.toString())) {
             return null;
         }
-
-        ApiCommand api = new ApiCommand(sb.toString());
-        return handler.sendSyncCommand(channel, api.toString());
+        return new ApiCommand(sb.toString());
     }
 
     /**
@@ -203,6 +602,262 @@ public class FreeSwitchClient {
                 bgapi.toString()));
     }
 
+    /**
+     * Submit a FreeSWITCH API command to be executed in background mode, and
+     * get the job result as a future. The Job-UUID is generated here and sent
+     * with the command, and the future is completed when the BACKGROUND_JOB
+     * event carrying it arrives.
+     * <p>
+     * The connection is subscribed to BACKGROUND_JOB events on first use,
+     * and the job is given up after the default background job timeout.
+     * Listeners are still notified of the job event as usual.
+     *
+     * @param command API command to send
+     * @param arg     command arguments
+     * @return a future completed with the job result
+     * @see #setBackgroundJobTimeout(long, TimeUnit)
+     */
+    public CompletableFuture<BackgroundJob> bgApiAsync(String command, String arg) {
+        return bgApiAsync(command, arg, backgroundJobTimeoutMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Same as {@link #bgApiAsync(String, String)} with a given timeout.
+     *
+     * @param command API command to send
+     * @param arg     command arguments
+     * @param timeout time to wait for the job event, 0 to wait forever
+     * @param unit    unit of the timeout
+     * @return a future completed with the job result, failed with a
+     * {@link java.util.concurrent.TimeoutException} if the job event does not
+     * arrive in time
+     */
+    public CompletableFuture<BackgroundJob> bgApiAsync(String command, String arg, long timeout,
+                                                       TimeUnit unit) {
+        checkConnected();
+        if (StringUtils.isEmpty(command)) {
+            throw new IllegalArgumentException("No command to execute");
+        }
+        DefaultFreeSwitchClientHandler handler = (DefaultFreeSwitchClientHandler) channel.getPipeline().getLast();
+        subscribeToBackgroundJobs(handler);
+
+        final BgApiCommand bgapi = new BgApiCommand(command, arg);
+        bgapi.CommandId = UuidFactory.create();
+        final PendingJobs jobs = pendingJobs;
+        CompletableFuture<BackgroundJob> job = jobs.register(bgapi.CommandId, timeout, unit);
+        if (job.isDone()) {
+            return job;
+        }
+        handler.sendCommand(channel, bgapi.toString()).whenComplete(
+                new BiConsumer<FreeSwitchMessage, Throwable>() {
+                    public void accept(FreeSwitchMessage response, Throwable cause) {
+                        if (cause != null) {
+                            jobs.fail(bgapi.CommandId, cause);
+                        } else if (!new CommandReply(bgapi.toString(), response).isOk()) {
+                            jobs.fail(bgapi.CommandId, new IllegalStateException(
+                                    "bgapi rejected: " + response.headerValue(HeaderName.REPLY_TEXT)));
+                        }
+                    }
+                });
+        return job;
+    }
+
+    /**
+     * Default time {@link #bgApiAsync(String, String)} waits for the job
+     * event. Two minutes unless set.
+     *
+     * @param timeout time to wait for the job event, 0 to wait forever
+     * @param unit    unit of the timeout
+     */
+    public void setBackgroundJobTimeout(long timeout, TimeUnit unit) {
+        this.backgroundJobTimeoutMillis = unit.toMillis(timeout);
+    }
+
+    /**
+     * Bound the number of jobs the next {@link #connect} call lets
+     * {@link #bgApiAsync(String, String)} wait for at once. Jobs submitted
+     * beyond it fail with a
+     * {@link java.util.concurrent.RejectedExecutionException}.
+     *
+     * @param maxPendingJobs maximum number of pending jobs
+     */
+    public void setMaxPendingJobs(int maxPendingJobs) {
+        if (maxPendingJobs <= 0) {
+            throw new IllegalArgumentException(
+                    "maxPendingJobs must be a positive integer: " + maxPendingJobs);
+        }
+        this.maxPendingJobs = maxPendingJobs;
+    }
+
+    /**
+     * @return number of background jobs waiting for their event
+     */
+    public int pendingJobs() {
+        PendingJobs jobs = pendingJobs;
+        return jobs == null ? 0 : jobs.size();
+    }
+
+    private void completePublisher() {
+        EventPublisher completed;
+        synchronized (this) {
+            completed = publisher;
+            publisher = null;
+        }
+        if (completed != null) {
+            removeEventListener(completed);
+            completed.complete();
+        }
+    }
+
+    /*
+     * Sent ahead of the first bgapi, so that the job events are received.
+     * Replies come in order, so the bgapi does not need to wait for it.
+     */
+    private void subscribeToBackgroundJobs(DefaultFreeSwitchClientHandler handler) {
+        if (!backgroundJobSubscribed.compareAndSet(false, true)) {
+            return;
+        }
+        if (interestFormat != null) {
+            refreshInterest();
+            return;
+        }
+        handler.sendCommand(channel, new EventCommand(eventFormat + " BACKGROUND_JOB").toString());
+        if (filtersInUse) {
+            // filter-in semantics would drop the job events otherwise
+            handler.sendCommand(channel, new FilterCommand("Event-Name BACKGROUND_JOB").toString());
+        }
+    }
+
+    private void trackSubscription(String format, String events) {
+        eventFormat = format;
+        if (events != null && (events.contains("ALL") || events.contains("BACKGROUND_JOB"))) {
+            backgroundJobSubscribed.set(true);
+        }
+    }
+
+    /**
+     * Choose the decoder used by the next {@link #connect} call.
+     *
+     * @param useFrameDecoder true to decode with the scanning
+     *                        {@link io.freeswitch.codec.FreeSwitchFrameDecoder}
+     */
+    public void setUseFrameDecoder(boolean useFrameDecoder) {
+        this.useFrameDecoder = useFrameDecoder;
+    }
+
+    /**
+     * Choose whether the next {@link #connect} call keeps message bodies as
+     * slices of the received buffers. Large api responses then cost one slice
+     * until {@link FreeSwitchMessage#bodyLines()} is called. Event bodies are
+     * always kept as slices, and parsed from there.
+     *
+     * @param sliceBody true to keep bodies as buffer slices
+     */
+    public void setSliceBody(boolean sliceBody) {
+        this.sliceBody = sliceBody;
+    }
+
+    /**
+     * Choose whether events received after the next {@link #connect} call
+     * have all their header values URL decoded up front. By default each
+     * value is decoded the first time it is read.
+     *
+     * @param eagerHeaderDecoding true to decode all header values up front
+     */
+    public void setEagerHeaderDecoding(boolean eagerHeaderDecoding) {
+        this.eagerHeaderDecoding = eagerHeaderDecoding;
+    }
+
+    /**
+     * Declare the event headers the listeners need. Events received after the
+     * next {@link #connect} call only carry these headers, the others being
+     * skipped while parsing by comparing their name bytes: no String is
+     * built for them, whatever {@link #setSliceBody} says, since event bodies
+     * are always kept as buffers.
+     *
+     * @param headerProjection the headers to keep, null to keep them all
+     */
+    public void setHeaderProjection(HeaderProjection headerProjection) {
+        this.headerProjection = headerProjection;
+    }
+
+    /**
+     * Bound the number of commands the next {@link #connect} call pipelines
+     * on the connection. Commands are always written without waiting for the
+     * previous replies; once this many are waiting, the sending methods block
+     * until a reply arrives.
+     *
+     * @param maxInFlightCommands window size, 0 for no limit
+     */
+    public void setMaxInFlightCommands(int maxInFlightCommands) {
+        if (maxInFlightCommands < 0) {
+            throw new IllegalArgumentException(
+                    "maxInFlightCommands must not be negative: " + maxInFlightCommands);
+        }
+        this.maxInFlightCommands = maxInFlightCommands;
+    }
+
+    /**
+     * Default deadline of the commands sent by this client. A command whose
+     * reply has not arrived in time fails with a
+     * {@link org.jboss.netty.handler.timeout.TimeoutException}, thrown by the
+     * blocking methods. Its reply, if it comes later, is dropped. Applies to
+     * the current connection too.
+     *
+     * @param timeout time to wait for a reply, 0 to wait forever
+     * @param unit    unit of the timeout
+     */
+    public void setCommandTimeout(long timeout, TimeUnit unit) {
+        this.commandTimeoutMillis = unit.toMillis(timeout);
+        if (channel != null) {
+            DefaultFreeSwitchClientHandler handler = (DefaultFreeSwitchClientHandler) channel.getPipeline().getLast();
+            handler.setCommandTimeout(timeout, unit);
+        }
+    }
+
+    /**
+     * Bound the commands that expired and are still waiting for their reply.
+     * Each holds its place, and its slot of the in-flight window, until the
+     * reply comes. A server leaving {@code maxExpired} of them unanswered, or
+     * one unanswered {@code gracePeriod} past its deadline, is taken as
+     * stalled and the connection is closed, failing the commands in flight.
+     * 100 commands and 30 seconds unless set. Applies to the current
+     * connection too.
+     *
+     * @param maxExpired  expired commands unanswered from which the
+     *                    connection is closed, 0 for no limit
+     * @param gracePeriod time an expired command may wait for its reply, 0
+     *                    to wait forever
+     * @param unit        unit of the grace period
+     */
+    public void setExpiredCommandLimits(int maxExpired, long gracePeriod, TimeUnit unit) {
+        if (maxExpired < 0 || gracePeriod < 0) {
+            throw new IllegalArgumentException(
+                    "Invalid expired command limits " + maxExpired + '/' + gracePeriod);
+        }
+        this.maxExpiredCommands = maxExpired;
+        this.expiredGraceMillis = unit.toMillis(gracePeriod);
+        if (channel != null) {
+            DefaultFreeSwitchClientHandler handler = (DefaultFreeSwitchClientHandler) channel.getPipeline().getLast();
+            handler.setExpiredCommandLimits(maxExpired, gracePeriod, unit);
+        }
+    }
+
+    /**
+     * Commands sent, replies received, commands in flight and reply rate of
+     * the current connection.
+     *
+     * @return the command traffic of the current connection
+     */
+    public CommandStats commandStats() {
+        if (channel == null) {
+            throw new IllegalStateException(
+                    "Not connected to FreeSWITCH Event Socket");
+        }
+        DefaultFreeSwitchClientHandler handler = (DefaultFreeSwitchClientHandler) channel.getPipeline().getLast();
+        return handler.commandStats();
+    }
+
     public boolean canSend() {
         return channel != null && channel.isConnected() && authenticated;
     }
@@ -256,16 +911,42 @@ public class FreeSwitchClient {
         if (canSend()) {
             close();
         }
+        // the new connection is not usable until its own auth is answered
+        authenticated = false;
+        authenticatorResponded.set(false);
+        authenticationResponse = null;
 
         // Configure this client
-        ClientBootstrap bootstrap = new ClientBootstrap(
-                new NioClientSocketChannelFactory(
-                        Executors.newCachedThreadPool(),
-                        Executors.newCachedThreadPool()));
+        ClientBootstrap bootstrap;
+        if (resources != null) {
+            bootstrap = new ClientBootstrap(resources.clientChannelFactory());
+        } else {
+            bootstrap = new ClientBootstrap(
+                    new NioClientSocketChannelFactory(
+                            Executors.newCachedThreadPool(),
+                            Executors.newCachedThreadPool()));
+        }
 
         // Add ESL handler
         DefaultFreeSwitchClientHandler handler = new DefaultFreeSwitchClientHandler(password, protocolListener);
-        bootstrap.setPipelineFactory(new DefaultFreeSwitchClientPipelineFactory(handler));
+        handler.setEagerHeaderDecoding(eagerHeaderDecoding);
+        handler.setHeaderProjection(headerProjection);
+        handler.setMaxInFlightCommands(maxInFlightCommands);
+        handler.setCommandTimeout(commandTimeoutMillis, TimeUnit.MILLISECONDS);
+        handler.setExpiredCommandLimits(maxExpiredCommands, expiredGraceMillis, TimeUnit.MILLISECONDS);
+        handler.setReadBackpressure(readBackpressure);
+        Timer timer = SharedTimer.get();
+        if (resources != null) {
+            timer = resources.timer();
+            handler.setTimer(timer);
+        }
+        final PendingJobs jobs = new PendingJobs(maxPendingJobs, timer);
+        pendingJobs = jobs;
+        backgroundJobSubscribed.set(false);
+        filtersInUse = false;
+        interestSubscription.reset(false);
+        bootstrap.setPipelineFactory(new DefaultFreeSwitchClientPipelineFactory(handler, useFrameDecoder,
+                sliceBody, resources != null ? resources.executionHandler() : null));
 
         // Make the connection attempt.
         ChannelFuture future = bootstrap.connect(new InetSocketAddress(host, port));
@@ -279,14 +960,27 @@ public class FreeSwitchClient {
         if (!future.isSuccess()) {
             log.warn("Failed to connect to [{}:{}]", host, port);
             channel = null;
-            bootstrap.releaseExternalResources();
+            if (resources == null) {
+                bootstrap.releaseExternalResources();
+            }
             throw new ConnectionFailure("Could not connect to " + host + ":"
                     + port, future.getCause());
         }
 
         channel = future.getChannel();
+        readBackpressure.attach(channel, handler);
+        channel.getCloseFuture().addListener(new ChannelFutureListener() {
+            public void operationComplete(ChannelFuture future) {
+                jobs.failAll(new ChannelException("Connection closed before the job completed"));
+                completePublisher();
+            }
+        });
         // Wait for the authentication handshake to call back
         while (!authenticatorResponded.get()) {
+            if (!channel.isConnected()) {
+                throw new ConnectionFailure("Connection to " + host + ":" + port
+                        + " closed before authentication");
+            }
             try {
                 Thread.sleep(250);
             } catch (InterruptedException e) {
@@ -298,6 +992,7 @@ public class FreeSwitchClient {
             throw new ConnectionFailure("Authentication failed: "
                     + authenticationResponse.replyText());
         }
+        refreshInterest();
     }
 
     /**
@@ -312,22 +1007,49 @@ public class FreeSwitchClient {
      * </pre>
      * <p>
      * Subsequent calls to this method replaces any previous subscriptions that
-     * were set. </p> Note: current implementation can only process 'plain'
-     * event.
+     * were set.
      *
-     * @param format can be { plain | xml }
+     * @param format can be { plain | json | xml }
      * @param events { all | space separated list of event }
      * @return a {@link CommandReply} with the server's response.
      */
     public CommandReply event(String format, String events) {
-        // temporary hack
-        if (!format.equals("plain")) {
-            throw new IllegalStateException(
-                    "Only 'plain' event format is supported at present");
+        EventCommand event = eventCommand(format, events);
+        checkConnected();
+        DefaultFreeSwitchClientHandler handler = (DefaultFreeSwitchClientHandler) channel.getPipeline().getLast();
+        // Here no command is really set to be executed
+        if (event == null) {
+            return null;
         }
+        trackSubscription(format, events);
+        FreeSwitchMessage response = handler.sendSyncCommand(channel,
+                event.toString());
+        return new CommandReply(event.toString(), response);
+    }
 
+    /**
+     * Same as {@link #event(String, String)} without blocking.
+     *
+     * @param format can be { plain | json | xml }
+     * @param events { all | space separated list of event }
+     * @return a future completed with the server's response.
+     */
+    public CompletableFuture<CommandReply> eventAsync(String format, String events) {
+        EventCommand event = eventCommand(format, events);
         checkConnected();
         DefaultFreeSwitchClientHandler handler = (DefaultFreeSwitchClientHandler) channel.getPipeline().getLast();
+        if (event == null) {
+            return CompletableFuture.completedFuture(null);
+        }
+        trackSubscription(format, events);
+        return commandReply(event.toString(), handler.sendCommand(channel, event.toString()));
+    }
+
+    private static EventCommand eventCommand(String format, String events) {
+        if (!format.equals("plain") && !format.equals("json") && !format.equals("xml")) {
+            throw new IllegalArgumentException(
+                    "Unknown event format [" + format + ']');
+        }
         StringBuilder sb = new StringBuilder();
         if (format != null && !format.isEmpty()) {
             sb.append(format);
@@ -336,15 +1058,10 @@ public class FreeSwitchClient {
             sb.append(' ');
             sb.append(events);
         }
-
-        // Here no command is really set to be executed
         if (StringUtils.isEmpty(sb.toString())) {
             return null;
         }
-        EventCommand event = new EventCommand(sb.toString());
-        FreeSwitchMessage response = handler.sendSyncCommand(channel,
-                event.toString());
-        return new CommandReply(event.toString(), response);
+        return new EventCommand(sb.toString());
     }
 
     /**
@@ -363,6 +1080,18 @@ public class FreeSwitchClient {
         return new CommandReply(sendMsg.toString(), response);
     }
 
+    /**
+     * Same as {@link #execute(SendMsgCommand)} without blocking.
+     *
+     * @param sendMsg a {@link SendMsgCommand} with call UUID
+     * @return a future completed with the server's response.
+     */
+    public CompletableFuture<CommandReply> executeAsync(SendMsgCommand sendMsg) {
+        checkConnected();
+        DefaultFreeSwitchClientHandler handler = (DefaultFreeSwitchClientHandler) channel.getPipeline().getLast();
+        return commandReply(sendMsg.toString(), handler.sendCommand(channel, sendMsg.toString()));
+    }
+
     /**
      * Add an event filter to the current set of event filters on this
      * connection. Any of the event headers can be used as a filter. </p> Note
@@ -373,7 +1102,7 @@ public class FreeSwitchClient {
      * <pre>
      *    eventHeader        valueToFilter
      *    ----------------------------------
-     *    Event-HeaderName         CHANNEL_EXECUTE
+     *    Event-Name         CHANNEL_EXECUTE
      *    Channel-State      CS_NEW
      * </pre>
      *
@@ -384,6 +1113,35 @@ public class FreeSwitchClient {
     public CommandReply filter(String eventHeader, String valueToFilter) {
         checkConnected();
         DefaultFreeSwitchClientHandler handler = (DefaultFreeSwitchClientHandler) channel.getPipeline().getLast();
+        FilterCommand filter = filterCommand(eventHeader, valueToFilter);
+        if (filter == null) {
+            return null;
+        }
+        filtersInUse = true;
+        FreeSwitchMessage response = handler.sendSyncCommand(channel,
+                filter.toString());
+        return new CommandReply(filter.toString(), response);
+    }
+
+    /**
+     * Same as {@link #filter(String, String)} without blocking.
+     *
+     * @param eventHeader   to filter on
+     * @param valueToFilter the value to match
+     * @return a future completed with the server's response.
+     */
+    public CompletableFuture<CommandReply> filterAsync(String eventHeader, String valueToFilter) {
+        checkConnected();
+        DefaultFreeSwitchClientHandler handler = (DefaultFreeSwitchClientHandler) channel.getPipeline().getLast();
+        FilterCommand filter = filterCommand(eventHeader, valueToFilter);
+        if (filter == null) {
+            return CompletableFuture.completedFuture(null);
+        }
+        filtersInUse = true;
+        return commandReply(filter.toString(), handler.sendCommand(channel, filter.toString()));
+    }
+
+    private static FilterCommand filterCommand(String eventHeader, String valueToFilter) {
         StringBuilder sb = new StringBuilder();
         if (eventHeader != null && !eventHeader.isEmpty()) {
             sb.append(eventHeader);
@@ -392,15 +1150,10 @@ public class FreeSwitchClient {
             sb.append(' ');
             sb.append(valueToFilter);
         }
-
         if (StringUtils.isEmpty(sb.toString())) {
             return null;
         }
-
-        FilterCommand filter = new FilterCommand(sb.toString());
-        FreeSwitchMessage response = handler.sendSyncCommand(channel,
-                filter.toString());
-        return new CommandReply(filter.toString(), response);
+        return new FilterCommand(sb.toString());
     }
 
     /**
@@ -442,6 +1195,7 @@ public class FreeSwitchClient {
         checkConnected();
         DefaultFreeSwitchClientHandler handler = (DefaultFreeSwitchClientHandler) channel.getPipeline().getLast();
         NoEventsCommand noevents = new NoEventsCommand();
+        backgroundJobSubscribed.set(false);
         FreeSwitchMessage response = handler.sendSyncCommand(channel,
                 noevents.toString());
         return new CommandReply(noevents.toString(), response);
@@ -477,4 +1231,13 @@ public class FreeSwitchClient {
         return new CommandReply(log.toString(), response);
     }
 
+    private static CompletableFuture<CommandReply> commandReply(final String command,
+                                                                CompletableFuture<FreeSwitchMessage> response) {
+        return response.thenApply(new Function<FreeSwitchMessage, CommandReply>() {
+            public CommandReply apply(FreeSwitchMessage message) {
+                return new CommandReply(command, message);
+            }
+        });
+    }
+
 }
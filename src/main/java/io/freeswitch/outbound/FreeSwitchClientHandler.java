@@ -17,17 +17,20 @@ package io.freeswitch.outbound;
 
 import io.freeswitch.codec.FreeSwitchMessageHeaders;
 import io.freeswitch.codec.FreeSwitchMessageHeaders.HeaderValue;
+import io.freeswitch.common.SharedTimer;
 import io.freeswitch.event.EslEvent;
+import io.freeswitch.event.HeaderProjection;
+import io.freeswitch.event.RingBufferEventDispatcher;
+import io.freeswitch.message.CommandStats;
 import io.freeswitch.message.FreeSwitchMessage;
+import io.freeswitch.message.PendingReplies;
 import org.jboss.netty.channel.*;
+import org.jboss.netty.util.Timer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.Queue;
-import java.util.concurrent.ConcurrentLinkedQueue;
-import java.util.concurrent.CountDownLatch;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 
 /**
  * @author Arsene Tochemey GANDOTE
@@ -42,13 +45,32 @@ public abstract class FreeSwitchClientHandler extends
 
     protected final Logger log = LoggerFactory.getLogger(this.getClass());
 
-    private final Lock syncLock = new ReentrantLock();
-    private final Queue<SyncCallback> syncCallbacks = new ConcurrentLinkedQueue<SyncCallback>();
+    private volatile PendingReplies pendingReplies = new PendingReplies();
+    private volatile int maxInFlightCommands = 0;
+    private volatile long commandTimeoutMillis = 0;
+    private volatile int maxExpiredCommands = PendingReplies.DEFAULT_MAX_EXPIRED;
+    private volatile long expiredGraceMillis = PendingReplies.DEFAULT_EXPIRED_GRACE_MILLIS;
+    private volatile Timer timer = SharedTimer.get();
+    private volatile boolean eagerHeaderDecoding = false;
+    private volatile HeaderProjection headerProjection;
+    private volatile ReadBackpressure readBackpressure;
+    /*
+     * A pause refused while replies were awaited is due once they are in.
+     */
+    private final Runnable commandsAnswered = new Runnable() {
+        public void run() {
+            ReadBackpressure backpressure = readBackpressure;
+            if (backpressure != null) {
+                backpressure.commandsAnswered();
+            }
+        }
+    };
 
     /**
      *
      */
     public FreeSwitchClientHandler() {
+        pendingReplies.setIdleListener(commandsAnswered);
     }
 
     @Override
@@ -58,9 +80,11 @@ public abstract class FreeSwitchClientHandler extends
             FreeSwitchMessage message = (FreeSwitchMessage) e.getMessage();
             String contentType = message.contentType();
             if (contentType.equals(HeaderValue.TEXT_EVENT_PLAIN)
+                    || contentType.equals(HeaderValue.TEXT_EVENT_JSON)
                     || contentType.equals(HeaderValue.TEXT_EVENT_XML)) {
                 // transform into an event
-                EslEvent eslEvent = new EslEvent(message);
+                EslEvent eslEvent = new EslEvent(message, false, eagerHeaderDecoding,
+                        headerProjection);
                 handleEslEvent(ctx, eslEvent);
             } else {
                 handleEslMessage(ctx, (FreeSwitchMessage) e.getMessage());
@@ -71,6 +95,122 @@ public abstract class FreeSwitchClientHandler extends
                 + e.getMessage().getClass());
     }
 
+    @Override
+    public void channelClosed(ChannelHandlerContext ctx, ChannelStateEvent e) throws Exception {
+        pendingReplies.close();
+        super.channelClosed(ctx, e);
+    }
+
+    /**
+     * By default event header values are URL decoded on first access. Set
+     * this to decode every value when the event is built, as it used to be.
+     *
+     * @param eagerHeaderDecoding true to decode all header values up front
+     */
+    public void setEagerHeaderDecoding(boolean eagerHeaderDecoding) {
+        this.eagerHeaderDecoding = eagerHeaderDecoding;
+    }
+
+    /**
+     * Bound the number of commands sent and waiting for their reply. Once the
+     * window is full, senders block until a reply arrives. Must be set before
+     * the handler is added to a pipeline.
+     *
+     * @param maxInFlightCommands window size, 0 for no limit
+     */
+    public void setMaxInFlightCommands(int maxInFlightCommands) {
+        this.maxInFlightCommands = maxInFlightCommands;
+        resetPendingReplies();
+    }
+
+    /**
+     * Timer enforcing the command deadlines, the {@link SharedTimer} unless
+     * set. Must be set before the handler is added to a pipeline.
+     *
+     * @param timer timer shared with other connections
+     */
+    public void setTimer(Timer timer) {
+        this.timer = timer;
+        resetPendingReplies();
+    }
+
+    private void resetPendingReplies() {
+        PendingReplies replies = new PendingReplies(maxInFlightCommands, timer);
+        replies.setDefaultTimeout(commandTimeoutMillis, TimeUnit.MILLISECONDS);
+        replies.setExpiredLimits(maxExpiredCommands, expiredGraceMillis, TimeUnit.MILLISECONDS);
+        replies.setIdleListener(commandsAnswered);
+        this.pendingReplies = replies;
+    }
+
+    /**
+     * Deadline of the commands sent without one. A command whose reply has
+     * not arrived by then fails with a
+     * {@link org.jboss.netty.handler.timeout.TimeoutException}.
+     *
+     * @param timeout time to wait for a reply, 0 to wait forever
+     * @param unit    unit of the timeout
+     */
+    public void setCommandTimeout(long timeout, TimeUnit unit) {
+        this.commandTimeoutMillis = unit.toMillis(timeout);
+        pendingReplies.setDefaultTimeout(timeout, unit);
+    }
+
+    /**
+     * Bound the expired commands still waiting for their reply. A server
+     * leaving that many unanswered, or one unanswered past the grace period,
+     * is taken as stalled and the connection is closed.
+     *
+     * @param maxExpired  expired commands unanswered from which the
+     *                    connection is closed, 0 for no limit
+     * @param gracePeriod time an expired command may wait for its reply, 0
+     *                    to wait forever
+     * @param unit        unit of the grace period
+     * @see PendingReplies#setExpiredLimits(int, long, TimeUnit)
+     */
+    public void setExpiredCommandLimits(int maxExpired, long gracePeriod, TimeUnit unit) {
+        pendingReplies.setExpiredLimits(maxExpired, gracePeriod, unit);
+        this.maxExpiredCommands = maxExpired;
+        this.expiredGraceMillis = unit.toMillis(gracePeriod);
+    }
+
+    /**
+     * @return the command traffic of the connection
+     */
+    public CommandStats commandStats() {
+        return pendingReplies.stats();
+    }
+
+    /**
+     * @return number of commands sent and still waiting for their reply
+     */
+    public int inFlightCommands() {
+        return pendingReplies.size();
+    }
+
+    /**
+     * @return number of commands whose sender still waits for the reply, the
+     * expired ones excluded
+     */
+    public int awaitedCommands() {
+        return pendingReplies.awaited();
+    }
+
+    /*
+     * Told about every command sent, so that it reads the reply.
+     */
+    void setReadBackpressure(ReadBackpressure readBackpressure) {
+        this.readBackpressure = readBackpressure;
+    }
+
+    /**
+     * Only keep the given event headers in the events built from now on.
+     *
+     * @param headerProjection the headers to keep, null to keep them all
+     */
+    public void setHeaderProjection(HeaderProjection headerProjection) {
+        this.headerProjection = headerProjection;
+    }
+
     protected abstract void handleEslEvent(ChannelHandlerContext ctx,
                                            EslEvent event);
 
@@ -85,10 +225,10 @@ public abstract class FreeSwitchClientHandler extends
 
         if (contentType.equals(HeaderValue.API_RESPONSE)) {
             log.debug("Api response received [{}]", message);
-            syncCallbacks.poll().handle(message);
+            pendingReplies.complete(message);
         } else if (contentType.equals(HeaderValue.COMMAND_REPLY)) {
             log.debug("Command reply received [{}]", message);
-            syncCallbacks.poll().handle(message);
+            pendingReplies.complete(message);
         } else if (contentType.equals(HeaderValue.AUTH_REQUEST)) {
             log.debug("Auth request received [{}]", message);
             handleAuthRequest(ctx);
@@ -111,19 +251,65 @@ public abstract class FreeSwitchClientHandler extends
      */
     public FreeSwitchMessage sendSyncCommand(Channel channel,
                                              final String command) {
-        SyncCallback callback = new SyncCallback();
-        syncLock.lock();
-        try {
-            syncCallbacks.add(callback);
-            String request = command + MESSAGE_TERMINATOR;
+        checkMayBlock();
+        // Block until the response is available
+        return PendingReplies.await(sendCommand(channel, command));
+    }
+
+    /*
+     * A ring listener waiting for a reply may hold up the thread that reads
+     * it, which waits for room in the ring.
+     */
+    static void checkMayBlock() {
+        if (RingBufferEventDispatcher.isConsumerThread()) {
+            throw new IllegalStateException(
+                    "Blocking command sent from a ring buffer listener, send it asynchronously");
+        }
+    }
+
+    /**
+     * Send a command without waiting for its response. The returned future is
+     * completed by the IO path when the matching {@link FreeSwitchMessage}
+     * arrives.
+     *
+     * @param channel
+     * @param command single string to send
+     * @return a future completed with the response to this command
+     */
+    public CompletableFuture<FreeSwitchMessage> sendCommand(Channel channel,
+                                                            final String command) {
+        String request = command + MESSAGE_TERMINATOR;
+        if (log.isDebugEnabled()) {
+            log.debug("Command sent to freeSwitch [{}]", request);
+        }
+        return sent(pendingReplies.send(channel, request));
+    }
+
+    /**
+     * Same as {@link #sendCommand(Channel, String)} with a deadline.
+     *
+     * @param channel
+     * @param command single string to send
+     * @param timeout time to wait for the response, 0 to wait forever
+     * @param unit    unit of the timeout
+     * @return a future completed with the response to this command
+     */
+    public CompletableFuture<FreeSwitchMessage> sendCommand(Channel channel,
+                                                            final String command, long timeout,
+                                                            TimeUnit unit) {
+        String request = command + MESSAGE_TERMINATOR;
+        if (log.isDebugEnabled()) {
             log.debug("Command sent to freeSwitch [{}]", request);
-            channel.write(request);
-        } finally {
-            syncLock.unlock();
         }
+        return sent(pendingReplies.send(channel, request, timeout, unit));
+    }
 
-        // Block until the response is available
-        return callback.get();
+    private CompletableFuture<FreeSwitchMessage> sent(CompletableFuture<FreeSwitchMessage> reply) {
+        ReadBackpressure backpressure = readBackpressure;
+        if (backpressure != null) {
+            backpressure.commandSent();
+        }
+        return reply;
     }
 
 
@@ -148,41 +334,4 @@ public abstract class FreeSwitchClientHandler extends
         }
     }
 
-    private static class SyncCallback {
-
-        private static final Logger log = LoggerFactory
-                .getLogger(SyncCallback.class);
-        private final CountDownLatch latch = new CountDownLatch(1);
-        private FreeSwitchMessage response;
-
-        /**
-         * Block waiting for the countdown latch to be released, then return the
-         * associated response object.
-         *
-         * @return
-         */
-        FreeSwitchMessage get() {
-            try {
-                log.trace("awaiting latch ... ");
-                latch.await();
-            } catch (InterruptedException e) {
-                throw new RuntimeException(e);
-            }
-
-            log.trace("returning response [{}]", response);
-            return response;
-        }
-
-        /**
-         * Attach this response to the callback and release the countdown latch.
-         *
-         * @param response
-         */
-        void handle(FreeSwitchMessage response) {
-            this.response = response;
-            log.trace("releasing latch for response [{}]", response);
-            latch.countDown();
-        }
-    }
-
 }
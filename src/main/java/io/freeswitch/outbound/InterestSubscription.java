@@ -0,0 +1,186 @@
+/*
+ * Copyright 2015.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.freeswitch.outbound;
+
+import io.freeswitch.command.EventCommand;
+import io.freeswitch.command.FilterCommand;
+import io.freeswitch.command.NixEventCommand;
+import io.freeswitch.command.NoEventsCommand;
+import io.freeswitch.event.EventInterest;
+import io.freeswitch.event.EventRegistry;
+
+import java.util.*;
+
+/**
+ * Event subscription and filter set of a connection derived from the
+ * interests of its listeners.
+ * <p>
+ * Remembers what has been applied to the connection, and turns every change
+ * of the interests into the few {@code event}, {@code nixevent} and
+ * {@code filter} commands that bring the connection up to date.
+ * <p>
+ * Filters are only used when a listener narrows its interest down with
+ * header conditions. Since an event passes the filter set when it matches
+ * any filter, the listeners without conditions then get an
+ * {@code Event-Name} (or {@code Event-Subclass}) filter per event they want.
+ *
+ * @author Arsene Tochemey GANDOTE
+ */
+final class InterestSubscription {
+
+    private static final String BACKGROUND_JOB = "BACKGROUND_JOB";
+
+    private boolean all = false;
+    private final Set<String> eventNames = new TreeSet<String>();
+    private final Set<String> customSubclasses = new TreeSet<String>();
+    private final Set<String> filters = new TreeSet<String>();
+
+    /**
+     * Forget what was applied.
+     *
+     * @param subscribedToAll true when the connection may already be
+     *                        subscribed to any event, false for a new one
+     */
+    synchronized void reset(boolean subscribedToAll) {
+        all = subscribedToAll;
+        eventNames.clear();
+        customSubclasses.clear();
+        filters.clear();
+    }
+
+    /**
+     * @return true when filters are applied to the connection
+     */
+    synchronized boolean filtering() {
+        return !filters.isEmpty();
+    }
+
+    /**
+     * @param format         event format of the subscription
+     * @param interests      interests of all the listeners
+     * @param backgroundJobs true to keep receiving the background job events
+     * @return the commands to send, in order, to apply the interests
+     */
+    synchronized List<String> update(String format, Collection<EventInterest> interests,
+                                     boolean backgroundJobs) {
+        boolean wantAll = false;
+        boolean conditional = false;
+        Set<String> wantedNames = new TreeSet<String>();
+        Set<String> wantedSubclasses = new TreeSet<String>();
+        for (EventInterest interest : interests) {
+            wantAll |= interest.isAll();
+            conditional |= !interest.conditions().isEmpty();
+            wantedNames.addAll(interest.eventNames());
+            wantedSubclasses.addAll(interest.customSubclasses());
+        }
+        if (backgroundJobs) {
+            wantedNames.add(BACKGROUND_JOB);
+        }
+
+        List<String> commands = new ArrayList<String>();
+        if (wantAll) {
+            if (!all) {
+                commands.add(new EventCommand(format + " ALL").toString());
+            }
+            // any filter left would hide events from the listeners wanting them all
+            deleteFilters(filters, commands);
+            filters.clear();
+            all = true;
+            eventNames.clear();
+            customSubclasses.clear();
+            return commands;
+        }
+        if (all) {
+            commands.add(new NoEventsCommand().toString());
+            all = false;
+        }
+
+        Set<String> wantedFilters = new TreeSet<String>();
+        if (conditional) {
+            for (EventInterest interest : interests) {
+                if (!interest.conditions().isEmpty()) {
+                    wantedFilters.addAll(interest.conditions());
+                    continue;
+                }
+                for (String eventName : interest.eventNames()) {
+                    wantedFilters.add("Event-Name " + eventName);
+                }
+                for (String subclass : interest.customSubclasses()) {
+                    wantedFilters.add("Event-Subclass " + subclass);
+                }
+            }
+            if (backgroundJobs) {
+                wantedFilters.add("Event-Name " + BACKGROUND_JOB);
+            }
+        }
+
+        Set<String> addedNames = minus(wantedNames, eventNames);
+        Set<String> addedSubclasses = minus(wantedSubclasses, customSubclasses);
+        if (!addedNames.isEmpty() || !addedSubclasses.isEmpty()) {
+            StringBuilder sb = new StringBuilder(format);
+            join(sb, addedNames);
+            if (!addedSubclasses.isEmpty()) {
+                sb.append(' ').append(EventRegistry.CUSTOM);
+                join(sb, addedSubclasses);
+            }
+            commands.add(new EventCommand(sb.toString()).toString());
+        }
+        // add the new filters first, so that no event wanted slips through
+        for (String filter : minus(wantedFilters, filters)) {
+            commands.add(new FilterCommand(filter).toString());
+        }
+        deleteFilters(minus(filters, wantedFilters), commands);
+        Set<String> removedNames = minus(eventNames, wantedNames);
+        if (!removedNames.isEmpty()) {
+            StringBuilder sb = new StringBuilder();
+            join(sb, removedNames);
+            commands.add(new NixEventCommand(sb.substring(1)).toString());
+        }
+        Set<String> removedSubclasses = minus(customSubclasses, wantedSubclasses);
+        if (!removedSubclasses.isEmpty()) {
+            StringBuilder sb = new StringBuilder(EventRegistry.CUSTOM);
+            join(sb, removedSubclasses);
+            commands.add(new NixEventCommand(sb.toString()).toString());
+        }
+
+        eventNames.clear();
+        eventNames.addAll(wantedNames);
+        customSubclasses.clear();
+        customSubclasses.addAll(wantedSubclasses);
+        filters.clear();
+        filters.addAll(wantedFilters);
+        return commands;
+    }
+
+    private static void deleteFilters(Set<String> removed, List<String> commands) {
+        for (String filter : removed) {
+            commands.add(new FilterCommand("delete " + filter).toString());
+        }
+    }
+
+    private static Set<String> minus(Set<String> set, Set<String> removed) {
+        Set<String> result = new TreeSet<String>(set);
+        result.removeAll(removed);
+        return result;
+    }
+
+    private static void join(StringBuilder sb, Set<String> values) {
+        for (String value : values) {
+            sb.append(' ').append(value);
+        }
+    }
+
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright 2015.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.freeswitch.outbound;
+
+import io.freeswitch.event.BackgroundJob;
+import io.freeswitch.event.EslEvent;
+import io.freeswitch.event.EventHeaders;
+import org.jboss.netty.util.Timeout;
+import org.jboss.netty.util.Timer;
+import org.jboss.netty.util.TimerTask;
+
+import java.util.Iterator;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Background jobs waiting for their BACKGROUND_JOB event, keyed by Job-UUID.
+ * <p>
+ * The table is bounded: once it holds {@code maxPending} jobs, new jobs are
+ * rejected rather than letting a stalled server grow it without limit. Each
+ * job is given up after its timeout, on the shared timer.
+ *
+ * @author Arsene Tochemey GANDOTE
+ */
+final class PendingJobs {
+
+    private final ConcurrentMap<UUID, Job> jobs = new ConcurrentHashMap<UUID, Job>();
+    private final AtomicInteger size = new AtomicInteger();
+    private final int maxPending;
+    private final Timer timer;
+
+    PendingJobs(int maxPending, Timer timer) {
+        this.maxPending = maxPending;
+        this.timer = timer;
+    }
+
+    /**
+     * Register a job before its bgapi command is sent.
+     *
+     * @return a future completed by the job event, failed with a
+     * {@link TimeoutException} if it does not arrive in time, or with a
+     * {@link RejectedExecutionException} if the table is full
+     */
+    CompletableFuture<BackgroundJob> register(final UUID jobId, long timeout, TimeUnit unit) {
+        final Job job = new Job();
+        if (size.incrementAndGet() > maxPending) {
+            size.decrementAndGet();
+            job.completeExceptionally(new RejectedExecutionException(
+                    "Too many pending background jobs: " + maxPending));
+            return job;
+        }
+        if (jobs.putIfAbsent(jobId, job) != null) {
+            size.decrementAndGet();
+            job.completeExceptionally(new IllegalStateException("Duplicate Job-UUID " + jobId));
+            return job;
+        }
+        if (timeout > 0) {
+            final String message = "No BACKGROUND_JOB event for job " + jobId + " within "
+                    + timeout + " " + unit.toString().toLowerCase();
+            job.timeout = timer.newTimeout(new TimerTask() {
+                public void run(Timeout t) {
+                    fail(jobId, new TimeoutException(message));
+                }
+            }, timeout, unit);
+        }
+        return job;
+    }
+
+    /**
+     * @param event a BACKGROUND_JOB event
+     * @return true if a job was waiting for it
+     */
+    boolean complete(EslEvent event) {
+        String jobId = event.eventHeaders().get(EventHeaders.JOB_UUID);
+        if (jobId == null) {
+            return false;
+        }
+        Job job = remove(UUID.fromString(jobId));
+        if (job == null) {
+            return false;
+        }
+        job.complete(new BackgroundJob(event));
+        return true;
+    }
+
+    void fail(UUID jobId, Throwable cause) {
+        Job job = remove(jobId);
+        if (job != null) {
+            job.completeExceptionally(cause);
+        }
+    }
+
+    void failAll(Throwable cause) {
+        Iterator<UUID> it = jobs.keySet().iterator();
+        while (it.hasNext()) {
+            fail(it.next(), cause);
+        }
+    }
+
+    int size() {
+        return size.get();
+    }
+
+    private Job remove(UUID jobId) {
+        Job job = jobs.remove(jobId);
+        if (job != null) {
+            size.decrementAndGet();
+            Timeout timeout = job.timeout;
+            if (timeout != null) {
+                timeout.cancel();
+            }
+        }
+        return job;
+    }
+
+    private static final class Job extends CompletableFuture<BackgroundJob> {
+        volatile Timeout timeout;
+    }
+
+}
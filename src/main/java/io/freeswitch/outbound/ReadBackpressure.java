@@ -0,0 +1,250 @@
+/*
+ * Copyright 2015.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.freeswitch.outbound;
+
+import io.freeswitch.event.DispatchStats;
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Pauses reading from the connection while too many events wait for the
+ * listeners, or while a consumer holds reading back.
+ * <p>
+ * Once the pending deliveries reach the high watermark the channel stops
+ * being readable, so that the events pile up in the socket buffers and,
+ * past those, at the server instead of in the heap. Reading resumes once
+ * they are back to the low watermark. A dispatcher blocking once full, the
+ * {@link io.freeswitch.event.RingBufferEventDispatcher}, lowers both
+ * watermarks under its capacity.
+ * <p>
+ * Reading is never paused while a command waits for its reply, and a
+ * command sent resumes it: the reply comes on the same connection, and a
+ * listener blocked waiting for it would otherwise never get it. The pause
+ * still due is taken once no reply is awaited anymore. Expired commands are
+ * not waited for, so they do not keep reading on. While
+ * paused, the pipeline
+ * {@link io.freeswitch.ExecutionHandler} is flagged so that it drops the
+ * requests of others to resume reading.
+ *
+ * @author Arsene Tochemey GANDOTE
+ */
+final class ReadBackpressure {
+
+    private static final Logger log = LoggerFactory.getLogger(ReadBackpressure.class);
+
+    private final AtomicInteger pending = new AtomicInteger();
+    private volatile int lowWatermark;
+    private volatile int highWatermark;
+    private volatile int capacity = 0;
+    private volatile boolean paused = false;
+    private int holds = 0;
+    private Channel channel;
+    private FreeSwitchClientHandler handler;
+    private long pausedSince;
+    private long pausedNanos;
+    private long pauses;
+
+    /**
+     * @param lowWatermark  pending deliveries under which reading resumes
+     * @param highWatermark pending deliveries from which reading is paused,
+     *                      0 to never pause
+     */
+    ReadBackpressure(int lowWatermark, int highWatermark) {
+        setWatermarks(lowWatermark, highWatermark);
+    }
+
+    void setWatermarks(int lowWatermark, int highWatermark) {
+        if (highWatermark < 0 || lowWatermark < 0 || (highWatermark > 0 && lowWatermark >= highWatermark)) {
+            throw new IllegalArgumentException("Invalid watermarks " + lowWatermark + '/' + highWatermark);
+        }
+        this.lowWatermark = lowWatermark;
+        this.highWatermark = highWatermark;
+        if (highWatermark() == 0 || pending.get() <= lowWatermark()) {
+            resume();
+        }
+    }
+
+    /**
+     * Bound the watermarks to a dispatcher that blocks once it holds that
+     * many deliveries: reading then pauses at half of them at the latest,
+     * leaving room for the events read before the pause takes effect.
+     *
+     * @param capacity deliveries the dispatcher holds, 0 when unbounded
+     */
+    void setCapacity(int capacity) {
+        if (capacity < 0) {
+            throw new IllegalArgumentException("Invalid capacity " + capacity);
+        }
+        this.capacity = capacity;
+        if (highWatermark() == 0 || pending.get() <= lowWatermark()) {
+            resume();
+        }
+    }
+
+    /**
+     * Watch a new connection. The deliveries still pending for the previous
+     * one keep counting.
+     *
+     * @param channel the connection
+     * @param handler sends the commands of the connection
+     */
+    synchronized void attach(Channel channel, FreeSwitchClientHandler handler) {
+        if (paused) {
+            pausedNanos += System.nanoTime() - pausedSince;
+            paused = false;
+        }
+        this.channel = channel;
+        this.handler = handler;
+        holds = 0;
+    }
+
+    /**
+     * A command has been sent: its reply must be read.
+     */
+    void commandSent() {
+        if (paused) {
+            resumeForReply();
+        }
+    }
+
+    /**
+     * No command waits for its reply anymore: pause if a hold or the pending
+     * deliveries call for it.
+     */
+    void commandsAnswered() {
+        if (!paused) {
+            pause();
+        }
+    }
+
+    /**
+     * Pause reading until {@link #release()}, whatever the pending
+     * deliveries.
+     */
+    synchronized void hold() {
+        holds++;
+        pause();
+    }
+
+    synchronized void release() {
+        if (holds > 0) {
+            holds--;
+        }
+        resume();
+    }
+
+    void queued(int deliveries) {
+        int high = highWatermark();
+        if (pending.addAndGet(deliveries) >= high && high > 0 && !paused) {
+            pause();
+        }
+    }
+
+    void delivered(int deliveries) {
+        if (pending.addAndGet(-deliveries) <= lowWatermark() && paused) {
+            resume();
+        }
+    }
+
+    /**
+     * @return true while the channel has been made unreadable
+     */
+    boolean paused() {
+        return paused;
+    }
+
+    synchronized DispatchStats stats() {
+        long paused = pausedNanos;
+        if (this.paused) {
+            paused += System.nanoTime() - pausedSince;
+        }
+        return new DispatchStats(pending.get(), lowWatermark(), highWatermark(), this.paused, pauses,
+                paused / 1000000);
+    }
+
+    private int highWatermark() {
+        int high = highWatermark;
+        int cap = capacity;
+        if (cap == 0) {
+            return high;
+        }
+        cap = Math.max(1, cap / 2);
+        return high == 0 || high > cap ? cap : high;
+    }
+
+    private int lowWatermark() {
+        int high = highWatermark();
+        return high == highWatermark ? lowWatermark : Math.min(lowWatermark, high / 2);
+    }
+
+    private synchronized void pause() {
+        int high = highWatermark();
+        if (paused || channel == null || (holds == 0 && (high == 0 || pending.get() < high))) {
+            return;
+        }
+        /*
+         * Flagged before looking at the commands: a command sent meanwhile
+         * either is seen here or sees the flag, and resumes.
+         */
+        paused = true;
+        if (handler.awaitedCommands() > 0) {
+            // the listeners may be waiting for these replies
+            paused = false;
+            return;
+        }
+        pauses++;
+        pausedSince = System.nanoTime();
+        if (log.isDebugEnabled()) {
+            log.debug("{} events pending, pausing reads", pending.get());
+        }
+        ChannelHandlerContext executor = channel.getPipeline().getContext("executor");
+        if (executor != null) {
+            executor.setAttachment(Boolean.TRUE);
+        }
+        channel.setReadable(false);
+    }
+
+    private synchronized void resume() {
+        if (!paused || holds > 0 || (highWatermark() > 0 && pending.get() > lowWatermark())) {
+            return;
+        }
+        doResume();
+    }
+
+    private synchronized void resumeForReply() {
+        if (paused) {
+            doResume();
+        }
+    }
+
+    private void doResume() {
+        paused = false;
+        pausedNanos += System.nanoTime() - pausedSince;
+        if (log.isDebugEnabled()) {
+            log.debug("{} events pending, resuming reads", pending.get());
+        }
+        ChannelHandlerContext executor = channel.getPipeline().getContext("executor");
+        if (executor != null) {
+            executor.setAttachment(null);
+        }
+        channel.setReadable(true);
+    }
+
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright 2015.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.freeswitch;
+
+import io.freeswitch.outbound.FreeSwitchClient;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Clients sharing one {@link EslResources}.
+ *
+ * @author Arsene Tochemey GANDOTE
+ */
+public class EslResourcesTest {
+
+    private FakeFreeSwitch freeSwitch;
+    private EslResources resources;
+    private int workers;
+    private int handlers;
+
+    @Before
+    public void setUp() throws Exception {
+        freeSwitch = new FakeFreeSwitch();
+        // threads of other resources still winding down
+        workers = threads("EslWorker-");
+        handlers = threads("EslHandler-");
+        resources = new EslResources(2, 2);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        resources.releaseExternalResources();
+        freeSwitch.close();
+    }
+
+    @Test
+    public void runsManyClientsOnTheSameThreads() throws Exception {
+        List<FreeSwitchClient> clients = new ArrayList<FreeSwitchClient>();
+        for (int i = 0; i < 20; i++) {
+            FreeSwitchClient client = new FreeSwitchClient(resources);
+            client.connect("127.0.0.1", freeSwitch.port(), "ClueCon", 5);
+            clients.add(client);
+        }
+        for (int i = 0; i < clients.size(); i++) {
+            assertEquals(Collections.singletonList("+OK echo " + i),
+                    clients.get(i).api("echo", String.valueOf(i)).bodyLines());
+        }
+        assertTrue(threads("EslWorker-") <= workers + 2);
+        assertTrue(threads("EslHandler-") <= handlers + 2);
+    }
+
+    @Test
+    public void closesTheConnectionsOnRelease() throws Exception {
+        FreeSwitchClient client = new FreeSwitchClient(resources);
+        client.connect("127.0.0.1", freeSwitch.port(), "ClueCon", 5);
+        assertTrue(client.canSend());
+
+        resources.releaseExternalResources();
+        assertFalse(client.canSend());
+        try {
+            resources.clientChannelFactory();
+            fail("released resources handed out");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsAnEmptyHandlerPool() {
+        new EslResources(1, 0);
+    }
+
+    private static int threads(String prefix) {
+        int count = 0;
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (thread.isAlive() && thread.getName().startsWith(prefix)) {
+                count++;
+            }
+        }
+        return count;
+    }
+}
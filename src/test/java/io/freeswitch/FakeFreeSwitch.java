@@ -0,0 +1,265 @@
+/*
+ * Copyright 2015.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.freeswitch;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A FreeSWITCH event socket answering the commands of the clients connecting
+ * to it, for tests.
+ * <p>
+ * Every connection is asked to authenticate, and any password is accepted.
+ * Then {@code api} commands are answered with {@code +OK} followed by the
+ * command, {@code bgapi} commands with their Job-UUID and, unless
+ * {@link #setRunJobs(boolean)} is off, with the matching BACKGROUND_JOB
+ * event. Other commands get a {@code +OK} command reply. Nothing is
+ * answered while {@link #setSilent(boolean)} is on.
+ *
+ * @author Arsene Tochemey GANDOTE
+ */
+public class FakeFreeSwitch {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final ServerSocket server;
+    private final List<Connection> connections = new CopyOnWriteArrayList<Connection>();
+    private volatile boolean silent = false;
+    private volatile boolean runJobs = true;
+
+    public FakeFreeSwitch() throws IOException {
+        server = new ServerSocket(0);
+        Thread acceptor = new Thread(new Runnable() {
+            public void run() {
+                accept();
+            }
+        }, "fake-freeswitch");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    public int port() {
+        return server.getLocalPort();
+    }
+
+    /**
+     * @param silent true to leave the commands received from now on unanswered
+     */
+    public void setSilent(boolean silent) {
+        this.silent = silent;
+    }
+
+    /**
+     * @param runJobs false to answer bgapi commands without ever sending
+     *                their BACKGROUND_JOB event
+     */
+    public void setRunJobs(boolean runJobs) {
+        this.runJobs = runJobs;
+    }
+
+    /**
+     * Wait for a connection.
+     *
+     * @param index of the connection, in accept order
+     * @return the connection
+     */
+    public Connection connection(int index) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (connections.size() <= index) {
+            if (System.nanoTime() > deadline) {
+                throw new IllegalStateException("No connection " + index);
+            }
+            Thread.sleep(10);
+        }
+        return connections.get(index);
+    }
+
+    public int connections() {
+        return connections.size();
+    }
+
+    public void close() throws IOException {
+        server.close();
+        for (Connection connection : connections) {
+            connection.close();
+        }
+    }
+
+    /**
+     * Answer a command, once authenticated. Overridden to script other
+     * answers.
+     *
+     * @param connection the client connection
+     * @param command    the command lines, without the terminating empty line
+     */
+    protected void answer(Connection connection, String command) throws IOException {
+        if (command.startsWith("api ")) {
+            connection.sendApiResponse("+OK " + command.substring(4));
+        } else if (command.startsWith("bgapi ")) {
+            String job = null;
+            for (String line : command.split("\n")) {
+                if (line.startsWith("Job-UUID: ")) {
+                    job = line.substring(10);
+                }
+            }
+            if (job == null) {
+                job = UUID.randomUUID().toString();
+            }
+            connection.send("Content-Type: command/reply\nReply-Text: +OK Job-UUID: " + job
+                    + "\nJob-UUID: " + job + "\n\n");
+            if (runJobs) {
+                String line = command.split("\n")[0].substring(6);
+                String result = "+OK " + line + "\n";
+                connection.sendEvent("Event-Name: BACKGROUND_JOB\nJob-UUID: " + job
+                        + "\nJob-Command: " + line.split(" ")[0]
+                        + "\nContent-Length: " + result.length() + "\n\n" + result);
+            }
+        } else {
+            connection.sendCommandReply("+OK " + command.split("\n")[0]);
+        }
+    }
+
+    private void accept() {
+        try {
+            while (true) {
+                final Connection connection = new Connection(server.accept());
+                connections.add(connection);
+                Thread reader = new Thread(new Runnable() {
+                    public void run() {
+                        connection.serve();
+                    }
+                }, "fake-freeswitch-connection");
+                reader.setDaemon(true);
+                reader.start();
+            }
+        } catch (IOException e) {
+            // closed
+        }
+    }
+
+    /**
+     * One client connection.
+     */
+    public class Connection {
+
+        private final Socket socket;
+        private final OutputStream out;
+        private final List<String> commands = new CopyOnWriteArrayList<String>();
+
+        Connection(Socket socket) throws IOException {
+            this.socket = socket;
+            this.out = socket.getOutputStream();
+        }
+
+        /**
+         * @return the commands received so far, authentication included
+         */
+        public List<String> commands() {
+            return new ArrayList<String>(commands);
+        }
+
+        /**
+         * Wait for a number of commands, authentication included.
+         *
+         * @return the commands received
+         */
+        public List<String> awaitCommands(int count) throws InterruptedException {
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (commands.size() < count) {
+                if (System.nanoTime() > deadline) {
+                    throw new IllegalStateException("Received " + commands);
+                }
+                Thread.sleep(5);
+            }
+            return commands();
+        }
+
+        public synchronized void send(String message) throws IOException {
+            out.write(message.getBytes(UTF_8));
+            out.flush();
+        }
+
+        public void sendApiResponse(String body) throws IOException {
+            send("Content-Type: api/response\nContent-Length: " + body.getBytes(UTF_8).length
+                    + "\n\n" + body);
+        }
+
+        public void sendCommandReply(String replyText) throws IOException {
+            send("Content-Type: command/reply\nReply-Text: " + replyText + "\n\n");
+        }
+
+        /**
+         * @param headers the event headers, one per line, ending with an
+         *                empty line
+         */
+        public void sendEvent(String headers) throws IOException {
+            send(plainEvent(headers));
+        }
+
+        public void close() throws IOException {
+            socket.close();
+        }
+
+        private void serve() {
+            try {
+                BufferedReader in = new BufferedReader(
+                        new InputStreamReader(socket.getInputStream(), UTF_8));
+                send("Content-Type: auth/request\n\n");
+                StringBuilder command = new StringBuilder();
+                String line;
+                while ((line = in.readLine()) != null) {
+                    if (line.length() > 0) {
+                        if (command.length() > 0) {
+                            command.append('\n');
+                        }
+                        command.append(line);
+                        continue;
+                    }
+                    String received = command.toString();
+                    command.setLength(0);
+                    commands.add(received);
+                    if (received.startsWith("auth ")) {
+                        sendCommandReply("+OK accepted");
+                    } else if (!silent) {
+                        answer(this, received);
+                    }
+                }
+            } catch (IOException e) {
+                // closed
+            }
+        }
+    }
+
+    /**
+     * @param headers the event headers, one per line, ending with an empty
+     *                line
+     * @return the text/event-plain message carrying them
+     */
+    public static String plainEvent(String headers) {
+        return "Content-Length: " + headers.getBytes(UTF_8).length
+                + "\nContent-Type: text/event-plain\n\n" + headers;
+    }
+}
@@ -0,0 +1,175 @@
+/*
+ * Copyright 2015.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.freeswitch.cluster;
+
+import io.freeswitch.EslResources;
+import io.freeswitch.outbound.EslConnectionPool;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Arsene Tochemey GANDOTE
+ */
+public class ConsistentHashRingTest {
+
+    private static final int KEYS = 10000;
+
+    private static EslResources resources;
+    private static EslResources eventResources;
+    private static TestNode a;
+    private static TestNode b;
+    private static TestNode c;
+
+    @BeforeClass
+    public static void nodes() {
+        resources = new EslResources(1, 1);
+        eventResources = new EslResources(1, 1);
+        a = new TestNode("a");
+        b = new TestNode("b");
+        c = new TestNode("c");
+    }
+
+    @AfterClass
+    public static void release() {
+        resources.releaseExternalResources();
+        eventResources.releaseExternalResources();
+    }
+
+    @Test
+    public void emptyRingSelectsNothing() {
+        assertNull(new ConsistentHashRing(Collections.<ClusterNode>emptyList(), 160).select("k"));
+    }
+
+    @Test
+    public void sameKeyGoesToTheSameNode() {
+        ConsistentHashRing ring = ring(a, b, c);
+        ConsistentHashRing rebuilt = ring(c, a, b);
+        for (int i = 0; i < 100; i++) {
+            assertSame(ring.select("call-" + i), ring.select("call-" + i));
+            assertSame(ring.select("call-" + i), rebuilt.select("call-" + i));
+        }
+    }
+
+    @Test
+    public void spreadsKeysOverTheNodes() {
+        ConsistentHashRing ring = ring(a, b, c);
+        Map<ClusterNode, Integer> counts = new HashMap<ClusterNode, Integer>();
+        for (int i = 0; i < KEYS; i++) {
+            ClusterNode node = ring.select("call-" + i);
+            counts.put(node, counts.containsKey(node) ? counts.get(node) + 1 : 1);
+        }
+        assertEquals(3, counts.size());
+        for (Map.Entry<ClusterNode, Integer> count : counts.entrySet()) {
+            assertTrue(count.getKey().name() + " got " + count.getValue(),
+                    count.getValue() > KEYS / 5 && count.getValue() < KEYS / 2);
+        }
+    }
+
+    @Test
+    public void removingANodeOnlyMovesItsKeys() {
+        ConsistentHashRing before = ring(a, b, c);
+        ConsistentHashRing after = ring(a, b);
+        for (int i = 0; i < KEYS; i++) {
+            ClusterNode owner = before.select("call-" + i);
+            if (owner != c) {
+                assertSame(owner, after.select("call-" + i));
+            }
+        }
+    }
+
+    @Test
+    public void skipsUnavailableNodes() {
+        ConsistentHashRing ring = ring(a, b, c);
+        try {
+            c.available = false;
+            for (int i = 0; i < KEYS; i++) {
+                ClusterNode node = ring.select("call-" + i);
+                assertNotSame(c, node);
+                // the keys of the other nodes stay where they were
+                c.available = true;
+                ClusterNode owner = ring.select("call-" + i);
+                c.available = false;
+                if (owner != c) {
+                    assertSame(owner, node);
+                }
+            }
+            a.available = false;
+            b.available = false;
+            assertNull(ring.select("call-0"));
+        } finally {
+            a.available = true;
+            b.available = true;
+            c.available = true;
+        }
+    }
+
+    @Test
+    public void asksEachNodeOnceWhetherItIsAvailable() {
+        ConsistentHashRing ring = ring(a, b, c);
+        try {
+            a.available = false;
+            b.available = false;
+            c.available = false;
+            for (TestNode node : Arrays.asList(a, b, c)) {
+                node.checks.set(0);
+            }
+            assertNull(ring.select("call-0"));
+            for (TestNode node : Arrays.asList(a, b, c)) {
+                assertEquals(node.name(), 1, node.checks.get());
+            }
+        } finally {
+            a.available = true;
+            b.available = true;
+            c.available = true;
+        }
+    }
+
+    private static ConsistentHashRing ring(ClusterNode... nodes) {
+        return new ConsistentHashRing(Arrays.asList(nodes), EslCluster.VIRTUAL_NODES);
+    }
+
+    /*
+     * A node that is never connected, available when told so.
+     */
+    private static final class TestNode extends ClusterNode {
+
+        volatile boolean available = true;
+        final AtomicInteger checks = new AtomicInteger();
+
+        TestNode(String name) {
+            super(null, name, new EslConnectionPool("127.0.0.1", 8021, "ClueCon", 1, resources, eventResources));
+        }
+
+        @Override
+        public boolean isAvailable() {
+            checks.incrementAndGet();
+            return available;
+        }
+    }
+}
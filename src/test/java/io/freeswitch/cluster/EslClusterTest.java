@@ -0,0 +1,146 @@
+/*
+ * Copyright 2015.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.freeswitch.cluster;
+
+import io.freeswitch.FakeFreeSwitch;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * An {@link EslCluster} of one node, a {@link FakeFreeSwitch} accepting its
+ * command connection first and its event connection second.
+ *
+ * @author Arsene Tochemey GANDOTE
+ */
+public class EslClusterTest {
+
+    private static final String FIRST = "2b4a1f5e-0000-4000-8000-000000000001";
+    private static final String SECOND = "2b4a1f5e-0000-4000-8000-000000000002";
+    private static final String THIRD = "2b4a1f5e-0000-4000-8000-000000000003";
+
+    private volatile String[] channels = {FIRST, SECOND};
+    private FakeFreeSwitch freeSwitch;
+    private EslCluster cluster;
+    private ClusterNode node;
+
+    @Before
+    public void connect() throws Exception {
+        freeSwitch = new FakeFreeSwitch() {
+            @Override
+            protected void answer(Connection connection, String command) throws IOException {
+                if ("api show channels".equals(command)) {
+                    connection.sendApiResponse(showChannels(channels));
+                } else {
+                    super.answer(connection, command);
+                }
+            }
+        };
+        cluster = new EslCluster(1);
+        node = cluster.addNode("fs1", "127.0.0.1", freeSwitch.port(), "ClueCon");
+        assertEquals(1, cluster.connect(5));
+    }
+
+    @After
+    public void close() throws Exception {
+        cluster.close();
+        freeSwitch.close();
+    }
+
+    @Test
+    public void knowsTheCallsCreatedBeforeItConnected() throws Exception {
+        assertEquals(2, cluster.calls());
+        assertSame(node, cluster.nodeOf(FIRST));
+        assertSame(node, cluster.nodeOf(SECOND));
+    }
+
+    @Test
+    public void followsTheCallsFromTheEvents() throws Exception {
+        FakeFreeSwitch.Connection events = freeSwitch.connection(1);
+        events.sendEvent("Event-Name: CHANNEL_CREATE\nUnique-ID: " + THIRD + "\n\n");
+        events.sendEvent("Event-Name: CHANNEL_DESTROY\nUnique-ID: " + FIRST + "\n\n");
+        awaitCalls(SECOND, THIRD);
+        assertNull(cluster.nodeOf(FIRST));
+    }
+
+    @Test
+    public void forgetsTheCallsDestroyedWhileTheEventsWereLost() throws Exception {
+        freeSwitch.connection(1).close();
+        long deadline = System.currentTimeMillis() + 5000;
+        while (node.isConnected() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertFalse(node.isConnected());
+
+        channels = new String[]{SECOND, THIRD};
+        assertEquals(1, cluster.connect(5));
+        assertTrue(node.isConnected());
+        assertEquals(3, freeSwitch.connections());
+        awaitCalls(SECOND, THIRD);
+        assertNull(cluster.nodeOf(FIRST));
+    }
+
+    @Test
+    public void readsTheCallIdsOfShowChannels() {
+        assertEquals(Arrays.asList(FIRST, SECOND),
+                ClusterNode.callIds(Arrays.asList(showChannels(new String[]{FIRST, SECOND}).split("\n"))));
+        assertEquals(Collections.<String>emptyList(),
+                ClusterNode.callIds(Arrays.asList(showChannels(new String[0]).split("\n"))));
+    }
+
+    private void awaitCalls(String... uniqueIds) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!known(uniqueIds) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertEquals(uniqueIds.length, cluster.calls());
+        for (String uniqueId : uniqueIds) {
+            assertSame(node, cluster.nodeOf(uniqueId));
+        }
+    }
+
+    private boolean known(String... uniqueIds) {
+        for (String uniqueId : uniqueIds) {
+            if (cluster.nodeOf(uniqueId) == null) {
+                return false;
+            }
+        }
+        return cluster.calls() == uniqueIds.length;
+    }
+
+    /*
+     * The reply of show channels, in its default CSV format.
+     */
+    private static String showChannels(String[] uniqueIds) {
+        StringBuilder reply = new StringBuilder("uuid,direction,created,created_epoch,name,state,cid_name\n");
+        for (String uniqueId : uniqueIds) {
+            reply.append(uniqueId).append(",inbound,2015-06-01 10:00:00,1433152800,sofia/internal/1000,")
+                    .append("CS_EXECUTE,Outbound Call\n");
+        }
+        reply.append('\n').append(uniqueIds.length).append(" total.\n");
+        return reply.toString();
+    }
+}
@@ -0,0 +1,190 @@
+/*
+ * Copyright 2015.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.freeswitch.codec;
+
+import io.freeswitch.codec.FreeSwitchMessageHeaders.HeaderName;
+import io.freeswitch.message.FreeSwitchMessage;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.handler.codec.embedder.CodecEmbedderException;
+import org.jboss.netty.handler.codec.embedder.DecoderEmbedder;
+import org.jboss.netty.handler.codec.frame.TooLongFrameException;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameters;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * {@link FreeSwitchDecoder} and {@link FreeSwitchFrameDecoder} decode the same
+ * messages however the received bytes are split.
+ *
+ * @author Arsene Tochemey GANDOTE
+ */
+@RunWith(Parameterized.class)
+public class FreeSwitchDecodersTest {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final String EVENT_BODY = "Event-Name: HEARTBEAT\nUp-Time: 0%20years\n\n";
+    private static final String JSON_BODY = "{\"Event-Name\":\"HEARTBEAT\"}";
+    private static final String API_BODY = "UP 0 years, 0 days\n1 session(s)";
+    private static final String STREAM = "Content-Type: auth/request\n\n"
+            + "Content-Type: command/reply\nReply-Text: +OK accepted\n\n"
+            + "Content-Type: api/response\nContent-Length: " + API_BODY.length() + "\n\n" + API_BODY
+            + "Content-Length: " + EVENT_BODY.length() + "\nContent-Type: text/event-plain\n\n" + EVENT_BODY
+            + "Content-Length: " + JSON_BODY.length() + "\nContent-Type: text/event-json\n\n" + JSON_BODY
+            + "Content-Type: text/disconnect-notice\nContent-Length: 0\n\n";
+
+    private final boolean frameDecoder;
+
+    public FreeSwitchDecodersTest(String name, boolean frameDecoder) {
+        this.frameDecoder = frameDecoder;
+    }
+
+    @Parameters(name = "{0}")
+    public static Collection<Object[]> decoders() {
+        return Arrays.asList(new Object[]{"FreeSwitchDecoder", false},
+                new Object[]{"FreeSwitchFrameDecoder", true});
+    }
+
+    @Test
+    public void decodesAStreamReceivedAtOnce() {
+        assertStream(decode(decoder(false), chunks(bytes(STREAM), Integer.MAX_VALUE, null)));
+    }
+
+    @Test
+    public void decodesAStreamReceivedByteByByte() {
+        assertStream(decode(decoder(false), chunks(bytes(STREAM), 1, null)));
+    }
+
+    @Test
+    public void decodesAStreamReceivedInRandomChunks() {
+        Random random = new Random(7);
+        for (int round = 0; round < 50; round++) {
+            assertStream(decode(decoder(false), chunks(bytes(STREAM), 40, random)));
+        }
+    }
+
+    @Test
+    public void slicesAllTheBodiesWhenAsked() {
+        List<FreeSwitchMessage> messages = decode(decoder(true), chunks(bytes(STREAM), 3, null));
+        assertTrue(messages.get(2).hasBodyBuffer());
+        assertStream(messages);
+    }
+
+    @Test
+    public void treatsUnknownHeadersAsBody() {
+        String connect = "Event-Name: CHANNEL_DATA\nContent-Type: command/reply\nUnique-ID: u1\n\n";
+        DecoderEmbedder<FreeSwitchMessage> decoder = new DecoderEmbedder<FreeSwitchMessage>(frameDecoder
+                ? new FreeSwitchFrameDecoder(8192, true) : new FreeSwitchDecoder(8192, true));
+        List<FreeSwitchMessage> messages = decode(decoder, chunks(bytes(connect), 5, null));
+        assertEquals(1, messages.size());
+        assertEquals("command/reply", messages.get(0).contentType());
+        assertEquals(Arrays.asList("Event-Name: CHANNEL_DATA", "Unique-ID: u1"), messages.get(0).bodyLines());
+    }
+
+    @Test
+    public void rejectsHeaderLinesOverTheLimit() {
+        char[] name = new char[64];
+        Arrays.fill(name, 'X');
+        DecoderEmbedder<FreeSwitchMessage> decoder = new DecoderEmbedder<FreeSwitchMessage>(frameDecoder
+                ? new FreeSwitchFrameDecoder(32) : new FreeSwitchDecoder(32));
+        try {
+            decode(decoder, chunks(bytes(new String(name) + ": value\n\n"), 10, null));
+            fail("long header line accepted");
+        } catch (CodecEmbedderException e) {
+            assertTrue(String.valueOf(e.getCause()), e.getCause() instanceof TooLongFrameException);
+        }
+    }
+
+    private void assertStream(List<FreeSwitchMessage> messages) {
+        assertEquals(6, messages.size());
+
+        assertEquals("auth/request", messages.get(0).contentType());
+        assertTrue(messages.get(0).bodyLines().isEmpty());
+
+        assertEquals("command/reply", messages.get(1).contentType());
+        assertEquals("+OK accepted", messages.get(1).headerValue(HeaderName.REPLY_TEXT));
+
+        assertEquals("api/response", messages.get(2).contentType());
+        assertEquals(Arrays.asList("UP 0 years, 0 days", "1 session(s)"), messages.get(2).bodyLines());
+
+        FreeSwitchMessage event = messages.get(3);
+        assertEquals("text/event-plain", event.contentType());
+        // event bodies are kept as received, for EslEvent to parse
+        assertTrue(event.hasBodyBuffer());
+        assertEquals(EVENT_BODY, event.bodyBuffer().toString(UTF_8));
+        assertEquals(Arrays.asList("Event-Name: HEARTBEAT", "Up-Time: 0%20years", ""), event.bodyLines());
+        assertFalse(event.hasBodyBuffer());
+
+        assertEquals("text/event-json", messages.get(4).contentType());
+        assertEquals(JSON_BODY, messages.get(4).bodyBuffer().toString(UTF_8));
+
+        assertEquals("text/disconnect-notice", messages.get(5).contentType());
+        assertEquals(Integer.valueOf(0), messages.get(5).contentLength());
+    }
+
+    private DecoderEmbedder<FreeSwitchMessage> decoder(boolean sliceBody) {
+        return new DecoderEmbedder<FreeSwitchMessage>(frameDecoder
+                ? new FreeSwitchFrameDecoder(8192, false, sliceBody)
+                : new FreeSwitchDecoder(8192, false, sliceBody));
+    }
+
+    private static List<FreeSwitchMessage> decode(DecoderEmbedder<FreeSwitchMessage> decoder,
+                                                  List<ChannelBuffer> chunks) {
+        List<FreeSwitchMessage> messages = new ArrayList<FreeSwitchMessage>();
+        for (ChannelBuffer chunk : chunks) {
+            decoder.offer(chunk);
+            FreeSwitchMessage message;
+            while ((message = decoder.poll()) != null) {
+                messages.add(message);
+            }
+        }
+        assertNull(decoder.poll());
+        return messages;
+    }
+
+    /*
+     * Splits the bytes into chunks of the given size, or of a random size up
+     * to it.
+     */
+    private static List<ChannelBuffer> chunks(byte[] bytes, int size, Random random) {
+        List<ChannelBuffer> chunks = new ArrayList<ChannelBuffer>();
+        int index = 0;
+        while (index < bytes.length) {
+            int length = Math.min(bytes.length - index, random == null ? size : 1 + random.nextInt(size));
+            chunks.add(ChannelBuffers.wrappedBuffer(Arrays.copyOfRange(bytes, index, index + length)));
+            index += length;
+        }
+        return chunks;
+    }
+
+    private static byte[] bytes(String stream) {
+        return stream.getBytes(UTF_8);
+    }
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright 2015.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.freeswitch.codec;
+
+import io.freeswitch.event.EventHeaders;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.junit.Test;
+
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Arsene Tochemey GANDOTE
+ */
+public class HeaderNameCacheTest {
+
+    @Test
+    public void pinsTheEventHeadersConstantsAndTheResourceNames() {
+        Set<String> names = HeaderNameCache.wellKnownNames();
+        assertTrue(names.contains(EventHeaders.JOB_UUID));
+        assertTrue(names.contains(EventHeaders.HEARTBEAT_INTERVAL));
+        assertTrue(names.contains("Caller-Caller-ID-Number"));
+        assertTrue(names.contains("variable_sip_call_id"));
+
+        // pinned names are shared by all caches, whatever else they hold
+        HeaderNameCache cache = new HeaderNameCache(2);
+        for (String name : names) {
+            cache.intern("variable_other_" + name);
+            String pinned = HeaderNameCache.DEFAULT.intern(name);
+            assertSame(pinned, cache.intern(buffer(name), 1, name.length()));
+            assertSame(pinned, cache.intern(new String(name)));
+        }
+    }
+
+    @Test
+    public void keepsTheMostRecentOtherNames() {
+        HeaderNameCache cache = new HeaderNameCache(2);
+        String first = cache.intern(buffer("variable_custom_a"), 1, "variable_custom_a".length());
+        assertEquals("variable_custom_a", first);
+        assertSame(first, cache.intern(buffer("variable_custom_a"), 1, "variable_custom_a".length()));
+        assertSame(first, cache.intern(new String("variable_custom_a")));
+    }
+
+    /*
+     * The name behind one leading byte, so that indexes are exercised.
+     */
+    private static ChannelBuffer buffer(String name) {
+        return ChannelBuffers.copiedBuffer(":" + name, FreeSwitchFrameDecoder.ISO_8859_1);
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright 2015.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.freeswitch.codec;
+
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.junit.Test;
+
+import java.nio.charset.Charset;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * @author Arsene Tochemey GANDOTE
+ */
+public class JsonEventReaderTest {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    @Test
+    public void readsMembersAndEscapes() {
+        Map<String, String> headers = read("{\"Event-Name\":\"CUSTOM\",\"Caller-Caller-ID-Name\":"
+                + "\"Caf\\u00e9 \\\"A\\\"\\n\",\"Event-Sequence\":42,\"_body\":\"a\\nb\"}");
+        assertEquals("CUSTOM", headers.get("Event-Name"));
+        assertEquals("Caf\u00e9 \"A\"\n", headers.get("Caller-Caller-ID-Name"));
+        assertEquals("42", headers.get("Event-Sequence"));
+        assertEquals("a\nb", headers.get("_body"));
+    }
+
+    @Test
+    public void readsSolidusAndBackslashEscapes() {
+        Map<String, String> headers = read("{\"Channel-Name\":\"sofia\\/internal\\\\1000\"}");
+        assertEquals("sofia/internal\\1000", headers.get("Channel-Name"));
+    }
+
+    @Test
+    public void unknownEscapeIsMalformed() {
+        try {
+            read("{\"Event-Name\":\"a\\xb\"}");
+            fail("bad escape accepted");
+        } catch (IllegalStateException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("escape"));
+        }
+    }
+
+    @Test
+    public void badUnicodeEscapeIsMalformed() {
+        try {
+            read("{\"Event-Name\":\"\\u00zz\"}");
+            fail("bad escape accepted");
+        } catch (IllegalStateException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("unicode escape"));
+        }
+    }
+
+    @Test
+    public void truncatedUnicodeEscapeIsMalformed() {
+        try {
+            read("{\"Event-Name\":\"\\u00");
+            fail("truncated escape accepted");
+        } catch (IllegalStateException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("unicode escape"));
+        }
+    }
+
+    private static Map<String, String> read(String json) {
+        final Map<String, String> headers = new LinkedHashMap<String, String>();
+        JsonEventReader.read(ChannelBuffers.copiedBuffer(json, UTF_8), new HeaderNameCache(16),
+                new EventBodyHandler() {
+                    public void header(String name, String value) {
+                        headers.put(name, value);
+                    }
+
+                    public void body(String body) {
+                        headers.put("_body", body);
+                    }
+                });
+        return headers;
+    }
+}
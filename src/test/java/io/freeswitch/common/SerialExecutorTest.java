@@ -0,0 +1,152 @@
+/*
+ * Copyright 2015.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.freeswitch.common;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * @author Arsene Tochemey GANDOTE
+ */
+public class SerialExecutorTest {
+
+    private final ExecutorService pool = Executors.newFixedThreadPool(4);
+
+    @After
+    public void tearDown() {
+        pool.shutdownNow();
+    }
+
+    @Test
+    public void runsTheTasksOneAtATimeInOrder() throws Exception {
+        SerialExecutor executor = new SerialExecutor(pool);
+        final List<Integer> ran = new CopyOnWriteArrayList<Integer>();
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger overlaps = new AtomicInteger();
+        final CountDownLatch done = new CountDownLatch(1000);
+        for (int i = 0; i < 1000; i++) {
+            final int task = i;
+            executor.execute(new Runnable() {
+                public void run() {
+                    if (running.incrementAndGet() != 1) {
+                        overlaps.incrementAndGet();
+                    }
+                    ran.add(task);
+                    running.decrementAndGet();
+                    done.countDown();
+                }
+            });
+        }
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(0, overlaps.get());
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(i, (int) ran.get(i));
+        }
+        awaitIdle(executor);
+    }
+
+    @Test
+    public void keepsRunningAfterATaskFails() throws Exception {
+        SerialExecutor executor = new SerialExecutor(pool);
+        final CountDownLatch done = new CountDownLatch(1);
+        executor.execute(new Runnable() {
+            public void run() {
+                throw new IllegalStateException("task failure");
+            }
+        });
+        executor.execute(new Runnable() {
+            public void run() {
+                done.countDown();
+            }
+        });
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        awaitIdle(executor);
+    }
+
+    @Test
+    public void failsTheTaskTheExecutorRefuses() throws Exception {
+        final List<Runnable> refused = new ArrayList<Runnable>();
+        SerialExecutor executor = new SerialExecutor(new Executor() {
+            public void execute(Runnable command) {
+                if (refused.isEmpty()) {
+                    refused.add(command);
+                    throw new RejectedExecutionException("shut down");
+                }
+                pool.execute(command);
+            }
+        });
+        try {
+            executor.execute(new Runnable() {
+                public void run() {
+                }
+            });
+            fail("not refused");
+        } catch (RejectedExecutionException e) {
+            // the executor refused it
+        }
+        assertEquals(0, executor.pending());
+
+        // a later task starts the executor again
+        final CountDownLatch done = new CountDownLatch(1);
+        executor.execute(new Runnable() {
+            public void run() {
+                done.countDown();
+            }
+        });
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        awaitIdle(executor);
+    }
+
+    @Test
+    public void dropsTheTasksQueuedBehindARefusedOne() throws Exception {
+        pool.shutdown();
+        SerialExecutor executor = new SerialExecutor(pool);
+        for (int i = 0; i < 3; i++) {
+            try {
+                executor.execute(new Runnable() {
+                    public void run() {
+                    }
+                });
+                fail("not refused");
+            } catch (RejectedExecutionException e) {
+                assertEquals(0, executor.pending());
+            }
+        }
+    }
+
+    private static void awaitIdle(SerialExecutor executor) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (executor.pending() != 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertEquals(0, executor.pending());
+    }
+}
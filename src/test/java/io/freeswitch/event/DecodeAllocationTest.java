@@ -0,0 +1,94 @@
+/*
+ * Copyright 2015.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.freeswitch.event;
+
+import io.freeswitch.codec.FreeSwitchDecoder;
+import io.freeswitch.message.FreeSwitchMessage;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.handler.codec.embedder.DecoderEmbedder;
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Bytes allocated by the decoding thread from the received bytes to the
+ * events, through {@link FreeSwitchDecoder}, {@link FreeSwitchMessage} and
+ * {@link EslEvent}, once warmed up.
+ * <p>
+ * The recorded events are offered as one buffer, so that the copies Netty
+ * makes when it cumulates partial reads are not counted. What remains is the
+ * message and the event of each event received: a line turned into a String
+ * on the way, or logging arguments, would show as hundreds of bytes per
+ * header.
+ *
+ * @author Arsene Tochemey GANDOTE
+ */
+public class DecodeAllocationTest {
+
+    private static final int EVENTS = 10000;
+    private static final int HEADERS = RecordedEvents.channelAnswer(0).size();
+
+    private static final ChannelBuffer STREAM = RecordedEvents.stream(EVENTS, false);
+
+    @Test
+    public void projectedEventsOnlyCostTheirKeptHeaders() {
+        HeaderProjection projection = HeaderProjection.of(EventHeaders.UNIQUE_ID, "Channel-State");
+        long perEvent = bytesPerEvent(projection);
+        // the message, the event and its three values
+        assertTrue(perEvent + " bytes per projected event", perEvent < 1536);
+    }
+
+    @Test
+    public void eventsCostTheirHeaderValues() {
+        long perHeader = bytesPerEvent(null) / HEADERS;
+        // a value String and its slot in the header map
+        assertTrue(perHeader + " bytes per header", perHeader < 160);
+    }
+
+    private long bytesPerEvent(HeaderProjection projection) {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(threads instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean allocations = (com.sun.management.ThreadMXBean) threads;
+        Assume.assumeTrue(allocations.isThreadAllocatedMemorySupported());
+        allocations.setThreadAllocatedMemoryEnabled(true);
+
+        long thread = Thread.currentThread().getId();
+        long best = Long.MAX_VALUE;
+        for (int round = 0; round < 8; round++) {
+            DecoderEmbedder<FreeSwitchMessage> decoder = new DecoderEmbedder<FreeSwitchMessage>(
+                    new FreeSwitchDecoder(8192));
+            ChannelBuffer received = STREAM.duplicate();
+            long before = allocations.getThreadAllocatedBytes(thread);
+            decoder.offer(received);
+            int events = 0;
+            FreeSwitchMessage message;
+            while ((message = decoder.poll()) != null) {
+                new EslEvent(message, false, false, projection);
+                events++;
+            }
+            long allocated = allocations.getThreadAllocatedBytes(thread) - before;
+            assertEquals(EVENTS, events);
+            // the first rounds run before the decoding is compiled
+            best = Math.min(best, allocated / EVENTS);
+        }
+        return best;
+    }
+}
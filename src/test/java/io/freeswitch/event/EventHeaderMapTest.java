@@ -0,0 +1,122 @@
+/*
+ * Copyright 2015.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.freeswitch.event;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Arsene Tochemey GANDOTE
+ */
+public class EventHeaderMapTest {
+
+    /*
+     * "Aa" and "BB" share their hash code, and so do all their combinations:
+     * these keys all probe from the same slot.
+     */
+    private static final String[] COLLIDING = {"AaAa", "AaBB", "BBAa", "BBBB"};
+
+    @Test
+    public void removesFromTheMiddleOfAProbeChain() {
+        EventHeaderMap map = new EventHeaderMap(8);
+        for (String key : COLLIDING) {
+            map.put(key, key.toLowerCase());
+        }
+        assertEquals("aabb", map.remove("AaBB"));
+        assertNull(map.get("AaBB"));
+        assertFalse(map.containsKey("AaBB"));
+        // the keys probed past the removed one are still found
+        assertEquals("aaaa", map.get("AaAa"));
+        assertEquals("bbaa", map.get("BBAa"));
+        assertEquals("bbbb", map.get("BBBB"));
+        assertEquals(3, map.size());
+
+        map.put("AaBB", "again");
+        assertEquals("again", map.get("AaBB"));
+        assertEquals(4, map.size());
+    }
+
+    @Test
+    public void removesTheHeadOfAProbeChain() {
+        EventHeaderMap map = new EventHeaderMap(8);
+        for (String key : COLLIDING) {
+            map.put(key, key);
+        }
+        for (String key : COLLIDING) {
+            assertEquals(key, map.remove(key));
+            assertNull(map.remove(key));
+        }
+        assertTrue(map.isEmpty());
+    }
+
+    @Test
+    public void keepsEncodedValuesWhenEntriesMove() {
+        EventHeaderMap map = new EventHeaderMap(8);
+        map.put("AaAa", "plain");
+        map.putRaw("AaBB", "sofia%2Finternal");
+        map.putRaw("BBAa", "a+b");
+        // decode one before it moves back, not the other
+        assertEquals("sofia/internal", map.get("AaBB"));
+        map.remove("AaAa");
+        assertEquals("sofia/internal", map.get("AaBB"));
+        assertEquals("a b", map.get("BBAa"));
+    }
+
+    @Test
+    public void behavesLikeAHashMap() {
+        Random random = new Random(42);
+        List<String> keys = new ArrayList<String>();
+        for (int i = 0; i < 40; i++) {
+            keys.add("variable_" + i);
+        }
+        for (String key : COLLIDING) {
+            keys.add(key);
+        }
+        EventHeaderMap map = new EventHeaderMap(4);
+        Map<String, String> expected = new HashMap<String, String>();
+        for (int operation = 0; operation < 20000; operation++) {
+            String key = keys.get(random.nextInt(keys.size()));
+            switch (random.nextInt(3)) {
+                case 0:
+                    assertEquals(expected.remove(key), map.remove(key));
+                    break;
+                case 1:
+                    String value = "v" + operation;
+                    assertEquals(expected.put(key, value), map.put(key, value));
+                    break;
+                default:
+                    expected.put(key, "encoded " + operation);
+                    map.putRaw(key, "encoded+" + operation);
+            }
+            assertEquals(expected.size(), map.size());
+            assertEquals(expected.get(key), map.get(key));
+        }
+        assertEquals(expected, new HashMap<String, String>(map));
+        for (String key : keys) {
+            assertEquals(expected.containsKey(key), map.containsKey(key));
+        }
+    }
+}
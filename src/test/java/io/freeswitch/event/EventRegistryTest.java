@@ -0,0 +1,145 @@
+/*
+ * Copyright 2015.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.freeswitch.event;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.TreeSet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Arsene Tochemey GANDOTE
+ */
+public class EventRegistryTest {
+
+    private final EventRegistry registry = new EventRegistry();
+    private final List<String> interestChanges = new ArrayList<String>();
+
+    @Test
+    public void deliversTypedEventsToTheirHandlers() {
+        final List<Character> digits = new ArrayList<Character>();
+        registry.subscribe(Dtmf.class, new IEventHandler<Dtmf>() {
+            public void handle(Dtmf event) {
+                digits.add(event.digit());
+            }
+        });
+        final List<String> answered = new ArrayList<String>();
+        registry.subscribe("CHANNEL_ANSWER", new IEventHandler<GenericEvent>() {
+            public void handle(GenericEvent event) {
+                answered.add(event.eventName());
+            }
+        });
+
+        registry.eventReceived(RecordedEvents.event("DTMF", null, "DTMF-Digit: 5", "DTMF-Duration: 2000"));
+        registry.eventReceived(RecordedEvents.event("CHANNEL_ANSWER", null));
+        registry.eventReceived(RecordedEvents.event("CHANNEL_HANGUP", null));
+
+        assertEquals(Collections.singletonList('5'), digits);
+        assertEquals(Collections.singletonList("CHANNEL_ANSWER"), answered);
+    }
+
+    @Test
+    public void routesCustomEventsBySubclass() {
+        final List<String> received = new ArrayList<String>();
+        registry.subscribeCustom("conference::maintenance", new IEventHandler<GenericEvent>() {
+            public void handle(GenericEvent event) {
+                received.add(event.eventSubclass());
+            }
+        });
+
+        registry.eventReceived(RecordedEvents.event("CUSTOM", null, "Event-Subclass: conference::maintenance"));
+        registry.eventReceived(RecordedEvents.event("CUSTOM", null, "Event-Subclass: sofia::register"));
+        registry.eventReceived(RecordedEvents.event("CUSTOM", null));
+
+        assertEquals(Collections.singletonList("conference::maintenance"), received);
+        assertEquals(Collections.singleton(EventRegistry.CUSTOM), registry.eventNames());
+        assertEquals(Collections.singleton("conference::maintenance"), registry.customSubclasses());
+    }
+
+    @Test
+    public void notifiesOnlyWhenTheInterestChanges() {
+        registry.addInterestChangeListener(new IInterestChangeListener() {
+            public void interestChanged(IInterestedListener listener) {
+                interestChanges.add(new TreeSet<String>(listener.interest().eventNames()).toString());
+            }
+        });
+        IEventHandler<GenericEvent> first = new Recorder();
+        IEventHandler<GenericEvent> second = new Recorder();
+        registry.subscribe("CHANNEL_ANSWER", first);
+        registry.subscribe("CHANNEL_ANSWER", second);
+        registry.subscribe("CHANNEL_HANGUP", second);
+        assertEquals(Arrays.asList("[CHANNEL_ANSWER]", "[CHANNEL_ANSWER, CHANNEL_HANGUP]"), interestChanges);
+
+        // CHANNEL_ANSWER is still wanted by the first handler
+        registry.unsubscribe(second);
+        assertEquals(3, interestChanges.size());
+        assertEquals(new HashSet<String>(Collections.singletonList("CHANNEL_ANSWER")),
+                registry.interest().eventNames());
+
+        registry.unsubscribe(first);
+        assertEquals(4, interestChanges.size());
+        assertTrue(registry.eventNames().isEmpty());
+    }
+
+    @Test
+    public void keepsDeliveringAfterAHandlerFails() {
+        registry.subscribe("HEARTBEAT", new IEventHandler<GenericEvent>() {
+            public void handle(GenericEvent event) {
+                throw new IllegalStateException("handler failure");
+            }
+        });
+        Recorder recorder = new Recorder();
+        registry.subscribe("HEARTBEAT", recorder);
+
+        registry.eventReceived(RecordedEvents.event("HEARTBEAT", null));
+        assertEquals(1, recorder.events.size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsTypesWithoutEvent() {
+        registry.subscribe(GenericEvent.class, new Recorder());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsCustomByName() {
+        registry.subscribe(EventRegistry.CUSTOM, new Recorder());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void rejectsAnotherWrapperForTheSameEvent() {
+        registry.subscribe(Dtmf.class, new IEventHandler<Dtmf>() {
+            public void handle(Dtmf event) {
+            }
+        });
+        registry.subscribe("DTMF", new Recorder());
+    }
+
+    private static final class Recorder implements IEventHandler<GenericEvent> {
+
+        final List<GenericEvent> events = new ArrayList<GenericEvent>();
+
+        public void handle(GenericEvent event) {
+            events.add(event);
+        }
+    }
+}
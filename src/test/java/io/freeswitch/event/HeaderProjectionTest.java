@@ -0,0 +1,85 @@
+/*
+ * Copyright 2015.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.freeswitch.event;
+
+import io.freeswitch.codec.FreeSwitchFrameDecoder;
+import io.freeswitch.codec.FreeSwitchMessageHeaders.HeaderName;
+import io.freeswitch.codec.FreeSwitchMessageHeaders.HeaderValue;
+import io.freeswitch.message.FreeSwitchMessage;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.handler.codec.embedder.DecoderEmbedder;
+import org.junit.Test;
+
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Arsene Tochemey GANDOTE
+ */
+public class HeaderProjectionTest {
+
+    private static final HeaderProjection PROJECTION = HeaderProjection.of(
+            EventHeaders.UNIQUE_ID, "Channel-State");
+
+    @Test
+    public void alwaysKeepsRoutingHeaders() {
+        assertTrue(PROJECTION.accepts(EventHeaders.EVENT_NAME));
+        assertTrue(PROJECTION.accepts(EventHeaders.CONTENT_LENGTH));
+        assertTrue(PROJECTION.accepts(EventHeaders.JOB_UUID));
+        assertTrue(PROJECTION.accepts("Channel-State"));
+        assertFalse(PROJECTION.accepts("Channel-Name"));
+    }
+
+    @Test
+    public void acceptsNamesAtTheStartOfLines() {
+        assertTrue(PROJECTION.accepts("Channel-State: CS_EXECUTE", "Channel-State".length()));
+        assertFalse(PROJECTION.accepts("Channel-Name: sofia", "Channel-Name".length()));
+        assertFalse(PROJECTION.accepts("Channel-State: CS_EXECUTE", "Channel-Stat".length()));
+    }
+
+    @Test
+    public void projectsDecodedEvents() {
+        DecoderEmbedder<FreeSwitchMessage> decoder = new DecoderEmbedder<FreeSwitchMessage>(
+                new FreeSwitchFrameDecoder(8192));
+        decoder.offer(ChannelBuffers.copiedBuffer(RecordedEvents.plain(RecordedEvents.channelAnswer(7)),
+                Charset.forName("UTF-8")));
+        assertProjected(new EslEvent(decoder.poll(), false, false, PROJECTION));
+    }
+
+    @Test
+    public void projectsEventsBuiltFromLines() {
+        FreeSwitchMessage message = new FreeSwitchMessage();
+        message.addHeader(HeaderName.CONTENT_TYPE, HeaderValue.TEXT_EVENT_PLAIN);
+        for (Map.Entry<String, String> header : RecordedEvents.channelAnswer(7).entrySet()) {
+            message.addBodyLine(header.getKey() + ": " + header.getValue());
+        }
+        assertProjected(new EslEvent(message, false, false, PROJECTION));
+    }
+
+    private static void assertProjected(EslEvent event) {
+        Map<String, String> expected = new HashMap<String, String>();
+        expected.put(EventHeaders.EVENT_NAME, "CHANNEL_ANSWER");
+        expected.put(EventHeaders.UNIQUE_ID, RecordedEvents.channelAnswer(7).get(EventHeaders.UNIQUE_ID));
+        expected.put("Channel-State", "CS_EXECUTE");
+        assertEquals(expected, new HashMap<String, String>(event.eventHeaders()));
+        assertTrue(event.isProjected());
+    }
+}
@@ -0,0 +1,186 @@
+/*
+ * Copyright 2015.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.freeswitch.event;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Arsene Tochemey GANDOTE
+ */
+public class PartitionedEventDispatcherTest {
+
+    private PartitionedEventDispatcher dispatcher;
+
+    @After
+    public void tearDown() {
+        if (dispatcher != null) {
+            dispatcher.shutdown();
+        }
+    }
+
+    @Test
+    public void deliversTheEventsOfACallInOrder() throws Exception {
+        dispatcher = new PartitionedEventDispatcher(4);
+        int calls = 20;
+        int eventsPerCall = 200;
+        final CountDownLatch delivered = new CountDownLatch(calls * eventsPerCall);
+        final Map<String, List<String>> received = new ConcurrentHashMap<String, List<String>>();
+        IEventsListener listener = new Listener() {
+            public void eventReceived(EslEvent event) {
+                received.get(event.uniqueId().toString()).add(event.eventName());
+                delivered.countDown();
+            }
+        };
+        List<String> ids = new ArrayList<String>();
+        for (int call = 0; call < calls; call++) {
+            String id = uuid(call);
+            ids.add(id);
+            received.put(id, new CopyOnWriteArrayList<String>());
+        }
+        for (int i = 0; i < eventsPerCall; i++) {
+            for (String id : ids) {
+                dispatcher.dispatch(RecordedEvents.event("EVENT_" + i, id), listener);
+            }
+        }
+        assertTrue(delivered.await(10, TimeUnit.SECONDS));
+        for (String id : ids) {
+            List<String> names = received.get(id);
+            assertEquals(eventsPerCall, names.size());
+            for (int i = 0; i < eventsPerCall; i++) {
+                assertEquals("EVENT_" + i, names.get(i));
+            }
+        }
+    }
+
+    @Test
+    public void deliversOtherCallsWhileOneListenerBlocks() throws Exception {
+        dispatcher = new PartitionedEventDispatcher(2);
+        String blocked = uuid(0);
+        String other = uuid(1);
+        for (int call = 2; dispatcher.laneOf(RecordedEvents.event("X", other))
+                == dispatcher.laneOf(RecordedEvents.event("X", blocked)); call++) {
+            other = uuid(call);
+        }
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch blocking = new CountDownLatch(1);
+        final CountDownLatch otherDelivered = new CountDownLatch(1);
+        final String blockedId = blocked;
+        IEventsListener listener = new Listener() {
+            public void eventReceived(EslEvent event) {
+                if (event.uniqueId().toString().equals(blockedId)) {
+                    blocking.countDown();
+                    await(release);
+                } else {
+                    otherDelivered.countDown();
+                }
+            }
+        };
+        dispatcher.dispatch(RecordedEvents.event("FIRST", blocked), listener);
+        dispatcher.dispatch(RecordedEvents.event("SECOND", blocked), listener);
+        dispatcher.dispatch(RecordedEvents.event("OTHER", other), listener);
+        assertTrue(otherDelivered.await(5, TimeUnit.SECONDS));
+
+        assertTrue(blocking.await(5, TimeUnit.SECONDS));
+        int blockedLane = dispatcher.laneOf(RecordedEvents.event("X", blocked));
+        assertEquals(1, dispatcher.laneStats().get(blockedLane).depth());
+        release.countDown();
+    }
+
+    @Test
+    public void keepsDeliveringAfterAListenerFails() throws Exception {
+        dispatcher = new PartitionedEventDispatcher(1);
+        final CountDownLatch delivered = new CountDownLatch(1);
+        IEventsListener listener = new Listener() {
+            public void eventReceived(EslEvent event) {
+                if (event.eventName().equals("FAIL")) {
+                    throw new IllegalStateException("listener failure");
+                }
+                delivered.countDown();
+            }
+        };
+        dispatcher.dispatch(RecordedEvents.event("FAIL", uuid(0)), listener);
+        dispatcher.dispatch(RecordedEvents.event("NEXT", uuid(0)), listener);
+        assertTrue(delivered.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void countsTheDeliveriesOfEachLane() throws Exception {
+        dispatcher = new PartitionedEventDispatcher(3);
+        final CountDownLatch delivered = new CountDownLatch(30);
+        IEventsListener listener = new Listener() {
+            public void eventReceived(EslEvent event) {
+                delivered.countDown();
+            }
+        };
+        for (int i = 0; i < 30; i++) {
+            dispatcher.dispatch(RecordedEvents.event("EVENT", uuid(i)), listener);
+        }
+        assertTrue(delivered.await(5, TimeUnit.SECONDS));
+        // the counts are recorded just after each delivery
+        Thread.sleep(100);
+        List<LaneStats> stats = dispatcher.laneStats();
+        assertEquals(3, stats.size());
+        long total = 0;
+        for (LaneStats lane : stats) {
+            total += lane.delivered();
+            assertEquals(0, lane.depth());
+        }
+        assertEquals(30, total);
+    }
+
+    @Test
+    public void sendsEventsWithoutKeyToTheFirstLane() {
+        dispatcher = new PartitionedEventDispatcher(4);
+        assertEquals(0, dispatcher.laneOf(RecordedEvents.event("HEARTBEAT", null)));
+        int lane = dispatcher.laneOf(RecordedEvents.event("EVENT", uuid(7)));
+        assertTrue(String.valueOf(lane), lane >= 0 && lane < 4);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsZeroLanes() {
+        new PartitionedEventDispatcher(0);
+    }
+
+    static String uuid(int call) {
+        return String.format("0c5e2a9d-7b14-4f3e-8d26-%012d", call);
+    }
+
+    static void await(CountDownLatch latch) {
+        try {
+            latch.await(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    abstract static class Listener implements IEventsListener {
+
+        public void backgroundJobEventReceived(EslEvent event) {
+        }
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright 2015.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.freeswitch.event;
+
+import io.freeswitch.codec.FreeSwitchFrameDecoder;
+import io.freeswitch.message.FreeSwitchMessage;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.handler.codec.embedder.DecoderEmbedder;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Decode throughput of the same recorded events in the plain and the json
+ * format, from the received bytes to events whose headers have all been
+ * read.
+ *
+ * @author Arsene Tochemey GANDOTE
+ */
+public class PlainJsonDecodeBenchmarkTest {
+
+    private static final int EVENTS = 10000;
+    private static final int WARMUP_ROUNDS = 3;
+    private static final int ROUNDS = 5;
+
+    @Test
+    public void plainAndJsonDecodeToTheSameEvents() {
+        for (boolean json : new boolean[]{false, true}) {
+            DecoderEmbedder<FreeSwitchMessage> decoder = decoder();
+            decoder.offer(RecordedEvents.stream(3, json));
+            for (int i = 0; i < 3; i++) {
+                EslEvent event = new EslEvent(decoder.poll());
+                assertEquals(RecordedEvents.channelAnswer(i), new HashMap<String, String>(event.eventHeaders()));
+            }
+        }
+    }
+
+    @Test
+    public void comparePlainAndJsonThroughput() {
+        ChannelBuffer plain = RecordedEvents.stream(EVENTS, false);
+        ChannelBuffer json = RecordedEvents.stream(EVENTS, true);
+        for (int i = 0; i < WARMUP_ROUNDS; i++) {
+            decode(plain);
+            decode(json);
+        }
+        long plainNanos = 0;
+        long jsonNanos = 0;
+        for (int i = 0; i < ROUNDS; i++) {
+            plainNanos += decode(plain);
+            jsonNanos += decode(json);
+        }
+        System.out.println(String.format("plain: %,d events/s (%,d bytes), json: %,d events/s (%,d bytes)",
+                eventsPerSecond(plainNanos), plain.readableBytes(),
+                eventsPerSecond(jsonNanos), json.readableBytes()));
+    }
+
+    private static long decode(ChannelBuffer stream) {
+        DecoderEmbedder<FreeSwitchMessage> decoder = decoder();
+        long start = System.nanoTime();
+        decoder.offer(stream.duplicate());
+        int events = 0;
+        int chars = 0;
+        FreeSwitchMessage message;
+        while ((message = decoder.poll()) != null) {
+            EslEvent event = new EslEvent(message);
+            for (Map.Entry<String, String> header : event.eventHeaders().entrySet()) {
+                chars += header.getValue().length();
+            }
+            events++;
+        }
+        long elapsed = System.nanoTime() - start;
+        assertEquals(EVENTS, events);
+        if (chars == 0) {
+            throw new AssertionError("no header read");
+        }
+        return elapsed;
+    }
+
+    private static long eventsPerSecond(long nanos) {
+        return (long) EVENTS * ROUNDS * 1000000000L / nanos;
+    }
+
+    private static DecoderEmbedder<FreeSwitchMessage> decoder() {
+        return new DecoderEmbedder<FreeSwitchMessage>(new FreeSwitchFrameDecoder(8192));
+    }
+}
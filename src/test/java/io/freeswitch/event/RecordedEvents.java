@@ -0,0 +1,174 @@
+/*
+ * Copyright 2015.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.freeswitch.event;
+
+import io.freeswitch.codec.FreeSwitchMessageHeaders.HeaderName;
+import io.freeswitch.message.FreeSwitchMessage;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.nio.charset.Charset;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Events as FreeSWITCH sends them on the event socket, in the plain and the
+ * json format, for the tests and benchmarks.
+ *
+ * @author Arsene Tochemey GANDOTE
+ */
+public final class RecordedEvents {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private RecordedEvents() {
+    }
+
+    /**
+     * @param sequence number of the event, making its call unique
+     * @return the headers of a {@code CHANNEL_ANSWER} event, in order
+     */
+    public static Map<String, String> channelAnswer(int sequence) {
+        String uuid = String.format("5f3a7c1e-0d2b-4c8e-9a61-%012d", sequence);
+        Map<String, String> headers = new LinkedHashMap<String, String>();
+        headers.put("Event-Name", "CHANNEL_ANSWER");
+        headers.put("Core-UUID", "b4d1a7f2-51c3-11e5-9c1a-4f0d3a1e2b7c");
+        headers.put("FreeSWITCH-Hostname", "fs01.example.com");
+        headers.put("FreeSWITCH-Switchname", "fs01.example.com");
+        headers.put("FreeSWITCH-IPv4", "10.0.0.12");
+        headers.put("FreeSWITCH-IPv6", "::1");
+        headers.put("Event-Date-Local", "2015-09-02 10:21:33");
+        headers.put("Event-Date-GMT", "Wed, 02 Sep 2015 10:21:33 GMT");
+        headers.put("Event-Date-Timestamp", "1441189293512345");
+        headers.put("Event-Calling-File", "switch_channel.c");
+        headers.put("Event-Calling-Function", "switch_channel_perform_mark_answered");
+        headers.put("Event-Calling-Line-Number", "3728");
+        headers.put("Event-Sequence", Integer.toString(1000 + sequence));
+        headers.put("Channel-State", "CS_EXECUTE");
+        headers.put("Channel-Call-State", "ACTIVE");
+        headers.put("Channel-State-Number", "4");
+        headers.put("Channel-Name", "sofia/internal/1000@10.0.0.12");
+        headers.put("Unique-ID", uuid);
+        headers.put("Call-Direction", "inbound");
+        headers.put("Presence-Call-Direction", "inbound");
+        headers.put("Channel-HIT-Dialplan", "true");
+        headers.put("Channel-Presence-ID", "1000@10.0.0.12");
+        headers.put("Channel-Call-UUID", uuid);
+        headers.put("Answer-State", "answered");
+        headers.put("Caller-Direction", "inbound");
+        headers.put("Caller-Logical-Direction", "inbound");
+        headers.put("Caller-Username", "1000");
+        headers.put("Caller-Dialplan", "XML");
+        headers.put("Caller-Caller-ID-Name", "Extension 1000");
+        headers.put("Caller-Caller-ID-Number", "1000");
+        headers.put("Caller-Network-Addr", "10.0.0.51");
+        headers.put("Caller-ANI", "1000");
+        headers.put("Caller-Destination-Number", "9196");
+        headers.put("Caller-Unique-ID", uuid);
+        headers.put("Caller-Source", "mod_sofia");
+        headers.put("Caller-Context", "default");
+        headers.put("Caller-Channel-Name", "sofia/internal/1000@10.0.0.12");
+        headers.put("Caller-Profile-Index", "1");
+        headers.put("Caller-Profile-Created-Time", "1441189293412345");
+        headers.put("Caller-Channel-Created-Time", "1441189293412345");
+        headers.put("Caller-Channel-Answered-Time", "1441189293512345");
+        headers.put("variable_direction", "inbound");
+        headers.put("variable_uuid", uuid);
+        headers.put("variable_sip_from_user", "1000");
+        headers.put("variable_sip_from_uri", "1000@10.0.0.12");
+        headers.put("variable_sip_user_agent", "Linphone/3.6.1 (eXosip2/4.1.0)");
+        headers.put("variable_sip_via_host", "10.0.0.51");
+        return headers;
+    }
+
+    /**
+     * @param headers event headers
+     * @return the event as a {@code text/event-plain} message, values URL
+     * encoded
+     */
+    public static String plain(Map<String, String> headers) {
+        StringBuilder body = new StringBuilder();
+        for (Map.Entry<String, String> header : headers.entrySet()) {
+            body.append(header.getKey()).append(": ").append(urlEncode(header.getValue())).append('\n');
+        }
+        body.append('\n');
+        return message("text/event-plain", body.toString());
+    }
+
+    /**
+     * @param headers event headers
+     * @return the event as a {@code text/event-json} message
+     */
+    public static String json(Map<String, String> headers) {
+        StringBuilder body = new StringBuilder("{");
+        for (Map.Entry<String, String> header : headers.entrySet()) {
+            if (body.length() > 1) {
+                body.append(',');
+            }
+            body.append('"').append(header.getKey()).append("\":\"").append(header.getValue()).append('"');
+        }
+        body.append('}');
+        return message("text/event-json", body.toString());
+    }
+
+    /**
+     * @param eventName name of the event
+     * @param uniqueId  call of the event, null for none
+     * @param headers   other headers, as {@code Name: value} lines
+     * @return a {@code text/event-plain} event as the decoders build it
+     */
+    public static EslEvent event(String eventName, String uniqueId, String... headers) {
+        FreeSwitchMessage message = new FreeSwitchMessage();
+        message.addHeader(HeaderName.CONTENT_TYPE, "text/event-plain");
+        message.addBodyLine("Event-Name: " + eventName);
+        if (uniqueId != null) {
+            message.addBodyLine("Unique-ID: " + uniqueId);
+        }
+        for (String header : headers) {
+            message.addBodyLine(header);
+        }
+        return new EslEvent(message);
+    }
+
+    /**
+     * @param events number of events
+     * @param json   true for the json format, false for plain
+     * @return a stream of that many {@code CHANNEL_ANSWER} events
+     */
+    public static ChannelBuffer stream(int events, boolean json) {
+        StringBuilder stream = new StringBuilder();
+        for (int i = 0; i < events; i++) {
+            Map<String, String> headers = channelAnswer(i);
+            stream.append(json ? json(headers) : plain(headers));
+        }
+        return ChannelBuffers.copiedBuffer(stream, UTF_8);
+    }
+
+    private static String message(String contentType, String body) {
+        return "Content-Length: " + body.getBytes(UTF_8).length + "\nContent-Type: " + contentType
+                + "\n\n" + body;
+    }
+
+    private static String urlEncode(String value) {
+        try {
+            return URLEncoder.encode(value, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
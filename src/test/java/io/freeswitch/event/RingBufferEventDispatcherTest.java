@@ -0,0 +1,162 @@
+/*
+ * Copyright 2015.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.freeswitch.event;
+
+import io.freeswitch.event.RingBufferEventDispatcher.WaitStrategy;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Arsene Tochemey GANDOTE
+ */
+public class RingBufferEventDispatcherTest {
+
+    private RingBufferEventDispatcher dispatcher;
+
+    @After
+    public void tearDown() {
+        if (dispatcher != null) {
+            dispatcher.shutdown();
+        }
+    }
+
+    @Test
+    public void deliversAllTheEventsInOrder() throws Exception {
+        for (WaitStrategy waitStrategy : WaitStrategy.values()) {
+            dispatcher = new RingBufferEventDispatcher(64, 16, waitStrategy);
+            final List<String> received = new CopyOnWriteArrayList<String>();
+            final CountDownLatch delivered = new CountDownLatch(1000);
+            IEventsListener listener = new PartitionedEventDispatcherTest.Listener() {
+                public void eventReceived(EslEvent event) {
+                    received.add(event.eventName());
+                    delivered.countDown();
+                }
+            };
+            for (int i = 0; i < 1000; i++) {
+                dispatcher.dispatch(RecordedEvents.event("EVENT_" + i, PartitionedEventDispatcherTest.uuid(i % 7)),
+                        listener);
+            }
+            assertTrue(waitStrategy.name(), delivered.await(5, TimeUnit.SECONDS));
+            for (int i = 0; i < 1000; i++) {
+                assertEquals("EVENT_" + i, received.get(i));
+            }
+            dispatcher.shutdown();
+        }
+    }
+
+    @Test
+    public void handsTheQueuedEventsOverInBatches() throws Exception {
+        dispatcher = new RingBufferEventDispatcher(64, 16, WaitStrategy.PARK);
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch blocking = new CountDownLatch(1);
+        final List<Integer> batches = new CopyOnWriteArrayList<Integer>();
+        final CountDownLatch delivered = new CountDownLatch(21);
+        IEventsListener listener = new BatchListener() {
+            public void eventReceived(EslEvent event) {
+                blocking.countDown();
+                PartitionedEventDispatcherTest.await(release);
+                delivered.countDown();
+            }
+
+            public void eventsReceived(List<EslEvent> events) {
+                batches.add(events.size());
+                for (int i = 0; i < events.size(); i++) {
+                    delivered.countDown();
+                }
+            }
+        };
+        dispatcher.dispatch(RecordedEvents.event("FIRST", null), listener);
+        assertTrue(blocking.await(5, TimeUnit.SECONDS));
+        for (int i = 0; i < 20; i++) {
+            dispatcher.dispatch(RecordedEvents.event("EVENT_" + i, null), listener);
+        }
+        release.countDown();
+        assertTrue(delivered.await(5, TimeUnit.SECONDS));
+        // at most 16 at a time
+        assertEquals(2, batches.size());
+        assertEquals(16, (int) batches.get(0));
+        assertEquals(4, (int) batches.get(1));
+    }
+
+    @Test
+    public void holdsTheProducerBackWhileTheRingIsFull() throws Exception {
+        dispatcher = new RingBufferEventDispatcher(8, 8, WaitStrategy.PARK);
+        assertEquals(8, dispatcher.capacity());
+        final CountDownLatch release = new CountDownLatch(1);
+        final IEventsListener listener = new PartitionedEventDispatcherTest.Listener() {
+            public void eventReceived(EslEvent event) {
+                PartitionedEventDispatcherTest.await(release);
+            }
+        };
+        final CountDownLatch dispatched = new CountDownLatch(9);
+        Thread producer = new Thread(new Runnable() {
+            public void run() {
+                for (int i = 0; i < 9; i++) {
+                    dispatcher.dispatch(RecordedEvents.event("EVENT_" + i, null), listener);
+                    dispatched.countDown();
+                }
+            }
+        });
+        producer.start();
+        assertFalse(dispatched.await(200, TimeUnit.MILLISECONDS));
+        // the event being delivered keeps its slot until its batch is done
+        assertEquals(1, dispatched.getCount());
+        assertEquals(8, dispatcher.backlog());
+
+        release.countDown();
+        assertTrue(dispatched.await(5, TimeUnit.SECONDS));
+        producer.join(5000);
+    }
+
+    @Test
+    public void deliversOnTheConsumerThread() throws Exception {
+        dispatcher = new RingBufferEventDispatcher();
+        final List<Boolean> onConsumer = new CopyOnWriteArrayList<Boolean>();
+        final CountDownLatch delivered = new CountDownLatch(1);
+        dispatcher.dispatch(RecordedEvents.event("EVENT", null), new PartitionedEventDispatcherTest.Listener() {
+            public void eventReceived(EslEvent event) {
+                onConsumer.add(RingBufferEventDispatcher.isConsumerThread());
+                delivered.countDown();
+            }
+        });
+        assertTrue(delivered.await(5, TimeUnit.SECONDS));
+        assertTrue(onConsumer.get(0));
+        assertFalse(RingBufferEventDispatcher.isConsumerThread());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void refusesEventsOnceShutDown() {
+        dispatcher = new RingBufferEventDispatcher();
+        dispatcher.shutdown();
+        dispatcher.dispatch(RecordedEvents.event("EVENT", null), new PartitionedEventDispatcherTest.Listener() {
+            public void eventReceived(EslEvent event) {
+            }
+        });
+    }
+
+    abstract static class BatchListener extends PartitionedEventDispatcherTest.Listener
+            implements IEventBatchListener {
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright 2015.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.freeswitch.event;
+
+import io.freeswitch.common.VirtualThreads;
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Arsene Tochemey GANDOTE
+ */
+public class VirtualThreadEventDispatcherTest {
+
+    private final VirtualThreadEventDispatcher dispatcher = new VirtualThreadEventDispatcher();
+
+    @After
+    public void tearDown() {
+        dispatcher.shutdown();
+    }
+
+    @Test
+    public void deliversTheEventsOfEachCallInOrder() throws Exception {
+        final Map<String, List<String>> received = new ConcurrentHashMap<String, List<String>>();
+        final CountDownLatch delivered = new CountDownLatch(700);
+        IEventsListener listener = new PartitionedEventDispatcherTest.Listener() {
+            public void eventReceived(EslEvent event) {
+                received.get(event.eventHeaders().get(EventHeaders.UNIQUE_ID)).add(event.eventName());
+                delivered.countDown();
+            }
+        };
+        for (int call = 0; call < 7; call++) {
+            received.put(PartitionedEventDispatcherTest.uuid(call), new CopyOnWriteArrayList<String>());
+        }
+        for (int i = 0; i < 700; i++) {
+            dispatcher.dispatch(RecordedEvents.event("EVENT_" + i, PartitionedEventDispatcherTest.uuid(i % 7)),
+                    listener);
+        }
+        assertTrue(delivered.await(5, TimeUnit.SECONDS));
+        for (int call = 0; call < 7; call++) {
+            List<String> expected = new ArrayList<String>();
+            for (int i = call; i < 700; i += 7) {
+                expected.add("EVENT_" + i);
+            }
+            assertEquals(expected, received.get(PartitionedEventDispatcherTest.uuid(call)));
+        }
+        awaitNoActiveGroup();
+    }
+
+    @Test
+    public void letsAListenerBlockWithoutHoldingUpOtherCalls() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch other = new CountDownLatch(1);
+        dispatcher.dispatch(RecordedEvents.event("BLOCKING", PartitionedEventDispatcherTest.uuid(1)),
+                new PartitionedEventDispatcherTest.Listener() {
+                    public void eventReceived(EslEvent event) {
+                        PartitionedEventDispatcherTest.await(release);
+                    }
+                });
+        dispatcher.dispatch(RecordedEvents.event("OTHER", PartitionedEventDispatcherTest.uuid(2)),
+                new PartitionedEventDispatcherTest.Listener() {
+                    public void eventReceived(EslEvent event) {
+                        other.countDown();
+                    }
+                });
+        assertTrue(other.await(5, TimeUnit.SECONDS));
+        awaitActiveGroups(1);
+        release.countDown();
+        awaitNoActiveGroup();
+    }
+
+    @Test
+    public void boundsThePlatformThreadsWithoutVirtualThreads() throws Exception {
+        Assume.assumeFalse(VirtualThreads.isSupported());
+        int calls = VirtualThreads.FALLBACK_THREADS + 8;
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger started = new AtomicInteger();
+        final CountDownLatch delivered = new CountDownLatch(calls);
+        IEventsListener listener = new PartitionedEventDispatcherTest.Listener() {
+            public void eventReceived(EslEvent event) {
+                started.incrementAndGet();
+                PartitionedEventDispatcherTest.await(release);
+                delivered.countDown();
+            }
+        };
+        for (int call = 0; call < calls; call++) {
+            dispatcher.dispatch(RecordedEvents.event("EVENT", PartitionedEventDispatcherTest.uuid(call)), listener);
+        }
+        long deadline = System.currentTimeMillis() + 5000;
+        while (started.get() < VirtualThreads.FALLBACK_THREADS && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertFalse(delivered.await(100, TimeUnit.MILLISECONDS));
+        assertEquals(VirtualThreads.FALLBACK_THREADS, started.get());
+
+        // the waiting calls get a thread once released
+        release.countDown();
+        assertTrue(delivered.await(10, TimeUnit.SECONDS));
+        awaitNoActiveGroup();
+    }
+
+    private void awaitNoActiveGroup() throws InterruptedException {
+        awaitActiveGroups(0);
+    }
+
+    private void awaitActiveGroups(int groups) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (dispatcher.activeGroups() != groups && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertEquals(groups, dispatcher.activeGroups());
+    }
+}
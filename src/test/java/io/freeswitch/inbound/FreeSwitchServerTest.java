@@ -0,0 +1,185 @@
+/*
+ * Copyright 2015.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.freeswitch.inbound;
+
+import io.freeswitch.codec.FreeSwitchMessageHeaders.HeaderName;
+import io.freeswitch.event.EslEvent;
+import io.freeswitch.message.FreeSwitchMessage;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Sessions of a {@link FreeSwitchServer} blocking on their commands.
+ *
+ * @author Arsene Tochemey GANDOTE
+ */
+public class FreeSwitchServerTest {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final ConcurrentMap<String, String> replies = new ConcurrentHashMap<String, String>();
+    private final List<Socket> calls = new ArrayList<Socket>();
+    private FreeSwitchServer server;
+    private int port;
+    private CountDownLatch answered;
+
+    @Before
+    public void setUp() throws Exception {
+        ServerSocket probe = new ServerSocket(0);
+        port = probe.getLocalPort();
+        probe.close();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        for (Socket call : calls) {
+            call.close();
+        }
+        if (server != null) {
+            server.stop();
+        }
+    }
+
+    @Test
+    public void blockingSessionsOnPlatformThreadsGetTheirReplies() throws Exception {
+        // more blocked sessions than threads on the ordered executor
+        int sessions = Runtime.getRuntime().availableProcessors() * 2 + 4;
+        startServer(false);
+        answerBlockingSessions(sessions);
+    }
+
+    @Test
+    public void blockingSessionsOnVirtualThreadsGetTheirReplies() throws Exception {
+        startServer(true);
+        answerBlockingSessions(50);
+    }
+
+    @Test
+    public void sessionsBeyondTheSessionThreadsWaitForAFreeOne() throws Exception {
+        startServer(false, 2);
+        answered = new CountDownLatch(5);
+        List<Socket> connected = new ArrayList<Socket>();
+        for (int i = 0; i < 5; i++) {
+            connected.add(connect("call-" + i));
+        }
+        // each reply frees a thread for the next session
+        for (Socket call : connected) {
+            replyToCommand(call);
+        }
+        assertTrue(answered.await(10, TimeUnit.SECONDS));
+        assertEquals(5, replies.size());
+    }
+
+    /*
+     * Every session sends its command from the connect callback and blocks
+     * on it; the replies are only sent once all the commands are in.
+     */
+    private void answerBlockingSessions(int sessions) throws Exception {
+        answered = new CountDownLatch(sessions);
+        List<Socket> connected = new ArrayList<Socket>();
+        for (int i = 0; i < sessions; i++) {
+            connected.add(connect("call-" + i));
+        }
+        for (Socket call : connected) {
+            replyToCommand(call);
+        }
+        assertTrue("sessions stalled: " + answered.getCount(), answered.await(10, TimeUnit.SECONDS));
+        for (int i = 0; i < sessions; i++) {
+            assertEquals("+OK call-" + i, replies.get("call-" + i));
+        }
+    }
+
+    private void startServer(boolean useVirtualThreads) throws Exception {
+        startServer(useVirtualThreads, FreeSwitchPipelineFactory.DEFAULT_SESSION_THREADS);
+    }
+
+    private void startServer(boolean useVirtualThreads, int sessionThreads) throws Exception {
+        FreeSwitchPipelineFactory pipelineFactory = new FreeSwitchPipelineFactory() {
+            @Override
+            protected FreeSwitchHandler buildHandler() {
+                return new DefaultFreeSwitchHandler() {
+                    @Override
+                    protected void handleConnectResponse(ChannelHandlerContext ctx, EslEvent event) {
+                        super.handleConnectResponse(ctx, event);
+                        String call = event.eventHeaders().get("Caller-Caller-ID-Number");
+                        FreeSwitchMessage reply = sendSyncCommand(ctx.getChannel(), "api echo " + call);
+                        replies.put(call, reply.headerValue(HeaderName.REPLY_TEXT));
+                        answered.countDown();
+                    }
+                };
+            }
+        };
+        pipelineFactory.setSessionThreads(sessionThreads);
+        server = new FreeSwitchServer(port, pipelineFactory);
+        server.setUseVirtualThreads(useVirtualThreads);
+        server.start();
+    }
+
+    /*
+     * Plays FreeSWITCH calling the server: answers its connect with the
+     * channel data.
+     */
+    private Socket connect(String call) throws IOException {
+        Socket socket = new Socket("127.0.0.1", port);
+        calls.add(socket);
+        socket.setSoTimeout(10000);
+        assertEquals("connect", readCommand(socket));
+        String uuid = UUID.randomUUID().toString();
+        socket.getOutputStream().write(("Content-Type: command/reply\nReply-Text: +OK\n"
+                + "Event-Name: CHANNEL_DATA\nUnique-ID: " + uuid + "\nCaller-Unique-ID: " + uuid
+                + "\nCaller-Caller-ID-Number: " + call + "\nChannel-Destination-Number: 200\n\n")
+                .getBytes(UTF_8));
+        return socket;
+    }
+
+    private void replyToCommand(Socket socket) throws IOException {
+        String command = readCommand(socket);
+        assertTrue(command, command.startsWith("api echo "));
+        socket.getOutputStream().write(("Content-Type: command/reply\nReply-Text: +OK "
+                + command.substring(9) + "\n\n").getBytes(UTF_8));
+    }
+
+    private static String readCommand(Socket socket) throws IOException {
+        // one byte at a time, a buffering reader would swallow the next command
+        StringBuilder command = new StringBuilder();
+        int c;
+        while ((c = socket.getInputStream().read()) != -1) {
+            if (c == '\n' && command.length() > 0 && command.charAt(command.length() - 1) == '\n') {
+                command.setLength(command.length() - 1);
+                return command.toString().trim();
+            }
+            command.append((char) c);
+        }
+        throw new IOException("closed");
+    }
+}
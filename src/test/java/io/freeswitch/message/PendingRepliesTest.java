@@ -0,0 +1,205 @@
+/*
+ * Copyright 2015.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.freeswitch.message;
+
+import io.freeswitch.codec.FreeSwitchMessageHeaders.HeaderName;
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.channel.Channels;
+import org.jboss.netty.channel.MessageEvent;
+import org.jboss.netty.channel.SimpleChannelHandler;
+import org.jboss.netty.channel.local.DefaultLocalClientChannelFactory;
+import org.jboss.netty.handler.timeout.TimeoutException;
+import org.jboss.netty.util.HashedWheelTimer;
+import org.jboss.netty.util.Timer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * @author Arsene Tochemey GANDOTE
+ */
+public class PendingRepliesTest {
+
+    private final List<Object> written = new CopyOnWriteArrayList<Object>();
+    private Channel channel;
+    private Timer timer;
+    private ExecutorService senders;
+
+    @Before
+    public void setUp() {
+        channel = new DefaultLocalClientChannelFactory().newChannel(Channels.pipeline(
+                new SimpleChannelHandler() {
+                    @Override
+                    public void writeRequested(ChannelHandlerContext ctx, MessageEvent e) {
+                        written.add(e.getMessage());
+                        e.getFuture().setSuccess();
+                    }
+                }));
+        timer = new HashedWheelTimer(10, TimeUnit.MILLISECONDS);
+        senders = Executors.newSingleThreadExecutor();
+    }
+
+    @After
+    public void tearDown() {
+        senders.shutdownNow();
+        timer.stop();
+    }
+
+    @Test
+    public void writesWithoutWaitingForTheReplies() throws Exception {
+        PendingReplies replies = new PendingReplies(0, timer);
+        CompletableFuture<FreeSwitchMessage> first = replies.send(channel, "api one\n\n");
+        CompletableFuture<FreeSwitchMessage> second = replies.send(channel, "api two\n\n");
+        assertEquals(2, written.size());
+        assertEquals(2, replies.size());
+
+        replies.complete(reply("one"));
+        replies.complete(reply("two"));
+        assertEquals("one", first.get().headerValue(HeaderName.REPLY_TEXT));
+        assertEquals("two", second.get().headerValue(HeaderName.REPLY_TEXT));
+        CommandStats stats = replies.stats();
+        assertEquals(2, stats.sent());
+        assertEquals(2, stats.completed());
+        assertEquals(0, stats.inFlight());
+    }
+
+    @Test
+    public void blocksSendersWhileTheWindowIsFull() throws Exception {
+        final PendingReplies replies = new PendingReplies(2, timer);
+        replies.send(channel, "api one\n\n");
+        replies.send(channel, "api two\n\n");
+        Future<CompletableFuture<FreeSwitchMessage>> third = senders.submit(
+                new Callable<CompletableFuture<FreeSwitchMessage>>() {
+                    public CompletableFuture<FreeSwitchMessage> call() {
+                        return replies.send(channel, "api three\n\n");
+                    }
+                });
+        Thread.sleep(200);
+        assertFalse(third.isDone());
+        assertEquals(2, written.size());
+        assertEquals(2, replies.stats().maxInFlight());
+
+        replies.complete(reply("one"));
+        CompletableFuture<FreeSwitchMessage> reply = third.get(5, TimeUnit.SECONDS);
+        assertEquals(3, written.size());
+        replies.complete(reply("two"));
+        replies.complete(reply("three"));
+        assertEquals("three", reply.get().headerValue(HeaderName.REPLY_TEXT));
+    }
+
+    @Test
+    public void releasesBlockedSendersOnClose() throws Exception {
+        final PendingReplies replies = new PendingReplies(1, timer);
+        CompletableFuture<FreeSwitchMessage> first = replies.send(channel, "api one\n\n");
+        Future<CompletableFuture<FreeSwitchMessage>> second = senders.submit(
+                new Callable<CompletableFuture<FreeSwitchMessage>>() {
+                    public CompletableFuture<FreeSwitchMessage> call() {
+                        return replies.send(channel, "api two\n\n");
+                    }
+                });
+        Thread.sleep(100);
+        replies.close();
+        assertTrue(first.isCompletedExceptionally());
+        assertTrue(second.get(5, TimeUnit.SECONDS).isCompletedExceptionally());
+        assertEquals(1, written.size());
+    }
+
+    @Test
+    public void dropsTheLateReplyOfAnExpiredCommand() throws Exception {
+        PendingReplies replies = new PendingReplies(0, timer);
+        CompletableFuture<FreeSwitchMessage> expired = replies.send(channel, "api slow\n\n", 20,
+                TimeUnit.MILLISECONDS);
+        try {
+            expired.get(5, TimeUnit.SECONDS);
+            fail("no timeout");
+        } catch (ExecutionException e) {
+            assertTrue(String.valueOf(e.getCause()), e.getCause() instanceof TimeoutException);
+        }
+        CompletableFuture<FreeSwitchMessage> next = replies.send(channel, "api fast\n\n");
+        assertEquals(2, replies.size());
+        assertEquals(1, replies.awaited());
+        assertEquals(1, replies.stats().expiredUnanswered());
+
+        replies.complete(reply("slow"));
+        assertFalse(next.isDone());
+        replies.complete(reply("fast"));
+        assertEquals("fast", next.get().headerValue(HeaderName.REPLY_TEXT));
+        CommandStats stats = replies.stats();
+        assertEquals(1, stats.timedOut());
+        assertEquals(1, stats.lateReplies());
+        assertEquals(0, stats.expiredUnanswered());
+        assertTrue(channel.isOpen());
+    }
+
+    @Test
+    public void closesTheConnectionOnceTooManyExpiredCommandsAreUnanswered() throws Exception {
+        PendingReplies replies = new PendingReplies(2, timer);
+        replies.setExpiredLimits(2, 0, TimeUnit.MILLISECONDS);
+        replies.send(channel, "api one\n\n", 20, TimeUnit.MILLISECONDS);
+        replies.send(channel, "api two\n\n", 20, TimeUnit.MILLISECONDS);
+        assertTrue(channel.getCloseFuture().await(5, TimeUnit.SECONDS));
+        assertEquals(2, replies.stats().expiredUnanswered());
+
+        // as the handler does once the channel is closed
+        replies.close();
+        assertEquals(0, replies.size());
+        assertEquals(0, replies.stats().expiredUnanswered());
+    }
+
+    @Test
+    public void closesTheConnectionOnceAnExpiredCommandOutlivesTheGracePeriod() throws Exception {
+        PendingReplies replies = new PendingReplies(0, timer);
+        replies.setExpiredLimits(0, 100, TimeUnit.MILLISECONDS);
+        replies.send(channel, "api one\n\n", 20, TimeUnit.MILLISECONDS);
+        Thread.sleep(60);
+        assertTrue(channel.isOpen());
+        assertTrue(channel.getCloseFuture().await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void keepsTheConnectionWhenTheLateReplyComesWithinTheGracePeriod() throws Exception {
+        PendingReplies replies = new PendingReplies(0, timer);
+        replies.setExpiredLimits(0, 100, TimeUnit.MILLISECONDS);
+        replies.send(channel, "api one\n\n", 20, TimeUnit.MILLISECONDS);
+        Thread.sleep(60);
+        replies.complete(reply("one"));
+        Thread.sleep(200);
+        assertTrue(channel.isOpen());
+    }
+
+    static FreeSwitchMessage reply(String replyText) {
+        FreeSwitchMessage reply = new FreeSwitchMessage();
+        reply.addHeader(HeaderName.CONTENT_TYPE, "command/reply");
+        reply.addHeader(HeaderName.REPLY_TEXT, replyText);
+        return reply;
+    }
+}
@@ -0,0 +1,188 @@
+/*
+ * Copyright 2015.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.freeswitch.outbound;
+
+import io.freeswitch.EslResources;
+import io.freeswitch.FakeFreeSwitch;
+import io.freeswitch.message.CommandStats;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+/**
+ * An {@link EslConnectionPool} of three command connections to a
+ * {@link FakeFreeSwitch}, which accepts them first and the event connection
+ * last.
+ *
+ * @author Arsene Tochemey GANDOTE
+ */
+public class EslConnectionPoolTest {
+
+    private FakeFreeSwitch freeSwitch;
+    private EslConnectionPool pool;
+
+    @Before
+    public void connect() throws Exception {
+        freeSwitch = new FakeFreeSwitch();
+        pool = new EslConnectionPool("127.0.0.1", freeSwitch.port(), "ClueCon", 3);
+        pool.setCommandTimeout(5, TimeUnit.SECONDS);
+        pool.connect(5);
+    }
+
+    @After
+    public void close() throws Exception {
+        // first, as the exit commands of a silent server are never answered
+        freeSwitch.close();
+        pool.close();
+    }
+
+    @Test
+    public void sendsEachCommandOverTheLeastBusyConnection() throws Exception {
+        freeSwitch.setSilent(true);
+        for (int i = 0; i < 6; i++) {
+            pool.apiAsync("status", null);
+        }
+        for (int i = 0; i < 3; i++) {
+            awaitApiCommands(i, 2);
+        }
+
+        // the replies of the first connection come in, it is the least busy
+        freeSwitch.connection(0).sendApiResponse("UP\n");
+        freeSwitch.connection(0).sendApiResponse("UP\n");
+        awaitLeastInFlight(0);
+        pool.apiAsync("status", null);
+        awaitApiCommands(0, 3);
+        awaitApiCommands(1, 2);
+        awaitApiCommands(2, 2);
+    }
+
+    @Test
+    public void letsTheIdleConnectionsTakeTurns() throws Exception {
+        for (int i = 0; i < 6; i++) {
+            assertEquals(Collections.singletonList("+OK status"), pool.api("status", null).bodyLines());
+        }
+        for (int i = 0; i < 3; i++) {
+            awaitApiCommands(i, 2);
+        }
+    }
+
+    @Test
+    public void skipsTheConnectionsLost() throws Exception {
+        freeSwitch.connection(1).close();
+        long deadline = System.currentTimeMillis() + 5000;
+        while (pool.available() != 2 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertEquals(2, pool.available());
+        assertEquals(2, pool.commandStats().size());
+        for (int i = 0; i < 4; i++) {
+            pool.api("status", null);
+        }
+        awaitApiCommands(0, 2);
+        awaitApiCommands(1, 0);
+        awaitApiCommands(2, 2);
+
+        // reconnected, after the event connection
+        pool.connect(5);
+        assertEquals(3, pool.available());
+        assertEquals(5, freeSwitch.connections());
+        for (int i = 0; i < 3; i++) {
+            pool.api("status", null);
+        }
+        awaitApiCommands(4, 1);
+    }
+
+    @Test
+    public void keepsTheEventsOffTheCommandConnections() throws Exception {
+        FreeSwitchClient commandClient = pool.commandClient();
+        assertNotSame(pool.events(), commandClient);
+        for (int i = 0; i < 10; i++) {
+            pool.api("status", null);
+        }
+        awaitApiCommands(3, 0);
+        assertSame(pool.events(), pool.events());
+    }
+
+    @Test
+    public void refusesCommandsWithoutAnyConnection() throws Exception {
+        pool.close();
+        try {
+            pool.apiAsync("status", null);
+            fail("no connection");
+        } catch (IllegalStateException e) {
+            // none connected
+        }
+        assertEquals(0, pool.available());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsAPoolWithoutCommandConnections() {
+        new EslConnectionPool("127.0.0.1", freeSwitch.port(), "ClueCon", 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsTheCommandThreadsForTheEvents() {
+        EslResources resources = new EslResources();
+        try {
+            new EslConnectionPool("127.0.0.1", freeSwitch.port(), "ClueCon", 1, resources, resources);
+        } finally {
+            resources.releaseExternalResources();
+        }
+    }
+
+    /*
+     * Wait for a connection, in accept order, to have received a number of
+     * api commands.
+     */
+    private void awaitApiCommands(int connection, int count) throws Exception {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (apiCommands(connection) < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertEquals(count, apiCommands(connection));
+    }
+
+    private int apiCommands(int connection) throws Exception {
+        int count = 0;
+        for (String command : freeSwitch.connection(connection).commands()) {
+            if (command.startsWith("api ")) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private void awaitLeastInFlight(int inFlight) throws Exception {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (System.currentTimeMillis() < deadline) {
+            for (CommandStats stats : pool.commandStats()) {
+                if (stats.inFlight() == inFlight) {
+                    return;
+                }
+            }
+            Thread.sleep(5);
+        }
+        fail("every connection awaits more than " + inFlight + " replies");
+    }
+}
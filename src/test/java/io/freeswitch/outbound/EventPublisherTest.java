@@ -0,0 +1,248 @@
+/*
+ * Copyright 2015.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.freeswitch.outbound;
+
+import io.freeswitch.FakeFreeSwitch;
+import io.freeswitch.event.EslEvent;
+import io.freeswitch.event.IEventSubscriber;
+import io.freeswitch.event.IEventSubscription;
+import io.freeswitch.event.IEventsListener;
+import io.freeswitch.message.FreeSwitchMessage;
+import io.freeswitch.outbound.EventPublisher.OverflowPolicy;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The {@link EventPublisher} of a {@link FreeSwitchClient} fed by a
+ * {@link FakeFreeSwitch}.
+ *
+ * @author Arsene Tochemey GANDOTE
+ */
+public class EventPublisherTest {
+
+    private FakeFreeSwitch freeSwitch;
+    private FreeSwitchClient client;
+    private FakeFreeSwitch.Connection connection;
+    /*
+     * Counts the events once the publisher has been handed them.
+     */
+    private final AtomicInteger handled = new AtomicInteger();
+    private int sent = 0;
+
+    @Before
+    public void connect() throws Exception {
+        freeSwitch = new FakeFreeSwitch();
+        client = new FreeSwitchClient();
+        client.connect("127.0.0.1", freeSwitch.port(), "ClueCon", 5);
+        connection = freeSwitch.connection(0);
+    }
+
+    @After
+    public void close() throws Exception {
+        freeSwitch.close();
+    }
+
+    @Test
+    public void deliversAsManyEventsAsRequested() throws Exception {
+        Subscriber subscriber = new Subscriber();
+        publisher().subscribe(subscriber);
+        subscriber.subscription.request(2);
+        sendEvents(5);
+        awaitHandled(5);
+        assertEquals(Arrays.asList("E0", "E1"), subscriber.names());
+
+        subscriber.subscription.request(3);
+        assertEquals(Arrays.asList("E0", "E1", "E2", "E3", "E4"), subscriber.names());
+    }
+
+    @Test
+    public void pausesReadingWhileEverySubscriberIsSaturated() throws Exception {
+        Subscriber subscriber = new Subscriber();
+        publisher().subscribe(subscriber, 8, OverflowPolicy.ERROR);
+        sendEvents(100);
+        awaitPaused(true);
+
+        subscriber.subscription.request(Long.MAX_VALUE);
+        awaitHandled(100);
+        // the events read before the pause took effect are kept
+        assertEquals(100, subscriber.events.size());
+        assertNull(subscriber.error);
+        awaitPaused(false);
+    }
+
+    @Test
+    public void dropsTheOldestEventsOfALaggingSubscriber() throws Exception {
+        Subscriber lagging = lagging(OverflowPolicy.DROP_OLDEST);
+        lagging.subscription.request(10);
+        assertEquals(Arrays.asList("E6", "E7", "E8", "E9"), lagging.names());
+    }
+
+    @Test
+    public void dropsTheNewestEventsOfALaggingSubscriber() throws Exception {
+        Subscriber lagging = lagging(OverflowPolicy.DROP_NEWEST);
+        lagging.subscription.request(10);
+        assertEquals(Arrays.asList("E0", "E1", "E2", "E3"), lagging.names());
+    }
+
+    @Test
+    public void failsALaggingSubscriberOnOverflow() throws Exception {
+        Subscriber lagging = lagging(OverflowPolicy.ERROR);
+        assertTrue(String.valueOf(lagging.error), lagging.error instanceof IllegalStateException);
+        assertEquals(1, publisher().subscribers());
+    }
+
+    @Test
+    public void readsTheReplyOfACommandSentWhileSaturated() throws Exception {
+        Subscriber subscriber = new Subscriber();
+        publisher().subscribe(subscriber, 8, OverflowPolicy.DROP_NEWEST);
+        sendEvents(4);
+        awaitPaused(true);
+
+        freeSwitch.setSilent(true);
+        CompletableFuture<FreeSwitchMessage> reply = client.apiAsync("status", null);
+        // resumed to read the reply
+        awaitPaused(false);
+        // read while resumed: buffered up to the buffer size only
+        sendEvents(10);
+        awaitHandled(14);
+        assertFalse(client.dispatchStats().paused());
+
+        connection.sendApiResponse("UP 0 years\n");
+        assertEquals(Collections.singletonList("UP 0 years"), reply.get(5, TimeUnit.SECONDS).bodyLines());
+        // the hold is taken again once the reply is in
+        awaitPaused(true);
+
+        subscriber.subscription.request(100);
+        assertEquals(Arrays.asList("E0", "E1", "E2", "E3", "E4", "E5", "E6", "E7"), subscriber.names());
+        assertNull(subscriber.error);
+        awaitPaused(false);
+    }
+
+    @Test
+    public void completesTheSubscribersWhenTheConnectionCloses() throws Exception {
+        Subscriber subscriber = new Subscriber();
+        EventPublisher publisher = publisher();
+        publisher.subscribe(subscriber);
+        connection.close();
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!subscriber.completed && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertTrue(subscriber.completed);
+        assertEquals(0, publisher.subscribers());
+    }
+
+    /*
+     * A subscriber without demand next to one taking everything: reading is
+     * not paused for it, it overflows.
+     */
+    private Subscriber lagging(OverflowPolicy policy) throws Exception {
+        Subscriber fast = new Subscriber();
+        publisher().subscribe(fast);
+        fast.subscription.request(Long.MAX_VALUE);
+        Subscriber lagging = new Subscriber();
+        publisher().subscribe(lagging, 4, policy);
+        sendEvents(10);
+        awaitHandled(10);
+        assertEquals(10, fast.events.size());
+        return lagging;
+    }
+
+    private EventPublisher publisher() {
+        EventPublisher publisher = client.publisher();
+        if (handled.get() == 0 && sent == 0 && publisher.subscribers() == 0) {
+            // after the publisher, so that it has seen the events counted
+            client.addEventListener(new IEventsListener() {
+                public void eventReceived(EslEvent event) {
+                    handled.incrementAndGet();
+                }
+
+                public void backgroundJobEventReceived(EslEvent event) {
+                }
+            });
+        }
+        return publisher;
+    }
+
+    private void sendEvents(int count) throws Exception {
+        for (int i = 0; i < count; i++) {
+            connection.sendEvent("Event-Name: E" + sent++ + "\n\n");
+        }
+    }
+
+    private void awaitHandled(int count) throws Exception {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (handled.get() < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertEquals(count, handled.get());
+    }
+
+    private void awaitPaused(boolean paused) throws Exception {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (client.dispatchStats().paused() != paused && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertEquals(paused, client.dispatchStats().paused());
+    }
+
+    private static final class Subscriber implements IEventSubscriber {
+
+        final List<EslEvent> events = new CopyOnWriteArrayList<EslEvent>();
+        volatile IEventSubscription subscription;
+        volatile Throwable error;
+        volatile boolean completed;
+
+        public void onSubscribe(IEventSubscription subscription) {
+            this.subscription = subscription;
+        }
+
+        public void onNext(EslEvent event) {
+            events.add(event);
+        }
+
+        public void onError(Throwable cause) {
+            error = cause;
+        }
+
+        public void onComplete() {
+            completed = true;
+        }
+
+        List<String> names() {
+            List<String> names = new ArrayList<String>();
+            for (EslEvent event : events) {
+                names.add(event.eventName());
+            }
+            return names;
+        }
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright 2015.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.freeswitch.outbound;
+
+import io.freeswitch.FakeFreeSwitch;
+import io.freeswitch.command.SendMsgCommand;
+import io.freeswitch.message.CommandReply;
+import io.freeswitch.message.FreeSwitchMessage;
+import org.jboss.netty.channel.ChannelException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * The asynchronous commands of {@link FreeSwitchClient} against a
+ * {@link FakeFreeSwitch}.
+ *
+ * @author Arsene Tochemey GANDOTE
+ */
+public class FreeSwitchClientAsyncTest {
+
+    private FakeFreeSwitch freeSwitch;
+    private FreeSwitchClient client;
+
+    @Before
+    public void connect() throws Exception {
+        freeSwitch = new FakeFreeSwitch();
+        client = new FreeSwitchClient();
+        client.connect("127.0.0.1", freeSwitch.port(), "ClueCon", 5);
+    }
+
+    @After
+    public void close() throws Exception {
+        freeSwitch.close();
+    }
+
+    @Test
+    public void completesEachFutureWithItsOwnReply() throws Exception {
+        List<CompletableFuture<FreeSwitchMessage>> replies = new ArrayList<CompletableFuture<FreeSwitchMessage>>();
+        for (int i = 0; i < 1000; i++) {
+            replies.add(client.apiAsync("echo", "n" + i));
+        }
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(Collections.singletonList("+OK echo n" + i),
+                    replies.get(i).get(5, TimeUnit.SECONDS).bodyLines());
+        }
+        // the authentication is counted too
+        assertEquals(1001, client.commandStats().completed());
+        assertEquals(0, client.commandStats().inFlight());
+    }
+
+    @Test
+    public void returnsBeforeTheReplyArrives() throws Exception {
+        freeSwitch.setSilent(true);
+        CompletableFuture<CommandReply> filter = client.filterAsync("Event-Name", "HEARTBEAT");
+        CompletableFuture<CommandReply> event = client.eventAsync("plain", "HEARTBEAT");
+        CompletableFuture<CommandReply> execute = client.executeAsync(new SendMsgCommand("answer", null));
+        FakeFreeSwitch.Connection connection = freeSwitch.connection(0);
+        List<String> commands = connection.awaitCommands(4);
+        assertEquals("filter Event-Name HEARTBEAT", commands.get(1));
+        assertEquals("event plain HEARTBEAT", commands.get(2));
+        assertFalse(filter.isDone() || event.isDone() || execute.isDone());
+
+        connection.sendCommandReply("+OK filter added");
+        connection.sendCommandReply("+OK event listener enabled plain");
+        connection.sendCommandReply("-ERR no session");
+        assertEquals("+OK filter added", filter.get(5, TimeUnit.SECONDS).replyText());
+        assertTrue(event.get(5, TimeUnit.SECONDS).isOk());
+        assertFalse(execute.get(5, TimeUnit.SECONDS).isOk());
+    }
+
+    @Test
+    public void failsTheWaitingFuturesWhenTheConnectionCloses() throws Exception {
+        freeSwitch.setSilent(true);
+        CompletableFuture<FreeSwitchMessage> reply = client.apiAsync("status", null);
+        freeSwitch.connection(0).awaitCommands(2);
+        freeSwitch.connection(0).close();
+        try {
+            reply.get(5, TimeUnit.SECONDS);
+            fail("reply without a connection");
+        } catch (ExecutionException e) {
+            assertTrue(String.valueOf(e.getCause()), e.getCause() instanceof ChannelException);
+        }
+    }
+}
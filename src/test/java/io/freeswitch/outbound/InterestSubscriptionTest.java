@@ -0,0 +1,134 @@
+/*
+ * Copyright 2015.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.freeswitch.outbound;
+
+import io.freeswitch.event.EventInterest;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Arsene Tochemey GANDOTE
+ */
+public class InterestSubscriptionTest {
+
+    private InterestSubscription subscription;
+
+    @Before
+    public void newConnection() {
+        subscription = new InterestSubscription();
+        subscription.reset(false);
+    }
+
+    @Test
+    public void subscribesToTheNewEventsOnly() {
+        assertCommands(update(EventInterest.of("DTMF", "CHANNEL_ANSWER")),
+                "event plain CHANNEL_ANSWER DTMF");
+        assertCommands(update(EventInterest.of("DTMF", "CHANNEL_ANSWER")));
+        assertCommands(update(EventInterest.of("DTMF"), EventInterest.of("CHANNEL_ANSWER", "HEARTBEAT")),
+                "event plain HEARTBEAT");
+    }
+
+    @Test
+    public void unsubscribesFromTheEventsNoLongerWanted() {
+        update(EventInterest.of("DTMF", "CHANNEL_ANSWER").custom("sofia::register"));
+        assertCommands(update(EventInterest.of("DTMF")),
+                "nixevent CHANNEL_ANSWER",
+                "nixevent CUSTOM sofia::register");
+        assertCommands(update(), "nixevent DTMF");
+    }
+
+    @Test
+    public void subscribesToCustomSubclasses() {
+        assertCommands(update(EventInterest.of("DTMF").custom("sofia::register", "conference::maintenance")),
+                "event plain DTMF CUSTOM conference::maintenance sofia::register");
+    }
+
+    @Test
+    public void switchesBetweenAllAndNamedEvents() {
+        update(EventInterest.of("DTMF"));
+        assertCommands(update(EventInterest.of("DTMF"), EventInterest.ALL), "event plain ALL");
+        assertCommands(update(EventInterest.ALL));
+        assertCommands(update(EventInterest.of("DTMF")),
+                "noevents",
+                "event plain DTMF");
+    }
+
+    @Test
+    public void replacesWhatWasSubscribedBefore() {
+        subscription.reset(true);
+        assertCommands(update(EventInterest.of("DTMF")),
+                "noevents",
+                "event plain DTMF");
+    }
+
+    @Test
+    public void keepsTheBackgroundJobEvents() {
+        assertCommands(subscription.update("json", Collections.singletonList(EventInterest.of("DTMF")), true),
+                "event json BACKGROUND_JOB DTMF");
+    }
+
+    @Test
+    public void filtersOnConditions() {
+        EventInterest call = EventInterest.of("CHANNEL_ANSWER").where("Unique-ID", "u1");
+        assertCommands(update(call, EventInterest.of("HEARTBEAT")),
+                "event plain CHANNEL_ANSWER HEARTBEAT",
+                "filter Event-Name HEARTBEAT",
+                "filter Unique-ID u1");
+        assertTrue(subscription.filtering());
+
+        // the new filter goes first, so that no wanted event slips through
+        assertCommands(update(EventInterest.of("CHANNEL_ANSWER").where("Unique-ID", "u2"),
+                EventInterest.of("HEARTBEAT")),
+                "filter Unique-ID u2",
+                "filter delete Unique-ID u1");
+
+        assertCommands(update(EventInterest.of("HEARTBEAT")),
+                "filter delete Event-Name HEARTBEAT",
+                "filter delete Unique-ID u2",
+                "nixevent CHANNEL_ANSWER");
+        assertFalse(subscription.filtering());
+    }
+
+    @Test
+    public void dropsTheFiltersForAll() {
+        update(EventInterest.of("CHANNEL_ANSWER").where("Unique-ID", "u1"));
+        assertCommands(update(EventInterest.ALL),
+                "event plain ALL",
+                "filter delete Unique-ID u1");
+        assertFalse(subscription.filtering());
+    }
+
+    private List<String> update(EventInterest... interests) {
+        return subscription.update("plain", Arrays.asList(interests), false);
+    }
+
+    private static void assertCommands(List<String> commands, String... expected) {
+        List<String> trimmed = new ArrayList<String>();
+        for (String command : commands) {
+            trimmed.add(command.trim());
+        }
+        assertEquals(Arrays.asList(expected), trimmed);
+    }
+}
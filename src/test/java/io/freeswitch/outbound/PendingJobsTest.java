@@ -0,0 +1,160 @@
+/*
+ * Copyright 2015.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.freeswitch.outbound;
+
+import io.freeswitch.FakeFreeSwitch;
+import io.freeswitch.codec.FreeSwitchFrameDecoder;
+import io.freeswitch.event.BackgroundJob;
+import io.freeswitch.event.EslEvent;
+import io.freeswitch.event.EventHeaders;
+import io.freeswitch.event.HeaderProjection;
+import io.freeswitch.message.FreeSwitchMessage;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.handler.codec.embedder.DecoderEmbedder;
+import org.jboss.netty.util.HashedWheelTimer;
+import org.jboss.netty.util.Timer;
+import org.junit.After;
+import org.junit.Test;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * {@link PendingJobs} on its own, and behind
+ * {@link FreeSwitchClient#bgApiAsync(String, String)}.
+ *
+ * @author Arsene Tochemey GANDOTE
+ */
+public class PendingJobsTest {
+
+    private final Timer timer = new HashedWheelTimer(10, TimeUnit.MILLISECONDS);
+
+    @After
+    public void stopTimer() {
+        timer.stop();
+    }
+
+    @Test
+    public void completesTheJobCarryingTheEventJobUuid() throws Exception {
+        PendingJobs jobs = new PendingJobs(10, timer);
+        UUID first = UUID.randomUUID();
+        UUID second = UUID.randomUUID();
+        CompletableFuture<BackgroundJob> firstJob = jobs.register(first, 0, TimeUnit.SECONDS);
+        CompletableFuture<BackgroundJob> secondJob = jobs.register(second, 0, TimeUnit.SECONDS);
+
+        assertTrue(jobs.complete(jobEvent(second, "+OK second")));
+        assertFalse(firstJob.isDone());
+        assertEquals(second, secondJob.get().jobId());
+        assertEquals(Collections.singletonList("+OK second"), secondJob.get().result());
+        assertFalse(jobs.complete(jobEvent(UUID.randomUUID(), "+OK unknown")));
+        assertEquals(1, jobs.size());
+    }
+
+    @Test
+    public void givesUpAJobAfterItsTimeout() throws Exception {
+        PendingJobs jobs = new PendingJobs(10, timer);
+        UUID jobId = UUID.randomUUID();
+        CompletableFuture<BackgroundJob> job = jobs.register(jobId, 50, TimeUnit.MILLISECONDS);
+        try {
+            job.get(5, TimeUnit.SECONDS);
+            fail("job completed without its event");
+        } catch (ExecutionException e) {
+            assertTrue(String.valueOf(e.getCause()), e.getCause() instanceof TimeoutException);
+        }
+        assertEquals(0, jobs.size());
+        // a late event finds nothing to complete
+        assertFalse(jobs.complete(jobEvent(jobId, "+OK late")));
+    }
+
+    @Test
+    public void rejectsJobsPastTheBound() throws Exception {
+        PendingJobs jobs = new PendingJobs(2, timer);
+        jobs.register(UUID.randomUUID(), 0, TimeUnit.SECONDS);
+        jobs.register(UUID.randomUUID(), 0, TimeUnit.SECONDS);
+        CompletableFuture<BackgroundJob> rejected = jobs.register(UUID.randomUUID(), 0, TimeUnit.SECONDS);
+        try {
+            rejected.get();
+            fail("job accepted past the bound");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof RejectedExecutionException);
+        }
+        assertEquals(2, jobs.size());
+
+        jobs.failAll(new IllegalStateException("closed"));
+        assertEquals(0, jobs.size());
+    }
+
+    @Test
+    public void bgApiAsyncSendsItsJobUuidAndGetsItsResult() throws Exception {
+        FakeFreeSwitch freeSwitch = new FakeFreeSwitch();
+        try {
+            FreeSwitchClient client = new FreeSwitchClient();
+            // Job-UUID is kept whatever the projection
+            client.setHeaderProjection(HeaderProjection.of(EventHeaders.EVENT_NAME));
+            client.connect("127.0.0.1", freeSwitch.port(), "ClueCon", 5);
+            List<CompletableFuture<BackgroundJob>> jobs = new ArrayList<CompletableFuture<BackgroundJob>>();
+            for (int i = 0; i < 100; i++) {
+                jobs.add(client.bgApiAsync("originate", "user/" + i));
+            }
+            for (int i = 0; i < 100; i++) {
+                BackgroundJob job = jobs.get(i).get(5, TimeUnit.SECONDS);
+                assertEquals(Collections.singletonList("+OK originate user/" + i), job.result());
+            }
+            assertEquals(0, client.pendingJobs());
+
+            List<String> commands = freeSwitch.connection(0).commands();
+            // subscribed once, ahead of the first bgapi
+            assertEquals("event plain BACKGROUND_JOB", commands.get(1));
+            assertTrue(commands.get(2), commands.get(2).startsWith("bgapi originate user/0\nJob-UUID: "));
+            assertEquals(jobs.get(0).get().jobId().toString(),
+                    commands.get(2).substring(commands.get(2).indexOf("Job-UUID: ") + 10));
+
+            freeSwitch.setRunJobs(false);
+            try {
+                client.bgApiAsync("status", null, 50, TimeUnit.MILLISECONDS).get(5, TimeUnit.SECONDS);
+                fail("job completed without its event");
+            } catch (ExecutionException e) {
+                assertTrue(String.valueOf(e.getCause()), e.getCause() instanceof TimeoutException);
+            }
+            assertEquals(0, client.pendingJobs());
+        } finally {
+            freeSwitch.close();
+        }
+    }
+
+    private static EslEvent jobEvent(UUID jobId, String result) {
+        String body = result + "\n";
+        String message = FakeFreeSwitch.plainEvent("Event-Name: BACKGROUND_JOB\nJob-UUID: " + jobId
+                + "\nJob-Command: originate\nContent-Length: " + body.length() + "\n\n" + body);
+        DecoderEmbedder<FreeSwitchMessage> decoder = new DecoderEmbedder<FreeSwitchMessage>(
+                new FreeSwitchFrameDecoder(8192));
+        decoder.offer(ChannelBuffers.copiedBuffer(message, Charset.forName("UTF-8")));
+        return new EslEvent(decoder.poll());
+    }
+}
@@ -0,0 +1,193 @@
+/*
+ * Copyright 2015.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.freeswitch.outbound;
+
+import io.freeswitch.IProtocolListener;
+import io.freeswitch.codec.FreeSwitchMessageHeaders.HeaderName;
+import io.freeswitch.event.EslEvent;
+import io.freeswitch.message.CommandReply;
+import io.freeswitch.message.FreeSwitchMessage;
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.channel.ChannelStateEvent;
+import org.jboss.netty.channel.Channels;
+import org.jboss.netty.channel.MessageEvent;
+import org.jboss.netty.channel.SimpleChannelHandler;
+import org.jboss.netty.channel.local.DefaultLocalClientChannelFactory;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * @author Arsene Tochemey GANDOTE
+ */
+public class ReadBackpressureTest {
+
+    /*
+     * Readable state requested from the channel, in order.
+     */
+    private final List<Boolean> readable = new CopyOnWriteArrayList<Boolean>();
+    private Channel channel;
+    private FreeSwitchClientHandler handler;
+
+    @Before
+    public void setUp() {
+        channel = new DefaultLocalClientChannelFactory().newChannel(Channels.pipeline(
+                new SimpleChannelHandler() {
+                    @Override
+                    public void writeRequested(ChannelHandlerContext ctx, MessageEvent e) {
+                        e.getFuture().setSuccess();
+                    }
+
+                    @Override
+                    public void setInterestOpsRequested(ChannelHandlerContext ctx, ChannelStateEvent e) {
+                        readable.add(((Integer) e.getValue() & Channel.OP_READ) != 0);
+                        e.getFuture().setSuccess();
+                    }
+                }));
+        handler = new DefaultFreeSwitchClientHandler("ClueCon", new IProtocolListener() {
+            public void authResponseReceived(CommandReply response) {
+            }
+
+            public void eventReceived(EslEvent event) {
+            }
+
+            public void disconnected() {
+            }
+        });
+    }
+
+    @Test
+    public void neverPausesByDefault() {
+        ReadBackpressure backpressure = attached(new ReadBackpressure(0, 0));
+        backpressure.queued(1000000);
+        assertFalse(backpressure.stats().paused());
+        assertTrue(readable.isEmpty());
+        assertEquals(0, new FreeSwitchClient().dispatchStats().highWatermark());
+    }
+
+    @Test
+    public void pausesAtTheHighWatermarkAndResumesAtTheLowOne() {
+        ReadBackpressure backpressure = attached(new ReadBackpressure(2, 4));
+        backpressure.queued(3);
+        assertFalse(backpressure.stats().paused());
+        backpressure.queued(1);
+        assertTrue(backpressure.stats().paused());
+        backpressure.delivered(1);
+        assertTrue(backpressure.stats().paused());
+        backpressure.delivered(1);
+        assertFalse(backpressure.stats().paused());
+
+        assertEquals(2, readable.size());
+        assertFalse(readable.get(0));
+        assertTrue(readable.get(1));
+        assertEquals(1, backpressure.stats().pauses());
+    }
+
+    @Test
+    public void doesNotPauseWhileACommandWaitsForItsReply() {
+        ReadBackpressure backpressure = attached(new ReadBackpressure(2, 4));
+        CompletableFuture<FreeSwitchMessage> reply = handler.sendCommand(channel, "api status");
+        backpressure.queued(10);
+        assertFalse(backpressure.stats().paused());
+
+        handler.handleEslMessage(null, reply("+OK"));
+        assertTrue(reply.isDone());
+        backpressure.queued(1);
+        assertTrue(backpressure.stats().paused());
+    }
+
+    @Test
+    public void resumesWhenACommandIsSent() {
+        ReadBackpressure backpressure = attached(new ReadBackpressure(2, 4));
+        backpressure.queued(4);
+        assertTrue(backpressure.stats().paused());
+
+        handler.sendCommand(channel, "api status");
+        assertFalse(backpressure.stats().paused());
+        assertEquals(Boolean.TRUE, readable.get(readable.size() - 1));
+    }
+
+    @Test
+    public void pausesDespiteExpiredCommands() throws Exception {
+        ReadBackpressure backpressure = attached(new ReadBackpressure(2, 4));
+        CompletableFuture<FreeSwitchMessage> reply = handler.sendCommand(channel, "api slow", 20,
+                TimeUnit.MILLISECONDS);
+        try {
+            reply.get(5, TimeUnit.SECONDS);
+            fail("no timeout");
+        } catch (ExecutionException e) {
+            // expired, its reply may never come
+        }
+        assertEquals(0, handler.awaitedCommands());
+        backpressure.queued(4);
+        assertTrue(backpressure.stats().paused());
+    }
+
+    @Test
+    public void boundsTheWatermarksToTheDispatcherCapacity() {
+        ReadBackpressure backpressure = attached(new ReadBackpressure(0, 0));
+        backpressure.setCapacity(64);
+        assertEquals(32, backpressure.stats().highWatermark());
+        assertEquals(0, backpressure.stats().lowWatermark());
+        backpressure.setWatermarks(5000, 10000);
+        assertEquals(32, backpressure.stats().highWatermark());
+        assertEquals(16, backpressure.stats().lowWatermark());
+        backpressure.setWatermarks(4, 8);
+        assertEquals(8, backpressure.stats().highWatermark());
+        assertEquals(4, backpressure.stats().lowWatermark());
+        backpressure.setCapacity(0);
+        backpressure.setWatermarks(5000, 10000);
+        assertEquals(10000, backpressure.stats().highWatermark());
+    }
+
+    @Test
+    public void holdsReadingUntilReleased() {
+        ReadBackpressure backpressure = attached(new ReadBackpressure(0, 0));
+        backpressure.hold();
+        assertTrue(backpressure.stats().paused());
+        backpressure.release();
+        assertFalse(backpressure.stats().paused());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsALowWatermarkAboveTheHighOne() {
+        new ReadBackpressure(10, 5);
+    }
+
+    private ReadBackpressure attached(ReadBackpressure backpressure) {
+        handler.setReadBackpressure(backpressure);
+        backpressure.attach(channel, handler);
+        return backpressure;
+    }
+
+    private static FreeSwitchMessage reply(String replyText) {
+        FreeSwitchMessage reply = new FreeSwitchMessage();
+        reply.addHeader(HeaderName.CONTENT_TYPE, "command/reply");
+        reply.addHeader(HeaderName.REPLY_TEXT, replyText);
+        return reply;
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright 2015.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.freeswitch.outbound;
+
+import io.freeswitch.FakeFreeSwitch;
+import io.freeswitch.event.EslEvent;
+import io.freeswitch.event.IEventsListener;
+import io.freeswitch.event.RingBufferEventDispatcher;
+import io.freeswitch.message.FreeSwitchMessage;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * A {@link FreeSwitchClient} delivering its events through a
+ * {@link RingBufferEventDispatcher}.
+ *
+ * @author Arsene Tochemey GANDOTE
+ */
+public class RingBufferDispatchTest {
+
+    private FakeFreeSwitch freeSwitch;
+    private FreeSwitchClient client;
+    private RingBufferEventDispatcher ring;
+
+    @Before
+    public void connect() throws Exception {
+        freeSwitch = new FakeFreeSwitch();
+        client = new FreeSwitchClient();
+        ring = new RingBufferEventDispatcher(64, 16, RingBufferEventDispatcher.WaitStrategy.PARK);
+        client.setEventDispatcher(ring);
+        client.connect("127.0.0.1", freeSwitch.port(), "ClueCon", 5);
+    }
+
+    @After
+    public void close() throws Exception {
+        ring.shutdown();
+        freeSwitch.close();
+    }
+
+    @Test
+    public void pausesReadingBeforeTheRingFills() throws Exception {
+        assertEquals(32, client.dispatchStats().highWatermark());
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch delivered = new CountDownLatch(500);
+        client.addEventListener(new Listener() {
+            public void eventReceived(EslEvent event) {
+                try {
+                    release.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                delivered.countDown();
+            }
+        });
+        FakeFreeSwitch.Connection connection = freeSwitch.connection(0);
+        for (int i = 0; i < 500; i++) {
+            connection.sendEvent("Event-Name: CUSTOM\nEvent-Sequence: " + i + "\n\n");
+        }
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!client.dispatchStats().paused() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertTrue(client.dispatchStats().paused());
+        assertTrue(ring.backlog() <= ring.capacity());
+
+        release.countDown();
+        assertTrue(delivered.await(10, TimeUnit.SECONDS));
+        assertFalse(client.dispatchStats().paused());
+        assertTrue(client.dispatchStats().pauses() >= 1);
+    }
+
+    @Test
+    public void refusesBlockingCommandsFromTheListeners() throws Exception {
+        final List<Object> outcomes = new CopyOnWriteArrayList<Object>();
+        final CountDownLatch done = new CountDownLatch(1);
+        client.addEventListener(new Listener() {
+            public void eventReceived(EslEvent event) {
+                try {
+                    outcomes.add(client.api("status", null));
+                } catch (IllegalStateException e) {
+                    outcomes.add(e);
+                }
+                outcomes.add(client.apiAsync("echo", "ring"));
+                done.countDown();
+            }
+        });
+        freeSwitch.connection(0).sendEvent("Event-Name: CUSTOM\n\n");
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertTrue(String.valueOf(outcomes.get(0)), outcomes.get(0) instanceof IllegalStateException);
+        @SuppressWarnings("unchecked")
+        CompletableFuture<FreeSwitchMessage> reply = (CompletableFuture<FreeSwitchMessage>) outcomes.get(1);
+        assertEquals(Collections.singletonList("+OK echo ring"), reply.get(5, TimeUnit.SECONDS).bodyLines());
+    }
+
+    private abstract static class Listener implements IEventsListener {
+
+        public void backgroundJobEventReceived(EslEvent event) {
+        }
+    }
+}